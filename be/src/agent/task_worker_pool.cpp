@@ -66,7 +66,9 @@ TaskWorkerPool::TaskWorkerPool(
         const TMasterInfo& master_info) :
         _master_info(master_info),
         _worker_thread_condition_lock(_worker_thread_lock),
-        _task_worker_type(task_worker_type) {
+        _task_worker_type(task_worker_type),
+        _applied_tablet_report_version(-1),
+        _last_full_tablet_report_time(0) {
     _agent_utils = new AgentUtils();
     _master_client = new MasterServerClient(_master_info, &_master_service_client_cache);
     _command_executor = new CommandExecutor();
@@ -1532,8 +1534,9 @@ void* TaskWorkerPool::_report_olap_table_worker_thread_callback(void* arg_this)
         request.tablets.clear();
 
         request.__set_report_version(_s_report_version);
+        map<TTabletId, TTablet> all_tablets;
         OLAPStatus report_all_tablets_info_status =
-                worker_pool_this->_command_executor->report_all_tablets_info(&request.tablets);
+                worker_pool_this->_command_executor->report_all_tablets_info(&all_tablets);
         if (report_all_tablets_info_status != OLAP_SUCCESS) {
             OLAP_LOG_WARNING("report get all tablets info failed. status: %d",
                              report_all_tablets_info_status);
@@ -1545,15 +1548,23 @@ void* TaskWorkerPool::_report_olap_table_worker_thread_callback(void* arg_this)
 #endif
         }
 
+        worker_pool_this->_fill_tablet_report(all_tablets, &request);
+
         TMasterResult result;
         status = worker_pool_this->_master_client->report(request, &result);
 
+        bool applied = false;
         if (status == PALO_SUCCESS) {
-            OLAP_LOG_INFO("finish report olap table success. return code: %d",
-                          result.status.status_code);
+            OLAP_LOG_INFO("finish report olap table success. return code: %d, tablets: %lu, "
+                          "incremental: %d",
+                          result.status.status_code, request.tablets.size(),
+                          request.incremental_tablets);
+            applied = result.status.status_code == TStatusCode::OK
+                    && result.__isset.tablets_applied && result.tablets_applied;
         } else {
             OLAP_LOG_WARNING("finish report olap table failed. status: %d", status);
         }
+        worker_pool_this->_finish_tablet_report(request, applied, &all_tablets);
 
 #ifndef BE_TEST
         sleep(config::report_olap_table_interval_seconds);
@@ -1563,6 +1574,48 @@ void* TaskWorkerPool::_report_olap_table_worker_thread_callback(void* arg_this)
     return (void*)0;
 }
 
+void TaskWorkerPool::_fill_tablet_report(
+        const map<TTabletId, TTablet>& all_tablets,
+        TReportRequest* request) {
+    bool is_full = _applied_tablet_report_version < 0
+            || config::full_report_olap_table_interval_seconds <= 0
+            || time(NULL) - _last_full_tablet_report_time
+                    >= config::full_report_olap_table_interval_seconds;
+    request->tablets.clear();
+    request->__set_incremental_tablets(!is_full);
+    if (is_full) {
+        request->__isset.base_report_version = false;
+        request->tablets = all_tablets;
+        return;
+    }
+
+    // dropped tablets are not in incremental report, they are found by the next full report
+    request->__set_base_report_version(_applied_tablet_report_version);
+    for (auto& tablet : all_tablets) {
+        auto last = _last_reported_tablets.find(tablet.first);
+        if (last == _last_reported_tablets.end() || !(last->second == tablet.second)) {
+            request->tablets[tablet.first] = tablet.second;
+        }
+    }
+}
+
+void TaskWorkerPool::_finish_tablet_report(
+        const TReportRequest& request,
+        bool applied,
+        map<TTabletId, TTablet>* all_tablets) {
+    if (!applied) {
+        // master may lose the baseline, e.g. master is changed, so report all tablets next time
+        _applied_tablet_report_version = -1;
+        _last_reported_tablets.clear();
+        return;
+    }
+    _applied_tablet_report_version = request.report_version;
+    _last_reported_tablets.swap(*all_tablets);
+    if (!request.incremental_tablets) {
+        _last_full_tablet_report_time = time(NULL);
+    }
+}
+
 void* TaskWorkerPool::_upload_worker_thread_callback(void* arg_this) {
     TaskWorkerPool* worker_pool_this = (TaskWorkerPool*)arg_this;
 
@@ -130,6 +130,18 @@ private:
             int64_t signature,
             TTabletInfo* tablet_info);
 
+    // Fill tablets of request with all tablets or tablets changed since the last applied report
+    void _fill_tablet_report(
+            const std::map<TTabletId, TTablet>& all_tablets,
+            TReportRequest* request);
+
+    // Take all_tablets as baseline of the next incremental report if master applied the report,
+    // otherwise the next report is a full one
+    void _finish_tablet_report(
+            const TReportRequest& request,
+            bool applied,
+            std::map<TTabletId, TTablet>* all_tablets);
+
     const TMasterInfo& _master_info;
     TBackend _backend;
     AgentUtils* _agent_utils;
@@ -147,6 +159,12 @@ private:
     uint32_t _worker_count;
     TaskWorkerType _task_worker_type;
     CALLBACK_FUNCTION _callback_function;
+    // Following are only used by report olap table worker.
+    // tablets of the last report applied by master
+    std::map<TTabletId, TTablet> _last_reported_tablets;
+    // report version of the last report applied by master, -1 if there is none
+    int64_t _applied_tablet_report_version;
+    time_t _last_full_tablet_report_time;
     static std::atomic_ulong _s_report_version;
     static std::map<TTaskType::type, std::set<int64_t>> _s_task_signatures;
     static std::map<TTaskType::type, std::map<std::string, uint32_t>> _s_running_task_user_count;
@@ -83,6 +83,10 @@ namespace config {
     CONF_Int32(report_disk_state_interval_seconds, "600");
     // the interval time(seconds) for agent report olap table to dm
     CONF_Int32(report_olap_table_interval_seconds, "600");
+    // the interval time(seconds) for agent report all tablets to dm, reports between
+    // full reports only contain tablets changed since the last report applied by dm.
+    // set to 0 to always report all tablets.
+    CONF_Int32(full_report_olap_table_interval_seconds, "3600");
     // the timeout(seconds) for alter table
     CONF_Int32(alter_table_timeout_seconds, "86400");
     // the timeout(seconds) for make snapshot
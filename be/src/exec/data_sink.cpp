@@ -53,9 +53,13 @@ Status DataSink::create_data_sink(
         }
 
         // TODO: figure out good buffer size based on size of output row
-        tmp_sink = new DataStreamSender(
+        DataStreamSender* sender = new DataStreamSender(
                 pool, params.sender_id, row_desc,
                 thrift_sink.stream_sink, params.destinations, 16 * 1024);
+        if (params.__isset.bucket_seq_to_destination) {
+            sender->set_bucket_seq_to_channel(params.bucket_seq_to_destination);
+        }
+        tmp_sink = sender;
         // RETURN_IF_ERROR(sender->prepare(state->obj_pool(), thrift_sink.stream_sink));
         sink->reset(tmp_sink);
         break;
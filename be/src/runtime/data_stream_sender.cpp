@@ -381,6 +381,7 @@ DataStreamSender::DataStreamSender(
         _part_type(sink.output_partition.type),
         _ignore_not_found(sink.__isset.ignore_not_found ? sink.ignore_not_found : true),
         _current_thrift_batch(&_thrift_batch1),
+        _bucket_num(sink.output_partition.__isset.bucket_num ? sink.output_partition.bucket_num : 0),
         _profile(NULL),
         _serialize_batch_timer(NULL),
         _thrift_transmit_timer(NULL),
@@ -390,7 +391,8 @@ DataStreamSender::DataStreamSender(
     DCHECK(sink.output_partition.type == TPartitionType::UNPARTITIONED
             || sink.output_partition.type == TPartitionType::HASH_PARTITIONED
             || sink.output_partition.type == TPartitionType::RANDOM
-            || sink.output_partition.type == TPartitionType::RANGE_PARTITIONED);
+            || sink.output_partition.type == TPartitionType::RANGE_PARTITIONED
+            || sink.output_partition.type == TPartitionType::BUCKET_SHUFFLE_HASH_PARTITIONED);
     // TODO: use something like google3's linked_ptr here (scoped_ptr isn't copyable)
     for (int i = 0; i < destinations.size(); ++i) {
         _channels.push_back(
@@ -409,7 +411,8 @@ static bool compare_part_use_range(const PartitionInfo* v1, const PartitionInfo*
 Status DataStreamSender::init(const TDataSink& tsink) {
     RETURN_IF_ERROR(DataSink::init(tsink));
     const TDataStreamSink& t_stream_sink = tsink.stream_sink;
-    if (_part_type == TPartitionType::HASH_PARTITIONED) {
+    if (_part_type == TPartitionType::HASH_PARTITIONED
+            || _part_type == TPartitionType::BUCKET_SHUFFLE_HASH_PARTITIONED) {
         RETURN_IF_ERROR(Expr::create_expr_trees(
                 _pool, t_stream_sink.output_partition.partition_exprs, &_partition_expr_ctxs));
     } else if (_part_type == TPartitionType::RANGE_PARTITIONED) {
@@ -454,6 +457,20 @@ Status DataStreamSender::prepare(RuntimeState* state) {
     } else if (_part_type == TPartitionType::HASH_PARTITIONED) {
         RETURN_IF_ERROR(Expr::prepare(
                 _partition_expr_ctxs, state, _row_desc, _expr_mem_tracker.get()));
+    } else if (_part_type == TPartitionType::BUCKET_SHUFFLE_HASH_PARTITIONED) {
+        if (_bucket_num <= 0 || _bucket_seq_to_channel.size() != static_cast<size_t>(_bucket_num)) {
+            std::stringstream ss;
+            ss << "invalid bucket shuffle destinations, bucket num: " << _bucket_num
+                << ", destinations of buckets: " << _bucket_seq_to_channel.size();
+            return Status(ss.str());
+        }
+        for (auto idx : _bucket_seq_to_channel) {
+            if (idx < 0 || static_cast<size_t>(idx) >= _channels.size()) {
+                return Status("invalid destination of bucket shuffle");
+            }
+        }
+        RETURN_IF_ERROR(Expr::prepare(
+                _partition_expr_ctxs, state, _row_desc, _expr_mem_tracker.get()));
     } else {
         RETURN_IF_ERROR(Expr::prepare(
                 _partition_expr_ctxs, state, _row_desc, _expr_mem_tracker.get()));
@@ -546,6 +563,13 @@ Status DataStreamSender::send(RuntimeState* state, RowBatch* batch) {
             }
             RETURN_IF_ERROR(_channels[hash_val % num_channels]->add_row(row));
         }
+    } else if (_part_type == TPartitionType::BUCKET_SHUFFLE_HASH_PARTITIONED) {
+        // send rows to the instance scanning their bucket
+        for (int i = 0; i < batch->num_rows(); ++i) {
+            TupleRow* row = batch->get_row(i);
+            uint32_t hash_val = compute_distribute_hash(row, _partition_expr_ctxs);
+            RETURN_IF_ERROR(_channels[_bucket_seq_to_channel[hash_val % _bucket_num]]->add_row(row));
+        }
     } else {
         // Range partition
         int num_channels = _channels.size();
@@ -629,11 +653,10 @@ Status DataStreamSender::find_partition(
     return Status::OK;
 }
 
-Status DataStreamSender::process_distribute(
-        RuntimeState* state, TupleRow* row,
-        const PartitionInfo* part, size_t* code) {
+uint32_t DataStreamSender::compute_distribute_hash(
+        TupleRow* row, const std::vector<ExprContext*>& expr_ctxs) {
     uint32_t hash_val = 0;
-    for (auto& ctx: part->distributed_expr_ctxs()) {
+    for (auto& ctx: expr_ctxs) {
         void* partition_val = ctx->get_value(row);
         if (partition_val != NULL) {
             hash_val = RawValue::zlib_crc32(partition_val, ctx->root()->type(), hash_val);
@@ -644,6 +667,13 @@ Status DataStreamSender::process_distribute(
             hash_val = RawValue::zlib_crc32(&INT_VALUE, INT_TYPE, hash_val);
         }
     }
+    return hash_val;
+}
+
+Status DataStreamSender::process_distribute(
+        RuntimeState* state, TupleRow* row,
+        const PartitionInfo* part, size_t* code) {
+    uint32_t hash_val = compute_distribute_hash(row, part->distributed_expr_ctxs());
     hash_val %= part->distributed_bucket();
 
     int64_t part_id = part->id();
@@ -63,7 +63,8 @@ public:
     // Per_channel_buffer_size is the buffer size allocated to each channel
     // and is specified in bytes.
     // The RowDescriptor must live until close() is called.
-    // NOTE: supported partition types are UNPARTITIONED (broadcast) and HASH_PARTITIONED
+    // NOTE: supported partition types are UNPARTITIONED (broadcast), RANDOM, HASH_PARTITIONED,
+    // RANGE_PARTITIONED and BUCKET_SHUFFLE_HASH_PARTITIONED
     DataStreamSender(ObjectPool* pool, int sender_id,
                      const RowDescriptor& row_desc, const TDataStreamSink& sink,
                      const std::vector<TPlanFragmentDestination>& destinations,
@@ -104,6 +105,15 @@ public:
         return _profile;
     }
 
+    // For BUCKET_SHUFFLE_HASH_PARTITIONED, index of destination of each bucket
+    void set_bucket_seq_to_channel(const std::vector<int32_t>& bucket_seq_to_channel) {
+        _bucket_seq_to_channel = bucket_seq_to_channel;
+    }
+
+    // Hash of distribution columns of a row, the same as loading
+    static uint32_t compute_distribute_hash(
+        TupleRow* row, const std::vector<ExprContext*>& expr_ctxs);
+
 private:
     class Channel;
 
@@ -151,6 +161,10 @@ private:
     // sorted in ascending orderi by range for binary search
     std::vector<PartitionInfo*> _partition_infos;
 
+    // for BUCKET_SHUFFLE_HASH_PARTITIONED
+    int _bucket_num;
+    std::vector<int32_t> _bucket_seq_to_channel;
+
     RuntimeProfile* _profile; // Allocated from _pool
     RuntimeProfile::Counter* _serialize_batch_timer;
     RuntimeProfile::Counter* _thrift_transmit_timer;
@@ -30,7 +30,9 @@
 #include "util/logging.h"
 
 using ::testing::_;
+using ::testing::DoAll;
 using ::testing::Return;
+using ::testing::SaveArg;
 using ::testing::SetArgPointee;
 using std::string;
 using std::deque;
@@ -1396,6 +1398,94 @@ TEST(TaskWorkerPoolTest, TestReportOlapTable) {
     task_worker_pool._master_client = original_master_server_client;
 }
 
+TEST(TaskWorkerPoolTest, TestIncrementalReportOlapTable) {
+    TMasterInfo master_info;
+    TaskWorkerPool task_worker_pool(
+            TaskWorkerPool::TaskWorkerType::REPORT_OLAP_TABLE,
+            master_info);
+
+    MockCommandExecutor mock_command_executor;
+    CommandExecutor* original_command_executor;
+    original_command_executor = task_worker_pool._command_executor;
+    task_worker_pool._command_executor = &mock_command_executor;
+    FrontendServiceClientCache* client_cache = new FrontendServiceClientCache();
+    MockMasterServerClient mock_master_server_client(master_info, client_cache);
+    MasterServerClient* original_master_server_client;
+    original_master_server_client = task_worker_pool._master_client;
+    task_worker_pool._master_client = &mock_master_server_client;
+
+    std::map<TTabletId, TTablet> tablets;
+    for (TTabletId tablet_id = 1; tablet_id <= 2; ++tablet_id) {
+        TTabletInfo tablet_info;
+        tablet_info.__set_tablet_id(tablet_id);
+        tablet_info.__set_version(2);
+        tablets[tablet_id].tablet_infos.push_back(tablet_info);
+    }
+    TMasterResult applied_result;
+    applied_result.status.__set_status_code(TStatusCode::OK);
+    applied_result.__set_tablets_applied(true);
+    TMasterResult not_applied_result;
+    not_applied_result.status.__set_status_code(TStatusCode::OK);
+    not_applied_result.__set_tablets_applied(false);
+    TReportRequest request;
+
+    // First report is full
+    EXPECT_CALL(mock_command_executor, report_all_tablets_info(_))
+            .Times(1)
+            .WillOnce(DoAll(SetArgPointee<0>(tablets), Return(OLAPStatus::OLAP_SUCCESS)));
+    EXPECT_CALL(mock_master_server_client, report(_, _))
+            .Times(1)
+            .WillOnce(DoAll(SaveArg<0>(&request), SetArgPointee<1>(applied_result),
+                            Return(PALO_SUCCESS)));
+    task_worker_pool._report_olap_table_worker_thread_callback(&task_worker_pool);
+    EXPECT_FALSE(request.incremental_tablets);
+    EXPECT_EQ(2, request.tablets.size());
+    int64_t applied_report_version = request.report_version;
+
+    // Master applied the full report, only the changed tablet is reported
+    tablets[2].tablet_infos[0].__set_version(3);
+    EXPECT_CALL(mock_command_executor, report_all_tablets_info(_))
+            .Times(1)
+            .WillOnce(DoAll(SetArgPointee<0>(tablets), Return(OLAPStatus::OLAP_SUCCESS)));
+    EXPECT_CALL(mock_master_server_client, report(_, _))
+            .Times(1)
+            .WillOnce(DoAll(SaveArg<0>(&request), SetArgPointee<1>(not_applied_result),
+                            Return(PALO_SUCCESS)));
+    task_worker_pool._report_olap_table_worker_thread_callback(&task_worker_pool);
+    EXPECT_TRUE(request.incremental_tablets);
+    EXPECT_EQ(applied_report_version, request.base_report_version);
+    EXPECT_EQ(1, request.tablets.size());
+    EXPECT_EQ(1, request.tablets.count(2));
+
+    // Master did not apply the incremental report, e.g. master is changed, so all tablets are reported
+    EXPECT_CALL(mock_command_executor, report_all_tablets_info(_))
+            .Times(1)
+            .WillOnce(DoAll(SetArgPointee<0>(tablets), Return(OLAPStatus::OLAP_SUCCESS)));
+    EXPECT_CALL(mock_master_server_client, report(_, _))
+            .Times(1)
+            .WillOnce(DoAll(SaveArg<0>(&request), SetArgPointee<1>(applied_result),
+                            Return(PALO_SUCCESS)));
+    task_worker_pool._report_olap_table_worker_thread_callback(&task_worker_pool);
+    EXPECT_FALSE(request.incremental_tablets);
+    EXPECT_FALSE(request.__isset.base_report_version);
+    EXPECT_EQ(2, request.tablets.size());
+
+    // Nothing changed since the applied full report
+    EXPECT_CALL(mock_command_executor, report_all_tablets_info(_))
+            .Times(1)
+            .WillOnce(DoAll(SetArgPointee<0>(tablets), Return(OLAPStatus::OLAP_SUCCESS)));
+    EXPECT_CALL(mock_master_server_client, report(_, _))
+            .Times(1)
+            .WillOnce(DoAll(SaveArg<0>(&request), SetArgPointee<1>(applied_result),
+                            Return(PALO_SUCCESS)));
+    task_worker_pool._report_olap_table_worker_thread_callback(&task_worker_pool);
+    EXPECT_TRUE(request.incremental_tablets);
+    EXPECT_EQ(0, request.tablets.size());
+
+    task_worker_pool._command_executor = original_command_executor;
+    task_worker_pool._master_client = original_master_server_client;
+}
+
 TEST(TaskWorkerPoolTest, TestUpload) {
     TMasterInfo master_info;
     TaskWorkerPool task_worker_pool(
@@ -167,6 +167,14 @@ protected:
         _hash_sink.output_partition.__isset.partition_exprs = true;
         _hash_sink.output_partition.partition_exprs.push_back(expr);
 
+        // rows are sent to the receiver of their bucket of the table distributed by the column
+        _bucket_shuffle_sink.dest_node_id = DEST_NODE_ID;
+        _bucket_shuffle_sink.output_partition.type = TPartitionType::BUCKET_SHUFFLE_HASH_PARTITIONED;
+        _bucket_shuffle_sink.output_partition.__isset.partition_exprs = true;
+        _bucket_shuffle_sink.output_partition.partition_exprs.push_back(expr);
+        _bucket_shuffle_sink.output_partition.__isset.bucket_num = true;
+        _bucket_shuffle_sink.output_partition.bucket_num = BUCKET_NUM;
+
         // Ensure that individual sender info addresses don't change
         _sender_info.reserve(MAX_SENDERS);
         _receiver_info.reserve(MAX_RECEIVERS);
@@ -178,6 +186,7 @@ protected:
             case TPartitionType::UNPARTITIONED: return _broadcast_sink;
             case TPartitionType::RANDOM: return _random_sink;
             case TPartitionType::HASH_PARTITIONED: return _hash_sink;
+            case TPartitionType::BUCKET_SHUFFLE_HASH_PARTITIONED: return _bucket_shuffle_sink;
             default: DCHECK(false) << "Unhandled sink type: " << partition_type;
         }
         // Should never reach this.
@@ -206,6 +215,7 @@ protected:
     static const int PER_ROW_DATA = 8;
     static const int TOTAL_DATA_SIZE = 8 * 1024;
     static const int NUM_BATCHES = TOTAL_DATA_SIZE / BATCH_CAPACITY / PER_ROW_DATA;
+    static const int BUCKET_NUM = 5;
 
     ObjectPool _obj_pool;
     MemTracker _limit;
@@ -233,7 +243,10 @@ protected:
     TDataStreamSink _broadcast_sink;
     TDataStreamSink _random_sink;
     TDataStreamSink _hash_sink;
+    TDataStreamSink _bucket_shuffle_sink;
     vector<TPlanFragmentDestination> _dest;
+    // index of receiver of each bucket, for bucket shuffle
+    vector<int32_t> _bucket_seq_to_channel;
 
     struct SenderInfo {
         thread* thread_handle;
@@ -488,11 +501,17 @@ protected:
                     int64_t value = *j;
                     uint32_t hash_val = RawValue::get_hash_value_fvn(&value, TYPE_BIGINT, 0U);
                     EXPECT_EQ(hash_val % _receiver_info.size(), info.receiver_num);
+                } else if (stream_type == TPartitionType::BUCKET_SHUFFLE_HASH_PARTITIONED) {
+                    // values are sent to the receiver of their bucket, which is the same as loading
+                    int64_t value = *j;
+                    uint32_t hash_val = RawValue::zlib_crc32(&value, TYPE_BIGINT, 0U);
+                    EXPECT_EQ(_bucket_seq_to_channel[hash_val % BUCKET_NUM], info.receiver_num);
                 }
             }
         }
 
-        if (stream_type == TPartitionType::HASH_PARTITIONED) {
+        if (stream_type == TPartitionType::HASH_PARTITIONED
+                || stream_type == TPartitionType::BUCKET_SHUFFLE_HASH_PARTITIONED) {
             EXPECT_EQ(NUM_BATCHES * BATCH_CAPACITY * num_senders, total);
 
             int k = 0;
@@ -558,9 +577,12 @@ protected:
         state.init_mem_trackers(TUniqueId());
         VLOG_QUERY << "create sender " << sender_num;
         const TDataStreamSink& stream_sink =
-                (partition_type == TPartitionType::UNPARTITIONED ? _broadcast_sink : _hash_sink);
+                (partition_type == TPartitionType::UNPARTITIONED ? _broadcast_sink : get_sink(partition_type));
         DataStreamSender sender(
                 &_obj_pool, sender_num, *_row_desc, stream_sink, _dest, channel_buffer_size);
+        if (partition_type == TPartitionType::BUCKET_SHUFFLE_HASH_PARTITIONED) {
+            sender.set_bucket_seq_to_channel(_bucket_seq_to_channel);
+        }
 
         TDataSink data_sink;
         data_sink.__set_type(TDataSinkType::DATA_STREAM_SINK);
@@ -684,6 +706,42 @@ TEST_F(DataStreamTest, BasicTest) {
     }
 }
 
+TEST_F(DataStreamTest, BucketShuffleHash) {
+    // rows are hashed into the tablet bucket they are loaded into, values of bucket of 1..6
+    // in a table of 3 buckets are the same as those distribution pruning of frontend computes
+    std::vector<ExprContext*> ctxs;
+    EXPECT_TRUE(Expr::create_expr_trees(
+            &_obj_pool, _bucket_shuffle_sink.output_partition.partition_exprs, &ctxs).ok());
+    EXPECT_TRUE(Expr::prepare(ctxs, &_runtime_state, *_row_desc, &_tracker).ok());
+    EXPECT_TRUE(Expr::open(ctxs, &_runtime_state).ok());
+
+    scoped_ptr<RowBatch> batch(create_row_batch());
+    int next_val = 0;
+    get_next_batch(batch.get(), &next_val);
+    uint32_t expected_buckets[] = {1, 0, 0, 1, 2, 2};
+    for (int i = 1; i <= 6; ++i) {
+        TupleRow* row = batch->get_row(i);
+        int64_t value = *reinterpret_cast<int64_t*>(row->get_tuple(0)->get_slot(0));
+        EXPECT_EQ(i, value);
+        uint32_t hash_val = DataStreamSender::compute_distribute_hash(row, ctxs);
+        // the same as DataSpliter::process_distribute of loading
+        EXPECT_EQ(RawValue::zlib_crc32(&value, TYPE_BIGINT, 0U), hash_val);
+        EXPECT_EQ(expected_buckets[i - 1], hash_val % 3);
+    }
+    batch->reset();
+    Expr::close(ctxs, &_runtime_state);
+}
+
+TEST_F(DataStreamTest, BucketShuffleTest) {
+    // 3 receivers scan 5 buckets
+    int32_t bucket_seq_to_channel[] = {2, 0, 1, 0, 2};
+    _bucket_seq_to_channel.assign(bucket_seq_to_channel, bucket_seq_to_channel + BUCKET_NUM);
+    int sender_nums[] = {1, 3};
+    for (int i = 0; i < sizeof(sender_nums) / sizeof(int); ++i) {
+        test_stream(TPartitionType::BUCKET_SHUFFLE_HASH_PARTITIONED, sender_nums[i], 3, 1024, false);
+    }
+}
+
 // TODO: more tests:
 // - test case for transmission error in last batch
 // - receivers getting created concurrently
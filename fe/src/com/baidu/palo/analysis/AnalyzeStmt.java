@@ -0,0 +1,112 @@
+// Copyright (c) 2017, Baidu.com, Inc. All Rights Reserved
+
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+
+package com.baidu.palo.analysis;
+
+import com.baidu.palo.catalog.AccessPrivilege;
+import com.baidu.palo.catalog.Column;
+import com.baidu.palo.catalog.Database;
+import com.baidu.palo.catalog.PrimitiveType;
+import com.baidu.palo.catalog.Table;
+import com.baidu.palo.catalog.Table.TableType;
+import com.baidu.palo.common.AnalysisException;
+import com.baidu.palo.common.ErrorCode;
+import com.baidu.palo.common.ErrorReport;
+import com.baidu.palo.common.InternalException;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
+
+import java.util.List;
+
+// ANALYZE TABLE [db.]tbl [(col1, col2, ...)]
+// Collect statistics of the given columns of an olap table, all columns if no column is given.
+public class AnalyzeStmt extends DdlStmt {
+    private TableName dbTblName;
+    // null means all columns
+    private List<String> columnNames;
+
+    public AnalyzeStmt(TableName dbTblName, List<String> columnNames) {
+        this.dbTblName = dbTblName;
+        this.columnNames = columnNames;
+    }
+
+    public String getDbName() {
+        return dbTblName.getDb();
+    }
+
+    public String getTableName() {
+        return dbTblName.getTbl();
+    }
+
+    public List<String> getColumnNames() {
+        return columnNames;
+    }
+
+    @Override
+    public void analyze(Analyzer analyzer) throws AnalysisException, InternalException {
+        dbTblName.analyze(analyzer);
+
+        if (!analyzer.getCatalog().getUserMgr().checkAccess(analyzer.getUser(), dbTblName.getDb(),
+                                                            AccessPrivilege.READ_WRITE)) {
+            ErrorReport.reportAnalysisException(ErrorCode.ERR_DB_ACCESS_DENIED, analyzer.getUser(), dbTblName.getDb());
+        }
+
+        Database db = analyzer.getCatalog().getDb(dbTblName.getDb());
+        if (db == null) {
+            ErrorReport.reportAnalysisException(ErrorCode.ERR_BAD_DB_ERROR, dbTblName.getDb());
+        }
+        db.readLock();
+        try {
+            Table table = db.getTable(dbTblName.getTbl());
+            if (table == null) {
+                ErrorReport.reportAnalysisException(ErrorCode.ERR_BAD_TABLE_ERROR, dbTblName.getTbl());
+            }
+            if (table.getType() != TableType.OLAP) {
+                ErrorReport.reportAnalysisException(ErrorCode.ERR_NOT_OLAP_TABLE, dbTblName.getTbl());
+            }
+            if (columnNames == null) {
+                return;
+            }
+            for (String columnName : columnNames) {
+                Column column = table.getColumn(columnName);
+                if (column == null) {
+                    ErrorReport.reportAnalysisException(ErrorCode.ERR_BAD_FIELD_ERROR, columnName,
+                                                        dbTblName.getTbl());
+                }
+                if (column.getDataType() == PrimitiveType.HLL) {
+                    throw new AnalysisException("Can not analyze HLL column: " + columnName);
+                }
+            }
+        } finally {
+            db.readUnlock();
+        }
+    }
+
+    @Override
+    public String toSql() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("ANALYZE TABLE ");
+        if (!Strings.isNullOrEmpty(getDbName())) {
+            sb.append(getDbName()).append(".");
+        }
+        sb.append(getTableName());
+        if (columnNames != null) {
+            sb.append(" (").append(Joiner.on(", ").join(columnNames)).append(")");
+        }
+        return sb.toString();
+    }
+}
@@ -92,9 +92,11 @@ import com.baidu.palo.common.FeMetaVersion;
 import com.baidu.palo.common.InternalException;
 import com.baidu.palo.common.MarkedCountDownLatch;
 import com.baidu.palo.common.Pair;
+import com.baidu.palo.common.io.DataOutputBuffer;
 import com.baidu.palo.common.io.Text;
 import com.baidu.palo.common.util.Daemon;
 import com.baidu.palo.common.util.KuduUtil;
+import com.baidu.palo.common.util.Metrics;
 import com.baidu.palo.common.util.PrintableMap;
 import com.baidu.palo.common.util.PropertyAnalyzer;
 import com.baidu.palo.common.util.Util;
@@ -104,6 +106,7 @@ import com.baidu.palo.ha.HAProtocol;
 import com.baidu.palo.ha.MasterInfo;
 import com.baidu.palo.journal.JournalCursor;
 import com.baidu.palo.journal.JournalEntity;
+import com.baidu.palo.journal.PrefetchJournalCursor;
 import com.baidu.palo.journal.bdbje.Timestamp;
 import com.baidu.palo.load.DeleteInfo;
 import com.baidu.palo.load.ExportChecker;
@@ -134,6 +137,7 @@ import com.baidu.palo.persist.BackendIdsUpdateInfo;
 import com.baidu.palo.qe.ConnectContext;
 import com.baidu.palo.qe.JournalObservable;
 import com.baidu.palo.qe.SessionVariable;
+import com.baidu.palo.qe.StatisticsCollector;
 import com.baidu.palo.qe.VariableMgr;
 import com.baidu.palo.service.FrontendOptions;
 import com.baidu.palo.system.Backend;
@@ -162,6 +166,8 @@ import com.google.common.collect.Sets;
 import com.sleepycat.je.rep.InsufficientLogException;
 import com.sleepycat.je.rep.NetworkRestore;
 import com.sleepycat.je.rep.NetworkRestoreConfig;
+import io.dropwizard.metrics.Histogram;
+import io.dropwizard.metrics.Meter;
 import org.apache.kudu.ColumnSchema;
 import org.apache.kudu.Schema;
 import org.apache.kudu.client.CreateTableOptions;
@@ -174,6 +180,8 @@ import org.codehaus.jackson.map.JsonMappingException;
 import org.codehaus.jackson.map.ObjectMapper;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
@@ -186,15 +194,24 @@ import java.util.Iterator;
 import java.net.URL;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Adler32;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class Catalog {
@@ -204,6 +221,12 @@ public class Catalog {
     private static final int HTTP_TIMEOUT_SECOND = 5;
     private static final int STATE_CHANGE_CHECK_INTERVAL_MS = 100;
     private static final int REPLAY_INTERVAL_MS = 1;
+    // number of replayed journals, and number of journals behind when replay starts
+    private static final String REPLAY_METRIC_NAME = "journal.replay";
+    private static final String REPLAY_LAG_METRIC_NAME = "journal.replay_lag";
+    // journals are prefetched only when so many journals are to be replayed in one round,
+    // e.g. when FE starts or catches up with master, rather than in every round of a follower
+    private static final long MIN_PREFETCH_JOURNAL_NUM = 100;
     public static final String BDB_DIR = Config.meta_dir + "/bdb";
     public static final String IMAGE_DIR = Config.meta_dir + "/image";
 
@@ -219,11 +242,17 @@ public class Catalog {
     private Map<Long, Cluster> idToCluster;
     private Map<String, Cluster> nameToCluster;
 
+    // partition id -> storage medium, see getCachedPartitionIdToStorageMediumMap()
+    private volatile Map<Long, TStorageMedium> cachedStorageMediumMap = null;
+    private volatile long storageMediumMapUpdateTimeMs = 0;
+    private final Object storageMediumMapLock = new Object();
+
     private Load load;
     private ExportMgr exportMgr;
     private Clone clone;
     private Alter alter;
     private ConsistencyChecker consistencyChecker;
+    private StatisticsCollector statisticsCollector;
     private BackupHandler backupHandler;
 
     private UserPropertyMgr userPropertyMgr;
@@ -324,6 +353,7 @@ public class Catalog {
         this.clone = new Clone();
         this.alter = new Alter();
         this.consistencyChecker = new ConsistencyChecker();
+        this.statisticsCollector = new StatisticsCollector();
         this.backupHandler = new BackupHandler();
         this.lock = new ReentrantReadWriteLock(true);
         this.metaDir = Config.meta_dir;
@@ -719,6 +749,9 @@ public class Catalog {
         // Consistency checker
         getConsistencyChecker().start();
 
+        // Statistics collector
+        getStatisticsCollector().start();
+
         // Backup handler
         getBackupHandler().start();
 
@@ -817,11 +850,9 @@ public class Catalog {
             StorageInfo info = getStorageInfo(infoUrl);
             long version = info.getImageSeq();
             if (version > localImageVersion) {
-                String url = "http://" + helperNode.first + ":" + Config.http_port + "/image?version=" + version;
-                String filename = Storage.IMAGE + "." + version;
                 File dir = new File(IMAGE_DIR);
-                MetaHelper.getRemoteFile(url, HTTP_TIMEOUT_SECOND * 1000, MetaHelper.getOutputStream(filename, dir));
-                MetaHelper.complete(filename, dir);
+                MetaHelper.getRemoteImage(helperNode.first, Config.http_port, version, dir,
+                                          HTTP_TIMEOUT_SECOND * 1000);
             }
         } catch (Exception e) {
             return;
@@ -988,22 +1019,142 @@ public class Catalog {
     }
 
     public long loadDb(DataInputStream dis, long checksum) throws IOException, DdlException {
+        if (Catalog.getCurrentCatalogJournalVersion() >= FeMetaVersion.VERSION_35) {
+            return loadDbChunks(dis, checksum);
+        }
         int dbCount = dis.readInt();
         checksum ^= dbCount;
         for (long i = 0; i < dbCount; ++i) {
             Database db = new Database();
             db.readFields(dis);
             checksum ^= db.getId();
-            idToDb.put(db.getId(), db);
-            nameToDb.put(db.getName(), db);
-            if (db.getDbState() == DbState.LINK) {
-                nameToDb.put(db.getAttachDb(), db);
-            }
+            addLoadedDb(db);
         }
 
         return checksum;
     }
 
+    private void addLoadedDb(Database db) {
+        idToDb.put(db.getId(), db);
+        nameToDb.put(db.getName(), db);
+        if (db.getDbState() == DbState.LINK) {
+            nameToDb.put(db.getAttachDb(), db);
+        }
+    }
+
+    // Each db is saved as a chunk: db id, length, checksum of data and data.
+    // Chunks are deserialized by *image_thread_num* threads, except in checkpoint thread, because
+    // checkpoint catalog is found by thread. Dbs are added to catalog in the order they are saved.
+    private long loadDbChunks(DataInputStream dis, long checksum) throws IOException {
+        int dbCount = dis.readInt();
+        checksum ^= dbCount;
+        ExecutorService executor = null;
+        if (Config.image_thread_num > 1 && !isCheckpointThread()) {
+            executor = Executors.newFixedThreadPool(Config.image_thread_num);
+        }
+        // limit the chunks held in memory
+        int maxPendingNum = Config.image_thread_num * 2;
+        LinkedList<Future<Database>> pendingDbs = Lists.newLinkedList();
+        try {
+            for (int i = 0; i < dbCount; ++i) {
+                long dbId = dis.readLong();
+                checksum ^= dbId;
+                int length = dis.readInt();
+                long chunkChecksum = dis.readLong();
+                byte[] data = new byte[length];
+                dis.readFully(data);
+
+                DbChunkReader reader = new DbChunkReader(dbId, data, chunkChecksum);
+                if (executor == null) {
+                    addLoadedDb(reader.call());
+                    continue;
+                }
+                pendingDbs.addLast(executor.submit(reader));
+                while (pendingDbs.size() >= maxPendingNum) {
+                    addLoadedDb(getChunkResult(pendingDbs.removeFirst()));
+                }
+            }
+            while (!pendingDbs.isEmpty()) {
+                addLoadedDb(getChunkResult(pendingDbs.removeFirst()));
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+        return checksum;
+    }
+
+    private static <T> T getChunkResult(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new IOException("interrupted when processing image chunk", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("failed to process image chunk", e.getCause());
+        }
+    }
+
+    private static long getChunkChecksum(byte[] data) {
+        Adler32 adler32 = new Adler32();
+        adler32.update(data, 0, data.length);
+        return adler32.getValue();
+    }
+
+    private static class DbChunkReader implements Callable<Database> {
+        private final long dbId;
+        private final byte[] data;
+        private final long checksum;
+
+        DbChunkReader(long dbId, byte[] data, long checksum) {
+            this.dbId = dbId;
+            this.data = data;
+            this.checksum = checksum;
+        }
+
+        @Override
+        public Database call() throws IOException {
+            if (getChunkChecksum(data) != checksum) {
+                throw new IOException("checksum of db " + dbId + " in image mismatch");
+            }
+            Database db = Database.read(new DataInputStream(new ByteArrayInputStream(data)));
+            if (db.getId() != dbId) {
+                throw new IOException("db id in image mismatch, expect " + dbId + " but is " + db.getId());
+            }
+            return db;
+        }
+    }
+
+    private static class DbChunkWriter implements Callable<byte[]> {
+        private final Database db;
+
+        DbChunkWriter(Database db) {
+            this.db = db;
+        }
+
+        @Override
+        public byte[] call() throws IOException {
+            DataOutputBuffer buffer = new DataOutputBuffer();
+            db.readLock();
+            try {
+                db.write(buffer);
+            } finally {
+                db.readUnlock();
+            }
+            return Arrays.copyOf(buffer.getData(), buffer.getLength());
+        }
+    }
+
+    private static void writeDbChunk(DataOutputStream dos, long dbId, byte[] data) throws IOException {
+        dos.writeLong(dbId);
+        dos.writeInt(data.length);
+        dos.writeLong(getChunkChecksum(data));
+        dos.write(data);
+    }
+
     public long loadLoadJob(DataInputStream dis, long checksum) throws IOException, DdlException {
         // load jobs
         int jobSize = dis.readInt();
@@ -1263,7 +1414,7 @@ public class Catalog {
         long saveImageStartTime = System.currentTimeMillis();
         readLock();
         try {
-            DataOutputStream dos = new DataOutputStream(new FileOutputStream(curFile));
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(curFile)));
             try {
                 checksum = saveHeader(dos, replayedJournalId, checksum);
                 checksum = saveMasterInfo(dos, checksum);
@@ -1342,22 +1493,43 @@ public class Catalog {
         return checksum;
     }
 
+    // Dbs are serialized by *image_thread_num* threads, and written in order as chunks.
     public long saveDb(DataOutputStream dos, long checksum) throws IOException {
         int dbCount = idToDb.size() - nameToCluster.keySet().size();
         checksum ^= dbCount;
         dos.writeInt(dbCount);
-        for (Map.Entry<Long, Database> entry : idToDb.entrySet()) {
-            long dbId = entry.getKey();
-            if (dbId >= NEXT_ID_INIT_VALUE) {
-                checksum ^= dbId;
-                Database db = entry.getValue();
-                db.readLock();
-                try {
-                    db.write(dos);
-                } finally {
-                    db.readUnlock();
+        ExecutorService executor = null;
+        if (Config.image_thread_num > 1) {
+            executor = Executors.newFixedThreadPool(Config.image_thread_num);
+        }
+        // limit the chunks held in memory
+        int maxPendingNum = Config.image_thread_num * 2;
+        LinkedList<Pair<Long, Future<byte[]>>> pendingChunks = Lists.newLinkedList();
+        try {
+            for (Map.Entry<Long, Database> entry : idToDb.entrySet()) {
+                long dbId = entry.getKey();
+                if (dbId >= NEXT_ID_INIT_VALUE) {
+                    checksum ^= dbId;
+                    DbChunkWriter writer = new DbChunkWriter(entry.getValue());
+                    if (executor == null) {
+                        writeDbChunk(dos, dbId, writer.call());
+                        continue;
+                    }
+                    pendingChunks.addLast(Pair.create(dbId, executor.submit(writer)));
+                    while (pendingChunks.size() >= maxPendingNum) {
+                        Pair<Long, Future<byte[]>> chunk = pendingChunks.removeFirst();
+                        writeDbChunk(dos, chunk.first, getChunkResult(chunk.second));
+                    }
                 }
             }
+            while (!pendingChunks.isEmpty()) {
+                Pair<Long, Future<byte[]>> chunk = pendingChunks.removeFirst();
+                writeDbChunk(dos, chunk.first, getChunkResult(chunk.second));
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
         }
         return checksum;
     }
@@ -1751,23 +1923,39 @@ public class Catalog {
             LOG.warn("failed to get cursor from {} to {}", replayedJournalId + 1, toJournalId);
             return false;
         }
+        // checkpoint catalog is found by thread, so checkpoint thread deserializes journals itself
+        long journalNum = toJournalId - replayedJournalId;
+        if (Config.journal_replay_prefetch_num > 0 && journalNum >= MIN_PREFETCH_JOURNAL_NUM
+                && !isCheckpointThread()) {
+            cursor = new PrefetchJournalCursor(cursor,
+                    (int) Math.min(journalNum, Config.journal_replay_prefetch_num));
+        }
+        ((Histogram) Metrics.getMetric(Metrics.MetricType.HISTOGRAM, REPLAY_LAG_METRIC_NAME))
+                .update(toJournalId - replayedJournalId);
 
         long startTime = System.currentTimeMillis();
+        long startJournalId = replayedJournalId;
         boolean hasLog = false;
-        while (true) {
-            JournalEntity entity = cursor.next();
-            if (entity == null) {
-                break;
-            }
-            hasLog = true;
-            EditLog.loadJournal(this, entity);
-            replayedJournalId++;
-            LOG.debug("journal {} replayed.", replayedJournalId);
-            if (!isMaster) {
-                journalObservable.notifyObservers(replayedJournalId);
+        try {
+            while (true) {
+                JournalEntity entity = cursor.next();
+                if (entity == null) {
+                    break;
+                }
+                hasLog = true;
+                EditLog.loadJournal(this, entity);
+                replayedJournalId++;
+                LOG.debug("journal {} replayed.", replayedJournalId);
+                if (!isMaster) {
+                    journalObservable.notifyObservers(replayedJournalId);
+                }
             }
+        } finally {
+            cursor.close();
         }
         long cost = System.currentTimeMillis() - startTime;
+        ((Meter) Metrics.getMetric(Metrics.MetricType.METER, REPLAY_METRIC_NAME))
+                .mark(replayedJournalId - startJournalId);
         if (cost >= 1000) {
             LOG.warn("replay journal cost too much time: {} replayedJournalId: {}", cost, replayedJournalId);
         }
@@ -2637,6 +2825,7 @@ public class Catalog {
         // date property
         if (newDataProperty != null) {
             partitionInfo.setDataProperty(partition.getId(), newDataProperty);
+            invalidateStorageMediumMap();
             LOG.debug("modify partition[{}-{}-{}] data property to {}", db.getId(), olapTable.getId(), partitionName,
                     newDataProperty.toString());
         }
@@ -3698,6 +3887,31 @@ public class Catalog {
         }
     }
 
+    // Storage medium map shared by tablet reports of all backends, which is computed again
+    // after *storage_medium_map_refresh_interval_second*, or after storage medium of a partition is modified.
+    public Map<Long, TStorageMedium> getCachedPartitionIdToStorageMediumMap() {
+        Map<Long, TStorageMedium> storageMediumMap = cachedStorageMediumMap;
+        if (storageMediumMap != null && System.currentTimeMillis() - storageMediumMapUpdateTimeMs
+                < Config.storage_medium_map_refresh_interval_second * 1000L) {
+            return storageMediumMap;
+        }
+        synchronized (storageMediumMapLock) {
+            // may be computed by other report
+            if (cachedStorageMediumMap != null && System.currentTimeMillis() - storageMediumMapUpdateTimeMs
+                    < Config.storage_medium_map_refresh_interval_second * 1000L) {
+                return cachedStorageMediumMap;
+            }
+            storageMediumMap = Collections.unmodifiableMap(getPartitionIdToStorageMediumMap());
+            storageMediumMapUpdateTimeMs = System.currentTimeMillis();
+            cachedStorageMediumMap = storageMediumMap;
+            return storageMediumMap;
+        }
+    }
+
+    private void invalidateStorageMediumMap() {
+        cachedStorageMediumMap = null;
+    }
+
     public HashMap<Long, TStorageMedium> getPartitionIdToStorageMediumMap() {
         HashMap<Long, TStorageMedium> storageMediumMap = new HashMap<Long, TStorageMedium>();
 
@@ -3810,6 +4024,10 @@ public class Catalog {
         return this.consistencyChecker;
     }
 
+    public StatisticsCollector getStatisticsCollector() {
+        return this.statisticsCollector;
+    }
+
     public Alter getAlterInstance() {
         return this.alter;
     }
@@ -20,13 +20,17 @@
 
 package com.baidu.palo.catalog;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInput;
+import java.io.DataInputStream;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -42,10 +46,12 @@ import com.baidu.palo.catalog.MaterializedIndex.IndexState;
 import com.baidu.palo.catalog.Replica.ReplicaState;
 import com.baidu.palo.catalog.Table.TableType;
 import com.baidu.palo.cluster.ClusterNamespace;
+import com.baidu.palo.common.Config;
 import com.baidu.palo.common.DdlException;
 import com.baidu.palo.common.FeConstants;
 import com.baidu.palo.common.FeMetaVersion;
 import com.baidu.palo.common.Pair;
+import com.baidu.palo.common.io.DataOutputBuffer;
 import com.baidu.palo.common.io.Text;
 import com.baidu.palo.common.io.Writable;
 import com.baidu.palo.common.util.DebugUtil;
@@ -81,6 +87,11 @@ public class Database extends MetaObject implements Writable {
     // table family group map
     private Map<Long, Table> idToTable;
     private Map<String, Table> nameToTable;
+    // Tables of checkpoint catalog are kept serialized until they are referenced, so that tables
+    // not changed by journals do not stay in memory as objects. Each table is still read once when
+    // image is loaded. They are kept in image order, and written to new image as they are.
+    private Map<Long, byte[]> idToSerializedTable;
+    private Map<String, Long> nameToSerializedTableId;
 
     private long dataQuotaBytes;
     private long refCount;
@@ -105,6 +116,8 @@ public class Database extends MetaObject implements Writable {
         this.rwLock = new ReentrantReadWriteLock(true);
         this.idToTable = new HashMap<Long, Table>();
         this.nameToTable = new HashMap<String, Table>();
+        this.idToSerializedTable = new LinkedHashMap<Long, byte[]>();
+        this.nameToSerializedTableId = new HashMap<String, Long>();
         this.dataQuotaBytes = FeConstants.default_db_data_quota_bytes;
         this.dbState = DbState.NORMAL;
         this.attachDbName = "";
@@ -194,6 +207,7 @@ public class Database extends MetaObject implements Writable {
         long usedDataQuota = 0;
         readLock();
         try {
+            loadAllSerializedTables();
             for (Table table : this.idToTable.values()) {
                 if (table.getType() != TableType.OLAP) {
                     continue;
@@ -248,7 +262,7 @@ public class Database extends MetaObject implements Writable {
         writeLock();
         try {
             String tableName = table.getName();
-            if (nameToTable.containsKey(tableName)) {
+            if (getTable(tableName) != null) {
                 result = setIfNotExist;
             } else {
                 idToTable.put(table.getId(), table);
@@ -269,7 +283,7 @@ public class Database extends MetaObject implements Writable {
     public boolean createTable(Table table) {
         boolean result = true;
         String tableName = table.getName();
-        if (nameToTable.containsKey(tableName)) {
+        if (getTable(tableName) != null) {
             result = false;
         } else {
             idToTable.put(table.getId(), table);
@@ -281,7 +295,7 @@ public class Database extends MetaObject implements Writable {
     public void dropTableWithLock(String tableName) {
         writeLock();
         try {
-            Table table = this.nameToTable.get(tableName);
+            Table table = getTable(tableName);
             if (table != null) {
                 this.nameToTable.remove(tableName);
                 this.idToTable.remove(table.getId());
@@ -292,7 +306,7 @@ public class Database extends MetaObject implements Writable {
     }
 
     public void dropTable(String tableName) {
-        Table table = this.nameToTable.get(tableName);
+        Table table = getTable(tableName);
         if (table != null) {
             this.nameToTable.remove(tableName);
             this.idToTable.remove(table.getId());
@@ -300,6 +314,7 @@ public class Database extends MetaObject implements Writable {
     }
 
     public List<Table> getTables() {
+        loadAllSerializedTables();
         List<Table> tables = new ArrayList<Table>(idToTable.values());
         return tables;
     }
@@ -311,6 +326,7 @@ public class Database extends MetaObject implements Writable {
             for (String name : this.nameToTable.keySet()) {
                 tableNames.add(name);
             }
+            tableNames.addAll(nameToSerializedTableId.keySet());
             return tableNames;
         } finally {
             readUnlock();
@@ -321,11 +337,49 @@ public class Database extends MetaObject implements Writable {
         if (nameToTable.containsKey(tableName)) {
             return nameToTable.get(tableName);
         }
+        Long tableId = nameToSerializedTableId.get(tableName);
+        if (tableId != null) {
+            return loadSerializedTable(tableId);
+        }
         return null;
     }
 
     public Table getTable(long tableId) {
-        return idToTable.get(tableId);
+        Table table = idToTable.get(tableId);
+        if (table == null && idToSerializedTable.containsKey(tableId)) {
+            table = loadSerializedTable(tableId);
+        }
+        return table;
+    }
+
+    // Tables are kept serialized only in checkpoint catalog, and when the serialized format is the same
+    // as current meta version, so that they can be read back and written to new image as they are.
+    private static boolean isLazyLoadTable() {
+        return Config.checkpoint_lazy_load_table && Catalog.isCheckpointThread()
+                && Catalog.getCurrentCatalogJournalVersion() == FeConstants.meta_version;
+    }
+
+    private Table loadSerializedTable(long tableId) {
+        byte[] data = idToSerializedTable.remove(tableId);
+        Table table;
+        try {
+            table = Table.read(new DataInputStream(new ByteArrayInputStream(data)));
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to read serialized table " + tableId + " of db " + name, e);
+        }
+        nameToSerializedTableId.remove(table.getName());
+        idToTable.put(table.getId(), table);
+        nameToTable.put(table.getName(), table);
+        return table;
+    }
+
+    private void loadAllSerializedTables() {
+        if (idToSerializedTable.isEmpty()) {
+            return;
+        }
+        for (Long tableId : new ArrayList<Long>(idToSerializedTable.keySet())) {
+            loadSerializedTable(tableId);
+        }
     }
 
     public static Database read(DataInput in) throws IOException {
@@ -355,11 +409,14 @@ public class Database extends MetaObject implements Writable {
         out.writeLong(id);
         Text.writeString(out, name);
         // write tables
-        int numTables = nameToTable.size();
+        int numTables = nameToTable.size() + idToSerializedTable.size();
         out.writeInt(numTables);
         for (Map.Entry<String, Table> entry : nameToTable.entrySet()) {
             entry.getValue().write(out);
         }
+        for (byte[] data : idToSerializedTable.values()) {
+            out.write(data);
+        }
 
         out.writeLong(dataQuotaBytes);
         Text.writeString(out, clusterName);
@@ -379,8 +436,18 @@ public class Database extends MetaObject implements Writable {
         }
         // read groups
         int numTables = in.readInt();
+        boolean isLazyLoadTable = isLazyLoadTable();
+        DataOutputBuffer buffer = isLazyLoadTable ? new DataOutputBuffer() : null;
         for (int i = 0; i < numTables; ++i) {
             Table table = Table.read(in);
+            if (isLazyLoadTable) {
+                // only the serialized table is kept, table object is reclaimed soon
+                buffer.reset();
+                table.write(buffer);
+                idToSerializedTable.put(table.getId(), Arrays.copyOf(buffer.getData(), buffer.getLength()));
+                nameToSerializedTableId.put(table.getName(), table.getId());
+                continue;
+            }
             nameToTable.put(table.getName(), table);
             idToTable.put(table.getId(), table);
         }
@@ -405,6 +472,8 @@ public class Database extends MetaObject implements Writable {
         }
 
         Database database = (Database) obj;
+        loadAllSerializedTables();
+        database.loadAllSerializedTables();
 
         if (idToTable != database.idToTable) {
             if (idToTable.size() != database.idToTable.size()) {
@@ -23,11 +23,14 @@ package com.baidu.palo.catalog;
 import com.baidu.palo.analysis.ArithmeticExpr;
 import com.baidu.palo.analysis.BinaryPredicate;
 import com.baidu.palo.analysis.CastExpr;
+import com.baidu.palo.analysis.FunctionName;
 import com.baidu.palo.analysis.InPredicate;
 import com.baidu.palo.analysis.IsNullPredicate;
 import com.baidu.palo.analysis.LikePredicate;
 import com.baidu.palo.builtins.ScalarBuiltins;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -51,9 +54,22 @@ public class FunctionSet {
     // on this map. Functions are sorted in a canonical order defined by
     // FunctionResolutionOrder.
     private final HashMap<String, List<Function>> functions;
+    // signature string -> function, see Function.signatureString()
+    private final HashMap<String, Function> signatureToFunction;
+
+    // Resolved function of (name, arg types, var args, compare mode), so overloads of a name
+    // are not scanned again for the same call signature. Functions which can not be resolved
+    // are cached as NOT_FOUND. It is invalidated when a function is added.
+    private static final long RESOLVED_CACHE_MAX_SIZE = 10000;
+    private static final Function NOT_FOUND =
+            new Function(new FunctionName("not_found"), new Type[0], Type.INVALID, false);
+    private final Cache<String, Function> resolvedFunctions = CacheBuilder.newBuilder()
+            .maximumSize(RESOLVED_CACHE_MAX_SIZE)
+            .build();
 
     public FunctionSet() {
         functions = Maps.newHashMap();
+        signatureToFunction = Maps.newHashMap();
     }
 
     public void init() {
@@ -387,6 +403,42 @@ public class FunctionSet {
             return null;
         }
 
+        String key = getResolveKey(desc, mode);
+        if (key == null) {
+            return resolveFunction(fns, desc, mode);
+        }
+        Function fn = resolvedFunctions.getIfPresent(key);
+        if (fn == null) {
+            fn = resolveFunction(fns, desc, mode);
+            resolvedFunctions.put(key, fn == null ? NOT_FOUND : fn);
+        }
+        return fn == NOT_FOUND ? null : fn;
+    }
+
+    // Key of the resolved function cache, it contains everything of desc used by Function.compare().
+    // Return null if desc can not be cached, which has non-scalar arg type.
+    private static String getResolveKey(Function desc, Function.CompareMode mode) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(desc.getFunctionName().toString()).append('(');
+        for (Type type : desc.getArgs()) {
+            if (!type.isScalarType()) {
+                return null;
+            }
+            ScalarType scalarType = (ScalarType) type;
+            sb.append(scalarType.getPrimitiveType()).append(':').append(scalarType.getLength());
+            if (scalarType.isDecimal()) {
+                sb.append(':').append(scalarType.decimalPrecision()).append(':').append(scalarType.decimalScale());
+            }
+            sb.append(',');
+        }
+        if (desc.hasVarArgs()) {
+            sb.append("...");
+        }
+        sb.append(')').append(mode.name());
+        return sb.toString();
+    }
+
+    private Function resolveFunction(List<Function> fns, Function desc, Function.CompareMode mode) {
         // First check for identical
         for (Function f : fns) {
             if (f.compare(desc, Function.CompareMode.IS_IDENTICAL)) {
@@ -427,14 +479,7 @@ public class FunctionSet {
     }
 
     public Function getFunction(String signatureString) {
-        for (List<Function> fns : functions.values()) {
-            for (Function f : fns) {
-                if (f.signatureString().equals(signatureString)) {
-                    return f;
-                }
-            }
-        }
-        return null;
+        return signatureToFunction.get(signatureString);
     }
 
     // Only used
@@ -449,6 +494,12 @@ public class FunctionSet {
             functions.put(fn.functionName(), fns);
         }
         if (fns.add(fn)) {
+            // functions of a signature are not expected to differ, keep the first added one
+            String signature = fn.signatureString();
+            if (!signatureToFunction.containsKey(signature)) {
+                signatureToFunction.put(signature, fn);
+            }
+            resolvedFunctions.invalidateAll();
             return true;
         }
         return false;
@@ -22,6 +22,7 @@ package com.baidu.palo.catalog;
 
 import com.baidu.palo.common.io.Text;
 import com.baidu.palo.common.io.Writable;
+import com.baidu.palo.common.util.LongHashMap;
 
 import com.google.common.collect.Lists;
 
@@ -29,10 +30,7 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 
 /**
  * The OlapTraditional table is a materialized table which stored as rowcolumnar file or columnar file
@@ -49,9 +47,10 @@ public class MaterializedIndex extends MetaObject implements Writable {
     private IndexState state;
     private long rowCount;
 
-    private Map<Long, Tablet> idToTablets;
+    // tablet id -> tablet, ids are not boxed, there may be millions of tablets in catalog
+    private LongHashMap<Tablet> idToTablets;
     // this is for keeping tablet order
-    private List<Tablet> tablets;
+    private ArrayList<Tablet> tablets;
 
     // for push after rollup index finished
     private long rollupIndexId;
@@ -59,7 +58,7 @@ public class MaterializedIndex extends MetaObject implements Writable {
 
     public MaterializedIndex() {
         this.state = IndexState.NORMAL;
-        this.idToTablets = new HashMap<Long, Tablet>();
+        this.idToTablets = new LongHashMap<Tablet>();
         this.tablets = new ArrayList<Tablet>();
     }
 
@@ -71,7 +70,7 @@ public class MaterializedIndex extends MetaObject implements Writable {
             this.state = IndexState.NORMAL;
         }
 
-        this.idToTablets = new HashMap<Long, Tablet>();
+        this.idToTablets = new LongHashMap<Tablet>();
         this.tablets = new ArrayList<Tablet>();
 
         this.rowCount = 0;
@@ -168,6 +167,9 @@ public class MaterializedIndex extends MetaObject implements Writable {
         rowCount = in.readLong();
 
         int tabletCount = in.readInt();
+        // sized to tablet count, tablets are rarely added to an existing index
+        tablets = new ArrayList<Tablet>(tabletCount);
+        idToTablets = new LongHashMap<Tablet>(tabletCount);
         for (int i = 0; i < tabletCount; ++i) {
             Tablet tablet = Tablet.read(in);
             tablets.add(tablet);
@@ -201,12 +203,11 @@ public class MaterializedIndex extends MetaObject implements Writable {
         if (idToTablets.size() != table.idToTablets.size()) {
             return false;
         }
-        for (Entry<Long, Tablet> entry : idToTablets.entrySet()) {
-            long key = entry.getKey();
+        for (long key : idToTablets.keys()) {
             if (!table.idToTablets.containsKey(key)) {
                 return false;
             }
-            if (!entry.getValue().equals(table.idToTablets.get(key))) {
+            if (!idToTablets.get(key).equals(table.idToTablets.get(key))) {
                 return false;
             }
         }
@@ -16,6 +16,7 @@
 package com.baidu.palo.catalog;
 
 import com.baidu.palo.catalog.Replica.ReplicaState;
+import com.baidu.palo.common.FeConstants;
 import com.baidu.palo.common.io.Writable;
 
 import com.google.common.collect.Sets;
@@ -40,6 +41,7 @@ public class Tablet extends MetaObject implements Writable {
     private static final Logger LOG = LogManager.getLogger(Tablet.class);
 
     private long id;
+    // sized to replication num, most tablets never have more replicas
     private List<Replica> replicas;
     
     private long checkedVersion;
@@ -48,11 +50,11 @@ public class Tablet extends MetaObject implements Writable {
     private boolean isConsistent;
 
     public Tablet() {
-        this(0L, new ArrayList<Replica>());
+        this(0L, new ArrayList<Replica>(FeConstants.default_replication_num));
     }
     
     public Tablet(long tabletId) {
-        this(tabletId, new ArrayList<Replica>());
+        this(tabletId, new ArrayList<Replica>(FeConstants.default_replication_num));
     }
     
     public Tablet(long tabletId, List<Replica> replicas) {
@@ -238,6 +240,9 @@ public class Tablet extends MetaObject implements Writable {
 
         id = in.readLong();
         int replicaCount = in.readInt();
+        if (replicas.isEmpty()) {
+            replicas = new ArrayList<Replica>(replicaCount);
+        }
         for (int i = 0; i < replicaCount; ++i) {
             Replica replica = Replica.read(in);
             if (deleteRedundantReplica(replica.getBackendId(), replica.getVersion())) {
@@ -20,6 +20,7 @@
 
 package com.baidu.palo.catalog;
 
+import com.baidu.palo.common.util.LongHashMap;
 import com.baidu.palo.thrift.TStorageMedium;
 import com.baidu.palo.thrift.TTablet;
 import com.baidu.palo.thrift.TTabletInfo;
@@ -28,32 +29,49 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.google.common.collect.Table;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /*
  * this class stores a inverted index
  * key is tablet id. value is the related ids of this tablet
+ *
+ * Tablets are divided into stripes by tablet id, each stripe has its own lock, so that
+ * report handling, planning and clone checking on different tablets do not block each other.
+ * Replicas are also indexed by backend, to find replicas of one backend without traversing all tablets.
+ * Lock order is stripe lock, then backend index lock, then tablet meta table lock.
  */
 public class TabletInvertedIndex {
     private static final Logger LOG = LogManager.getLogger(TabletInvertedIndex.class);
 
     public static final int NOT_EXIST_VALUE = -1;
 
-    private ReentrantReadWriteLock lock;
+    // must be power of 2
+    private static final int STRIPE_NUM = 64;
+
+    private static class Stripe {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        // tablet id -> tablet meta
+        private final LongHashMap<TabletMeta> tabletMetaMap = new LongHashMap<TabletMeta>();
+        // tablet id -> replicas, usually only a few replicas in one tablet
+        private final LongHashMap<Replica[]> replicaMap = new LongHashMap<Replica[]>();
+    }
+
+    private final Stripe[] stripes;
+
+    // backend id -> (tablet id -> replica). each map is guarded by itself
+    private final ConcurrentMap<Long, LongHashMap<Replica>> backendReplicaMap;
 
-    // tablet id -> tablet meta
-    private Map<Long, TabletMeta> tabletMetaMap;
-    
     /*
      *  we use this to save memory.
      *  we do not need create TabletMeta intance for each tablet,
@@ -63,92 +81,88 @@ public class TabletInvertedIndex {
      *      (eg. update schema hash in TabletMeta)
      *  partitionid -> (index id -> tablet meta)
      */
-    private Table<Long, Long, TabletMeta> tabletMetaTable;
-    
-    // tablet id -> (backend id -> replica)
-    private Table<Long, Long, Replica> replicaMetaTable;
+    private final Table<Long, Long, TabletMeta> tabletMetaTable;
+    private final ReentrantReadWriteLock tabletMetaTableLock;
 
     public TabletInvertedIndex() {
-        lock = new ReentrantReadWriteLock();
-
-        tabletMetaMap = Maps.newHashMap();
+        stripes = new Stripe[STRIPE_NUM];
+        for (int i = 0; i < STRIPE_NUM; i++) {
+            stripes[i] = new Stripe();
+        }
+        backendReplicaMap = new ConcurrentHashMap<Long, LongHashMap<Replica>>();
         tabletMetaTable = HashBasedTable.create();
-        replicaMetaTable = HashBasedTable.create();
-    }
-
-    private final void readLock() {
-        this.lock.readLock().lock();
-    }
-
-    private final void readUnlock() {
-        this.lock.readLock().unlock();
+        tabletMetaTableLock = new ReentrantReadWriteLock();
     }
 
-    private final void writeLock() {
-        this.lock.writeLock().lock();
-    }
-
-    private final void writeUnlock() {
-        this.lock.writeLock().unlock();
+    // tablet ids are allocated in sequence, so low bits spread them evenly
+    private Stripe getStripe(long tabletId) {
+        return stripes[(int) (tabletId ^ (tabletId >>> 32)) & (STRIPE_NUM - 1)];
     }
 
+    /*
+     * If isIncremental is true, backendTablets only contains tablets changed since last report,
+     * so only reported tablets are compared, and (meta - be) is not found.
+     */
     public void tabletReport(long backendId, Map<Long, TTablet> backendTablets,
-                             final HashMap<Long, TStorageMedium> storageMediumMap,
+                             final Map<Long, TStorageMedium> storageMediumMap,
+                             boolean isIncremental,
                              ListMultimap<Long, Long> tabletSyncMap,
                              ListMultimap<Long, Long> tabletDeleteFromMeta,
                              Set<Long> foundTabletsWithValidSchema,
                              Map<Long, TTabletInfo> foundTabletsWithInvalidSchema,
                              ListMultimap<TStorageMedium, Long> tabletMigrationMap) {
 
-        long start = 0L;
-        readLock();
-        try {
-            LOG.info("begin to do tablet diff with backend[{}]. num: {}", backendId, backendTablets.size());
-            start = System.currentTimeMillis();
-            Map<Long, Replica> replicaMetaWithBackend = replicaMetaTable.column(backendId);
-            if (replicaMetaWithBackend != null) {
-                // traverse replicas in meta with this backend
-                for (Map.Entry<Long, Replica> entry : replicaMetaWithBackend.entrySet()) {
-                    long tabletId = entry.getKey();
-                    Preconditions.checkState(tabletMetaMap.containsKey(tabletId));
-                    TabletMeta tabletMeta = tabletMetaMap.get(tabletId);
-
-                    if (backendTablets.containsKey(tabletId)) {
-                        TTablet backendTablet = backendTablets.get(tabletId);
-                        Replica replica = entry.getValue();
-                        for (TTabletInfo backendTabletInfo : backendTablet.getTablet_infos()) {
-                            if (tabletMeta.containsSchemaHash(backendTabletInfo.getSchema_hash())) {
-                                foundTabletsWithValidSchema.add(tabletId);
-                                // 1. (intersection)
-                                if (checkSync(replica, backendTabletInfo.getVersion(),
-                                              backendTabletInfo.getVersion_hash())) {
-                                    // need sync
-                                    tabletSyncMap.put(tabletMeta.getDbId(), tabletId);
-                                }
-
-                                // check if need migration
-                                long partitionId = tabletMeta.getPartitionId();
-                                TStorageMedium storageMedium = storageMediumMap.get(partitionId);
-                                if (storageMedium != null && backendTabletInfo.isSetStorage_medium()) {
-                                    if (storageMedium != backendTabletInfo.getStorage_medium()) {
-                                        tabletMigrationMap.put(storageMedium, tabletId);
-                                    }
-                                }
-                            } else {
-                                // tablet with invalid schemahash
-                                foundTabletsWithInvalidSchema.put(tabletId, backendTabletInfo);
-                            }
-                        } // end for be tablet info
+        LOG.info("begin to do tablet diff with backend[{}]. num: {}. incremental: {}",
+                 backendId, backendTablets.size(), isIncremental);
+        long start = System.currentTimeMillis();
+        if (isIncremental) {
+            // traverse reported tablets, which exist in meta
+            for (Map.Entry<Long, TTablet> entry : backendTablets.entrySet()) {
+                long tabletId = entry.getKey();
+                Stripe stripe = getStripe(tabletId);
+                stripe.lock.readLock().lock();
+                try {
+                    Replica replica = findReplica(stripe.replicaMap.get(tabletId), backendId);
+                    if (replica == null) {
+                        // (be - meta), handled by caller
+                        continue;
+                    }
+                    diffTablet(tabletId, stripe.tabletMetaMap.get(tabletId), replica, entry.getValue(),
+                               storageMediumMap, tabletSyncMap, foundTabletsWithValidSchema,
+                               foundTabletsWithInvalidSchema, tabletMigrationMap);
+                } finally {
+                    stripe.lock.readLock().unlock();
+                }
+            }
+        } else {
+            // traverse replicas in meta with this backend
+            long[] tabletIds = getTabletIdArrayByBackendId(backendId);
+            for (long tabletId : tabletIds) {
+                Stripe stripe = getStripe(tabletId);
+                stripe.lock.readLock().lock();
+                try {
+                    TabletMeta tabletMeta = stripe.tabletMetaMap.get(tabletId);
+                    Replica replica = findReplica(stripe.replicaMap.get(tabletId), backendId);
+                    if (tabletMeta == null || replica == null) {
+                        // deleted after getting tablet ids
+                        continue;
+                    }
+
+                    TTablet backendTablet = backendTablets.get(tabletId);
+                    if (backendTablet != null) {
+                        diffTablet(tabletId, tabletMeta, replica, backendTablet,
+                                   storageMediumMap, tabletSyncMap, foundTabletsWithValidSchema,
+                                   foundTabletsWithInvalidSchema, tabletMigrationMap);
                     } else {
                         // 2. (meta - be)
                         // may need delete from meta
                         LOG.debug("backend[{}] does not report tablet[{}-{}]", backendId, tabletId, tabletMeta);
                         tabletDeleteFromMeta.put(tabletMeta.getDbId(), tabletId);
                     }
-                } // end for replicaMetaWithBackend
-            }
-        } finally {
-            readUnlock();
+                } finally {
+                    stripe.lock.readLock().unlock();
+                }
+            } // end for replicaMetaWithBackend
         }
 
         long end = System.currentTimeMillis();
@@ -158,73 +172,83 @@ public class TabletInvertedIndex {
                  tabletMigrationMap.size(), (end - start));
     }
 
-    public long getDbId(long tabletId) {
-        readLock();
-        try {
-            if (tabletMetaMap.containsKey(tabletId)) {
-                return tabletMetaMap.get(tabletId).getDbId();
+    // compare replica in meta with the tablet reported by backend
+    private void diffTablet(long tabletId, TabletMeta tabletMeta, Replica replica, TTablet backendTablet,
+                            Map<Long, TStorageMedium> storageMediumMap,
+                            ListMultimap<Long, Long> tabletSyncMap,
+                            Set<Long> foundTabletsWithValidSchema,
+                            Map<Long, TTabletInfo> foundTabletsWithInvalidSchema,
+                            ListMultimap<TStorageMedium, Long> tabletMigrationMap) {
+        for (TTabletInfo backendTabletInfo : backendTablet.getTablet_infos()) {
+            if (tabletMeta.containsSchemaHash(backendTabletInfo.getSchema_hash())) {
+                foundTabletsWithValidSchema.add(tabletId);
+                // 1. (intersection)
+                if (checkSync(replica, backendTabletInfo.getVersion(),
+                              backendTabletInfo.getVersion_hash())) {
+                    // need sync
+                    tabletSyncMap.put(tabletMeta.getDbId(), tabletId);
+                }
+
+                // check if need migration
+                long partitionId = tabletMeta.getPartitionId();
+                TStorageMedium storageMedium = storageMediumMap.get(partitionId);
+                if (storageMedium != null && backendTabletInfo.isSetStorage_medium()) {
+                    if (storageMedium != backendTabletInfo.getStorage_medium()) {
+                        tabletMigrationMap.put(storageMedium, tabletId);
+                    }
+                }
+            } else {
+                // tablet with invalid schemahash
+                foundTabletsWithInvalidSchema.put(tabletId, backendTabletInfo);
             }
-            return NOT_EXIST_VALUE;
-        } finally {
-            readUnlock();
-        }
+        } // end for be tablet info
     }
 
-    public long getTableId(long tabletId) {
-        readLock();
-        try {
-            if (tabletMetaMap.containsKey(tabletId)) {
-                return tabletMetaMap.get(tabletId).getTableId();
+    private static Replica findReplica(Replica[] replicas, long backendId) {
+        if (replicas == null) {
+            return null;
+        }
+        for (Replica replica : replicas) {
+            if (replica.getBackendId() == backendId) {
+                return replica;
             }
-            return NOT_EXIST_VALUE;
-        } finally {
-            readUnlock();
         }
+        return null;
+    }
+
+    public long getDbId(long tabletId) {
+        TabletMeta tabletMeta = getTabletMeta(tabletId);
+        return tabletMeta == null ? NOT_EXIST_VALUE : tabletMeta.getDbId();
+    }
+
+    public long getTableId(long tabletId) {
+        TabletMeta tabletMeta = getTabletMeta(tabletId);
+        return tabletMeta == null ? NOT_EXIST_VALUE : tabletMeta.getTableId();
     }
 
     public long getPartitionId(long tabletId) {
-        readLock();
-        try {
-            if (tabletMetaMap.containsKey(tabletId)) {
-                return tabletMetaMap.get(tabletId).getPartitionId();
-            }
-            return NOT_EXIST_VALUE;
-        } finally {
-            readUnlock();
-        }
+        TabletMeta tabletMeta = getTabletMeta(tabletId);
+        return tabletMeta == null ? NOT_EXIST_VALUE : tabletMeta.getPartitionId();
     }
 
     public long getIndexId(long tabletId) {
-        readLock();
-        try {
-            if (tabletMetaMap.containsKey(tabletId)) {
-                return tabletMetaMap.get(tabletId).getIndexId();
-            }
-            return NOT_EXIST_VALUE;
-        } finally {
-            readUnlock();
-        }
+        TabletMeta tabletMeta = getTabletMeta(tabletId);
+        return tabletMeta == null ? NOT_EXIST_VALUE : tabletMeta.getIndexId();
     }
 
     public int getEffectiveSchemaHash(long tabletId) {
         // always get old schema hash(as effective one)
-        readLock();
-        try {
-            if (tabletMetaMap.containsKey(tabletId)) {
-                return tabletMetaMap.get(tabletId).getOldSchemaHash();
-            }
-            return NOT_EXIST_VALUE;
-        } finally {
-            readUnlock();
-        }
+        TabletMeta tabletMeta = getTabletMeta(tabletId);
+        return tabletMeta == null ? NOT_EXIST_VALUE : tabletMeta.getOldSchemaHash();
     }
 
     public TabletMeta getTabletMeta(long tabletId) {
-        readLock();
+        Stripe stripe = getStripe(tabletId);
+        stripe.lock.readLock().lock();
         try {
-            return tabletMetaMap.get(tabletId);
+            return stripe.tabletMetaMap.get(tabletId);
         } finally {
-            readUnlock();
+            stripe.lock.readLock().unlock();
         }
     }
 
@@ -242,17 +266,23 @@ public class TabletInvertedIndex {
         if (Catalog.isCheckpointThread()) {
             return;
         }
-        writeLock();
+        Stripe stripe = getStripe(tabletId);
+        stripe.lock.writeLock().lock();
         try {
-            if (tabletMetaMap.containsKey(tabletId)) {
+            if (stripe.tabletMetaMap.containsKey(tabletId)) {
                 return;
             }
-            tabletMetaMap.put(tabletId, tabletMeta);
-            if (!tabletMetaTable.contains(tabletMeta.getPartitionId(), tabletMeta.getIndexId())) {
-                tabletMetaTable.put(tabletMeta.getPartitionId(), tabletMeta.getIndexId(), tabletMeta);
+            stripe.tabletMetaMap.put(tabletId, tabletMeta);
+            tabletMetaTableLock.writeLock().lock();
+            try {
+                if (!tabletMetaTable.contains(tabletMeta.getPartitionId(), tabletMeta.getIndexId())) {
+                    tabletMetaTable.put(tabletMeta.getPartitionId(), tabletMeta.getIndexId(), tabletMeta);
+                }
+            } finally {
+                tabletMetaTableLock.writeLock().unlock();
             }
         } finally {
-            writeUnlock();
+            stripe.lock.writeLock().unlock();
         }
     }
 
@@ -260,15 +290,26 @@ public class TabletInvertedIndex {
         if (Catalog.isCheckpointThread()) {
             return;
         }
-        writeLock();
+        Stripe stripe = getStripe(tabletId);
+        stripe.lock.writeLock().lock();
         try {
-            replicaMetaTable.rowMap().remove(tabletId);
-            TabletMeta tabletMeta = tabletMetaMap.remove(tabletId);
+            Replica[] replicas = stripe.replicaMap.remove(tabletId);
+            if (replicas != null) {
+                for (Replica replica : replicas) {
+                    removeFromBackend(replica.getBackendId(), tabletId);
+                }
+            }
+            TabletMeta tabletMeta = stripe.tabletMetaMap.remove(tabletId);
             if (tabletMeta != null) {
-                tabletMetaTable.remove(tabletMeta.getPartitionId(), tabletMeta.getIndexId());
+                tabletMetaTableLock.writeLock().lock();
+                try {
+                    tabletMetaTable.remove(tabletMeta.getPartitionId(), tabletMeta.getIndexId());
+                } finally {
+                    tabletMetaTableLock.writeLock().unlock();
+                }
             }
         } finally {
-            writeUnlock();
+            stripe.lock.writeLock().unlock();
         }
     }
 
@@ -276,12 +317,36 @@ public class TabletInvertedIndex {
         if (Catalog.isCheckpointThread()) {
             return;
         }
-        writeLock();
+        Stripe stripe = getStripe(tabletId);
+        stripe.lock.writeLock().lock();
         try {
-            Preconditions.checkState(tabletMetaMap.containsKey(tabletId));
-            replicaMetaTable.put(tabletId, replica.getBackendId(), replica);
+            Preconditions.checkState(stripe.tabletMetaMap.containsKey(tabletId));
+            long backendId = replica.getBackendId();
+            Replica[] replicas = stripe.replicaMap.get(tabletId);
+            if (replicas == null) {
+                replicas = new Replica[] { replica };
+            } else {
+                int i = 0;
+                while (i < replicas.length && replicas[i].getBackendId() != backendId) {
+                    i++;
+                }
+                if (i == replicas.length) {
+                    replicas = Arrays.copyOf(replicas, replicas.length + 1);
+                }
+                replicas[i] = replica;
+            }
+            stripe.replicaMap.put(tabletId, replicas);
+
+            LongHashMap<Replica> backendReplicas = backendReplicaMap.get(backendId);
+            if (backendReplicas == null) {
+                backendReplicaMap.putIfAbsent(backendId, new LongHashMap<Replica>());
+                backendReplicas = backendReplicaMap.get(backendId);
+            }
+            synchronized (backendReplicas) {
+                backendReplicas.put(tabletId, replica);
+            }
         } finally {
-            writeUnlock();
+            stripe.lock.writeLock().unlock();
         }
     }
 
@@ -289,12 +354,24 @@ public class TabletInvertedIndex {
         if (Catalog.isCheckpointThread()) {
             return;
         }
-        writeLock();
+        Stripe stripe = getStripe(tabletId);
+        stripe.lock.writeLock().lock();
         try {
-            Preconditions.checkState(tabletMetaMap.containsKey(tabletId));
-            // Preconditions.checkState(replicaMetaTable.containsRow(tabletId));
-            if (replicaMetaTable.containsRow(tabletId)) {
-                replicaMetaTable.remove(tabletId, backendId);
+            Preconditions.checkState(stripe.tabletMetaMap.containsKey(tabletId));
+            Replica[] replicas = stripe.replicaMap.get(tabletId);
+            if (replicas != null) {
+                List<Replica> remained = Lists.newArrayListWithCapacity(replicas.length);
+                for (Replica replica : replicas) {
+                    if (replica.getBackendId() != backendId) {
+                        remained.add(replica);
+                    }
+                }
+                if (remained.isEmpty()) {
+                    stripe.replicaMap.remove(tabletId);
+                } else if (remained.size() < replicas.length) {
+                    stripe.replicaMap.put(tabletId, remained.toArray(new Replica[remained.size()]));
+                }
+                removeFromBackend(backendId, tabletId);
                 LOG.debug("delete tablet[{}] in backend[{}]", tabletId, backendId);
             } else {
                 // this may happend when fe restart after tablet is empty(bug cause)
@@ -302,7 +379,17 @@ public class TabletInvertedIndex {
                 LOG.error("tablet[{}] contains no replica in inverted index", tabletId);
             }
         } finally {
-            writeUnlock();
+            stripe.lock.writeLock().unlock();
+        }
+    }
+
+    private void removeFromBackend(long backendId, long tabletId) {
+        LongHashMap<Replica> backendReplicas = backendReplicaMap.get(backendId);
+        if (backendReplicas == null) {
+            return;
+        }
+        synchronized (backendReplicas) {
+            backendReplicas.remove(tabletId);
         }
     }
 
@@ -310,12 +397,12 @@ public class TabletInvertedIndex {
         if (Catalog.isCheckpointThread()) {
             return;
         }
-        writeLock();
+        tabletMetaTableLock.writeLock().lock();
         try {
             Preconditions.checkState(tabletMetaTable.contains(partitionId, indexId));
             tabletMetaTable.get(partitionId, indexId).setNewSchemaHash(newSchemaHash);
         } finally {
-            writeUnlock();
+            tabletMetaTableLock.writeLock().unlock();
         }
 
     }
@@ -324,12 +411,12 @@ public class TabletInvertedIndex {
         if (Catalog.isCheckpointThread()) {
             return;
         }
-        writeLock();
+        tabletMetaTableLock.writeLock().lock();
         try {
             Preconditions.checkState(tabletMetaTable.contains(partitionId, indexId));
             tabletMetaTable.get(partitionId, indexId).updateToNewSchemaHash();
         } finally {
-            writeUnlock();
+            tabletMetaTableLock.writeLock().unlock();
         }
     }
 
@@ -337,53 +424,63 @@ public class TabletInvertedIndex {
         if (Catalog.isCheckpointThread()) {
             return;
         }
-        writeLock();
+        tabletMetaTableLock.writeLock().lock();
         try {
             TabletMeta tabletMeta = tabletMetaTable.get(partitionId, indexId);
             if (tabletMeta != null) {
                 tabletMeta.deleteNewSchemaHash();
             }
         } finally {
-            writeUnlock();
+            tabletMetaTableLock.writeLock().unlock();
+        }
+    }
+
+    private long[] getTabletIdArrayByBackendId(long backendId) {
+        LongHashMap<Replica> backendReplicas = backendReplicaMap.get(backendId);
+        if (backendReplicas == null) {
+            return new long[0];
+        }
+        synchronized (backendReplicas) {
+            return backendReplicas.keys();
         }
     }
 
     public List<Long> getTabletIdsByBackendId(long backendId) {
-        List<Long> tabletIds = Lists.newArrayList();
-        readLock();
-        try {
-            Map<Long, Replica> replicaMetaWithBackend = replicaMetaTable.column(backendId);
-            if (replicaMetaWithBackend != null) {
-                tabletIds.addAll(replicaMetaWithBackend.keySet());
-            }
-        } finally {
-            readUnlock();
+        long[] tabletIdArray = getTabletIdArrayByBackendId(backendId);
+        List<Long> tabletIds = Lists.newArrayListWithCapacity(tabletIdArray.length);
+        for (long tabletId : tabletIdArray) {
+            tabletIds.add(tabletId);
         }
         return tabletIds;
     }
 
     public int getTabletNumByBackendId(long backendId) {
-        readLock();
-        try {
-            Map<Long, Replica> replicaMetaWithBackend = replicaMetaTable.column(backendId);
-            if (replicaMetaWithBackend != null) {
-                return replicaMetaWithBackend.size();
-            }
-        } finally {
-            readUnlock();
+        LongHashMap<Replica> backendReplicas = backendReplicaMap.get(backendId);
+        if (backendReplicas == null) {
+            return 0;
+        }
+        synchronized (backendReplicas) {
+            return backendReplicas.size();
         }
-        return 0;
     }
 
     // just for test
     public void clear() {
-        writeLock();
+        for (Stripe stripe : stripes) {
+            stripe.lock.writeLock().lock();
+            try {
+                stripe.tabletMetaMap.clear();
+                stripe.replicaMap.clear();
+            } finally {
+                stripe.lock.writeLock().unlock();
+            }
+        }
+        backendReplicaMap.clear();
+        tabletMetaTableLock.writeLock().lock();
         try {
-            tabletMetaMap.clear();
             tabletMetaTable.clear();
-            replicaMetaTable.clear();
         } finally {
-            writeUnlock();
+            tabletMetaTableLock.writeLock().unlock();
         }
     }
 }
@@ -33,7 +33,15 @@ public class ClientPool {
     static int heartbeatTimeoutMs = FeConstants.heartbeat_interval_second * 1000;
 
     static GenericKeyedObjectPoolConfig backendConfig = new GenericKeyedObjectPoolConfig();
-    static int backendTimeoutMs = 300; // 5min
+    static int backendTimeoutMs = 60000; // 1min
+
+    // fetch_data holds a connection while the result is streamed, so connections to fetch result are
+    // not limited, otherwise long running queries would use up backend_rpc_max_connections_per_host
+    static GenericKeyedObjectPoolConfig fetchDataConfig = new GenericKeyedObjectPoolConfig();
+
+    // connections to master are held by forwarded statements, so they are not limited like backends'
+    static GenericKeyedObjectPoolConfig frontendConfig = new GenericKeyedObjectPoolConfig();
+    static int frontendTimeoutMs = 60000; // 1min
 
     static {
         heartbeatConfig.setLifo(true);            // set Last In First Out strategy
@@ -47,10 +55,31 @@ public class ClientPool {
     static {
         backendConfig.setLifo(true);            // set Last In First Out strategy
         backendConfig.setMaxIdlePerKey(128);      // (default 8)
-        backendConfig.setMinIdlePerKey(2);      // (default 0)
-        backendConfig.setMaxTotalPerKey(-1);    // (default 8)
+        backendConfig.setMinIdlePerKey(0);      // (default 0), evictor does not reconnect to removed backends
+        backendConfig.setMaxTotalPerKey(Config.backend_rpc_max_connections_per_host);    // (default 8)
         backendConfig.setMaxTotal(-1);          // (default -1)
-        backendConfig.setMaxWaitMillis(500);    //  wait for the connection
+        backendConfig.setMaxWaitMillis(Config.backend_rpc_borrow_timeout_ms);    //  wait for the connection
+        setEviction(backendConfig);
+    }
+
+    static {
+        fetchDataConfig.setLifo(true);            // set Last In First Out strategy
+        fetchDataConfig.setMaxIdlePerKey(128);      // (default 8)
+        fetchDataConfig.setMinIdlePerKey(0);      // (default 0), evictor does not reconnect to removed backends
+        fetchDataConfig.setMaxTotalPerKey(-1);    // (default 8)
+        fetchDataConfig.setMaxTotal(-1);          // (default -1)
+        fetchDataConfig.setMaxWaitMillis(500);    //  wait for the connection
+        setEviction(fetchDataConfig);
+    }
+
+    static {
+        frontendConfig.setLifo(true);            // set Last In First Out strategy
+        frontendConfig.setMaxIdlePerKey(128);      // (default 8)
+        frontendConfig.setMinIdlePerKey(0);      // (default 0)
+        frontendConfig.setMaxTotalPerKey(-1);    // (default 8)
+        frontendConfig.setMaxTotal(-1);          // (default -1)
+        frontendConfig.setMaxWaitMillis(500);    //  wait for the connection
+        setEviction(frontendConfig);
     }
 
     static GenericKeyedObjectPoolConfig brokerPoolConfig = new GenericKeyedObjectPoolConfig();
@@ -59,18 +88,32 @@ public class ClientPool {
     static {
         brokerPoolConfig.setLifo(true);            // set Last In First Out strategy
         brokerPoolConfig.setMaxIdlePerKey(128);      // (default 8)
-        brokerPoolConfig.setMinIdlePerKey(2);      // (default 0)
+        brokerPoolConfig.setMinIdlePerKey(0);      // (default 0), evictor does not reconnect to removed brokers
         brokerPoolConfig.setMaxTotalPerKey(-1);    // (default 8)
         brokerPoolConfig.setMaxTotal(-1);          // (default -1)
         brokerPoolConfig.setMaxWaitMillis(500);    //  wait for the connection
+        setEviction(brokerPoolConfig);
+    }
+
+    // close idle connections which are closed by peer or idle for too long
+    private static void setEviction(GenericKeyedObjectPoolConfig config) {
+        config.setTestWhileIdle(true);
+        config.setTimeBetweenEvictionRunsMillis(60000L);
+        config.setMinEvictableIdleTimeMillis(Config.rpc_connection_idle_timeout_second * 1000L);
+        // check all idle connections in one run
+        config.setNumTestsPerEvictionRun(Integer.MAX_VALUE);
     }
 
     public static GenericPool<HeartbeatService.Client> heartbeatPool =
             new GenericPool("HeartbeatService", heartbeatConfig, heartbeatTimeoutMs); 
     public static GenericPool<FrontendService.Client> frontendPool =
-            new GenericPool("FrontendService", backendConfig, backendTimeoutMs);
+            new GenericPool("FrontendService", frontendConfig, frontendTimeoutMs, Config.rpc_connect_timeout_ms);
     public static GenericPool<BackendService.Client> backendPool =
-            new GenericPool("BackendService", backendConfig, backendTimeoutMs);
+            new GenericPool("BackendService", backendConfig, backendTimeoutMs, Config.rpc_connect_timeout_ms);
+    // only used by ResultReceiver to fetch query result
+    public static GenericPool<BackendService.Client> fetchDataPool =
+            new GenericPool("BackendService", "BackendFetchData", fetchDataConfig, backendTimeoutMs,
+                            Config.rpc_connect_timeout_ms);
     public static GenericPool<TPaloBrokerService.Client> brokerPool =
             new GenericPool("TPaloBrokerService", brokerPoolConfig, brokerTimeoutMs);
 }
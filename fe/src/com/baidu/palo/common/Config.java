@@ -99,6 +99,38 @@ public class Config extends ConfigBase {
      * Master FE will save image every *edit_log_roll_num* meta journals.
      */
     @ConfField public static int edit_log_roll_num = 100000;
+    /*
+     * Journals written concurrently are committed to bdbje in one transaction, at most
+     * *edit_log_group_commit_max_num* journals in one transaction.
+     * Set to 1 to commit every journal separately.
+     */
+    @ConfField public static int edit_log_group_commit_max_num = 100;
+    /*
+     * Number of journals read and deserialized ahead of replay by a separate thread.
+     * Prefetch is only used when at least 100 journals are to be replayed at once,
+     * e.g. when FE starts or catches up with master. Set to 0 to read journals in the replay thread.
+     */
+    @ConfField public static int journal_replay_prefetch_num = 1000;
+    /*
+     * If true, checkpoint keeps tables in serialized form until journals reference them,
+     * tables not changed since last image are written to new image as they are.
+     * This makes checkpoint need much less memory than a second copy of the whole catalog.
+     */
+    @ConfField public static boolean checkpoint_lazy_load_table = false;
+    /*
+     * Number of threads to serialize and deserialize databases when saving and loading image.
+     * Set to 1 to do it in the calling thread.
+     */
+    @ConfField public static int image_thread_num = 4;
+    /*
+     * Image is transferred between FEs in chunks of *image_transfer_chunk_size_byte*,
+     * and each chunk is compressed if *image_transfer_compress* is true.
+     * A failed chunk is retried *image_transfer_retry_times* times, and an interrupted
+     * transfer resumes from the data already received.
+     */
+    @ConfField public static int image_transfer_chunk_size_byte = 16 * 1024 * 1024;
+    @ConfField public static boolean image_transfer_compress = true;
+    @ConfField public static int image_transfer_retry_times = 3;
     /*
      * Non-master FE will stop offering service
      * if meta data delay gap exceeds *meta_delay_toleration_second*
@@ -152,6 +184,25 @@ public class Config extends ConfigBase {
      * FE thrift server port
      */
     @ConfField public static int rpc_port = 9020;
+    /*
+     * Max num of connections from this FE to one backend, including idle ones.
+     * When it is reached, rpc waits at most *backend_rpc_borrow_timeout_ms* for a connection to be returned,
+     * and fails with NoSuchElementException if none is returned in time. Such failures are counted by
+     * metric client_pool.BackendService.borrow_timeout.
+     * Connections to other frontends and connections to fetch query result are not limited, because they are
+     * held for the whole forwarded statement or result streaming.
+     */
+    @ConfField public static int backend_rpc_max_connections_per_host = 256;
+    @ConfField public static int backend_rpc_borrow_timeout_ms = 5000;
+    /*
+     * Timeout of connecting to a backend or frontend. It is much shorter than the rpc timeout,
+     * so rpcs to a dead host fail fast.
+     */
+    @ConfField public static int rpc_connect_timeout_ms = 300;
+    /*
+     * Idle connections to backends, frontends and brokers are closed after this time.
+     */
+    @ConfField public static int rpc_connection_idle_timeout_second = 600;
     /*
      * FE mysql server port
      */
@@ -180,7 +231,8 @@ public class Config extends ConfigBase {
     /*
      * Load checker's running interval.
      * A load job will transfer its state from PENDING to ETL to LOADING to FINISHED.
-     * So a load job will cost at least 3 check intervals to finish.
+     * A job is checked at once when its state is changed or its push tasks are finished,
+     * so this interval only bounds how late timeout and etl progress are checked.
      */
     @ConfField public static int load_checker_interval_second = 5;
 
@@ -209,6 +261,11 @@ public class Config extends ConfigBase {
      * Do not change this if you know what you are doing.
      */
     @ConfField public static int load_etl_thread_num_normal_priority = 10;
+    /*
+     * Max num of queued tasks of each master task executor, such as load pending and etl executors.
+     * Tasks submitted when queue is full are rejected, and checkers submit them again in next round.
+     */
+    @ConfField public static int master_task_queue_size = 1024;
     /*
      * Not available.
      */
@@ -227,6 +284,20 @@ public class Config extends ConfigBase {
      * Same meaning as *tablet_create_timeout_second*, but used when delete a tablet.
      */
     @ConfField public static int tablet_delete_timeout_second = 2;
+    /*
+     * Agent tasks are sent to backends concurrently by *agent_task_executor_thread_num* threads,
+     * and at most *agent_task_max_num_per_rpc* tasks are sent to one backend in one rpc.
+     * If *agent_task_executor_queue_size* backends are waiting to be sent, the submitter sends
+     * the tasks by itself.
+     */
+    @ConfField public static int agent_task_executor_thread_num = 64;
+    @ConfField public static int agent_task_executor_queue_size = 10000;
+    @ConfField public static int agent_task_max_num_per_rpc = 500;
+    /*
+     * Storage medium of all partitions, which is used to find tablets need migration in tablet reports,
+     * is computed once and shared by reports of all backends in this interval.
+     */
+    @ConfField public static int storage_medium_map_refresh_interval_second = 60;
     /*
      * Clone checker's running interval.
      */
@@ -353,6 +424,23 @@ public class Config extends ConfigBase {
      */
     @ConfField public static long check_consistency_default_timeout_second = 600; // 10 min
 
+    // Configurations for statistics
+    /*
+     * If set to true, statistics of olap tables are collected automatically.
+     * Tables are analyzed if they were never analyzed,
+     * or their row count changed by more than *statistics_auto_collect_ratio* since last analyzed.
+     */
+    @ConfField public static boolean enable_auto_collect_statistics = false;
+    /*
+     * Interval of checking which tables need to be analyzed.
+     */
+    @ConfField public static int statistics_collect_interval_second = 3600; // 1 hour
+    @ConfField public static double statistics_auto_collect_ratio = 0.2;
+    /*
+     * Timeout of the query collecting statistics of one table.
+     */
+    @ConfField public static int statistics_collect_timeout_second = 3600; // 1 hour
+
     // Configurations for query engine
     /*
      * Maximal number of connections per FE.
@@ -362,6 +450,55 @@ public class Config extends ConfigBase {
      * Maximal number of connections per user, per FE.
      */
     @ConfField public static int max_conn_per_user = 100;
+    /*
+     * If set to true, MySQL connections are served in non-blocking mode.
+     * A few selector threads read packets of all connections, and only complete commands
+     * are executed by a bounded pool of worker threads, so idle connections do not hold a thread.
+     */
+    @ConfField public static boolean mysql_service_nio_enabled = false;
+    /*
+     * Number of selector threads when *mysql_service_nio_enabled* is true.
+     */
+    @ConfField public static int mysql_service_io_threads_num = 4;
+    /*
+     * Maximal number of threads executing MySQL commands when *mysql_service_nio_enabled* is true.
+     * At most *mysql_service_task_queue_size* commands wait for a thread, and the commands beyond
+     * it are rejected with an error, so the client knows FE is overloaded instead of waiting.
+     */
+    @ConfField public static int max_mysql_service_task_threads_num = 256;
+    @ConfField public static int mysql_service_task_queue_size = 1024;
+    /*
+     * Size of the buffer which result packets are coalesced into before they are written to client.
+     */
+    @ConfField public static int mysql_send_buffer_size_byte = 2 * 1024 * 1024; // 2MB
+    /*
+     * Maximal number of direct send buffers shared by all MySQL connections.
+     * Small heap buffers are used when all direct buffers are in use, and large packets are sent directly.
+     */
+    @ConfField public static int mysql_send_buffer_pool_size = 64;
+    /*
+     * If true, scan ranges are assigned to the backend which has the fewest bytes to scan,
+     * counting the bytes assigned by all running queries, not only by this query.
+     */
+    @ConfField public static boolean enable_scan_range_assign_by_backend_load = false;
+    /*
+     * Maximal number of result batches fetched from BE in advance for one query, while the
+     * previous batches are being sent to client. Set to 0 to fetch batches only when needed.
+     */
+    @ConfField public static int result_prefetch_batch_num = 4;
+    /*
+     * Maximal bytes of result batches fetched in advance for one query.
+     */
+    @ConfField public static long result_prefetch_buffer_bytes = 32 * 1024 * 1024; // 32MB
+    /*
+     * Maximal number of threads prefetching result batches for all queries.
+     * Queries started when all of them are busy fetch batches only when needed.
+     */
+    @ConfField public static int result_prefetch_thread_num = 64;
+    /*
+     * Maximal number of server side prepared statements per connection.
+     */
+    @ConfField public static int max_prepared_stmt_count = 1024;
     /*
      * Default query timeout.
      */
@@ -370,6 +507,14 @@ public class Config extends ConfigBase {
      * If the response time of a query exceed this threshold, it will be recored in audit log as slow_query.
      */
     @ConfField public static long qe_slow_log_ms = 5000;
+    /*
+     * Fragment exec status reports from backends are handled by *report_exec_status_thread_num* threads,
+     * reports of one query are always handled by the same thread in order.
+     * Each thread queues at most *report_exec_status_queue_size* reports, a report is handled in the rpc
+     * thread when the queue is full.
+     */
+    @ConfField public static int report_exec_status_thread_num = 4;
+    @ConfField public static int report_exec_status_queue_size = 1024;
     /*
      * The interval of user resource publishing.
      * User resource contains cgroup configurations of a user.
@@ -60,6 +60,7 @@ public enum ErrorCode {
     ERR_UNKNOWN_SYSTEM_VARIABLE(1193, new byte[] {'H', 'Y', '0', '0', '0'}, "Unknown system variable '%s'"),
     ERR_TOO_MANY_USER_CONNECTIONS(1203, new byte[] {'4', '2', '0', '0', '0'},
             "User %s already has more than 'max_user_connections' active connections"),
+    ERR_WRONG_ARGUMENTS(1210, new byte[] {'H', 'Y', '0', '0', '0'}, "Incorrect arguments to %s"),
     ERR_NO_PERMISSION_TO_CREATE_USER(1211, new byte[] {'4', '2', '0', '0', '0'},
             "'%s' is not allowed to create new users"),
     ERR_SPECIFIC_ACCESS_DENIED_ERROR(1227, new byte[] {'4', '2', '0', '0', '0'},
@@ -72,6 +73,8 @@ public enum ErrorCode {
     ERR_WRONG_VALUE_FOR_VAR(1231, new byte[] {'4', '2', '0', '0', '0'},
             "Variable '%s' can't be set to the value of '%s'"),
     ERR_WRONG_TYPE_FOR_VAR(1232, new byte[] {'4', '2', '0', '0', '0'}, "Incorrect argument type to variable '%s'"),
+    ERR_UNKNOWN_STMT_HANDLER(1243, new byte[] {'H', 'Y', '0', '0', '0'},
+            "Unknown prepared statement handler (%s) given to %s"),
     ERR_DERIVED_MUST_HAVE_ALIAS(1248, new byte[] {'4', '2', '0', '0', '0'},
             "Every derived table must have its own alias"),
     ERR_NOT_SUPPORTED_AUTH_MODE(1251, new byte[] {'0', '8', '0', '0', '4'},
@@ -85,6 +88,8 @@ public enum ErrorCode {
     ERR_PASSWD_LENGTH(1372, new byte[] {'H', 'Y', '0', '0', '0'},
             "Password hash should be a %d-digit hexadecimal number"),
     ERR_CANNOT_USER(1396, new byte[] {'H', 'Y', '0', '0', '0'}, "Operation %s failed for %s"),
+    ERR_MAX_PREPARED_STMT_COUNT_REACHED(1461, new byte[] {'4', '2', '0', '0', '0'},
+            "Can't create more than max_prepared_stmt_count statements (current value: %d)"),
     ERR_NON_INSERTABLE_TABLE(1471, new byte[] {'H', 'Y', '0', '0', '0'},
             "The target table %s of the %s is not insertable-into"),
     ERR_DROP_PARTITION_NON_EXISTENT(1507, new byte[] { 'H', 'Y', '0', '0', '0' }, "Error in list of partitions to %s"),
@@ -191,7 +196,9 @@ public enum ErrorCode {
     ERR_KUDU_NOT_SUPPORT_VALUE_TYPE(5061, new byte[] { '4', '2', '0', '0', '0' },
             "Kudu does not support value type '%s'"),
     ERR_WRONG_CLUSTER_NAME(5062, new byte[] { '4', '2', '0', '0', '0' },
-            "Incorrect cluster name '%s'(name 'default_cluster' is a reserved name)");
+            "Incorrect cluster name '%s'(name 'default_cluster' is a reserved name)"),
+    ERR_TOO_MANY_REQUESTS(5063, new byte[] { 'H', 'Y', '0', '0', '0' },
+            "Too many requests are waiting to be executed, please try again later");
 
 
     ErrorCode(int code, byte[] sqlState, String errorMsg) {
@@ -68,4 +68,7 @@ public final class FeMetaVersion {
 
     // persist LoadJob's execMemLimit
     public static final int VERSION_34 = 34;
+
+    // save each db of image as a chunk with length and checksum, so that dbs can be loaded in parallel
+    public static final int VERSION_35 = 35;
 }
@@ -20,10 +20,19 @@
 
 package com.baidu.palo.common;
 
+import java.io.IOException;
 import java.lang.reflect.Constructor;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.NoSuchElementException;
 
+import com.baidu.palo.common.util.LatencyHistogram;
+import com.baidu.palo.common.util.Metrics;
+import com.baidu.palo.common.util.Metrics.MetricType;
 import com.baidu.palo.thrift.TNetworkAddress;
 
+import io.dropwizard.metrics.Counter;
+import io.dropwizard.metrics.Gauge;
 import org.apache.commons.pool2.BaseKeyedPooledObjectFactory;
 import org.apache.commons.pool2.PooledObject;
 import org.apache.commons.pool2.impl.DefaultPooledObject;
@@ -31,6 +40,7 @@ import org.apache.commons.pool2.impl.GenericKeyedObjectPool;
 import org.apache.commons.pool2.impl.GenericKeyedObjectPoolConfig;
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolException;
 import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
@@ -42,22 +52,81 @@ public class GenericPool<VALUE extends org.apache.thrift.TServiceClient>  {
     private GenericKeyedObjectPool<TNetworkAddress, VALUE> pool;
     private String className;
     private int timeoutMs;
+    private int connectTimeoutMs;
+
+    private LatencyHistogram borrowWaitLatency;
+    private Counter invalidateCounter;
+    // no connection is available in max wait time, only happens when connections per host are limited
+    private Counter borrowTimeoutCounter;
 
     public GenericPool(String className, GenericKeyedObjectPoolConfig config, int timeoutMs) {
+        this(className, config, timeoutMs, timeoutMs);
+    }
+
+    // timeoutMs is the socket read timeout, connectTimeoutMs is the timeout of connecting
+    public GenericPool(String className, GenericKeyedObjectPoolConfig config, int timeoutMs,
+                       int connectTimeoutMs) {
+        this(className, className, config, timeoutMs, connectTimeoutMs);
+    }
+
+    // poolName distinguishes metrics of pools of the same service
+    public GenericPool(String className, String poolName, GenericKeyedObjectPoolConfig config, int timeoutMs,
+                       int connectTimeoutMs) {
         this.className = "com.baidu.palo.thrift." + className + "$Client";
         ThriftClientFactory factory = new ThriftClientFactory();
         pool = new GenericKeyedObjectPool<TNetworkAddress, VALUE>(factory, config);
         this.timeoutMs = timeoutMs;
+        this.connectTimeoutMs = connectTimeoutMs;
+
+        String metricPrefix = "client_pool." + poolName;
+        borrowWaitLatency = (LatencyHistogram) Metrics.getMetric(MetricType.LATENCY_HISTOGRAM,
+                metricPrefix + ".borrow_wait_ms");
+        invalidateCounter = (Counter) Metrics.getMetric(MetricType.COUNTER, metricPrefix + ".invalidate");
+        borrowTimeoutCounter = (Counter) Metrics.getMetric(MetricType.COUNTER, metricPrefix + ".borrow_timeout");
+        registerGauges(metricPrefix);
+    }
+
+    private void registerGauges(String metricPrefix) {
+        try {
+            Metrics.register(metricPrefix + ".active_num", new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return pool.getNumActive();
+                }
+            });
+            Metrics.register(metricPrefix + ".idle_num", new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return pool.getNumIdle();
+                }
+            });
+            Metrics.register(metricPrefix + ".created_num", new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return pool.getCreatedCount();
+                }
+            });
+            Metrics.register(metricPrefix + ".destroyed_num", new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return pool.getDestroyedCount();
+                }
+            });
+        } catch (IllegalArgumentException e) {
+            // pool of the same service is created again, e.g. in unit test
+            LOG.warn("metrics of client pool {} already exist", metricPrefix);
+        }
     }
 
     public boolean reopen(VALUE object, int timeoutMs) {
         boolean ok = true;
         object.getOutputProtocol().getTransport().close();
         try {
-            object.getOutputProtocol().getTransport().open();
-            // transport.open() doesn't set timeout, Maybe the timeoutMs change.
             TSocket socket = (TSocket) object.getOutputProtocol().getTransport();
-            socket.setTimeout(timeoutMs);
+            socket.setConnectTimeout(connectTimeoutMs);
+            socket.open();
+            // transport.open() doesn't set timeout, Maybe the timeoutMs change.
+            socket.setSocketTimeout(timeoutMs);
         } catch (TTransportException e) {
             ok = false;
         }
@@ -81,13 +150,25 @@ public class GenericPool<VALUE extends org.apache.thrift.TServiceClient>  {
     }
 
     public VALUE borrowObject(TNetworkAddress address) throws Exception {
-        return pool.borrowObject(address);
+        // reset the timeout, which may be changed by last borrower
+        return borrowObject(address, timeoutMs);
     }
 
     public VALUE borrowObject(TNetworkAddress address, int timeoutMs) throws Exception {
-        VALUE value = pool.borrowObject(address);
+        long startTime = System.currentTimeMillis();
+        VALUE value;
+        try {
+            value = pool.borrowObject(address);
+        } catch (NoSuchElementException e) {
+            borrowTimeoutCounter.inc();
+            LOG.warn("no available connection to {} in {} ms", address, System.currentTimeMillis() - startTime);
+            throw e;
+        } finally {
+            borrowWaitLatency.update(System.currentTimeMillis() - startTime);
+        }
+        // only change read timeout, connect timeout is kept short for reopen
         TSocket socket = (TSocket) (value.getOutputProtocol().getTransport());
-        socket.setTimeout(timeoutMs);
+        socket.setSocketTimeout(timeoutMs);
         return value;
     }
 
@@ -102,6 +183,7 @@ public class GenericPool<VALUE extends org.apache.thrift.TServiceClient>  {
         if (address == null || object == null) {
             return;
         }
+        invalidateCounter.inc();
         try {
             pool.invalidateObject(address, object);
         } catch (Exception e) {
@@ -109,6 +191,25 @@ public class GenericPool<VALUE extends org.apache.thrift.TServiceClient>  {
         }
     }
 
+    /**
+     * return the client to pool if its connection is still usable after the rpc error, otherwise invalidate it.
+     * @param error exception thrown when using the client, or null if no error
+     */
+    public void returnOrInvalidateObject(TNetworkAddress address, VALUE object, Throwable error) {
+        if (isConnectionBroken(error)) {
+            invalidateObject(address, object);
+        } else {
+            returnObject(address, object);
+        }
+    }
+
+    // Transport and protocol errors may leave unread or partial data in the connection.
+    // Other errors, such as TApplicationException which is read completely from server, or errors thrown
+    // by caller between rpcs, do not break the connection.
+    public static boolean isConnectionBroken(Throwable error) {
+        return error instanceof TTransportException || error instanceof TProtocolException;
+    }
+
     private class ThriftClientFactory extends BaseKeyedPooledObjectFactory<TNetworkAddress, VALUE> {
 
         private Object newInstance(String className, TProtocol protocol) throws Exception {
@@ -120,10 +221,11 @@ public class GenericPool<VALUE extends org.apache.thrift.TServiceClient>  {
         @Override
         public VALUE create(TNetworkAddress key) throws Exception {
             if (LOG.isDebugEnabled()) {
-                LOG.debug("before create socket hostname={} key.port={} timeoutMs={}",
-                        key.hostname, key.port, timeoutMs);
+                LOG.debug("before create socket hostname={} key.port={} timeoutMs={} connectTimeoutMs={}",
+                        key.hostname, key.port, timeoutMs, connectTimeoutMs);
             }
-            TTransport transport = new TSocket(key.hostname, key.port, timeoutMs);
+            TSocket transport = new TSocket(key.hostname, key.port, timeoutMs);
+            transport.setConnectTimeout(connectTimeoutMs);
             transport.open();
             TProtocol protocol = new TBinaryProtocol(transport);
             VALUE client = (VALUE) newInstance(className, protocol);
@@ -135,13 +237,38 @@ public class GenericPool<VALUE extends org.apache.thrift.TServiceClient>  {
             return new DefaultPooledObject<VALUE>(client);
         }
 
+        // called by evictor for idle clients
         @Override
         public boolean validateObject(TNetworkAddress key, PooledObject<VALUE> p) {
-            boolean isOpen = p.getObject().getOutputProtocol().getTransport().isOpen();
+            TTransport transport = p.getObject().getOutputProtocol().getTransport();
+            boolean isOpen = transport.isOpen() && !isClosedByPeer(transport);
             LOG.debug("isOpen={}", isOpen);
             return isOpen;
         }
 
+        // There is nothing to read from an idle connection. If read returns, either the peer closed it,
+        // e.g. backend is restarted, or there is unexpected data, the connection can not be used anymore.
+        private boolean isClosedByPeer(TTransport transport) {
+            if (!(transport instanceof TSocket)) {
+                return false;
+            }
+            Socket socket = ((TSocket) transport).getSocket();
+            try {
+                int soTimeout = socket.getSoTimeout();
+                socket.setSoTimeout(1);
+                try {
+                    socket.getInputStream().read();
+                    return true;
+                } finally {
+                    socket.setSoTimeout(soTimeout);
+                }
+            } catch (SocketTimeoutException e) {
+                return false;
+            } catch (IOException e) {
+                return true;
+            }
+        }
+
         @Override
         public void destroyObject(TNetworkAddress key, PooledObject<VALUE> p) {
             // InputProtocol and OutputProtocol have the same reference in OurCondition
@@ -32,6 +32,9 @@ public class Daemon extends Thread {
     private long intervalMs;
     private AtomicBoolean isStop;
     private Runnable runnable;
+    // set by wakeup() to run next cycle without waiting for the interval
+    private final Object wakeupLock = new Object();
+    private boolean wakeupRequested = false;
     
     {
         setDaemon(true);
@@ -84,6 +87,17 @@ public class Daemon extends Thread {
     public void setInterval(long intervalMs) {
         this.intervalMs = intervalMs;
     }
+
+    /**
+     * run next cycle at once if it is waiting for the interval,
+     * or right after the running cycle.
+     */
+    public void wakeup() {
+        synchronized (wakeupLock) {
+            wakeupRequested = true;
+            wakeupLock.notifyAll();
+        }
+    }
     
     /**
      * implement in child
@@ -102,7 +116,13 @@ public class Daemon extends Thread {
             }
 
             try {
-                Thread.sleep(intervalMs);
+                synchronized (wakeupLock) {
+                    // wait(0) waits forever, while sleep(0) does not
+                    if (!wakeupRequested && intervalMs > 0) {
+                        wakeupLock.wait(intervalMs);
+                    }
+                    wakeupRequested = false;
+                }
             } catch (InterruptedException e) {
                 LOG.error("InterruptedException: ", e);
             }
@@ -0,0 +1,73 @@
+// Copyright (c) 2017, Baidu.com, Inc. All Rights Reserved
+
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package com.baidu.palo.common.util;
+
+import io.dropwizard.metrics.Metric;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Histogram of latency in milliseconds with fixed buckets, exported as a Prometheus histogram.
+// Updating it only increments two LongAdders and adds to one, without any lock or sampling,
+// so it is cheap enough for hot paths. Quantiles are estimated from buckets by the monitoring system.
+public class LatencyHistogram implements Metric {
+    // upper bounds of buckets, the last bucket is +Inf
+    private static final long[] BUCKET_BOUNDS_MS = {
+            1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, 60000 };
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS_MS.length + 1];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void update(long latencyMs) {
+        int i = 0;
+        while (i < BUCKET_BOUNDS_MS.length && latencyMs > BUCKET_BOUNDS_MS[i]) {
+            i++;
+        }
+        buckets[i].increment();
+        count.increment();
+        sum.add(latencyMs);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public static long[] getBucketBounds() {
+        return BUCKET_BOUNDS_MS.clone();
+    }
+
+    // cumulative counts of buckets, the last one is the count of +Inf bucket.
+    // count and buckets are not updated atomically, so they may differ a little.
+    public long[] getCumulativeBucketCounts() {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            total += buckets[i].sum();
+            counts[i] = total;
+        }
+        return counts;
+    }
+}
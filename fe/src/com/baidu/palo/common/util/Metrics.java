@@ -20,19 +20,39 @@
 
 package com.baidu.palo.common.util;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import io.dropwizard.metrics.Counter;
+import io.dropwizard.metrics.Gauge;
+import io.dropwizard.metrics.Histogram;
+import io.dropwizard.metrics.Meter;
 import io.dropwizard.metrics.Metric;
 import io.dropwizard.metrics.MetricName;
 import io.dropwizard.metrics.MetricRegistry;
+import io.dropwizard.metrics.Snapshot;
+import io.dropwizard.metrics.Timer;
 import org.codehaus.jackson.map.ObjectMapper;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
 public class Metrics {
     private static final MetricRegistry METRICS = new MetricRegistry();
-    
+    // latency histograms are not created by registry, keep them to get or create them atomically
+    private static final ConcurrentMap<String, LatencyHistogram> LATENCY_HISTOGRAMS = Maps.newConcurrentMap();
+    private static final String PROMETHEUS_PREFIX = "palo_fe_";
+    private static final double[] QUANTILES = {0.5, 0.75, 0.95, 0.99};
+    // tag of metrics of one backend, which are removed when the backend is dropped
+    public static final String BACKEND_ID_TAG = "backend_id";
+
     public enum MetricType {
         COUNTER,
         HISTOGRAM,
         METER,
-        TIMER
+        TIMER,
+        LATENCY_HISTOGRAM
     }
     
     private Metrics() {
@@ -51,12 +71,56 @@ public class Metrics {
                     return METRICS.meter(name);
                 case TIMER:
                     return METRICS.timer(name);
+                case LATENCY_HISTOGRAM:
+                    return getLatencyHistogram(name);
                 default:
                     return null;
             }
         }
     }
     
+    // get metric whose name has tags, such as backend id. latency histogram is not supported.
+    public static Metric getMetric(MetricType metricType, MetricName name) {
+        switch (metricType) {
+            case COUNTER:
+                return METRICS.counter(name);
+            case HISTOGRAM:
+                return METRICS.histogram(name);
+            case METER:
+                return METRICS.meter(name);
+            case TIMER:
+                return METRICS.timer(name);
+            default:
+                return null;
+        }
+    }
+
+    // remove metrics tagged with the given tag, eg. metrics of a dropped backend
+    public static void removeTagged(String tagKey, String tagValue) {
+        for (MetricName name : METRICS.getMetrics().keySet()) {
+            if (tagValue.equals(name.getTags().get(tagKey))) {
+                METRICS.remove(name);
+            }
+        }
+    }
+
+    private static LatencyHistogram getLatencyHistogram(String name) {
+        LatencyHistogram histogram = LATENCY_HISTOGRAMS.get(name);
+        if (histogram == null) {
+            LatencyHistogram newHistogram = new LatencyHistogram();
+            histogram = LATENCY_HISTOGRAMS.putIfAbsent(name, newHistogram);
+            if (histogram == null) {
+                histogram = METRICS.register(name, newHistogram);
+            }
+        }
+        return histogram;
+    }
+
+    // register metric which can not be created by getMetric(), such as Gauge
+    public static <T extends Metric> T register(String name, T metric) {
+        return METRICS.register(name, metric);
+    }
+
     public static MetricName name(Class<?> klass, String... names) {
         return MetricRegistry.name(klass, names);
     }
@@ -73,6 +137,146 @@ public class Metrics {
             return "";
         }
     }
+
+    // Prometheus text exposition format, version 0.0.4.
+    // Meter is exported as a counter, histogram and timer are exported as summaries.
+    // Timer is exported in seconds. Tags of metric name are exported as labels, and metrics
+    // with the same name but different tags are exported under one TYPE line.
+    public static String getPrometheusStr() {
+        // prometheus name -> metrics with this name
+        Map<String, List<Map.Entry<MetricName, Metric>>> metrics = Maps.newTreeMap();
+        for (Map.Entry<MetricName, Metric> entry : METRICS.getMetrics().entrySet()) {
+            String name = toPrometheusName(PROMETHEUS_PREFIX, entry.getKey().getKey());
+            List<Map.Entry<MetricName, Metric>> sameNameMetrics = metrics.get(name);
+            if (sameNameMetrics == null) {
+                sameNameMetrics = Lists.newArrayList();
+                metrics.put(name, sameNameMetrics);
+            }
+            sameNameMetrics.add(entry);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, List<Map.Entry<MetricName, Metric>>> entry : metrics.entrySet()) {
+            boolean typeAppended = false;
+            for (Map.Entry<MetricName, Metric> metricEntry : entry.getValue()) {
+                typeAppended |= appendMetric(sb, entry.getKey(), toPrometheusLabels(metricEntry.getKey()),
+                                             metricEntry.getValue(), !typeAppended);
+            }
+        }
+        return sb.toString();
+    }
+
+    // return true if the metric is appended
+    private static boolean appendMetric(StringBuilder sb, String name, String labels, Metric metric,
+                                        boolean appendType) {
+        if (metric instanceof Counter) {
+            appendType(sb, name, "counter", appendType);
+            appendSample(sb, name, labels, "", ((Counter) metric).getCount());
+        } else if (metric instanceof Gauge) {
+            Object value = ((Gauge<?>) metric).getValue();
+            if (value instanceof Number) {
+                appendType(sb, name, "gauge", appendType);
+                appendSample(sb, name, labels, "", ((Number) value).doubleValue());
+            } else if (value instanceof Boolean) {
+                appendType(sb, name, "gauge", appendType);
+                appendSample(sb, name, labels, "", (Boolean) value ? 1 : 0);
+            } else {
+                return false;
+            }
+        } else if (metric instanceof Meter) {
+            appendType(sb, name + "_total", "counter", appendType);
+            appendSample(sb, name + "_total", labels, "", ((Meter) metric).getCount());
+        } else if (metric instanceof Timer) {
+            Timer timer = (Timer) metric;
+            // timer snapshot is in nanoseconds
+            appendSummary(sb, name + "_seconds", labels, timer.getSnapshot(), timer.getCount(), 1e-9, appendType);
+        } else if (metric instanceof Histogram) {
+            Histogram histogram = (Histogram) metric;
+            appendSummary(sb, name, labels, histogram.getSnapshot(), histogram.getCount(), 1, appendType);
+        } else if (metric instanceof LatencyHistogram) {
+            appendLatencyHistogram(sb, name, labels, (LatencyHistogram) metric, appendType);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static String toPrometheusName(String prefix, String name) {
+        StringBuilder sb = new StringBuilder(prefix.length() + name.length());
+        sb.append(prefix);
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+            sb.append(valid ? c : '_');
+        }
+        return sb.toString();
+    }
+
+    // tags of metric name as labels, such as 'backend_id="10001",host="127.0.0.1"'
+    private static String toPrometheusLabels(MetricName name) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> tag : Maps.newTreeMap(name.getTags()).entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(toPrometheusName("", tag.getKey())).append("=\"");
+            String value = tag.getValue();
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '\\' || c == '"') {
+                    sb.append('\\').append(c);
+                } else if (c == '\n') {
+                    sb.append("\\n");
+                } else {
+                    sb.append(c);
+                }
+            }
+            sb.append('"');
+        }
+        return sb.toString();
+    }
+
+    private static void appendType(StringBuilder sb, String name, String type, boolean appendType) {
+        if (appendType) {
+            sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        }
+    }
+
+    // labels are tags of metric, and extraLabel is the label of sample, such as quantile
+    private static void appendSample(StringBuilder sb, String name, String labels, String extraLabel,
+                                     double value) {
+        sb.append(name);
+        if (!labels.isEmpty() || !extraLabel.isEmpty()) {
+            sb.append('{').append(labels);
+            if (!labels.isEmpty() && !extraLabel.isEmpty()) {
+                sb.append(',');
+            }
+            sb.append(extraLabel).append('}');
+        }
+        sb.append(' ').append(value).append('\n');
+    }
+
+    private static void appendSummary(StringBuilder sb, String name, String labels, Snapshot snapshot, long count,
+                                      double factor, boolean appendType) {
+        appendType(sb, name, "summary", appendType);
+        for (double quantile : QUANTILES) {
+            appendSample(sb, name, labels, "quantile=\"" + quantile + "\"", snapshot.getValue(quantile) * factor);
+        }
+        appendSample(sb, name + "_count", labels, "", count);
+    }
+
+    private static void appendLatencyHistogram(StringBuilder sb, String name, String labels,
+                                               LatencyHistogram histogram, boolean appendType) {
+        appendType(sb, name, "histogram", appendType);
+        long[] bounds = LatencyHistogram.getBucketBounds();
+        long[] counts = histogram.getCumulativeBucketCounts();
+        for (int i = 0; i < bounds.length; i++) {
+            appendSample(sb, name + "_bucket", labels, "le=\"" + bounds[i] + "\"", counts[i]);
+        }
+        appendSample(sb, name + "_bucket", labels, "le=\"+Inf\"", counts[bounds.length]);
+        appendSample(sb, name + "_sum", labels, "", histogram.getSum());
+        appendSample(sb, name + "_count", labels, "", counts[bounds.length]);
+    }
     
 //    public static void main(String[] args) throws InterruptedException, IOException {
 //        System.out.println("Hello World!");
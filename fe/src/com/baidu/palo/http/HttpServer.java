@@ -30,6 +30,7 @@ import com.baidu.palo.http.meta.MetaService.CheckAction;
 import com.baidu.palo.http.meta.MetaService.DumpAction;
 import com.baidu.palo.http.meta.MetaService.EditsAction;
 import com.baidu.palo.http.meta.MetaService.ImageAction;
+import com.baidu.palo.http.meta.MetaService.ImageChunkAction;
 import com.baidu.palo.http.meta.MetaService.InfoAction;
 import com.baidu.palo.http.meta.MetaService.JournalIdAction;
 import com.baidu.palo.http.meta.MetaService.PutAction;
@@ -138,6 +139,7 @@ public class HttpServer {
         // meta service action
         File imageDir = MetaHelper.getMasterImageDir();
         ImageAction.registerAction(controller, imageDir);
+        ImageChunkAction.registerAction(controller, imageDir);
         EditsAction.registerAction(controller, imageDir);
         InfoAction.registerAction(controller, imageDir);
         VersionAction.registerAction(controller, imageDir);
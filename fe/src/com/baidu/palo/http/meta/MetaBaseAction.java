@@ -21,7 +21,13 @@ import com.baidu.palo.http.BaseResponse;
 import com.baidu.palo.http.action.WebBaseAction;
 import com.baidu.palo.master.MetaHelper;
 
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
 
 import java.io.File;
 
@@ -54,4 +60,21 @@ public class MetaBaseAction extends WebBaseAction {
         writeFileResponse(request, response, HttpResponseStatus.OK, file);
         return;
     }
+
+    // write binary data as response content
+    protected void writeBytesResponse(BaseRequest request, BaseResponse response, byte[] data) {
+        FullHttpResponse responseObj = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                Unpooled.wrappedBuffer(data));
+        response.updateHeader(HttpHeaders.Names.CONTENT_TYPE, "application/octet-stream");
+        response.updateHeader(HttpHeaders.Names.CONTENT_LENGTH, String.valueOf(data.length));
+        writeCustomHeaders(response, responseObj);
+        writeCookies(response, responseObj);
+
+        if (!HttpHeaders.isKeepAlive(request.getRequest())) {
+            request.getContext().write(responseObj).addListener(ChannelFutureListener.CLOSE);
+        } else {
+            responseObj.headers().set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
+            request.getContext().write(responseObj);
+        }
+    }
 }
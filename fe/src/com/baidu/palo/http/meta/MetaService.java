@@ -43,7 +43,6 @@ import org.apache.logging.log4j.Logger;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
 
@@ -78,6 +77,79 @@ public class MetaService {
         }
     }
 
+    /*
+     * Return one chunk of image file, which is used by MetaHelper.getRemoteImage().
+     * Parameters are image version, offset and length of chunk, and whether to compress it.
+     */
+    public static class ImageChunkAction extends MetaBaseAction {
+        private static final Logger LOG = LogManager.getLogger(ImageChunkAction.class);
+
+        private static final String VERSION = "version";
+        private static final String OFFSET = "offset";
+        private static final String LENGTH = "length";
+        private static final String COMPRESS = "compress";
+
+        public ImageChunkAction(ActionController controller, File imageDir) {
+            super(controller, imageDir);
+        }
+
+        public static void registerAction(ActionController controller, File imageDir)
+                throws IllegalArgException {
+            controller.registerHandler(HttpMethod.GET, "/image_chunk", new ImageChunkAction(controller, imageDir));
+        }
+
+        @Override
+        public void executeGet(BaseRequest request, BaseResponse response) {
+            String strVersion = request.getSingleParameter(VERSION);
+            String strOffset = request.getSingleParameter(OFFSET);
+            String strLength = request.getSingleParameter(LENGTH);
+            if (Strings.isNullOrEmpty(strVersion) || Strings.isNullOrEmpty(strOffset)
+                    || Strings.isNullOrEmpty(strLength)) {
+                response.appendContent("Miss parameter");
+                writeResponse(request, response, HttpResponseStatus.BAD_REQUEST);
+                return;
+            }
+
+            long version;
+            long offset;
+            int length;
+            try {
+                version = Long.parseLong(strVersion);
+                offset = Long.parseLong(strOffset);
+                length = Integer.parseInt(strLength);
+            } catch (NumberFormatException e) {
+                response.appendContent("Invalid parameter");
+                writeResponse(request, response, HttpResponseStatus.BAD_REQUEST);
+                return;
+            }
+            if (offset < 0 || length <= 0) {
+                response.appendContent("Invalid offset or length");
+                writeResponse(request, response, HttpResponseStatus.BAD_REQUEST);
+                return;
+            }
+
+            File imageFile = Storage.getImageFile(imageDir, version);
+            if (!imageFile.exists()) {
+                response.appendContent("File not exist.");
+                writeResponse(request, response, HttpResponseStatus.NOT_FOUND);
+                return;
+            }
+
+            try {
+                byte[] data = MetaHelper.readImageChunk(imageFile, offset, length);
+                response.addHeader(MetaHelper.X_IMAGE_SIZE, String.valueOf(imageFile.length()));
+                response.addHeader(MetaHelper.X_CHUNK_SIZE, String.valueOf(data.length));
+                response.addHeader(MetaHelper.X_CHUNK_CHECKSUM, String.valueOf(MetaHelper.getChecksum(data)));
+                boolean compress = Boolean.parseBoolean(request.getSingleParameter(COMPRESS));
+                response.addHeader(MetaHelper.X_CHUNK_COMPRESSED, String.valueOf(compress));
+                writeBytesResponse(request, response, compress ? MetaHelper.compress(data) : data);
+            } catch (IOException e) {
+                LOG.warn("failed to read image chunk. file: {}, offset: {}", imageFile, strOffset, e);
+                writeResponse(request, response, HttpResponseStatus.INTERNAL_SERVER_ERROR);
+            }
+        }
+    }
+
     public static class EditsAction extends MetaBaseAction {
         private static final String SEQ = "seq";
 
@@ -180,19 +252,16 @@ public class MetaService {
                 long version = Long.parseLong(strVersion);
                 String machine = request.getHostString();
                 String port = request.getSingleParameter(PORT);
-                String url = "http://" + machine + ":" + port + "/image?version=" + version;
                 String filename = Storage.IMAGE + "." + version;
                 try {
-                    OutputStream out = MetaHelper.getOutputStream(filename, dir);
-                    MetaHelper.getRemoteFile(url, TIMEOUT_SECOND * 1000, out);
-                    MetaHelper.complete(filename, dir);
+                    MetaHelper.getRemoteImage(machine, Integer.parseInt(port), version, dir, TIMEOUT_SECOND * 1000);
                     writeResponse(request, response);
                 } catch (FileNotFoundException e) {
                     LOG.warn("file not found. file: {}", filename, e);
                     writeResponse(request, response, HttpResponseStatus.NOT_FOUND);
                     return;
                 } catch (IOException e) {
-                    LOG.warn("failed to get remote file. url: {}", url, e);
+                    LOG.warn("failed to get remote image. host: {}, version: {}", machine, version, e);
                     writeResponse(request, response, HttpResponseStatus.INTERNAL_SERVER_ERROR);
                     return;
                 }
@@ -23,20 +23,37 @@ import com.baidu.palo.http.IllegalArgException;
 
 import io.netty.handler.codec.http.HttpMethod;
 
+// GET /api/metrics returns metrics in json.
+// GET /api/metrics?type=prometheus or /metrics returns metrics in Prometheus text format.
 public class MetricsAction extends RestBaseAction {
+    private static final String TYPE_PARAM = "type";
+    private static final String PROMETHEUS_TYPE = "prometheus";
+
+    private final boolean isPrometheus;
 
     public MetricsAction(ActionController controller) {
+        this(controller, false);
+    }
+
+    public MetricsAction(ActionController controller, boolean isPrometheus) {
         super(controller);
+        this.isPrometheus = isPrometheus;
     }
 
     public static void registerAction(ActionController controller) throws IllegalArgException {
         controller.registerHandler(HttpMethod.GET, "/api/metrics", new MetricsAction(controller));
+        controller.registerHandler(HttpMethod.GET, "/metrics", new MetricsAction(controller, true));
     }
 
     @Override
     public void execute(BaseRequest request, BaseResponse response) {
-        response.setContentType("application/json");
-        response.getContent().append(Metrics.getJsonStr());
+        if (isPrometheus || PROMETHEUS_TYPE.equalsIgnoreCase(request.getSingleParameter(TYPE_PARAM))) {
+            response.setContentType("text/plain; version=0.0.4");
+            response.getContent().append(Metrics.getPrometheusStr());
+        } else {
+            response.setContentType("application/json");
+            response.getContent().append(Metrics.getJsonStr());
+        }
         sendResult(request, response);
     }
 }
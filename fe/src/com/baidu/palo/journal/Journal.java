@@ -46,6 +46,9 @@ public interface Journal {
     // Write a journal and sync to disk
     public void write(short op, Writable writable);
     
+    // Write journals in one transaction and sync to disk, journal ids are assigned in list order
+    public void batchWrite(List<JournalEntity> entities);
+    
     // Delete journals whose max id is less than deleteToJournalId
     public void deleteJournals(long deleteJournalToId);
     
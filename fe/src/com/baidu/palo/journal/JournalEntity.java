@@ -35,6 +35,7 @@ import com.baidu.palo.load.LoadJob;
 import com.baidu.palo.master.Checkpoint;
 import com.baidu.palo.persist.CloneInfo;
 import com.baidu.palo.persist.ClusterInfo;
+import com.baidu.palo.persist.ColumnStatsInfo;
 import com.baidu.palo.persist.ConsistencyCheckInfo;
 import com.baidu.palo.persist.CreateTableInfo;
 import com.baidu.palo.persist.DatabaseInfo;
@@ -185,6 +186,10 @@ public class JournalEntity implements Writable {
                 data = new RestoreJob();
                 break;
             }
+            case OperationType.OP_UPDATE_COLUMN_STATS: {
+                data = new ColumnStatsInfo();
+                break;
+            }
             case OperationType.OP_FINISH_CONSISTENCY_CHECK: {
                 data = new ConsistencyCheckInfo();
                 break;
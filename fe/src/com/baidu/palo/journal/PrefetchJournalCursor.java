@@ -0,0 +1,148 @@
+// Copyright (c) 2017, Baidu.com, Inc. All Rights Reserved
+
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package com.baidu.palo.journal;
+
+import com.baidu.palo.persist.OperationType;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Read and deserialize journals in a separate thread, ahead of the thread replaying them.
+// At most *capacity* journals are prefetched.
+// Journals after OP_META_VERSION may be deserialized according to the new meta version,
+// so prefetch pauses after OP_META_VERSION until it is replayed, that is when next() is called again.
+// A failure of prefetching is thrown by next() in replay thread, after the journals prefetched before it.
+public class PrefetchJournalCursor implements JournalCursor {
+    private static final Logger LOG = LogManager.getLogger(PrefetchJournalCursor.class);
+    // marks the end of journals in queue
+    private static final JournalEntity END = new JournalEntity();
+
+    private final JournalCursor cursor;
+    private final BlockingQueue<JournalEntity> queue;
+    private final Semaphore metaVersionReplayed = new Semaphore(0);
+    private final Thread prefetcher;
+    private volatile boolean closed = false;
+    // set by prefetcher before it puts END
+    private volatile Throwable failure = null;
+
+    // only accessed by replay thread
+    private boolean waitMetaVersionReplay = false;
+    private boolean finished = false;
+
+    public PrefetchJournalCursor(JournalCursor cursor, int capacity) {
+        this.cursor = cursor;
+        this.queue = new ArrayBlockingQueue<JournalEntity>(capacity);
+        this.prefetcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                prefetch();
+            }
+        }, "journal-prefetcher");
+        this.prefetcher.setDaemon(true);
+        this.prefetcher.start();
+    }
+
+    private void prefetch() {
+        try {
+            while (!closed) {
+                JournalEntity entity = cursor.next();
+                if (entity == null) {
+                    break;
+                }
+                queue.put(entity);
+                if (entity.getOpCode() == OperationType.OP_META_VERSION) {
+                    metaVersionReplayed.acquire();
+                }
+            }
+            queue.put(END);
+        } catch (Throwable e) {
+            if (closed) {
+                return;
+            }
+            LOG.warn("failed to prefetch journal.", e);
+            failure = e;
+            try {
+                // replay thread may be waiting, and queue is full
+                while (!closed) {
+                    if (queue.offer(END, 100, TimeUnit.MILLISECONDS)) {
+                        break;
+                    }
+                }
+            } catch (InterruptedException e1) {
+                LOG.warn("journal prefetcher is interrupted.", e1);
+            }
+        }
+    }
+
+    @Override
+    public JournalEntity next() {
+        if (finished) {
+            return null;
+        }
+        if (waitMetaVersionReplay) {
+            waitMetaVersionReplay = false;
+            metaVersionReplayed.release();
+        }
+
+        JournalEntity entity;
+        try {
+            entity = queue.take();
+        } catch (InterruptedException e) {
+            LOG.warn("interrupted when waiting for prefetched journal.", e);
+            return null;
+        }
+        if (entity == END) {
+            finished = true;
+            if (failure != null) {
+                // e.g. InsufficientLogException, which is handled by replayer
+                if (failure instanceof RuntimeException) {
+                    throw (RuntimeException) failure;
+                } else if (failure instanceof Error) {
+                    throw (Error) failure;
+                }
+                throw new RuntimeException("failed to prefetch journal", failure);
+            }
+            return null;
+        }
+        if (entity.getOpCode() == OperationType.OP_META_VERSION) {
+            waitMetaVersionReplay = true;
+        }
+        return entity;
+    }
+
+    // Prefetcher is not interrupted, because interrupting a thread reading bdbje invalidates the environment.
+    // It is stopped after reading the current journal.
+    @Override
+    public void close() {
+        closed = true;
+        while (prefetcher.isAlive()) {
+            queue.clear();
+            metaVersionReplayed.release();
+            try {
+                prefetcher.join(100);
+            } catch (InterruptedException e) {
+                LOG.warn("interrupted when waiting for journal prefetcher to exit.", e);
+                break;
+            }
+        }
+        cursor.close();
+    }
+}
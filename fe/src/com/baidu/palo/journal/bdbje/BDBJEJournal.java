@@ -29,6 +29,7 @@ import com.sleepycat.je.DatabaseEntry;
 import com.sleepycat.je.DatabaseException;
 import com.sleepycat.je.LockMode;
 import com.sleepycat.je.OperationStatus;
+import com.sleepycat.je.Transaction;
 import com.sleepycat.je.rep.InsufficientLogException;
 import com.sleepycat.je.rep.NetworkRestore;
 import com.sleepycat.je.rep.NetworkRestoreConfig;
@@ -184,6 +185,96 @@ public class BDBJEJournal implements Journal {
         }
     }
 
+    /*
+     * Write all entities in one transaction, so that concurrent journals share one quorum commit.
+     */
+    @Override
+    public synchronized void batchWrite(List<JournalEntity> entities) {
+        boolean isAllTimestamp = true;
+        for (JournalEntity entity : entities) {
+            short op = entity.getOpCode();
+            if (!Catalog.getInstance().canWrite() && op != OperationType.OP_META_VERSION
+                    && op != OperationType.OP_ADD_FIRST_FRONTEND) {
+                LOG.error("the canWrite flag has not set to true yet. can not write journal. will exit. op: {}", op);
+                System.exit(-1);
+            }
+            if (op != OperationType.OP_TIMESTAMP) {
+                isAllTimestamp = false;
+            }
+        }
+
+        DatabaseEntry[] values = new DatabaseEntry[entities.size()];
+        for (int i = 0; i < entities.size(); i++) {
+            DataOutputBuffer buffer = new DataOutputBuffer(OUTPUT_BUFFER_INIT_SIZE);
+            try {
+                entities.get(i).write(buffer);
+            } catch (IOException e) {
+                // a partial batch must not be committed
+                LOG.error("serialize journal failed. will exit. op: {}", entities.get(i).getOpCode(), e);
+                System.exit(-1);
+            }
+            values[i] = new DatabaseEntry(buffer.getData(), 0, buffer.getLength());
+        }
+
+        long firstId = journalId.getAndAdd(entities.size());
+        TupleBinding<Long> idBinding = TupleBinding.getPrimitiveBinding(Long.class);
+        DatabaseEntry[] keys = new DatabaseEntry[entities.size()];
+        for (int i = 0; i < entities.size(); i++) {
+            keys[i] = new DatabaseEntry();
+            idBinding.objectToEntry(firstId + i, keys[i]);
+        }
+
+        boolean writeSuccessed = false;
+        for (int i = 0; i < RETRY_TIME && !writeSuccessed; i++) {
+            Transaction txn = null;
+            try {
+                txn = bdbEnvironment.getReplicatedEnvironment().beginTransaction(null, null);
+                boolean putSuccessed = true;
+                for (int j = 0; j < keys.length; j++) {
+                    if (currentJournalDB.put(txn, keys[j], values[j]) != OperationStatus.SUCCESS) {
+                        putSuccessed = false;
+                        break;
+                    }
+                }
+                if (putSuccessed) {
+                    txn.commit();
+                    txn = null;
+                    writeSuccessed = true;
+                    LOG.debug("master write journal {} to {} finished. db name {}",
+                              firstId, firstId + keys.length - 1, currentJournalDB.getDatabaseName());
+                }
+            } catch (DatabaseException e) {
+                LOG.error("catch an exception when writing to database. sleep and retry. journal id {} to {}",
+                          firstId, firstId + keys.length - 1, e);
+                try {
+                    Thread.sleep(5 * 1000);
+                } catch (InterruptedException e1) {
+                    e1.printStackTrace();
+                }
+            } finally {
+                if (txn != null) {
+                    try {
+                        txn.abort();
+                    } catch (DatabaseException e) {
+                        LOG.warn("abort journal transaction failed.", e);
+                    }
+                }
+            }
+        }
+
+        if (!writeSuccessed) {
+            if (isAllTimestamp) {
+                // same as write(), master should not exit because of timestamp
+                journalId.set(firstId);
+                LOG.warn("master can not achieve quorum. write timestamp fail. but will not exit.");
+                return;
+            }
+            LOG.error("write bdb failed. will exit. journalId:{} to {}, bdb database Name:{}",
+                      firstId, firstId + keys.length - 1, currentJournalDB.getDatabaseName());
+            System.exit(-1);
+        }
+    }
+
     @Override
     public JournalEntity read(long journalId) {
         List<Long> dbNames = bdbEnvironment.getDatabaseNames();
@@ -134,6 +134,20 @@ public class LocalJournal implements Journal {
         }
     }
 
+    @Override
+    public synchronized void batchWrite(List<JournalEntity> entities) {
+        try {
+            for (JournalEntity entity : entities) {
+                outputStream.write(entity.getOpCode(), entity.getData());
+            }
+            outputStream.setReadyToFlush();
+            outputStream.flush();
+            journalId.addAndGet(entities.size());
+        } catch (IOException e) {
+            LOG.error(e);
+        }
+    }
+
     @Override
     public void deleteJournals(long deleteJournalToId) {
         try {
@@ -50,10 +50,11 @@ public class ExportChecker extends Daemon {
         checkers.put(JobState.PENDING, new ExportChecker(JobState.PENDING, intervalMs));
         checkers.put(JobState.EXPORTING, new ExportChecker(JobState.EXPORTING, intervalMs));
 
-        MasterTaskExecutor pendingTaskExecutor = new MasterTaskExecutor(Config.export_pending_thread_num);
+        MasterTaskExecutor pendingTaskExecutor = new MasterTaskExecutor("export_pending", Config.export_pending_thread_num);
         executors.put(JobState.PENDING, pendingTaskExecutor);
 
-        MasterTaskExecutor exporingTaskExecutor = new MasterTaskExecutor(Config.export_exporting_thread_num);
+        MasterTaskExecutor exporingTaskExecutor = new MasterTaskExecutor("export_exporting",
+                Config.export_exporting_thread_num);
         executors.put(JobState.EXPORTING, exporingTaskExecutor);
     }
 
@@ -74,6 +74,7 @@ import com.baidu.palo.common.LoadException;
 import com.baidu.palo.common.MarkedCountDownLatch;
 import com.baidu.palo.common.Pair;
 import com.baidu.palo.common.util.ListComparator;
+import com.baidu.palo.common.util.Metrics;
 import com.baidu.palo.common.util.OrderByPair;
 import com.baidu.palo.common.util.TimeUtils;
 import com.baidu.palo.load.AsyncDeleteJob.DeleteState;
@@ -103,6 +104,8 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.gson.Gson;
 
+import io.dropwizard.metrics.Gauge;
+
 public class Load {
     private static final Logger LOG = LogManager.getLogger(Load.class);
 
@@ -180,6 +183,17 @@ public class Load {
             LOG.error("dpp default config ill-formed", e);
             System.exit(-1);
         }
+
+        // number of unfinished load jobs in each state of the serving catalog
+        for (final JobState jobState : new JobState[] {JobState.PENDING, JobState.ETL, JobState.LOADING,
+                JobState.QUORUM_FINISHED}) {
+            Metrics.register("load.job_num." + jobState.name().toLowerCase(), new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return Catalog.getInstance().getLoadInstance().getLoadJobNum(jobState);
+                }
+            });
+        }
     }
 
     public Load() {
@@ -403,6 +417,7 @@ public class Load {
             writeUnlock();
         }
         LOG.info("add load job. job: {}", job);
+        LoadChecker.notifyJob(job);
     }
 
     private LoadJob createLoadJob(LoadStmt stmt, EtlJobType etlJobType, 
@@ -1180,6 +1195,27 @@ public class Load {
         return jobs;
     }
 
+    // only unfinished states are supported, return 0 for others
+    public int getLoadJobNum(JobState jobState) {
+        readLock();
+        try {
+            switch (jobState) {
+                case PENDING:
+                    return idToPendingLoadJob.size();
+                case ETL:
+                    return idToEtlLoadJob.size();
+                case LOADING:
+                    return idToLoadingLoadJob.size();
+                case QUORUM_FINISHED:
+                    return idToQuorumFinishedLoadJob.size();
+                default:
+                    return 0;
+            }
+        } finally {
+            readUnlock();
+        }
+    }
+
     public int getLoadJobNum(JobState jobState, long dbId) {
         readLock();
         try {
@@ -2003,9 +2039,37 @@ public class Load {
         // check current job state
         if (destState != job.getState()) {
             result = false;
+        } else {
+            notifyLoadCheckers(job, srcState, destState);
         }
         return result;
     }
+
+    // check the job by checker of its new state at once,
+    // and check jobs waiting for the resources released by the job
+    private void notifyLoadCheckers(LoadJob job, JobState srcState, JobState destState) {
+        LoadChecker.notifyJob(job);
+        switch (destState) {
+            case LOADING:
+                // running etl job num limit of pending jobs
+                LoadChecker.notifyAllJobs(JobState.PENDING);
+                break;
+            case QUORUM_FINISHED:
+                // loading partitions of etl jobs
+                LoadChecker.notifyAllJobs(JobState.ETL);
+                break;
+            case CANCELLED:
+                if (srcState == null || srcState == JobState.PENDING || srcState == JobState.ETL) {
+                    LoadChecker.notifyAllJobs(JobState.PENDING);
+                }
+                if (srcState == null || srcState == JobState.LOADING) {
+                    LoadChecker.notifyAllJobs(JobState.ETL);
+                }
+                break;
+            default:
+                break;
+        }
+    }
     
     private boolean processQuorumFinished(LoadJob job, Database db) {
         long jobId = job.getId();
@@ -52,7 +52,9 @@ import com.baidu.palo.thrift.TPriority;
 import com.baidu.palo.thrift.TPushType;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
@@ -63,6 +65,9 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
+// Each checker handles jobs in one state. Jobs are checked at once when they are notified,
+// e.g. when job state is changed or push tasks are finished, and all jobs are checked every interval
+// to find out timeout jobs and progress of etl.
 public class LoadChecker extends Daemon {
     private static final Logger LOG = LogManager.getLogger(LoadChecker.class);
 
@@ -72,6 +77,12 @@ public class LoadChecker extends Daemon {
     private static Map<JobState, Map<TPriority, MasterTaskExecutor>> executors = Maps.newHashMap();
     private JobState jobState;
 
+    // ids of notified jobs, guarded by itself
+    private final Set<Long> notifiedJobIds = Sets.newLinkedHashSet();
+    // check all jobs in next cycle, guarded by notifiedJobIds
+    private boolean checkAllRequested = false;
+    private long lastCheckAllTimeMs = 0;
+
     private LoadChecker(JobState jobState, long intervalMs) {
         super("load checker " + jobState.name().toLowerCase(), intervalMs);
         this.jobState = jobState;
@@ -87,16 +98,22 @@ public class LoadChecker extends Daemon {
         checkers.put(JobState.LOADING, new LoadChecker(JobState.LOADING, intervalMs));
         checkers.put(JobState.QUORUM_FINISHED, new LoadChecker(JobState.QUORUM_FINISHED, intervalMs));
         
+        // idle normal priority workers help high priority ones, but not vice versa,
+        // so high priority workers are always available for high priority jobs
         Map<TPriority, MasterTaskExecutor> pendingPriorityMap = Maps.newHashMap();
-        pendingPriorityMap.put(TPriority.NORMAL,
-                               new MasterTaskExecutor(Config.load_pending_thread_num_normal_priority));
-        pendingPriorityMap.put(TPriority.HIGH,
-                               new MasterTaskExecutor(Config.load_pending_thread_num_high_priority));
+        pendingPriorityMap.put(TPriority.NORMAL, new MasterTaskExecutor("load_pending_normal",
+                Config.load_pending_thread_num_normal_priority));
+        pendingPriorityMap.put(TPriority.HIGH, new MasterTaskExecutor("load_pending_high",
+                Config.load_pending_thread_num_high_priority));
+        pendingPriorityMap.get(TPriority.NORMAL).stealFrom(pendingPriorityMap.get(TPriority.HIGH));
         executors.put(JobState.PENDING, pendingPriorityMap);
 
         Map<TPriority, MasterTaskExecutor> etlPriorityMap = Maps.newHashMap();
-        etlPriorityMap.put(TPriority.NORMAL, new MasterTaskExecutor(Config.load_etl_thread_num_normal_priority));
-        etlPriorityMap.put(TPriority.HIGH, new MasterTaskExecutor(Config.load_etl_thread_num_high_priority));
+        etlPriorityMap.put(TPriority.NORMAL, new MasterTaskExecutor("load_etl_normal",
+                Config.load_etl_thread_num_normal_priority));
+        etlPriorityMap.put(TPriority.HIGH, new MasterTaskExecutor("load_etl_high",
+                Config.load_etl_thread_num_high_priority));
+        etlPriorityMap.get(TPriority.NORMAL).stealFrom(etlPriorityMap.get(TPriority.HIGH));
         executors.put(JobState.ETL, etlPriorityMap);
     }
     
@@ -108,22 +125,94 @@ public class LoadChecker extends Daemon {
             loadChecker.start();
         }
     }
-    
+
+    /**
+     * check the job at once by the checker of its current state.
+     * called when job state is changed or job makes progress, such as push tasks are finished.
+     */
+    public static void notifyJob(LoadJob job) {
+        LoadChecker checker = getRunningChecker(job.getState());
+        if (checker == null) {
+            return;
+        }
+        synchronized (checker.notifiedJobIds) {
+            checker.notifiedJobIds.add(job.getId());
+        }
+        checker.wakeup();
+    }
+
+    /**
+     * check all jobs in the state at once.
+     * called when jobs waiting for resources may go on, such as loading partitions are released.
+     */
+    public static void notifyAllJobs(JobState jobState) {
+        LoadChecker checker = getRunningChecker(jobState);
+        if (checker == null) {
+            return;
+        }
+        synchronized (checker.notifiedJobIds) {
+            checker.checkAllRequested = true;
+        }
+        checker.wakeup();
+    }
+
+    // checkers only run on master, return null if checker of the state is not running
+    private static LoadChecker getRunningChecker(JobState jobState) {
+        LoadChecker checker = checkers.get(jobState);
+        if (checker == null || !checker.isAlive()) {
+            return null;
+        }
+        return checker;
+    }
+
     @Override
     protected void runOneCycle() {
-        LOG.debug("start check load jobs. job state: {}", jobState.name());
+        // get notified jobs, or all jobs if interval is reached
+        boolean checkAll;
+        List<Long> jobIds;
+        long currentTimeMs = System.currentTimeMillis();
+        synchronized (notifiedJobIds) {
+            checkAll = checkAllRequested || currentTimeMs - lastCheckAllTimeMs >= getInterval();
+            // pending jobs are started in order under the running job num limit, a notified job
+            // must not go ahead of older ones waiting for the limit
+            if (jobState == JobState.PENDING && Config.load_running_job_num_limit > 0 && !notifiedJobIds.isEmpty()) {
+                checkAll = true;
+            }
+            checkAllRequested = false;
+            jobIds = Lists.newArrayList(notifiedJobIds);
+            notifiedJobIds.clear();
+        }
+
+        Load load = Catalog.getInstance().getLoadInstance();
+        List<LoadJob> jobs;
+        if (checkAll) {
+            lastCheckAllTimeMs = currentTimeMs;
+            jobs = load.getLoadJobs(jobState);
+        } else {
+            jobs = Lists.newArrayList();
+            for (long jobId : jobIds) {
+                LoadJob job = load.getLoadJob(jobId);
+                // job may be changed to next state, and notified to next checker
+                if (job != null && job.getState() == jobState) {
+                    jobs.add(job);
+                }
+            }
+        }
+
+        LOG.debug("start check load jobs. job state: {}, check all: {}, job num: {}",
+                  jobState.name(), checkAll, jobs.size());
         switch (jobState) {
             case PENDING:
-                runPendingJobs();
+                runPendingJobs(jobs);
                 break;
             case ETL:
-                runEtlJobs();
+                runEtlJobs(jobs);
                 break;
             case LOADING:
-                runLoadingJobs();
+                runLoadingJobs(jobs);
                 break;
             case QUORUM_FINISHED:
-                runQuorumFinishedJobs();
+                runQuorumFinishedJobs(jobs, checkAll);
                 break;
             default:
                 LOG.warn("wrong job state: {}", jobState.name());
@@ -131,9 +220,8 @@ public class LoadChecker extends Daemon {
         }
     }
 
-    private void runPendingJobs() {
+    private void runPendingJobs(List<LoadJob> pendingJobs) {
         Load load = Catalog.getInstance().getLoadInstance();
-        List<LoadJob> pendingJobs = load.getLoadJobs(JobState.PENDING);
 
         // check to limit running etl job num
         int runningJobNumLimit = Config.load_running_job_num_limit;
@@ -182,8 +270,7 @@ public class LoadChecker extends Daemon {
         }
     }
 
-    private void runEtlJobs() {
-        List<LoadJob> etlJobs = Catalog.getInstance().getLoadInstance().getLoadJobs(JobState.ETL);
+    private void runEtlJobs(List<LoadJob> etlJobs) {
         for (LoadJob job : etlJobs) {
             try {
                 MasterTask task = null;
@@ -216,8 +303,7 @@ public class LoadChecker extends Daemon {
         }
     }
     
-    private void runLoadingJobs() {
-        List<LoadJob> loadingJobs = Catalog.getInstance().getLoadInstance().getLoadJobs(JobState.LOADING);
+    private void runLoadingJobs(List<LoadJob> loadingJobs) {
         for (LoadJob job : loadingJobs) {
             try {
                 LOG.info("run loading job. job: {}", job);
@@ -499,9 +585,8 @@ public class LoadChecker extends Daemon {
         return jobTotalTablets;
     }
     
-    private void runQuorumFinishedJobs() {
-        List<LoadJob> quorumFinishedJobs = Catalog.getInstance().getLoadInstance().getLoadJobs(
-                JobState.QUORUM_FINISHED);
+    // async delete jobs are not notified, they are only checked when checking all jobs
+    private void runQuorumFinishedJobs(List<LoadJob> quorumFinishedJobs, boolean checkAll) {
         for (LoadJob job : quorumFinishedJobs) {
             try {
                 LOG.info("run quorum finished job. job: {}", job);
@@ -511,6 +596,10 @@ public class LoadChecker extends Daemon {
             }
         }
 
+        if (!checkAll) {
+            return;
+        }
+
         // handle async delete job
         List<AsyncDeleteJob> quorumFinishedDeleteJobs =
                 Catalog.getInstance().getLoadInstance().getQuorumFinishedDeleteJobs();
@@ -29,6 +29,8 @@ import com.baidu.palo.persist.EditLog;
 import com.baidu.palo.persist.MetaCleaner;
 import com.baidu.palo.persist.Storage;
 
+import com.google.common.collect.Lists;
+
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
@@ -40,6 +42,11 @@ import java.net.HttpURLConnection;
 import java.net.InetSocketAddress;
 import java.net.URL;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Checkpoint daemon is running on master node. handle the checkpoint work for palo. 
@@ -96,7 +103,11 @@ public class Checkpoint extends Daemon {
             return;
         }
         
-        if (!checkMemoryEnoughToDoCheckpoint()) {
+        long imageSize = 0;
+        if (Config.checkpoint_lazy_load_table) {
+            imageSize = storage.getCurrentImageFile().length();
+        }
+        if (!checkMemoryEnoughToDoCheckpoint(imageSize)) {
             return;
         }
        
@@ -125,77 +136,57 @@ public class Checkpoint extends Daemon {
             Catalog.destroyCheckpoint(); 
         }
         
-        // push image file to all the other nodes
+        // push image file to all the other nodes in parallel, every node pulls image from master
         List<InetSocketAddress> otherNodes = Catalog.getInstance().getHaProtocol().getNoneLeaderNodes();
         int successPushed = 0;
         int otherNodesCount = 0;
-        if (otherNodes != null) {
+        ExecutorService executor = null;
+        if (otherNodes != null && !otherNodes.isEmpty()) {
             otherNodesCount = otherNodes.size();
-            for (InetSocketAddress node : otherNodes) {
-                String host = node.getHostString();
-                int port = Config.http_port;
-                
-                String url = "http://" + host + ":" + port + "/put?version=" + replayedJournalId
-                        + "&port=" + port;
-                LOG.info("Put image:{}", url);
-
-                try {
-                    MetaHelper.getRemoteFile(url, PUT_TIMEOUT_SECOND * 1000, new NullOutputStream());
-                    successPushed++;
-                } catch (IOException e) {
-                    LOG.error("Exception when pushing image file. url = {}", url, e);
-                }
-            }
-            
-            LOG.info("push image.{} to other nodes. totally {} nodes, push successed {} nodes",
-                     replayedJournalId, otherNodesCount, successPushed);
+            executor = Executors.newFixedThreadPool(otherNodesCount);
         }
-        
-        // Delete old journals
-        if (successPushed == otherNodesCount) {
-            long minOtherNodesJournalId = Long.MAX_VALUE;
-            long deleteVersion = checkPointVersion;
-            if (successPushed > 0) {
+        try {
+            if (executor != null) {
+                List<Future<Boolean>> pushResults = Lists.newArrayList();
                 for (InetSocketAddress node : otherNodes) {
-                    String host = node.getHostString();
-                    int port = Config.http_port;
-                    URL idURL;
-                    HttpURLConnection conn = null;
-                    try {
-                        /*
-                         * get current replayed journal id of each non-master nodes.
-                         * when we delete bdb database, we cannot delete db newer than
-                         * any non-master node's current replayed journal id. otherwise,
-                         * this lagging node can never get the deleted journal.
-                         */
-                        idURL = new URL("http://" + host + ":" + port + "/journal_id");
-                        conn = (HttpURLConnection) idURL.openConnection();
-                        conn.setConnectTimeout(CONNECT_TIMEOUT_SECOND * 1000);
-                        conn.setReadTimeout(READ_TIMEOUT_SECOND * 1000);
-                        String idString = conn.getHeaderField("id");
-                        long id = Long.parseLong(idString);
-                        if (minOtherNodesJournalId > id) {
-                            minOtherNodesJournalId = id;
-                        }
-                    } catch (IOException e) {
-                        LOG.error("Exception when getting current replayed journal id. host={}, port={}",
-                                host, port, e);
-                        minOtherNodesJournalId = 0;
-                        break;
-                    } finally {
-                        if (conn != null) {
-                            conn.disconnect();
-                        }
+                    pushResults.add(executor.submit(new PushImageTask(node.getHostString(), replayedJournalId)));
+                }
+                for (Future<Boolean> result : pushResults) {
+                    if (getTaskResult(result, false)) {
+                        successPushed++;
                     }
                 }
-                deleteVersion = (minOtherNodesJournalId > checkPointVersion)
-                        ? checkPointVersion : minOtherNodesJournalId;
+
+                LOG.info("push image.{} to other nodes. totally {} nodes, push successed {} nodes",
+                         replayedJournalId, otherNodesCount, successPushed);
+            }
+
+            // Delete old journals
+            if (successPushed == otherNodesCount) {
+                long minOtherNodesJournalId = Long.MAX_VALUE;
+                long deleteVersion = checkPointVersion;
+                if (successPushed > 0) {
+                    List<Future<Long>> journalIds = Lists.newArrayList();
+                    for (InetSocketAddress node : otherNodes) {
+                        journalIds.add(executor.submit(new GetJournalIdTask(node.getHostString())));
+                    }
+                    for (Future<Long> journalId : journalIds) {
+                        // 0 if failed to get journal id of any node
+                        minOtherNodesJournalId = Math.min(minOtherNodesJournalId, getTaskResult(journalId, 0L));
+                    }
+                    deleteVersion = (minOtherNodesJournalId > checkPointVersion)
+                            ? checkPointVersion : minOtherNodesJournalId;
+                }
+                editLog.deleteJournals(deleteVersion + 1);
+                LOG.info("journals <= {} are deleted. image version {}, other nodes min version {}",
+                        deleteVersion, checkPointVersion, minOtherNodesJournalId);
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
             }
-            editLog.deleteJournals(deleteVersion + 1);
-            LOG.info("journals <= {} are deleted. image version {}, other nodes min version {}", 
-                    deleteVersion, checkPointVersion, minOtherNodesJournalId);
         }
-        
+
         // Delete old image files
         MetaCleaner cleaner = new MetaCleaner(Config.meta_dir + "/image");
         try {
@@ -206,16 +197,88 @@ public class Checkpoint extends Daemon {
     
     }
     
-    private boolean checkMemoryEnoughToDoCheckpoint() {
+    private static <T> T getTaskResult(Future<T> future, T defaultValue) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            LOG.warn("interrupted when waiting for other nodes", e);
+        } catch (ExecutionException e) {
+            // already logged by task
+        }
+        return defaultValue;
+    }
+
+    private static class PushImageTask implements Callable<Boolean> {
+        private final String host;
+        private final long version;
+
+        PushImageTask(String host, long version) {
+            this.host = host;
+            this.version = version;
+        }
+
+        @Override
+        public Boolean call() {
+            int port = Config.http_port;
+            String url = "http://" + host + ":" + port + "/put?version=" + version + "&port=" + port;
+            LOG.info("Put image:{}", url);
+            try {
+                MetaHelper.getRemoteFile(url, PUT_TIMEOUT_SECOND * 1000, new NullOutputStream());
+                return true;
+            } catch (IOException e) {
+                LOG.error("Exception when pushing image file. url = {}", url, e);
+                return false;
+            }
+        }
+    }
+
+    /*
+     * get current replayed journal id of each non-master nodes.
+     * when we delete bdb database, we cannot delete db newer than
+     * any non-master node's current replayed journal id. otherwise,
+     * this lagging node can never get the deleted journal.
+     */
+    private static class GetJournalIdTask implements Callable<Long> {
+        private final String host;
+
+        GetJournalIdTask(String host) {
+            this.host = host;
+        }
+
+        @Override
+        public Long call() {
+            int port = Config.http_port;
+            HttpURLConnection conn = null;
+            try {
+                URL idURL = new URL("http://" + host + ":" + port + "/journal_id");
+                conn = (HttpURLConnection) idURL.openConnection();
+                conn.setConnectTimeout(CONNECT_TIMEOUT_SECOND * 1000);
+                conn.setReadTimeout(READ_TIMEOUT_SECOND * 1000);
+                String idString = conn.getHeaderField("id");
+                return Long.parseLong(idString);
+            } catch (IOException e) {
+                LOG.error("Exception when getting current replayed journal id. host={}, port={}",
+                        host, port, e);
+                return 0L;
+            } finally {
+                if (conn != null) {
+                    conn.disconnect();
+                }
+            }
+        }
+    }
+
+    // imageSize is 0 if tables of checkpoint catalog are not kept serialized
+    private boolean checkMemoryEnoughToDoCheckpoint(long imageSize) {
         List<String> dbNames = Catalog.getInstance().getDbNames();
         if (dbNames == null || dbNames.isEmpty()) {
             return true;
         }
         
-        int totalPartitionNum = 0;
-        int totalIndexNum = 0;
-        int totalTabletNum = 0;
-        int totalReplicaNum = 0;
+        long totalPartitionNum = 0;
+        long totalIndexNum = 0;
+        long totalTabletNum = 0;
+        long totalReplicaNum = 0;
         long stillNeedMemorySize = 0;
         
         for (String name : dbNames) {
@@ -248,12 +311,16 @@ public class Checkpoint extends Daemon {
                 db.readUnlock();
             }
         } // end for dbs
-        
-        int totalLoadJobNum = Catalog.getInstance().getLoadInstance().getLoadJobNumber();
         stillNeedMemorySize += totalPartitionNum * AVERAGE_PARTITION_SIZE;
         stillNeedMemorySize += totalIndexNum * AVERAGE_INDEX_SIZE;
         stillNeedMemorySize += totalTabletNum * AVERAGE_TABLET_SIZE;
         stillNeedMemorySize += totalReplicaNum * AVERAGE_REPLICA_SIZE;
+        
+        int totalLoadJobNum = Catalog.getInstance().getLoadInstance().getLoadJobNumber();
+        if (imageSize > 0 && imageSize < stillNeedMemorySize) {
+            // tables are kept serialized, they need about the size of image
+            stillNeedMemorySize = imageSize;
+        }
         stillNeedMemorySize += totalLoadJobNum * AVERAGE_LOADJOB_SIZE;
         
         MemoryUsage memoryUsage = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
@@ -31,6 +31,7 @@ import com.baidu.palo.catalog.TabletInvertedIndex;
 import com.baidu.palo.catalog.Partition.PartitionState;
 import com.baidu.palo.common.MetaNotFoundException;
 import com.baidu.palo.load.AsyncDeleteJob;
+import com.baidu.palo.load.LoadChecker;
 import com.baidu.palo.load.LoadJob;
 import com.baidu.palo.persist.ReplicaPersistInfo;
 import com.baidu.palo.system.Backend;
@@ -305,6 +306,8 @@ public class MasterImpl {
                 for (ReplicaPersistInfo info : infos) {
                     job.addReplicaPersistInfos(info);
                 }
+                // check whether the job is quorum finished at once
+                LoadChecker.notifyJob(job);
             } else if (pushTask.getPushType() == TPushType.DELETE) {
                 // report delete task must match version and version hash
                 if (pushTask.getVersion() != request.getRequest_version()
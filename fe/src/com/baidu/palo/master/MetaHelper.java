@@ -16,20 +16,38 @@
 package com.baidu.palo.master;
 
 import com.baidu.palo.catalog.Catalog;
+import com.baidu.palo.common.Config;
 import com.baidu.palo.common.io.IOUtils;
+import com.baidu.palo.persist.Storage;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 public class MetaHelper {
+    private static final Logger LOG = LogManager.getLogger(MetaHelper.class);
     private static final String PART_SUFFIX = ".part";
     public static final String X_IMAGE_SIZE = "X-Image-Size";
+    // uncompressed size and Adler32 checksum of one image chunk
+    public static final String X_CHUNK_SIZE = "X-Chunk-Size";
+    public static final String X_CHUNK_CHECKSUM = "X-Chunk-Checksum";
+    public static final String X_CHUNK_COMPRESSED = "X-Chunk-Compressed";
+    public static final int MAX_CHUNK_BYTES = 64 * 1024 * 1024;
     private static final int BUFFER_BYTES = 8 * 1024;
     private static final int CHECKPOINT_LIMIT_BYTES = 30 * 1024 * 1024;
 
@@ -94,4 +112,186 @@ public class MetaHelper {
         }
     }
 
+    /*
+     * Download image of given version from remote node, and save it in dir.
+     * Image is downloaded by chunks of *image_transfer_chunk_size_byte*, each chunk is compressed
+     * if *image_transfer_compress* is true, and checked by its checksum. A failed chunk is retried
+     * *image_transfer_retry_times* times. Downloaded data is kept in the .part file when transfer fails,
+     * and next transfer of the same image resumes from the end of it.
+     * Fall back to download the whole image if remote node does not support image chunk.
+     */
+    public static void getRemoteImage(String host, int port, long version, File dir, int timeout)
+            throws IOException {
+        String filename = Storage.IMAGE + "." + version;
+        File partFile = new File(dir, filename + PART_SUFFIX);
+        deleteStalePartFiles(dir, partFile);
+
+        long offset = partFile.length();
+        long imageSize = -1;
+        boolean chunkReceived = false;
+        int failedTimes = 0;
+        RandomAccessFile out = new RandomAccessFile(partFile, "rw");
+        try {
+            if (offset > 0) {
+                LOG.info("resume downloading image {} from offset {}", filename, offset);
+            }
+            while (imageSize < 0 || offset < imageSize) {
+                String url = "http://" + host + ":" + port + "/image_chunk?version=" + version
+                        + "&offset=" + offset + "&length=" + Config.image_transfer_chunk_size_byte
+                        + "&compress=" + Config.image_transfer_compress;
+                ImageChunk chunk;
+                try {
+                    chunk = getRemoteImageChunk(url, timeout);
+                } catch (FileNotFoundException e) {
+                    if (chunkReceived) {
+                        throw e;
+                    }
+                    // remote node does not support image chunk, or has no such image
+                    out.close();
+                    out = null;
+                    LOG.info("failed to get image chunk, download the whole image. url: {}", url);
+                    String imageUrl = "http://" + host + ":" + port + "/image?version=" + version;
+                    getRemoteFile(imageUrl, timeout, getOutputStream(filename, dir));
+                    break;
+                } catch (IOException e) {
+                    if (++failedTimes > Config.image_transfer_retry_times) {
+                        throw e;
+                    }
+                    LOG.warn("failed to get image chunk, retry {} times. url: {}", failedTimes, url, e);
+                    sleepBeforeRetry(failedTimes);
+                    continue;
+                }
+                chunkReceived = true;
+                failedTimes = 0;
+
+                imageSize = chunk.imageSize;
+                if (offset > imageSize) {
+                    // part file does not belong to this image, download it again
+                    LOG.warn("image {} part file is larger than image size {}, discard it", filename, imageSize);
+                    out.setLength(0);
+                    offset = 0;
+                    continue;
+                }
+                if (chunk.data.length == 0 && offset < imageSize) {
+                    throw new IOException("got empty image chunk at offset " + offset + ", image size " + imageSize);
+                }
+                out.seek(offset);
+                out.write(chunk.data);
+                offset += chunk.data.length;
+            }
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+        }
+        complete(filename, dir);
+    }
+
+    private static class ImageChunk {
+        long imageSize;
+        byte[] data;
+    }
+
+    private static ImageChunk getRemoteImageChunk(String urlStr, int timeout) throws IOException {
+        URL url = new URL(urlStr);
+        HttpURLConnection conn = null;
+        InputStream in = null;
+        try {
+            conn = (HttpURLConnection) url.openConnection();
+            conn.setConnectTimeout(timeout);
+            conn.setReadTimeout(timeout);
+            int code = conn.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_FOUND) {
+                throw new FileNotFoundException(urlStr);
+            } else if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("unexpected response code " + code + ", url: " + urlStr);
+            }
+
+            String imageSizeStr = conn.getHeaderField(X_IMAGE_SIZE);
+            String chunkSizeStr = conn.getHeaderField(X_CHUNK_SIZE);
+            String checksumStr = conn.getHeaderField(X_CHUNK_CHECKSUM);
+            if (imageSizeStr == null || chunkSizeStr == null || checksumStr == null) {
+                throw new IOException("missing image chunk header, url: " + urlStr);
+            }
+            ImageChunk chunk = new ImageChunk();
+            chunk.imageSize = Long.parseLong(imageSizeStr);
+            chunk.data = new byte[Integer.parseInt(chunkSizeStr)];
+
+            in = conn.getInputStream();
+            if (Boolean.parseBoolean(conn.getHeaderField(X_CHUNK_COMPRESSED))) {
+                in = new InflaterInputStream(in);
+            }
+            IOUtils.readFully(in, chunk.data, 0, chunk.data.length);
+            long checksum = Long.parseLong(checksumStr);
+            if (getChecksum(chunk.data) != checksum) {
+                throw new IOException("image chunk checksum mismatch, url: " + urlStr);
+            }
+            return chunk;
+        } finally {
+            if (in != null) {
+                in.close();
+            }
+            if (conn != null) {
+                conn.disconnect();
+            }
+        }
+    }
+
+    // Read at most length bytes of file from offset, return empty array if offset is beyond end of file.
+    public static byte[] readImageChunk(File file, long offset, int length) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            long size = Math.max(0, Math.min(Math.min(length, MAX_CHUNK_BYTES), in.length() - offset));
+            byte[] data = new byte[(int) size];
+            in.seek(offset);
+            in.readFully(data);
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+
+    public static byte[] compress(byte[] data) throws IOException {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length / 2 + 64);
+            DeflaterOutputStream out = new DeflaterOutputStream(bos, deflater);
+            out.write(data);
+            out.close();
+            return bos.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public static long getChecksum(byte[] data) {
+        Adler32 adler32 = new Adler32();
+        adler32.update(data, 0, data.length);
+        return adler32.getValue();
+    }
+
+    // part files of other images are left by failed transfers, and will never be resumed
+    private static void deleteStalePartFiles(File dir, File partFile) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(Storage.IMAGE + ".") && name.endsWith(PART_SUFFIX)
+                    && !name.equals(partFile.getName())) {
+                if (!file.delete()) {
+                    LOG.warn("failed to delete stale part file {}", file.getAbsolutePath());
+                }
+            }
+        }
+    }
+
+    private static void sleepBeforeRetry(int failedTimes) {
+        try {
+            Thread.sleep(1000L * failedTimes);
+        } catch (InterruptedException e) {
+            // ignore
+        }
+    }
 }
@@ -26,6 +26,8 @@ import com.baidu.palo.catalog.TabletInvertedIndex;
 import com.baidu.palo.catalog.Replica.ReplicaState;
 import com.baidu.palo.clone.CloneChecker;
 import com.baidu.palo.common.MetaNotFoundException;
+import com.baidu.palo.common.util.LatencyHistogram;
+import com.baidu.palo.common.util.Metrics;
 import com.baidu.palo.persist.ReplicaPersistInfo;
 import com.baidu.palo.system.Backend;
 import com.baidu.palo.task.AgentBatchTask;
@@ -64,6 +66,12 @@ import java.util.Set;
 
 public class ReportHandler {
     private static final Logger LOG = LogManager.getLogger(ReportHandler.class);
+    private static final LatencyHistogram TASK_REPORT_LATENCY = (LatencyHistogram) Metrics.getMetric(
+            Metrics.MetricType.LATENCY_HISTOGRAM, "report.task_latency_ms");
+    private static final LatencyHistogram TABLET_REPORT_LATENCY = (LatencyHistogram) Metrics.getMetric(
+            Metrics.MetricType.LATENCY_HISTOGRAM, "report.tablet_latency_ms");
+    private static final LatencyHistogram DISK_REPORT_LATENCY = (LatencyHistogram) Metrics.getMetric(
+            Metrics.MetricType.LATENCY_HISTOGRAM, "report.disk_latency_ms");
 
     public static TMasterResult handleReport(TReportRequest request) throws TException {
         TMasterResult result = new TMasterResult();
@@ -88,42 +96,61 @@ public class ReportHandler {
         // diff tasks
         if (request.isSetTasks()) {
             LOG.debug("REPORTING[TASK] begin. backend[{}-{}-{}]", backendId, host, bePort);
+            long start = System.currentTimeMillis();
             ReportHandler.taskReport(backendId, request.getTasks());
+            TASK_REPORT_LATENCY.update(System.currentTimeMillis() - start);
             LOG.debug("REPORTING[TASK] end. backend[{}-{}-{}]", backendId, host, bePort);
         }
 
         // diff tablets
         if (request.isSetTablets()) {
             long backendReportVersion = Catalog.getCurrentSystemInfo().getBackendReportVersion(backendId);
-            if (request.getReport_version() >= backendReportVersion) {
+            boolean isIncremental = request.isSetIncremental_tablets() && request.isIncremental_tablets();
+            long epoch = Catalog.getInstance().getEpoch();
+            if (request.getReport_version() < backendReportVersion) {
+                LOG.warn("out of date report[{}] from backend[{}]. current report version[{}]",
+                         request.getReport_version(), backendId, backendReportVersion);
+            } else if (isIncremental && (!request.isSetBase_report_version()
+                    || !backend.isTabletReportApplied(epoch, request.getBase_report_version()))) {
+                // An incremental tablet report is only applied if it is based on the last report applied
+                // by this master, otherwise backend is asked for a full report by tablets_applied = false.
+                LOG.info("base report[{}] of incremental tablet report from backend[{}] is not applied,"
+                         + " ask for full report", request.getBase_report_version(), backendId);
+            } else {
                 LOG.debug("REPORTING[TABLET] begin. backend[{}-{}-{}]", backendId, host, bePort);
                 long start = System.currentTimeMillis();
-                ReportHandler.tabletReport(backendId, request.getTablets(), request.getReport_version());
+                ReportHandler.tabletReport(backendId, request.getTablets(), request.getReport_version(),
+                                           isIncremental);
+                backend.setAppliedTabletReport(epoch, request.getReport_version());
+                result.setTablets_applied(true);
                 long end = System.currentTimeMillis();
+                TABLET_REPORT_LATENCY.update(end - start);
                 LOG.debug("REPORTING[TABLET] end. backend[{}-{}-{}]. cost: {}", backendId, host, bePort, (end - start));
-            } else {
-                LOG.warn("out of date report[{}] from backend[{}]. current report version[{}]",
-                         request.getReport_version(), backendId, backendReportVersion);
             }
         }
 
         // disks
         if (request.isSetDisks()) {
             LOG.debug("REPORTING[DISK] begin. backend[{}-{}-{}]", backendId, host, bePort);
+            long start = System.currentTimeMillis();
             ReportHandler.diskReport(backendId, request.getDisks());
+            DISK_REPORT_LATENCY.update(System.currentTimeMillis() - start);
             LOG.debug("REPORTING[DISK] end. backend[{}-{}-{}]", backendId, host, bePort);
         }
 
         return result;
     }
 
-    private static void tabletReport(long backendId, Map<Long, TTablet> backendTablets, long backendReportVersion) {
+    // If isIncremental is true, backend only reports tablets changed since last report,
+    // and tablets in meta but not reported are not deleted from meta.
+    private static void tabletReport(long backendId, Map<Long, TTablet> backendTablets, long backendReportVersion,
+                                     boolean isIncremental) {
         long start = System.currentTimeMillis();
-        LOG.info("backend[{}] reports {} tablet(s). report version: {}",
-                 backendId, backendTablets.size(), backendReportVersion);
+        LOG.info("backend[{}] reports {} tablet(s). report version: {}. incremental: {}",
+                 backendId, backendTablets.size(), backendReportVersion, isIncremental);
 
         // storage medium map
-        HashMap<Long, TStorageMedium> storageMediumMap = Catalog.getInstance().getPartitionIdToStorageMediumMap();
+        Map<Long, TStorageMedium> storageMediumMap = Catalog.getInstance().getCachedPartitionIdToStorageMediumMap();
 
         // db id -> tablet id
         ListMultimap<Long, Long> tabletSyncMap = LinkedListMultimap.create();
@@ -137,7 +164,7 @@ public class ReportHandler {
         ListMultimap<TStorageMedium, Long> tabletMigrationMap = LinkedListMultimap.create();
 
         // 1. do the diff. find out (intersection) / (be - meta) / (meta - be)
-        Catalog.getCurrentInvertedIndex().tabletReport(backendId, backendTablets, storageMediumMap,
+        Catalog.getCurrentInvertedIndex().tabletReport(backendId, backendTablets, storageMediumMap, isIncremental,
                                                        tabletSyncMap,
                                                        tabletDeleteFromMeta,
                                                        foundTabletsWithValidSchema,
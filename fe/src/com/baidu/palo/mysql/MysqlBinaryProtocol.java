@@ -0,0 +1,338 @@
+// Copyright (c) 2017, Baidu.com, Inc. All Rights Reserved
+
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package com.baidu.palo.mysql;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Helpers of MySQL binary protocol used by server side prepared statements.
+ * Parameters of COM_STMT_EXECUTE are decoded to SQL literals, and text result rows
+ * received from backends are converted to binary result rows.
+ * http://dev.mysql.com/doc/internals/en/binary-protocol-value.html
+ */
+public class MysqlBinaryProtocol {
+    // first byte of binary result row
+    private static final int BINARY_ROW_HEADER = 0x00;
+    // bit offset of null bitmap in binary result row
+    private static final int ROW_NULL_BITMAP_OFFSET = 2;
+    // first byte of NULL column in text result row
+    private static final int TEXT_NULL_VALUE = 0xfb;
+    // flag in parameter type which means unsigned value
+    public static final int PARAM_UNSIGNED_FLAG = 0x8000;
+
+    // Read one parameter value of type 'paramType' from buffer, return it as SQL literal.
+    public static String readParamAsLiteral(ByteBuffer buffer, int paramType) throws IOException {
+        boolean unsigned = (paramType & PARAM_UNSIGNED_FLAG) != 0;
+        MysqlColType type = MysqlColType.fromCode(paramType & 0xff);
+        if (type == null) {
+            throw new IOException("Unknown parameter type " + (paramType & 0xff));
+        }
+        switch (type) {
+            case MYSQL_TYPE_NULL:
+                return "NULL";
+            case MYSQL_TYPE_TINY: {
+                byte value = MysqlProto.readByte(buffer);
+                return unsigned ? String.valueOf(value & 0xff) : String.valueOf(value);
+            }
+            case MYSQL_TYPE_SHORT:
+            case MYSQL_TYPE_YEAR: {
+                int value = MysqlProto.readInt2(buffer);
+                return unsigned ? String.valueOf(value) : String.valueOf((short) value);
+            }
+            case MYSQL_TYPE_LONG:
+            case MYSQL_TYPE_INT24: {
+                int value = MysqlProto.readInt4(buffer);
+                return unsigned ? String.valueOf(value & 0xffffffffL) : String.valueOf(value);
+            }
+            case MYSQL_TYPE_LONGLONG: {
+                long value = MysqlProto.readInt8(buffer);
+                return unsigned ? Long.toUnsignedString(value) : String.valueOf(value);
+            }
+            case MYSQL_TYPE_FLOAT:
+                return toPlainString(Float.intBitsToFloat(MysqlProto.readInt4(buffer)));
+            case MYSQL_TYPE_DOUBLE:
+                return toPlainString(Double.longBitsToDouble(MysqlProto.readInt8(buffer)));
+            case MYSQL_TYPE_DATE:
+            case MYSQL_TYPE_DATETIME:
+            case MYSQL_TYPE_TIMESTAMP:
+                return readDateTime(buffer, type == MysqlColType.MYSQL_TYPE_DATE);
+            case MYSQL_TYPE_TIME:
+                return readTime(buffer);
+            case MYSQL_TYPE_DECIMAL:
+            case MYSQL_TYPE_NEWDECIMAL:
+                // decimal is sent as string, but it is a number literal in SQL
+                return new String(MysqlProto.readLenEncodedString(buffer), "UTF-8");
+            default:
+                return toStringLiteral(new String(MysqlProto.readLenEncodedString(buffer), "UTF-8"));
+        }
+    }
+
+    public static String toStringLiteral(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2);
+        sb.append('\'');
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '\'') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        sb.append('\'');
+        return sb.toString();
+    }
+
+    private static String toPlainString(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IOException("Unsupported parameter value " + value);
+        }
+        return BigDecimal.valueOf(value).toPlainString();
+    }
+
+    private static String readDateTime(ByteBuffer buffer, boolean isDate) {
+        int length = MysqlProto.readInt1(buffer);
+        int year = 0;
+        int month = 0;
+        int day = 0;
+        int hour = 0;
+        int minute = 0;
+        int second = 0;
+        if (length >= 4) {
+            year = MysqlProto.readInt2(buffer);
+            month = MysqlProto.readInt1(buffer);
+            day = MysqlProto.readInt1(buffer);
+        }
+        if (length >= 7) {
+            hour = MysqlProto.readInt1(buffer);
+            minute = MysqlProto.readInt1(buffer);
+            second = MysqlProto.readInt1(buffer);
+        }
+        if (length >= 11) {
+            // Palo does not support microsecond, just skip it
+            MysqlProto.readInt4(buffer);
+        }
+        if (isDate) {
+            return String.format("'%04d-%02d-%02d'", year, month, day);
+        }
+        return String.format("'%04d-%02d-%02d %02d:%02d:%02d'", year, month, day, hour, minute, second);
+    }
+
+    private static String readTime(ByteBuffer buffer) {
+        int length = MysqlProto.readInt1(buffer);
+        boolean negative = false;
+        long hours = 0;
+        int minute = 0;
+        int second = 0;
+        if (length >= 8) {
+            negative = MysqlProto.readInt1(buffer) == 1;
+            hours = (MysqlProto.readInt4(buffer) & 0xffffffffL) * 24;
+            hours += MysqlProto.readInt1(buffer);
+            minute = MysqlProto.readInt1(buffer);
+            second = MysqlProto.readInt1(buffer);
+        }
+        if (length >= 12) {
+            MysqlProto.readInt4(buffer);
+        }
+        return String.format("'%s%02d:%02d:%02d'", negative ? "-" : "", hours, minute, second);
+    }
+
+    // Convert one text result row to binary result row.
+    // 'types' is the column types sent in column definitions.
+    public static ByteBuffer textRowToBinary(ByteBuffer textRow, List<MysqlColType> types,
+                                             MysqlSerializer serializer) throws IOException {
+        int columnNum = types.size();
+        byte[][] values = new byte[columnNum][];
+        for (int i = 0; i < columnNum; ++i) {
+            if ((textRow.get(textRow.position()) & 0xff) == TEXT_NULL_VALUE) {
+                textRow.get();
+                values[i] = null;
+            } else {
+                values[i] = MysqlProto.readLenEncodedString(textRow);
+            }
+        }
+        return writeBinaryRow(values, types, serializer);
+    }
+
+    // Write one row of string values in binary protocol, used by results computed in FE.
+    public static ByteBuffer stringRowToBinary(List<String> row, List<MysqlColType> types,
+                                               MysqlSerializer serializer) throws IOException {
+        byte[][] values = new byte[row.size()][];
+        for (int i = 0; i < row.size(); ++i) {
+            values[i] = row.get(i) == null ? null : row.get(i).getBytes("UTF-8");
+        }
+        return writeBinaryRow(values, types, serializer);
+    }
+
+    private static ByteBuffer writeBinaryRow(byte[][] values, List<MysqlColType> types,
+                                             MysqlSerializer serializer) throws IOException {
+        serializer.reset();
+        serializer.writeInt1(BINARY_ROW_HEADER);
+        byte[] nullBitmap = new byte[(values.length + 7 + ROW_NULL_BITMAP_OFFSET) / 8];
+        for (int i = 0; i < values.length; ++i) {
+            if (values[i] == null) {
+                int bit = i + ROW_NULL_BITMAP_OFFSET;
+                nullBitmap[bit / 8] |= (byte) (1 << (bit % 8));
+            }
+        }
+        serializer.writeBytes(nullBitmap);
+        for (int i = 0; i < values.length; ++i) {
+            if (values[i] != null) {
+                writeBinaryValue(serializer, types.get(i), values[i]);
+            }
+        }
+        return serializer.toByteBuffer();
+    }
+
+    private static void writeBinaryValue(MysqlSerializer serializer, MysqlColType type, byte[] value)
+            throws IOException {
+        switch (type) {
+            case MYSQL_TYPE_TINY:
+                serializer.writeInt1((int) parseLong(new String(value, "UTF-8")));
+                break;
+            case MYSQL_TYPE_SHORT:
+            case MYSQL_TYPE_YEAR:
+                serializer.writeInt2((int) parseLong(new String(value, "UTF-8")));
+                break;
+            case MYSQL_TYPE_LONG:
+            case MYSQL_TYPE_INT24:
+                serializer.writeInt4((int) parseLong(new String(value, "UTF-8")));
+                break;
+            case MYSQL_TYPE_LONGLONG:
+                serializer.writeInt8(parseLong(new String(value, "UTF-8")));
+                break;
+            case MYSQL_TYPE_FLOAT:
+                serializer.writeInt4(Float.floatToIntBits((float) parseDouble(new String(value, "UTF-8"))));
+                break;
+            case MYSQL_TYPE_DOUBLE:
+                serializer.writeInt8(Double.doubleToLongBits(parseDouble(new String(value, "UTF-8"))));
+                break;
+            case MYSQL_TYPE_DATE:
+            case MYSQL_TYPE_DATETIME:
+            case MYSQL_TYPE_TIMESTAMP:
+                writeDateTime(serializer, new String(value, "UTF-8"));
+                break;
+            case MYSQL_TYPE_TIME:
+                writeTime(serializer, new String(value, "UTF-8"));
+                break;
+            default:
+                // decimal and string types are length encoded strings in binary protocol too
+                serializer.writeVInt(value.length);
+                serializer.writeBytes(value);
+                break;
+        }
+    }
+
+    // Throw IOException if str is not a number, rather than sending a wrong value to client.
+    static long parseLong(String str) throws IOException {
+        String value = str.trim();
+        // boolean may be printed as 'true' or 'false'
+        if (value.equalsIgnoreCase("true")) {
+            return 1;
+        } else if (value.equalsIgnoreCase("false")) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid integer value '" + str + "' in result row");
+        }
+    }
+
+    static double parseDouble(String str) throws IOException {
+        String value = str.trim().toLowerCase();
+        if (value.equals("inf") || value.equals("+inf")) {
+            return Double.POSITIVE_INFINITY;
+        } else if (value.equals("-inf")) {
+            return Double.NEGATIVE_INFINITY;
+        } else if (value.equals("nan")) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid floating point value '" + str + "' in result row");
+        }
+    }
+
+    // str is formatted as 'yyyy-MM-dd[ HH:mm:ss[.ffffff]]'
+    private static void writeDateTime(MysqlSerializer serializer, String str) {
+        int[] fields = new int[7];
+        int idx = 0;
+        int value = 0;
+        int digits = 0;
+        for (int i = 0; i < str.length() && idx < fields.length; ++i) {
+            char c = str.charAt(i);
+            if (Character.isDigit(c)) {
+                value = value * 10 + (c - '0');
+                digits++;
+            } else {
+                fields[idx++] = value;
+                value = 0;
+                digits = 0;
+            }
+        }
+        if (idx < fields.length) {
+            if (idx == 6) {
+                // scale fraction part to microsecond
+                for (; digits < 6; ++digits) {
+                    value *= 10;
+                }
+            }
+            fields[idx++] = value;
+        }
+
+        boolean hasMicro = fields[6] != 0;
+        boolean hasTime = hasMicro || fields[3] != 0 || fields[4] != 0 || fields[5] != 0;
+        boolean hasDate = hasTime || fields[0] != 0 || fields[1] != 0 || fields[2] != 0;
+        if (!hasDate) {
+            serializer.writeInt1(0);
+            return;
+        }
+        serializer.writeInt1(hasMicro ? 11 : (hasTime ? 7 : 4));
+        serializer.writeInt2(fields[0]);
+        serializer.writeInt1(fields[1]);
+        serializer.writeInt1(fields[2]);
+        if (hasTime) {
+            serializer.writeInt1(fields[3]);
+            serializer.writeInt1(fields[4]);
+            serializer.writeInt1(fields[5]);
+        }
+        if (hasMicro) {
+            serializer.writeInt4(fields[6]);
+        }
+    }
+
+    // str is formatted as '[-]HHH:mm:ss'
+    private static void writeTime(MysqlSerializer serializer, String str) throws IOException {
+        boolean negative = str.startsWith("-");
+        String[] parts = (negative ? str.substring(1) : str).split(":");
+        long hours = parts.length > 0 ? parseLong(parts[0]) : 0;
+        long minute = parts.length > 1 ? parseLong(parts[1]) : 0;
+        long second = parts.length > 2 ? (long) parseDouble(parts[2]) : 0;
+        if (hours == 0 && minute == 0 && second == 0) {
+            serializer.writeInt1(0);
+            return;
+        }
+        serializer.writeInt1(8);
+        serializer.writeInt1(negative ? 1 : 0);
+        serializer.writeInt4((int) (hours / 24));
+        serializer.writeInt1((int) (hours % 24));
+        serializer.writeInt1((int) minute);
+        serializer.writeInt1((int) second);
+    }
+}
@@ -0,0 +1,72 @@
+// Copyright (c) 2017, Baidu.com, Inc. All Rights Reserved
+
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package com.baidu.palo.mysql;
+
+import com.baidu.palo.common.Config;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Pool of direct buffers which MysqlChannel coalesces packets into before sending.
+// Writing a heap buffer to socket makes JDK copy it to a temporary direct buffer first,
+// packets put into a direct buffer are written to socket without this extra copy.
+// A channel only holds a buffer while it has data to send, so idle connections hold no buffer.
+// At most *mysql_send_buffer_pool_size* direct buffers are allocated. When all of them are in use,
+// a small heap buffer is returned, so that a burst of connections does not allocate many large
+// buffers, and large packets are written to socket directly instead of being coalesced.
+public class MysqlBufferPool {
+    public static final int FALLBACK_BUFFER_SIZE = 16 * 1024;
+
+    private static final ConcurrentLinkedQueue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+    // number of direct buffers allocated, including buffers in use
+    private static final AtomicInteger directBufferNum = new AtomicInteger(0);
+
+    public static ByteBuffer borrow() {
+        ByteBuffer buffer = freeBuffers.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+        if (directBufferNum.incrementAndGet() <= Config.mysql_send_buffer_pool_size) {
+            return ByteBuffer.allocateDirect(Config.mysql_send_buffer_size_byte);
+        }
+        directBufferNum.decrementAndGet();
+        return ByteBuffer.allocate(Math.min(FALLBACK_BUFFER_SIZE, Config.mysql_send_buffer_size_byte));
+    }
+
+    public static void release(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            return;
+        }
+        buffer.clear();
+        freeBuffers.offer(buffer);
+    }
+
+    // Drop a buffer which may still be used by others, it is left to GC.
+    public static void discard(ByteBuffer buffer) {
+        if (buffer.isDirect()) {
+            directBufferNum.decrementAndGet();
+        }
+    }
+
+    public static int getDirectBufferNum() {
+        return directBufferNum.get();
+    }
+
+    public static int getFreeBufferNum() {
+        return freeBuffers.size();
+    }
+}
@@ -21,6 +21,9 @@ import org.apache.logging.log4j.LogManager;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 
 /**
@@ -36,6 +39,10 @@ public class MysqlChannel {
     private static final int PACKET_HEADER_LEN = 4;
     // logger for this class
     private static final Logger LOG = LogManager.getLogger(MysqlChannel.class);
+    // max time to wait for a non-blocking channel to become writable in one round
+    private static final long WRITE_WAIT_TIMEOUT_MS = 1000;
+    // used by worker threads to wait until a non-blocking channel is writable
+    private static final ThreadLocal<Selector> writeSelector = new ThreadLocal<Selector>();
     // next sequence id to receive or send
     private int sequenceId;
     // channel connected with client
@@ -44,16 +51,28 @@ public class MysqlChannel {
     private ByteBuffer headerByteBuffer = ByteBuffer.allocate(PACKET_HEADER_LEN);
     // default packet byte buffer for most packet
     private ByteBuffer defaultBuffer = ByteBuffer.allocate(16 * 1024);
-    private ByteBuffer sendBuffer;
+    // buffer borrowed from MysqlBufferPool when there is data to send, null if nothing to send.
+    // sendBuffer and isClosed are guarded by sendBufferLock, because close() may be called by other thread.
+    private ByteBuffer sendBuffer = null;
+    private boolean isClosed = false;
+    private final Object sendBufferLock = new Object();
+    // bytes written to this channel
+    private long sentBytes = 0;
     private String remote;
     private String remoteIp;
     private boolean isSend;
+    // true if channel has been switched to non-blocking mode
+    private boolean nonBlocking = false;
+    // Following fields are used to assemble one logical packet in non-blocking mode
+    // packet being received, null if there is no packet in progress
+    private ByteBuffer pendingPacket = null;
+    private boolean readingHeader = true;
+    private int pendingPacketLen = 0;
 
     public MysqlChannel(SocketChannel channel) {
         if (null != channel) {
             this.sequenceId = 0;
             this.channel = channel;
-            this.sendBuffer = ByteBuffer.allocate(2 * 1024 * 1024);
             this.isSend = false;
 
             // get remote description
@@ -99,8 +118,58 @@ public class MysqlChannel {
         }
     }
 
+    // Switch channel to non-blocking mode, after that packet is received through
+    // fetchOnePacketNonBlocking() and writes wait until the channel is writable.
+    public void configureNonBlocking() throws IOException {
+        channel.configureBlocking(false);
+        nonBlocking = true;
+    }
+
+    // Register this channel to selector, interested in read event.
+    public SelectionKey register(Selector selector, Object attachment) throws ClosedChannelException {
+        return channel.register(selector, SelectionKey.OP_READ, attachment);
+    }
+
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    public long getSentBytes() {
+        return sentBytes;
+    }
+
+    private ByteBuffer getSendBuffer() throws IOException {
+        synchronized (sendBufferLock) {
+            if (isClosed) {
+                throw new IOException("Channel is closed.");
+            }
+            if (sendBuffer == null) {
+                sendBuffer = MysqlBufferPool.borrow();
+            }
+            return sendBuffer;
+        }
+    }
+
+    private void releaseSendBuffer() {
+        synchronized (sendBufferLock) {
+            if (sendBuffer != null) {
+                MysqlBufferPool.release(sendBuffer);
+                sendBuffer = null;
+            }
+        }
+    }
+
     // Close channel
     public void close() {
+        // close() may be called by other thread (e.g. KILL), so the buffer is dropped instead of
+        // being returned to pool, in case the session thread is still writing to it.
+        synchronized (sendBufferLock) {
+            isClosed = true;
+            if (sendBuffer != null) {
+                MysqlBufferPool.discard(sendBuffer);
+                sendBuffer = null;
+            }
+        }
         try {
             channel.close();
         } catch (IOException e) {
@@ -142,19 +211,7 @@ public class MysqlChannel {
                 throw new IOException("Bad packet sequence.");
             }
             int packetLen = packetLen();
-            if ((result.capacity() - result.position()) < packetLen) {
-                // byte buffer is not enough, new one packet
-                ByteBuffer tmp;
-                if (packetLen < MAX_PHYSICAL_PACKET_LENGTH) {
-                    // last packet, enough to this packet is OK.
-                    tmp = ByteBuffer.allocate(packetLen + result.position());
-                } else {
-                    // already have packet, to allocate two packet.
-                    tmp = ByteBuffer.allocate(2 * packetLen + result.position());
-                }
-                tmp.put(result.array(), 0, result.position());
-                result = tmp;
-            }
+            result = ensureCapacity(result, packetLen);
 
             // read one physical packet
             // before read, set limit to make read only one packet
@@ -174,60 +231,179 @@ public class MysqlChannel {
         return result;
     }
 
-    private void realNetSend(ByteBuffer buffer) throws IOException {
-        long bufLen = buffer.remaining();
-        long writeLen = channel.write(buffer);
+    private ByteBuffer ensureCapacity(ByteBuffer result, int packetLen) {
+        if ((result.capacity() - result.position()) < packetLen) {
+            // byte buffer is not enough, new one packet
+            ByteBuffer tmp;
+            if (packetLen < MAX_PHYSICAL_PACKET_LENGTH) {
+                // last packet, enough to this packet is OK.
+                tmp = ByteBuffer.allocate(packetLen + result.position());
+            } else {
+                // already have packet, to allocate two packet.
+                tmp = ByteBuffer.allocate(2 * packetLen + result.position());
+            }
+            tmp.put(result.array(), 0, result.position());
+            result = tmp;
+        }
+        return result;
+    }
+
+    // read data which is available now until dstBuf is full.
+    // return true if dstBuf is full, false if need to wait for more data.
+    private boolean readAvailable(ByteBuffer dstBuf) throws IOException {
+        while (dstBuf.remaining() != 0) {
+            int ret = channel.read(dstBuf);
+            // return -1 when remote peer close the channel
+            if (ret == -1) {
+                throw new IOException("Remote peer closed the channel.");
+            }
+            if (ret == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Read one logical mysql protocol packet from a non-blocking channel.
+    // Packet may arrive in many read events, the received part is kept in this channel.
+    // Return the packet when it is complete, or null if more data is needed.
+    // Throw IOException if the channel is closed or the packet is bad.
+    public ByteBuffer fetchOnePacketNonBlocking() throws IOException {
+        if (pendingPacket == null) {
+            // one command always starts with sequence id 0
+            sequenceId = 0;
+            pendingPacket = defaultBuffer;
+            pendingPacket.clear();
+            headerByteBuffer.clear();
+            readingHeader = true;
+        }
+
+        while (true) {
+            if (readingHeader) {
+                if (!readAvailable(headerByteBuffer)) {
+                    return null;
+                }
+                if (packetId() != sequenceId) {
+                    LOG.warn("receive packet sequence id[" + packetId() + "] want to get[" + sequenceId + "]");
+                    throw new IOException("Bad packet sequence.");
+                }
+                pendingPacketLen = packetLen();
+                pendingPacket = ensureCapacity(pendingPacket, pendingPacketLen);
+                pendingPacket.limit(pendingPacket.position() + pendingPacketLen);
+                readingHeader = false;
+            }
+
+            if (!readAvailable(pendingPacket)) {
+                return null;
+            }
+            accSequenceId();
+            if (pendingPacketLen != MAX_PHYSICAL_PACKET_LENGTH) {
+                ByteBuffer result = pendingPacket;
+                result.flip();
+                pendingPacket = null;
+                return result;
+            }
+            // more physical packets belong to this logical packet
+            headerByteBuffer.clear();
+            readingHeader = true;
+        }
+    }
+
+    // Write all of buffers to a non-blocking channel.
+    private void writeFully(ByteBuffer[] buffers) throws IOException {
+        ByteBuffer last = buffers[buffers.length - 1];
+        while (last.remaining() != 0) {
+            if (channel.write(buffers) == 0) {
+                waitWritable();
+            }
+        }
+    }
+
+    // Socket send buffer is full, wait until the client has read some data.
+    private void waitWritable() throws IOException {
+        Selector selector = writeSelector.get();
+        if (selector == null) {
+            selector = Selector.open();
+            writeSelector.set(selector);
+        }
+        SelectionKey key = channel.register(selector, SelectionKey.OP_WRITE);
+        try {
+            selector.select(WRITE_WAIT_TIMEOUT_MS);
+        } finally {
+            key.cancel();
+            // deregister the cancelled key, so this channel can be registered again.
+            selector.selectNow();
+        }
+    }
+
+    // More than one buffer are sent in one gathering write.
+    private void realNetSend(ByteBuffer... buffers) throws IOException {
+        long bufLen = 0;
+        for (ByteBuffer buffer : buffers) {
+            bufLen += buffer.remaining();
+        }
+        sentBytes += bufLen;
+        if (nonBlocking) {
+            writeFully(buffers);
+            isSend = true;
+            return;
+        }
+        long writeLen = buffers.length == 1 ? channel.write(buffers[0]) : channel.write(buffers);
         if (bufLen != writeLen) {
             throw new IOException("Write mysql packet failed.[write=" + writeLen
                     + ", needToWrite=" + bufLen + "]");
         }
-        channel.write(buffer);
         isSend = true;
     }
 
     public void flush() throws IOException {
-        if (null == sendBuffer || sendBuffer.position() == 0) {
+        ByteBuffer buffer;
+        synchronized (sendBufferLock) {
+            buffer = sendBuffer;
+        }
+        if (null == buffer || buffer.position() == 0) {
             // Nothing to send
             return;
         }
-        sendBuffer.flip();
-        realNetSend(sendBuffer);
-        sendBuffer.clear();
+        // socket is not written under lock, so close() is not blocked by a slow client
+        buffer.flip();
+        realNetSend(buffer);
+        // give back the buffer, so that idle connection holds no buffer
+        releaseSendBuffer();
         isSend = true;
     }
 
     private void writeHeader(int length) throws IOException {
-        if (null == sendBuffer) {
+        if (null == channel) {
             return;
         }
-        long leftLength = sendBuffer.capacity() - sendBuffer.position();
-        if (leftLength < 4) {
+        ByteBuffer buffer = getSendBuffer();
+        if (buffer.remaining() < PACKET_HEADER_LEN) {
             flush();
+            buffer = getSendBuffer();
         }
         for (int i = 0; i < 3; ++i) {
-            sendBuffer.put((byte) length);
+            buffer.put((byte) length);
             length >>= 8;
         }
-        sendBuffer.put((byte) sequenceId);
+        buffer.put((byte) sequenceId);
     }
 
     private void writeBuffer(ByteBuffer buffer) throws IOException {
-        if (null == sendBuffer) {
+        if (null == channel) {
             return;
         }
-        long leftLength = sendBuffer.capacity() - sendBuffer.position();
-        // If too long for buffer, send buffered data.
-        if (leftLength < buffer.remaining()) {
-            // Flush data in buffer.
-            flush();
-        }
-        // Send this buffer if large enough
-        if (buffer.remaining() > sendBuffer.capacity()) {
-            realNetSend(buffer);
+        ByteBuffer sendBuf = getSendBuffer();
+        // If too long for buffer, send buffered data and this buffer in one gathering write,
+        // rather than copying this buffer.
+        if (sendBuf.remaining() < buffer.remaining()) {
+            sendBuf.flip();
+            realNetSend(sendBuf, buffer);
+            releaseSendBuffer();
             return;
         }
         // Put it to
-        sendBuffer.put(buffer);
+        sendBuf.put(buffer);
     }
 
     public void sendOnePacket(ByteBuffer packet) throws IOException {
@@ -254,9 +430,7 @@ public class MysqlChannel {
     // Call this function before send query before
     public void reset() {
         isSend = false;
-        if (null != sendBuffer) {
-            sendBuffer.clear();
-        }
+        releaseSendBuffer();
     }
 
     public boolean isSend() {
@@ -15,6 +15,10 @@
 
 package com.baidu.palo.mysql;
 
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+
 // MySQL column type
 // TYPE codes are defined in the file 'mysql/include/mysql_com.h' enum enum_field_types
 // which is also demostrated in 
@@ -51,6 +55,13 @@ public enum MysqlColType {
     MYSQL_TYPE_STRING(254, "STRING"),
     MYSQL_TYPE_GEOMETRY(255, "GEOMETRY");
 
+    private static final Map<Integer, MysqlColType> CODE_MAP = Maps.newHashMap();
+    static {
+        for (MysqlColType type : values()) {
+            CODE_MAP.put(type.code, type);
+        }
+    }
+
     private MysqlColType(int code, String desc) {
         this.code = code;
         this.desc = desc;
@@ -64,6 +75,11 @@ public enum MysqlColType {
         return code;
     }
 
+    // return null if code is unknown
+    public static MysqlColType fromCode(int code) {
+        return CODE_MAP.get(code);
+    }
+
     @Override
     public String toString() {
         return desc;
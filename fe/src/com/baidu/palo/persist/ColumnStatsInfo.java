@@ -0,0 +1,81 @@
+// Copyright (c) 2017, Baidu.com, Inc. All Rights Reserved
+
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+
+package com.baidu.palo.persist;
+
+import com.baidu.palo.catalog.ColumnStats;
+import com.baidu.palo.common.io.Text;
+import com.baidu.palo.common.io.Writable;
+
+import com.google.common.collect.Maps;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
+
+// Statistics of columns of one table, collected by ANALYZE
+public class ColumnStatsInfo implements Writable {
+    private long dbId;
+    private long tableId;
+    // column name -> stats
+    private Map<String, ColumnStats> columnStats;
+
+    public ColumnStatsInfo() {
+        // for persist
+        columnStats = Maps.newHashMap();
+    }
+
+    public ColumnStatsInfo(long dbId, long tableId, Map<String, ColumnStats> columnStats) {
+        this.dbId = dbId;
+        this.tableId = tableId;
+        this.columnStats = columnStats;
+    }
+
+    public long getDbId() {
+        return dbId;
+    }
+
+    public long getTableId() {
+        return tableId;
+    }
+
+    public Map<String, ColumnStats> getColumnStats() {
+        return columnStats;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(dbId);
+        out.writeLong(tableId);
+        out.writeInt(columnStats.size());
+        for (Map.Entry<String, ColumnStats> entry : columnStats.entrySet()) {
+            Text.writeString(out, entry.getKey());
+            entry.getValue().write(out);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        dbId = in.readLong();
+        tableId = in.readLong();
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            String columnName = Text.readString(in);
+            columnStats.put(columnName, ColumnStats.read(in));
+        }
+    }
+}
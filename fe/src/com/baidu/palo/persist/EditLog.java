@@ -30,6 +30,8 @@ import com.baidu.palo.common.Config;
 import com.baidu.palo.common.FeConstants;
 import com.baidu.palo.common.io.Text;
 import com.baidu.palo.common.io.Writable;
+import com.baidu.palo.common.util.LatencyHistogram;
+import com.baidu.palo.common.util.Metrics;
 import com.baidu.palo.ha.MasterInfo;
 import com.baidu.palo.journal.Journal;
 import com.baidu.palo.journal.JournalCursor;
@@ -48,11 +50,16 @@ import com.baidu.palo.qe.SessionVariable;
 import com.baidu.palo.system.Backend;
 import com.baidu.palo.system.Frontend;
 
+import com.google.common.collect.Lists;
+
+import io.dropwizard.metrics.Histogram;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -61,6 +68,9 @@ import java.util.List;
  */
 public class EditLog {
     public static final Logger LOG = LogManager.getLogger(EditLog.class);
+    private static final String BATCH_SIZE_METRIC_NAME = "edit_log.batch_size";
+    private static final LatencyHistogram COMMIT_LATENCY = (LatencyHistogram) Metrics.getMetric(
+            Metrics.MetricType.LATENCY_HISTOGRAM, "edit_log.commit_latency_ms");
 
     private EditLogOutputStream editStream = null;
 
@@ -71,6 +81,22 @@ public class EditLog {
 
     private Journal journal;
 
+    // journals waiting for group commit, the caller which finds no writer becomes the writer,
+    // and commits the waiting journals of other callers together with its own.
+    private final LinkedList<JournalTask> pendingJournals = Lists.newLinkedList();
+    private boolean isWriting = false;
+
+    private static class JournalTask {
+        final JournalEntity entity;
+        boolean isDone = false;
+
+        JournalTask(short op, Writable writable) {
+            entity = new JournalEntity();
+            entity.setOpCode(op);
+            entity.setData(writable);
+        }
+    }
+
     public EditLog() {
         String journalType = Config.edit_log_type;
         if (journalType.equalsIgnoreCase("bdb")) {
@@ -253,6 +279,11 @@ public class EditLog {
                     catalog.getBackupHandler().replayRestoreFinish(catalog, job);
                     break;
                 }
+                case OperationType.OP_UPDATE_COLUMN_STATS: {
+                    ColumnStatsInfo info = (ColumnStatsInfo) journal.getData();
+                    catalog.getStatisticsCollector().replayUpdateColumnStats(info);
+                    break;
+                }
                 case OperationType.OP_START_ROLLUP: {
                     RollupJob job = (RollupJob) journal.getData();
                     catalog.getRollupHandler().replayInitJob(job, catalog);
@@ -556,38 +587,95 @@ public class EditLog {
     }
 
     /**
-     * Write an operation to the edit log. Do not sync to persistent store yet.
+     * Write an operation to the edit log, return after it is synced to persistent store.
      */
-    private synchronized void logEdit(short op, Writable writable) {
+    private void logEdit(short op, Writable writable) {
         if (this.getNumEditStreams() == 0) {
             LOG.error("Fatal Error : no editLog stream");
             throw new Error("Fatal Error : no editLog stream");
         }
 
+        if (Config.edit_log_group_commit_max_num <= 1) {
+            JournalTask task = new JournalTask(op, writable);
+            writeJournals(Lists.newArrayList(task));
+            return;
+        }
+
+        JournalTask task = new JournalTask(op, writable);
+        synchronized (pendingJournals) {
+            pendingJournals.addLast(task);
+        }
+        while (true) {
+            List<JournalTask> batch = Lists.newArrayList();
+            synchronized (pendingJournals) {
+                while (!task.isDone && isWriting) {
+                    try {
+                        pendingJournals.wait();
+                    } catch (InterruptedException e) {
+                        // journal must be written before caller continues
+                        LOG.warn("interrupted when waiting for journal written. op: {}", op);
+                    }
+                }
+                if (task.isDone) {
+                    return;
+                }
+                isWriting = true;
+                // journals are written in the order they are logged
+                while (!pendingJournals.isEmpty() && batch.size() < Config.edit_log_group_commit_max_num) {
+                    batch.add(pendingJournals.removeFirst());
+                }
+            }
+
+            try {
+                writeJournals(batch);
+            } finally {
+                synchronized (pendingJournals) {
+                    for (JournalTask writtenTask : batch) {
+                        writtenTask.isDone = true;
+                    }
+                    isWriting = false;
+                    pendingJournals.notifyAll();
+                }
+            }
+        }
+    }
+
+    private synchronized void writeJournals(List<JournalTask> batch) {
         long start = System.currentTimeMillis();
 
         try {
-            journal.write(op, writable);
+            if (batch.size() == 1) {
+                JournalEntity entity = batch.get(0).entity;
+                journal.write(entity.getOpCode(), entity.getData());
+            } else {
+                List<JournalEntity> entities = Lists.newArrayListWithCapacity(batch.size());
+                for (JournalTask task : batch) {
+                    entities.add(task.entity);
+                }
+                journal.batchWrite(entities);
+            }
         } catch (Exception e) {
             LOG.error("Fatal Error : write stream Exception", e);
             Runtime.getRuntime().exit(-1);
         }
 
-        // get a new transactionId
-        txId++;
+        // get new transactionIds
+        txId += batch.size();
 
         // update statistics
         long end = System.currentTimeMillis();
-        numTransactions++;
+        numTransactions += batch.size();
         totalTimeTransactions += (end - start);
+        ((Histogram) Metrics.getMetric(Metrics.MetricType.HISTOGRAM, BATCH_SIZE_METRIC_NAME)).update(batch.size());
+        COMMIT_LATENCY.update(end - start);
 
         if (LOG.isDebugEnabled()) {
-            LOG.debug("nextId = {}, numTransactions = {}, totalTimeTransactions = {}, op = {}",
-                      txId, numTransactions, totalTimeTransactions, op);
+            LOG.debug("nextId = {}, numTransactions = {}, totalTimeTransactions = {}, batch size = {}",
+                      txId, numTransactions, totalTimeTransactions, batch.size());
         }
 
-        if (txId == Config.edit_log_roll_num) {
-            LOG.info("txId is equal to edit_log_roll_num {}, will roll edit.", txId);
+        if (txId >= Config.edit_log_roll_num) {
+            LOG.info("txId {} reaches edit_log_roll_num {}, will roll edit.", txId, Config.edit_log_roll_num);
             rollEditLog();
             txId = 0;
         }
@@ -832,6 +920,10 @@ public class EditLog {
         logEdit(OperationType.OP_RESTORE_FINISH, restoreJob);
     }
 
+    public void logUpdateColumnStats(ColumnStatsInfo info) {
+        logEdit(OperationType.OP_UPDATE_COLUMN_STATS, info);
+    }
+
     public void logGlobalVariable(SessionVariable variable) {
         logEdit(OperationType.OP_GLOBAL_VARIABLE, variable);
     }
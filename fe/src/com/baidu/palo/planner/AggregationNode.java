@@ -190,6 +190,11 @@ public class AggregationNode extends PlanNode {
         if (cardinality < 0) {
             cardinality = -1;
         }
+        // grouping can't produce more rows than its input
+        long inputCardinality = getChild(0).cardinality;
+        if (inputCardinality >= 0 && (cardinality == -1 || cardinality > inputCardinality)) {
+            cardinality = inputCardinality;
+        }
         LOG.debug("stats Agg: cardinality=" + Long.toString(cardinality));
     }
 
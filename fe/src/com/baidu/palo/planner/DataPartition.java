@@ -53,11 +53,15 @@ public class DataPartition {
 
     private List<DataSplitSink.EtlRangePartitionInfo> partitions;
 
+    // for bucket shuffle partition: bucket num of the olap table whose distribution columns match exprs
+    private int bucketNum = -1;
+
     public DataPartition(TPartitionType type, List<Expr> exprs) {
         Preconditions.checkNotNull(exprs);
         Preconditions.checkState(!exprs.isEmpty());
         Preconditions.checkState(
-          type == TPartitionType.HASH_PARTITIONED || type == TPartitionType.RANGE_PARTITIONED);
+          type == TPartitionType.HASH_PARTITIONED || type == TPartitionType.RANGE_PARTITIONED
+          || type == TPartitionType.BUCKET_SHUFFLE_HASH_PARTITIONED);
         this.type = type;
         this.partitionExprs = ImmutableList.copyOf(exprs);
     }
@@ -86,6 +90,13 @@ public class DataPartition {
         return new DataPartition(TPartitionType.HASH_PARTITIONED, exprs);
     }
 
+    // rows are sent to the instance scanning their bucket of an olap table
+    public static DataPartition bucketShufflePartitioned(List<Expr> exprs, int bucketNum) {
+        DataPartition partition = new DataPartition(TPartitionType.BUCKET_SHUFFLE_HASH_PARTITIONED, exprs);
+        partition.bucketNum = bucketNum;
+        return partition;
+    }
+
     public boolean isPartitioned() {
         return type != TPartitionType.UNPARTITIONED;
     }
@@ -98,6 +109,10 @@ public class DataPartition {
         return partitionExprs;
     }
 
+    public int getBucketNum() {
+        return bucketNum;
+    }
+
     public TDataPartition toThrift() {
         TDataPartition result = new TDataPartition(type);
         if (partitionExprs != null) {
@@ -106,6 +121,9 @@ public class DataPartition {
         if (partitions != null) {
             result.setPartition_infos(DataSplitSink.EtlRangePartitionInfo.listToThrift(partitions));
         }
+        if (bucketNum > 0) {
+            result.setBucket_num(bucketNum);
+        }
         return result;
     }
 
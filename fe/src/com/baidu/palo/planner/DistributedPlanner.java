@@ -26,10 +26,17 @@ import com.baidu.palo.analysis.Expr;
 import com.baidu.palo.analysis.InsertStmt;
 import com.baidu.palo.analysis.JoinOperator;
 import com.baidu.palo.analysis.QueryStmt;
+import com.baidu.palo.analysis.SlotDescriptor;
+import com.baidu.palo.analysis.SlotRef;
+import com.baidu.palo.catalog.Column;
+import com.baidu.palo.catalog.HashDistributionInfo;
+import com.baidu.palo.catalog.PrimitiveType;
 import com.baidu.palo.catalog.Table;
 import com.baidu.palo.common.AnalysisException;
 import com.baidu.palo.common.InternalException;
 import com.baidu.palo.common.Pair;
+import com.baidu.palo.qe.ConnectContext;
+import com.baidu.palo.qe.SessionVariable;
 import com.baidu.palo.thrift.TPartitionType;
 
 import com.google.common.base.Preconditions;
@@ -39,6 +46,8 @@ import org.apache.logging.log4j.Logger;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * The distributed planner is responsible for creating an executable, distributed plan
@@ -187,7 +196,7 @@ public class DistributedPlanner {
         } else if (root instanceof HashJoinNode) {
             Preconditions.checkState(childFragments.size() == 2);
             result = createHashJoinFragment((HashJoinNode) root, childFragments.get(1),
-                    childFragments.get(0), perNodeMemLimit);
+                    childFragments.get(0), perNodeMemLimit, fragments);
         } else if (root instanceof CrossJoinNode) {
             result = createCrossJoinFragment((CrossJoinNode) root, childFragments.get(1),
                     childFragments.get(0));
@@ -270,10 +279,53 @@ public class DistributedPlanner {
      * broadcast joins. If perNodeMemLimit > 0 and the size of the hash table for a broadcast join is expected to exceed
      * that mem limit, switches to partitioned join instead. TODO: revisit the choice of broadcast as the default TODO:
      * don't create a broadcast join if we already anticipate that this will exceed the query's memory budget.
+     * Before that, if the left input scans a table bucketed by the join exprs, creates a colocate join when the
+     * right input scans a table bucketed in the same way, or a bucket shuffle join otherwise, neither of which
+     * moves the left input.
      */
     private PlanFragment createHashJoinFragment(HashJoinNode node, PlanFragment rightChildFragment,
-                                                PlanFragment leftChildFragment, long perNodeMemLimit)
+                                                PlanFragment leftChildFragment, long perNodeMemLimit,
+                                                ArrayList<PlanFragment> fragments)
             throws InternalException {
+        // join hints take precedence
+        boolean hasJoinHint = node.getInnerRef().isBroadcastJoin() || node.getInnerRef().isPartitionJoin();
+        SessionVariable sessionVariable = getSessionVariable();
+        OlapScanNode leftScanNode = hasJoinHint ? null : getBucketScanNode(leftChildFragment);
+        if (leftScanNode != null && (sessionVariable == null || !sessionVariable.isDisableColocateJoin())
+                && canColocateJoin(node, leftScanNode, leftChildFragment, rightChildFragment)) {
+            node.setDistributionMode(HashJoinNode.DistributionMode.COLOCATE);
+            // Merges rightChildFragment into leftChildFragment, each bucket of both inputs is joined
+            // on the backend which the bucket is assigned to
+            node.setChild(0, leftChildFragment.getPlanRoot());
+            node.setChild(1, rightChildFragment.getPlanRoot());
+            leftChildFragment.setPlanRoot(node);
+            for (PlanFragment childFragment : rightChildFragment.getChildren()) {
+                leftChildFragment.addChild(childFragment);
+            }
+            fragments.remove(rightChildFragment);
+            leftChildFragment.setAssignScanRangesByBucket(true);
+            setJoinPushDown(node);
+            return leftChildFragment;
+        }
+
+        List<Expr> rhsBucketExprs = null;
+        if (leftScanNode != null && (sessionVariable == null || !sessionVariable.isDisableBucketShuffleJoin())) {
+            rhsBucketExprs = getRhsBucketExprs(node, leftScanNode);
+        }
+        if (rhsBucketExprs != null && hasBucketBackends(leftChildFragment)) {
+            node.setDistributionMode(HashJoinNode.DistributionMode.BUCKET_SHUFFLE);
+            // Like broadcast join, but rightChildFragment sends each row only to the backend which the bucket
+            // of its join exprs is assigned to
+            node.setChild(0, leftChildFragment.getPlanRoot());
+            connectChildFragment(node, 1, leftChildFragment, rightChildFragment);
+            rightChildFragment.setOutputPartition(DataPartition.bucketShufflePartitioned(
+                    Expr.cloneList(rhsBucketExprs, null), leftScanNode.getHashDistributionInfo().getBucketNum()));
+            leftChildFragment.setPlanRoot(node);
+            leftChildFragment.setAssignScanRangesByBucket(true);
+            setJoinPushDown(node);
+            return leftChildFragment;
+        }
+
         // broadcast: send the rightChildFragment's output to each node executing
         // the leftChildFragment; the cost across all nodes is proportional to the
         // total amount of data sent
@@ -337,14 +389,7 @@ public class DistributedPlanner {
             node.setChild(0, leftChildFragment.getPlanRoot());
             connectChildFragment(node, 1, leftChildFragment, rightChildFragment);
             leftChildFragment.setPlanRoot(node);
-
-            if (!node.getJoinOp().isOuterJoin() && !node.getJoinOp().isSemiAntiJoin()) {
-                node.setIsPushDown(true);
-            }
-            // semi-join, only left semi join can pushDown
-            if (node.getJoinOp().isLeftSemiJoin()) {
-                node.setIsPushDown(true);
-            }
+            setJoinPushDown(node);
             return leftChildFragment;
         } else {
             node.setDistributionMode(HashJoinNode.DistributionMode.PARTITIONED);
@@ -393,6 +438,160 @@ public class DistributedPlanner {
         }
     }
 
+    // Join exprs can be pushed down to the left input if each instance builds the hash table of
+    // all right rows which can be joined with its left rows.
+    private void setJoinPushDown(HashJoinNode node) {
+        if (!node.getJoinOp().isOuterJoin() && !node.getJoinOp().isSemiAntiJoin()) {
+            node.setIsPushDown(true);
+        }
+        // semi-join, only left semi join can pushDown
+        if (node.getJoinOp().isLeftSemiJoin()) {
+            node.setIsPushDown(true);
+        }
+    }
+
+    private SessionVariable getSessionVariable() {
+        ConnectContext context = ConnectContext.get();
+        return context == null ? null : context.getSessionVariable();
+    }
+
+    /**
+     * Returns the olap scan node whose rows stay where they are scanned in the fragment, so the output
+     * of the fragment is bucketed as the table. Returns null if there is no such node, or the selected
+     * partitions of the table are not hash distributed in the same way.
+     */
+    private OlapScanNode getBucketScanNode(PlanFragment fragment) {
+        if (fragment.getDataPartition().getType() != TPartitionType.RANDOM) {
+            return null;
+        }
+        PlanNode node = fragment.getPlanRoot();
+        while (true) {
+            if (node instanceof OlapScanNode) {
+                OlapScanNode scanNode = (OlapScanNode) node;
+                return scanNode.getHashDistributionInfo() == null ? null : scanNode;
+            } else if (node instanceof SelectNode || node instanceof OlapRewriteNode
+                    || node instanceof CrossJoinNode) {
+                node = node.getChild(0);
+            } else if (node instanceof HashJoinNode && ((HashJoinNode) node).getDistributionMode()
+                    != HashJoinNode.DistributionMode.PARTITIONED) {
+                node = node.getChild(0);
+            } else {
+                return null;
+            }
+        }
+    }
+
+    // Returns the column of expr if it is a slot ref of the column scanned by scanNode, otherwise null.
+    private Column getScanColumn(Expr expr, OlapScanNode scanNode) {
+        if (!(expr instanceof SlotRef)) {
+            return null;
+        }
+        SlotDescriptor slotDesc = ((SlotRef) expr).getDesc();
+        if (slotDesc == null || !scanNode.getTupleIds().contains(slotDesc.getParent().getId())) {
+            return null;
+        }
+        return slotDesc.getColumn();
+    }
+
+    // Values of distribution columns are hashed by their types when loaded, so the value joined with
+    // a distribution column is hashed into the same bucket only if it is of the same type.
+    // Decimal and char are excluded, since equal values may be in different forms.
+    private boolean isBucketHashCompatible(PrimitiveType columnType, PrimitiveType type) {
+        return columnType == type && columnType != PrimitiveType.DECIMAL && columnType != PrimitiveType.CHAR;
+    }
+
+    /**
+     * Returns the rhs exprs of eq join conjuncts, in the order of the distribution columns of leftScanNode
+     * which the lhs exprs are on. Returns null if a distribution column is not joined, or its rhs expr
+     * may be hashed into a different bucket.
+     */
+    List<Expr> getRhsBucketExprs(HashJoinNode node, OlapScanNode leftScanNode) {
+        List<Expr> rhsExprs = Lists.newArrayList();
+        for (Column distributionColumn : leftScanNode.getHashDistributionInfo().getDistributionColumns()) {
+            Expr rhsExpr = null;
+            for (Pair<Expr, Expr> pair : node.getEqJoinConjuncts()) {
+                Column column = getScanColumn(pair.first, leftScanNode);
+                if (column != null && column.getName().equalsIgnoreCase(distributionColumn.getName())
+                        && isBucketHashCompatible(column.getDataType(), pair.second.getType().getPrimitiveType())) {
+                    rhsExpr = pair.second;
+                    break;
+                }
+            }
+            if (rhsExpr == null) {
+                return null;
+            }
+            rhsExprs.add(rhsExpr);
+        }
+        return rhsExprs;
+    }
+
+    /**
+     * Returns true if the right input scans a table bucketed in the same way as leftScanNode, each distribution
+     * column is joined with the one of the same position of the right table, and buckets of all tables
+     * scanned by both fragments can be joined locally.
+     */
+    boolean canColocateJoin(HashJoinNode node, OlapScanNode leftScanNode,
+                            PlanFragment leftChildFragment, PlanFragment rightChildFragment) {
+        OlapScanNode rightScanNode = getBucketScanNode(rightChildFragment);
+        if (rightScanNode == null) {
+            return false;
+        }
+        HashDistributionInfo leftInfo = leftScanNode.getHashDistributionInfo();
+        HashDistributionInfo rightInfo = rightScanNode.getHashDistributionInfo();
+        List<Column> leftColumns = leftInfo.getDistributionColumns();
+        List<Column> rightColumns = rightInfo.getDistributionColumns();
+        if (leftInfo.getBucketNum() != rightInfo.getBucketNum() || leftColumns.size() != rightColumns.size()) {
+            return false;
+        }
+        for (int i = 0; i < leftColumns.size(); i++) {
+            if (!isBucketHashCompatible(leftColumns.get(i).getDataType(), rightColumns.get(i).getDataType())) {
+                return false;
+            }
+            boolean isJoined = false;
+            for (Pair<Expr, Expr> pair : node.getEqJoinConjuncts()) {
+                Column leftColumn = getScanColumn(pair.first, leftScanNode);
+                Column rightColumn = getScanColumn(pair.second, rightScanNode);
+                if (leftColumn != null && rightColumn != null
+                        && leftColumn.getName().equalsIgnoreCase(leftColumns.get(i).getName())
+                        && rightColumn.getName().equalsIgnoreCase(rightColumns.get(i).getName())) {
+                    isJoined = true;
+                    break;
+                }
+            }
+            if (!isJoined) {
+                return false;
+            }
+        }
+
+        List<OlapScanNode> scanNodes = Lists.newArrayList();
+        OlapScanNode.collectFragmentScanNodes(leftChildFragment.getPlanRoot(), scanNodes);
+        OlapScanNode.collectFragmentScanNodes(rightChildFragment.getPlanRoot(), scanNodes);
+        for (OlapScanNode scanNode : scanNodes) {
+            if (scanNode.getHashDistributionInfo() == null
+                    || scanNode.getHashDistributionInfo().getBucketNum() != leftInfo.getBucketNum()) {
+                return false;
+            }
+        }
+        return hasBucketBackends(scanNodes);
+    }
+
+    // Returns true if each bucket of the fragment can be scanned on one backend.
+    private boolean hasBucketBackends(PlanFragment fragment) {
+        List<OlapScanNode> scanNodes = Lists.newArrayList();
+        OlapScanNode.collectFragmentScanNodes(fragment.getPlanRoot(), scanNodes);
+        return hasBucketBackends(scanNodes);
+    }
+
+    private boolean hasBucketBackends(List<OlapScanNode> scanNodes) {
+        for (Map.Entry<Integer, Set<Long>> entry : OlapScanNode.getCommonBucketBackends(scanNodes).entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                LOG.debug("no backend has replicas of bucket {} of all scanned tables", entry.getKey());
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Modifies the leftChildFragment to execute a cross join. The right child input is provided by an ExchangeNode,
      * which is the destination of the rightChildFragment's output.
@@ -29,6 +29,8 @@ import com.baidu.palo.analysis.SlotId;
 import com.baidu.palo.analysis.SlotRef;
 import com.baidu.palo.analysis.TableRef;
 import com.baidu.palo.catalog.ColumnStats;
+import com.baidu.palo.catalog.OlapTable;
+import com.baidu.palo.catalog.Table;
 import com.baidu.palo.common.Pair;
 import com.baidu.palo.common.InternalException;
 
@@ -163,7 +165,14 @@ public class HashJoinNode extends PlanNode {
         //   Customers
         // - # rows in Customers == # of distinct values for Customers.id
         // - the output cardinality of the join would be F.cardinality * 0.2
+        cardinality = estimateCardinality(eqJoinConjuncts, getChild(0).cardinality, getChild(1).cardinality);
+        LOG.info("stats HashJoin: cardinality=" + Long.toString(cardinality));
+    }
 
+    // Returns the cardinality of joining lhs with rhs on eqJoinConjuncts, estimated as described in
+    // computeStats(). It is also used to choose join order before the join node is created.
+    static long estimateCardinality(List<Pair<Expr, Expr>> eqJoinConjuncts, long lhsCardinality,
+                                    long rhsCardinality) {
         long maxNumDistinct = 0;
         for (Pair<Expr, Expr> eqJoinPredicate : eqJoinConjuncts) {
             if (eqJoinPredicate.first.unwrapSlotRef() == null) {
@@ -182,15 +191,15 @@ public class HashJoinNode extends PlanNode {
                 continue;
             }
             long numDistinct = stats.getNumDistinctValues();
-            // TODO rownum
-            //Table rhsTbl = slotDesc.getParent().getTableFamilyGroup().getBaseTable();
-            // if (rhsTbl != null && rhsTbl.getNumRows() != -1) {
+            Table rhsTbl = slotDesc.getParent().getTable();
+            if (rhsTbl instanceof OlapTable) {
                 // we can't have more distinct values than rows in the table, even though
-                // the metastore stats may think so
-                // LOG.info(
-                //   "#distinct=" + numDistinct + " #rows=" + Long.toString(rhsTbl.getNumRows()));
-                // numDistinct = Math.min(numDistinct, rhsTbl.getNumRows());
-            // }
+                // the stats collected before table is loaded may think so
+                long numRows = ((OlapTable) rhsTbl).getRowCount();
+                if (numRows > 0) {
+                    numDistinct = Math.min(numDistinct, numRows);
+                }
+            }
             maxNumDistinct = Math.max(maxNumDistinct, numDistinct);
             LOG.info(
               "min slotref=" + rhsSlotRef.toSql() + " #distinct=" + Long.toString(numDistinct));
@@ -200,16 +209,14 @@ public class HashJoinNode extends PlanNode {
             // if we didn't find any suitable join predicates or don't have stats
             // on the relevant columns, we very optimistically assume we're doing an
             // FK/PK join (which doesn't alter the cardinality of the left-hand side)
-            cardinality = getChild(0).cardinality;
+            return lhsCardinality;
+        } else if (lhsCardinality == -1 || rhsCardinality == -1) {
+            return -1;
         } else {
-            cardinality = Math.round((double) getChild(0).cardinality * (double) getChild(
-                1).cardinality / (double) maxNumDistinct);
             // TODO: remove log output before 1.0
-            LOG.info(
-              "lhs card=" + Long.toString(getChild(0).cardinality) + " rhs card=" + Long.toString(
-                getChild(1).cardinality));
+            LOG.info("lhs card=" + Long.toString(lhsCardinality) + " rhs card=" + Long.toString(rhsCardinality));
+            return Math.round((double) lhsCardinality * (double) rhsCardinality / (double) maxNumDistinct);
         }
-        LOG.info("stats HashJoin: cardinality=" + Long.toString(cardinality));
     }
 
     @Override
@@ -291,7 +298,11 @@ public class HashJoinNode extends PlanNode {
     enum DistributionMode {
         NONE("NONE"),
         BROADCAST("BROADCAST"),
-        PARTITIONED("PARTITIONED");
+        PARTITIONED("PARTITIONED"),
+        // both sides are bucketed by join columns in the same way, joined locally without exchange
+        COLOCATE("COLOCATE"),
+        // right side is sent to the instance scanning the same bucket of left side
+        BUCKET_SHUFFLE("BUCKET_SHUFFLE");
 
         private final String description;
 
@@ -56,6 +56,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Range;
+import com.google.common.collect.Sets;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -67,6 +68,7 @@ import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Full scan of an Olap table.
@@ -75,6 +77,8 @@ public class OlapScanNode extends ScanNode {
     private static final Logger LOG = LogManager.getLogger(OlapScanNode.class);
 
     private List<TScanRangeLocations> result = new ArrayList<TScanRangeLocations>();
+    // data size of selected tablets, used to balance scan ranges among backends
+    private Map<Long, Long> tabletIdToDataSize = Maps.newHashMap();
     private boolean isPreAggregation = false;
     private boolean canTurnOnPreAggr = true;
     private ArrayList<String> tupleColumns = new ArrayList<String>();
@@ -86,6 +90,15 @@ public class OlapScanNode extends ScanNode {
     private long totalTabletsNum = 0;
     private long selectedIndexId = -1;
     private int selectedPartitionNum = 0;
+    // sum of row count of selected tablets, and backends holding their replicas
+    private long selectedRowCount = 0;
+    private HashSet<Long> scanBackendIds = new HashSet<Long>();
+    // distribution shared by all selected partitions, null if they are not hash distributed in the same way
+    private HashDistributionInfo hashDistributionInfo = null;
+    // bucket seq -> scan ranges of selected tablets of the bucket in all selected partitions
+    private Map<Integer, List<TScanRangeLocations>> bucketSeqToScanRanges = Maps.newHashMap();
+    // bucket seq -> backends having replicas of all selected tablets of the bucket
+    private Map<Integer, Set<Long>> bucketSeqToBackends = Maps.newHashMap();
 
     boolean isFinalized = false;
 
@@ -97,6 +110,55 @@ public class OlapScanNode extends ScanNode {
         olapTable = (OlapTable) desc.getTable();
     }
 
+    // Return data size of the largest replica reported by backends, 0 if tablet is not selected.
+    public long getTabletDataSize(long tabletId) {
+        Long dataSize = tabletIdToDataSize.get(tabletId);
+        return dataSize == null ? 0 : dataSize;
+    }
+
+    public HashDistributionInfo getHashDistributionInfo() {
+        return hashDistributionInfo;
+    }
+
+    public Map<Integer, List<TScanRangeLocations>> getBucketSeqToScanRanges() {
+        return bucketSeqToScanRanges;
+    }
+
+    public Map<Integer, Set<Long>> getBucketSeqToBackends() {
+        return bucketSeqToBackends;
+    }
+
+    // Collect olap scan nodes in the fragment of root, exchange nodes are the boundary of fragment.
+    public static void collectFragmentScanNodes(PlanNode root, List<OlapScanNode> scanNodes) {
+        if (root instanceof OlapScanNode) {
+            scanNodes.add((OlapScanNode) root);
+            return;
+        }
+        if (root instanceof ExchangeNode) {
+            return;
+        }
+        for (PlanNode child : root.getChildren()) {
+            collectFragmentScanNodes(child, scanNodes);
+        }
+    }
+
+    // Return bucket seq -> backends having replicas of the bucket for all scan nodes.
+    // The backend set of a bucket is empty if no backend has all of them.
+    public static Map<Integer, Set<Long>> getCommonBucketBackends(List<OlapScanNode> scanNodes) {
+        Map<Integer, Set<Long>> result = Maps.newTreeMap();
+        for (OlapScanNode scanNode : scanNodes) {
+            for (Map.Entry<Integer, Set<Long>> entry : scanNode.getBucketSeqToBackends().entrySet()) {
+                Set<Long> backendIds = result.get(entry.getKey());
+                if (backendIds == null) {
+                    result.put(entry.getKey(), Sets.newHashSet(entry.getValue()));
+                } else {
+                    backendIds.retainAll(entry.getValue());
+                }
+            }
+        }
+        return result;
+    }
+
     public void setIsPreAggregation(boolean isPreAggregation) {
         this.isPreAggregation = isPreAggregation;
     }
@@ -134,10 +196,61 @@ public class OlapScanNode extends ScanNode {
         } catch (AnalysisException e) {
             throw new InternalException(e.getMessage());
         }
+        computeStats(analyzer);
 
         isFinalized = true;
     }
 
+    @Override
+    protected void computeStats(Analyzer analyzer) {
+        super.computeStats(analyzer);
+        // row count of selected tablets, reduced by selectivity of conjuncts not used to prune tablets
+        cardinality = Math.round((double) selectedRowCount * computeSelectivity());
+        if (hasLimit() && cardinality > limit) {
+            cardinality = limit;
+        }
+        numNodes = Math.max(scanBackendIds.size(), 1);
+        LOG.debug("stats OlapScan: cardinality={}, numNodes={}", cardinality, numNodes);
+    }
+
+    /**
+     * Estimates cardinality before finalize(), which is used to choose join order before slots
+     * are materialized and rollup is selected. Row count of base index of partitions and tablets
+     * left by pruning is used, it may over-estimate the row count of a rollup of aggregate table.
+     * Returns -1 if it fails.
+     */
+    public long estimateCardinality() {
+        long rowCount = 0;
+        try {
+            Collection<Long> partitionIds = partitionPrune(olapTable.getPartitionInfo());
+            if (partitionIds == null) {
+                partitionIds = new ArrayList<Long>();
+                for (Partition partition : olapTable.getPartitions()) {
+                    partitionIds.add(partition.getId());
+                }
+            }
+            for (Long partitionId : partitionIds) {
+                Partition partition = olapTable.getPartition(partitionId);
+                MaterializedIndex baseIndex = partition.getBaseIndex();
+                Collection<Long> tabletIds = distributionPrune(baseIndex, partition.getDistributionInfo());
+                int tabletNum = baseIndex.getTablets().size();
+                if (tabletIds == null || tabletNum == 0) {
+                    rowCount += baseIndex.getRowCount();
+                } else {
+                    rowCount += baseIndex.getRowCount() * tabletIds.size() / tabletNum;
+                }
+            }
+        } catch (AnalysisException e) {
+            LOG.debug("failed to estimate cardinality of {}: {}", olapTable.getName(), e.getMessage());
+            return -1;
+        }
+        long result = Math.round((double) rowCount * computeSelectivity());
+        if (hasLimit() && result > limit) {
+            result = limit;
+        }
+        return result;
+    }
+
     // private void analyzeVectorizedConjuncts(Analyzer analyzer) throws InternalException {
     //     for (SlotDescriptor slot : desc.getSlots()) {
     //         for (Expr conjunct : conjuncts) {
@@ -386,6 +499,12 @@ public class OlapScanNode extends ScanNode {
         long committedVersionHash = partition.getCommittedVersionHash();
         String committedVersionStr = String.valueOf(committedVersion);
         String committedVersionHashStr = String.valueOf(partition.getCommittedVersionHash());
+        // tablets of index are in order of bucket
+        Map<Long, Integer> tabletIdToBucketSeq = Maps.newHashMap();
+        List<Tablet> allTablets = index.getTablets();
+        for (int i = 0; i < allTablets.size(); i++) {
+            tabletIdToBucketSeq.put(allTablets.get(i).getId(), i);
+        }
         for (Tablet tablet : tablets) {
             long tabletId = tablet.getId();
             LOG.debug("{} tabletId={}", (logNum++), tabletId);
@@ -409,7 +528,12 @@ public class OlapScanNode extends ScanNode {
 
             Collections.shuffle(replicas);
             boolean tabletIsNull = true;
+            Set<Long> tabletBackendIds = Sets.newHashSet();
+            long dataSize = 0;
+            long rowCount = 0;
             for (Replica replica : replicas) {
+                dataSize = Math.max(dataSize, replica.getDataSize());
+                rowCount = Math.max(rowCount, replica.getRowCount());
                 Backend backend = Catalog.getCurrentSystemInfo().getBackend(replica.getBackendId());
                 if (backend == null) {
                     LOG.debug("replica {} not exists", replica.getBackendId());
@@ -421,11 +545,26 @@ public class OlapScanNode extends ScanNode {
                 scanRangeLocation.setBackend_id(replica.getBackendId());
                 scanRangeLocations.addToLocations(scanRangeLocation);
                 paloRange.addToHosts(new TNetworkAddress(ip, port));
+                scanBackendIds.add(replica.getBackendId());
+                tabletBackendIds.add(replica.getBackendId());
                 tabletIsNull = false;
             }
             if (tabletIsNull) {
                 throw new InternalException(tabletId + "have no alive replicas");
             }
+            tabletIdToDataSize.put(tabletId, dataSize);
+            selectedRowCount += rowCount;
+
+            int bucketSeq = tabletIdToBucketSeq.get(tabletId);
+            List<TScanRangeLocations> bucketScanRanges = bucketSeqToScanRanges.get(bucketSeq);
+            if (bucketScanRanges == null) {
+                bucketScanRanges = Lists.newArrayList();
+                bucketSeqToScanRanges.put(bucketSeq, bucketScanRanges);
+                bucketSeqToBackends.put(bucketSeq, tabletBackendIds);
+            } else {
+                bucketSeqToBackends.get(bucketSeq).retainAll(tabletBackendIds);
+            }
+            bucketScanRanges.add(scanRangeLocations);
             TScanRange scanRange = new TScanRange();
             scanRange.setPalo_scan_range(paloRange);
             scanRangeLocations.setScan_range(scanRange);
@@ -502,12 +641,19 @@ public class OlapScanNode extends ScanNode {
             }
         }
 
+        if (olapTable.getDefaultDistributionInfo() instanceof HashDistributionInfo) {
+            hashDistributionInfo = (HashDistributionInfo) olapTable.getDefaultDistributionInfo();
+        }
         MaterializedIndex selectedTable = null;
         int j = 0;
         for (Long partitionId : partitionIds) {
             Partition partition = olapTable.getPartition(partitionId);
             LOG.debug("selected partition: " + partition.getName());
             selectedTable = tables.get(j++).get(partitionPos);
+            if (hashDistributionInfo != null && (!hashDistributionInfo.equals(partition.getDistributionInfo())
+                    || selectedTable.getTablets().size() != hashDistributionInfo.getBucketNum())) {
+                hashDistributionInfo = null;
+            }
             List<Tablet> tablets = new ArrayList<Tablet>();
             Collection<Long> tabletIds = distributionPrune(selectedTable, partition.getDistributionInfo());
             LOG.debug("distribution prune tablets: {}", tabletIds);
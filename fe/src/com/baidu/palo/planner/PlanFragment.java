@@ -101,6 +101,11 @@ public class PlanFragment extends TreeNode<PlanFragment> {
     // if the output is UNPARTITIONED, it is being broadcast
     private DataPartition outputPartition;
 
+    // if true, scan ranges of olap scan nodes in this fragment are assigned to instances by bucket,
+    // so that rows of the same bucket are processed by the same instance; set for colocate and
+    // bucket shuffle join
+    private boolean assignScanRangesByBucket = false;
+
     // TODO: SubstitutionMap outputSmap;
     // substitution map to remap exprs onto the output of this fragment, to be applied
     // at destination fragment
@@ -239,6 +244,14 @@ public class PlanFragment extends TreeNode<PlanFragment> {
         return planRoot;
     }
 
+    public boolean isAssignScanRangesByBucket() {
+        return assignScanRangesByBucket;
+    }
+
+    public void setAssignScanRangesByBucket(boolean assignScanRangesByBucket) {
+        this.assignScanRangesByBucket = assignScanRangesByBucket;
+    }
+
     public void setPlanRoot(PlanNode root) {
         planRoot = root;
         setFragmentInPlanTree(planRoot);
@@ -426,11 +426,13 @@ abstract public class PlanNode extends TreeNode<PlanNode> {
 
     /**
      * Compute the product of the selectivies of all conjuncts.
+     * Conjuncts whose selectivity is unknown take the default selectivity.
      */
     protected double computeSelectivity() {
         double prod = 1.0;
         for (Expr e : conjuncts) {
-            prod *= e.getSelectivity();
+            double selectivity = e.getSelectivity();
+            prod *= selectivity < 0 ? Expr.DEFAULT_SELECTIVITY : selectivity;
         }
         return prod;
     }
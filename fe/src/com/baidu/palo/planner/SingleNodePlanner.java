@@ -34,6 +34,7 @@ import com.baidu.palo.analysis.FunctionCallExpr;
 import com.baidu.palo.analysis.InPredicate;
 import com.baidu.palo.analysis.InlineViewRef;
 import com.baidu.palo.analysis.IsNullPredicate;
+import com.baidu.palo.analysis.JoinOperator;
 import com.baidu.palo.analysis.LiteralExpr;
 import com.baidu.palo.analysis.NullLiteral;
 import com.baidu.palo.analysis.QueryStmt;
@@ -55,6 +56,7 @@ import com.baidu.palo.common.InternalException;
 import com.baidu.palo.common.NotImplementedException;
 import com.baidu.palo.common.Pair;
 import com.baidu.palo.common.Reference;
+import com.baidu.palo.qe.ConnectContext;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
@@ -65,6 +67,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -624,29 +627,17 @@ public class SingleNodePlanner {
             rowTuples.addAll(tblRef.getMaterializedTupleIds());
         }
 
-        // create left-deep sequence of binary hash joins; assign node ids as we go along
-        TableRef tblRef = selectStmt.getTableRefs().get(0);
-        PlanNode root = createTableRefNode(analyzer, tblRef);
+        // create plans of all table refs before joining them, so that join order can be chosen by their
+        // cardinalities
+        List<TableRef> tblRefs = selectStmt.getTableRefs();
+        List<PlanNode> tblRefPlans = Lists.newArrayList();
+        for (TableRef tblRef : tblRefs) {
+            tblRefPlans.add(createJoinInputNode(analyzer, tblRef));
+        }
+        PlanNode root = tblRefPlans.get(0);
         // to change the inner contains analytic function
         // selectStmt.seondSubstituteInlineViewExprs(analyzer.getChangeResSmap());
 
-        if (root instanceof ScanNode) {
-            if (tblRef.getDesc().getSlots().isEmpty()) {
-                Column minimuColumn = null;
-                for (Column col : tblRef.getTable().getBaseSchema()) {
-                    if (minimuColumn == null || col.getDataType().getSlotSize() < minimuColumn
-                            .getDataType().getSlotSize()) {
-                        minimuColumn = col;
-                    }
-                }
-                if (minimuColumn != null) {
-                    SlotDescriptor slot = analyzer.getDescTbl().addSlotDescriptor(tblRef.getDesc());
-                    slot.setColumn(minimuColumn);
-                    slot.setIsMaterialized(true);
-                }
-            }
-        }
-
 
         // add aggregate node here
         AggregateInfo aggInfo = selectStmt.getAggInfo();
@@ -680,10 +671,13 @@ public class SingleNodePlanner {
             }
         }
 
-        for (int i = 1; i < selectStmt.getTableRefs().size(); ++i) {
-            TableRef outerRef = selectStmt.getTableRefs().get(i - 1);
-            TableRef innerRef = selectStmt.getTableRefs().get(i);
-            root = createJoinNode(analyzer, root, outerRef, innerRef);
+        // create left-deep sequence of binary hash joins; assign node ids as we go along
+        List<Integer> joinOrder = getJoinOrder(analyzer, tblRefs, tblRefPlans);
+        root = tblRefPlans.get(joinOrder.get(0));
+        for (int i = 1; i < joinOrder.size(); ++i) {
+            TableRef outerRef = tblRefs.get(joinOrder.get(i - 1));
+            TableRef innerRef = tblRefs.get(joinOrder.get(i));
+            root = createJoinNode(analyzer, root, tblRefPlans.get(joinOrder.get(i)), outerRef, innerRef);
             // Have the build side of a join copy data to a compact representation
             // in the tuple buffer.
             root.getChildren().get(1).setCompactData(true);
@@ -1224,37 +1218,148 @@ public class SingleNodePlanner {
     }
 
     /**
-     * Creates a new node to join outer with inner. Collects and assigns join conjunct
-     * as well as regular conjuncts. Calls init() on the new join node.
-     * Throws if the JoinNode.init() fails.
+     * Create the plan of tblRef as an input of joins. A scan without referenced slots
+     * materializes the smallest column, so that it still produces rows.
      */
-    private PlanNode createJoinNode(Analyzer analyzer, PlanNode outer, TableRef outerRef, TableRef innerRef)
+    private PlanNode createJoinInputNode(Analyzer analyzer, TableRef tblRef)
             throws InternalException, AnalysisException {
-        // the rows coming from the build node only need to have space for the tuple
-        // materialized by that node
-        PlanNode inner = createTableRefNode(analyzer, innerRef);
-
-        // if (((outerRef instanceof InlineViewRef) || (innerRef instanceof InlineViewRef))
-        //         && (analyzer.getWindowBool())) {
-        //     throw new AnalysisException("can't support it");
-        // }
-
-        if (inner instanceof ScanNode) {
-            if (innerRef.getDesc().getSlots().isEmpty()) {
+        PlanNode node = createTableRefNode(analyzer, tblRef);
+        if (node instanceof ScanNode) {
+            if (tblRef.getDesc().getSlots().isEmpty()) {
                 Column minimuColumn = null;
-                for (Column col : innerRef.getTable().getBaseSchema()) {
+                for (Column col : tblRef.getTable().getBaseSchema()) {
                     if (minimuColumn == null || col.getDataType().getSlotSize() < minimuColumn
                             .getDataType().getSlotSize()) {
                         minimuColumn = col;
                     }
                 }
                 if (minimuColumn != null) {
-                    SlotDescriptor slot = analyzer.getDescTbl().addSlotDescriptor(innerRef.getDesc());
+                    SlotDescriptor slot = analyzer.getDescTbl().addSlotDescriptor(tblRef.getDesc());
                     slot.setColumn(minimuColumn);
                     slot.setIsMaterialized(true);
                 }
             }
         }
+        return node;
+    }
+
+    // Cardinality of the plan of a table ref before it is finalized, -1 if unknown.
+    private long estimateCardinality(PlanNode node) {
+        if (node instanceof OlapScanNode) {
+            return ((OlapScanNode) node).estimateCardinality();
+        }
+        return node.getCardinality();
+    }
+
+    /**
+     * Returns the order to join tblRefs, as their indexes.
+     * The leading inner joined table refs are reordered greedily by estimated cardinalities:
+     * the largest one is the leftmost, which is neither hashed nor broadcast, then the one
+     * minimizing cardinality of the join result is joined each time. Those which can be joined
+     * by eq join conjuncts are preferred, so no cross join is created if the FROM clause order
+     * doesn't need one.
+     * Table refs from the first outer, semi or anti join, or join with hints, keep their positions.
+     * The FROM clause order is kept if the cardinality of any table ref is unknown.
+     * Reordered table refs are inner joined, whether they were cross joined in the FROM clause or not.
+     */
+    List<Integer> getJoinOrder(Analyzer analyzer, List<TableRef> tblRefs, List<PlanNode> tblRefPlans) {
+        List<Integer> joinOrder = Lists.newArrayList();
+        for (int i = 0; i < tblRefs.size(); i++) {
+            joinOrder.add(i);
+        }
+        ConnectContext context = ConnectContext.get();
+        if (context != null && context.getSessionVariable().isDisableJoinReorder()) {
+            return joinOrder;
+        }
+
+        int numReorderable = 1;
+        while (numReorderable < tblRefs.size()) {
+            TableRef tblRef = tblRefs.get(numReorderable);
+            JoinOperator joinOp = tblRef.getJoinOp();
+            if (!(joinOp.isInnerJoin() || joinOp.isCrossJoin()) || tblRef.isBroadcastJoin()
+                    || tblRef.isPartitionJoin()) {
+                break;
+            }
+            numReorderable++;
+        }
+        if (numReorderable < 2) {
+            return joinOrder;
+        }
+        long[] cardinalities = new long[numReorderable];
+        for (int i = 0; i < numReorderable; i++) {
+            cardinalities[i] = estimateCardinality(tblRefPlans.get(i));
+            if (cardinalities[i] < 0) {
+                LOG.debug("keep join order, cardinality of {} is unknown", tblRefs.get(i).getUniqueAlias());
+                return joinOrder;
+            }
+        }
+
+        List<Integer> candidates = Lists.newArrayList();
+        int leftmost = 0;
+        for (int i = 0; i < numReorderable; i++) {
+            candidates.add(i);
+            if (cardinalities[i] > cardinalities[leftmost]) {
+                leftmost = i;
+            }
+        }
+        List<Integer> reordered = Lists.newArrayList(leftmost);
+        candidates.remove(Integer.valueOf(leftmost));
+        List<TupleId> joinedIds = Lists.newArrayList(tblRefPlans.get(leftmost).getTblRefIds());
+        long cardinality = cardinalities[leftmost];
+        while (!candidates.isEmpty()) {
+            int next = -1;
+            boolean nextHasEqJoin = false;
+            long nextCardinality = 0;
+            for (int candidate : candidates) {
+                List<Pair<Expr, Expr>> eqJoinConjuncts = Lists.newArrayList();
+                getHashLookupJoinConjuncts(analyzer, joinedIds, tblRefs.get(candidate), eqJoinConjuncts,
+                        Lists.<Expr>newArrayList(), new Reference<String>());
+                boolean hasEqJoin = !eqJoinConjuncts.isEmpty();
+                long joinCardinality;
+                if (hasEqJoin) {
+                    joinCardinality = HashJoinNode.estimateCardinality(
+                            eqJoinConjuncts, cardinality, cardinalities[candidate]);
+                } else {
+                    joinCardinality = Math.round((double) cardinality * (double) cardinalities[candidate]);
+                }
+                // smaller build side is preferred if join results are of the same size
+                if (next == -1 || (hasEqJoin && !nextHasEqJoin)
+                        || (hasEqJoin == nextHasEqJoin && (joinCardinality < nextCardinality
+                        || (joinCardinality == nextCardinality && cardinalities[candidate] < cardinalities[next])))) {
+                    next = candidate;
+                    nextHasEqJoin = hasEqJoin;
+                    nextCardinality = joinCardinality;
+                }
+            }
+            reordered.add(next);
+            candidates.remove(Integer.valueOf(next));
+            joinedIds.addAll(tblRefPlans.get(next).getTblRefIds());
+            cardinality = nextCardinality;
+        }
+        LOG.debug("join order of table refs: {}, cardinalities: {}", reordered, Arrays.toString(cardinalities));
+
+        for (int i = 0; i < numReorderable; i++) {
+            joinOrder.set(i, reordered.get(i));
+            // a CROSS JOIN ref may be joined by eq join conjuncts at its new position
+            TableRef tblRef = tblRefs.get(reordered.get(i));
+            if (tblRef.getJoinOp().isCrossJoin()) {
+                tblRef.setJoinOp(JoinOperator.INNER_JOIN);
+            }
+        }
+        return joinOrder;
+    }
+
+    /**
+     * Creates a new node to join outer with inner, which is the plan of innerRef. Collects and
+     * assigns join conjunct as well as regular conjuncts. Calls init() on the new join node.
+     * Throws if the JoinNode.init() fails.
+     */
+    private PlanNode createJoinNode(Analyzer analyzer, PlanNode outer, PlanNode inner, TableRef outerRef,
+                                    TableRef innerRef) throws InternalException, AnalysisException {
+        // if (((outerRef instanceof InlineViewRef) || (innerRef instanceof InlineViewRef))
+        //         && (analyzer.getWindowBool())) {
+        //     throw new AnalysisException("can't support it");
+        // }
 
         List<Pair<Expr, Expr>> eqJoinConjuncts = Lists.newArrayList();
         List<Expr> eqJoinPredicates = Lists.newArrayList();
@@ -17,9 +17,11 @@ package com.baidu.palo.qe;
 
 import java.nio.channels.SocketChannel;
 import java.util.List;
+import java.util.Map;
 
 import com.baidu.palo.catalog.Catalog;
 import com.baidu.palo.cluster.ClusterNamespace;
+import com.baidu.palo.common.Config;
 import com.baidu.palo.mysql.MysqlCapability;
 import com.baidu.palo.mysql.MysqlChannel;
 import com.baidu.palo.mysql.MysqlCommand;
@@ -28,6 +30,7 @@ import com.baidu.palo.thrift.TResourceInfo;
 import com.baidu.palo.thrift.TUniqueId;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -48,6 +51,8 @@ public class ConnectContext {
     // state
     private volatile QueryState state;
     private volatile long returnRows;
+    // bytes of result rows sent to client
+    private volatile long returnBytes;
     // the protocol capability which server say it can support
     private volatile MysqlCapability serverCapability;
     // the protocol capability after server and client negotiate
@@ -82,6 +87,10 @@ public class ConnectContext {
 
     private AuditBuilder auditBuilder;
 
+    // Server side prepared statements of this session, only accessed by the thread serving this session.
+    private Map<Integer, ServerPreparedStmt> preparedStmts = Maps.newHashMap();
+    private int nextPreparedStmtId = 1;
+
     public static ConnectContext get() {
         return threadLocalInfo.get();
     }
@@ -101,6 +110,7 @@ public class ConnectContext {
     public ConnectContext(SocketChannel channel) {
         state = new QueryState();
         returnRows = 0;
+        returnBytes = 0;
         serverCapability = MysqlCapability.DEFAULT_CAPABILITY;
         isKilled = false;
         mysqlChannel = new MysqlChannel(channel);
@@ -114,6 +124,24 @@ public class ConnectContext {
         return auditBuilder;
     }
 
+    // Return null if this session has too many prepared statements.
+    public ServerPreparedStmt addPreparedStmt(String stmt) {
+        if (preparedStmts.size() >= Config.max_prepared_stmt_count) {
+            return null;
+        }
+        ServerPreparedStmt preparedStmt = new ServerPreparedStmt(nextPreparedStmtId++, stmt);
+        preparedStmts.put(preparedStmt.getStmtId(), preparedStmt);
+        return preparedStmt;
+    }
+
+    public ServerPreparedStmt getPreparedStmt(int stmtId) {
+        return preparedStmts.get(stmtId);
+    }
+
+    public void removePreparedStmt(int stmtId) {
+        preparedStmts.remove(stmtId);
+    }
+
     public void setThreadLocalInfo() {
         threadLocalInfo.set(this);
     }
@@ -165,6 +193,7 @@ public class ConnectContext {
     public void setStartTime() {
         startTime = System.currentTimeMillis();
         returnRows = 0;
+        returnBytes = 0;
     }
 
     public void updateReturnRows(int returnRows) {
@@ -175,6 +204,14 @@ public class ConnectContext {
         return returnRows;
     }
 
+    public void updateReturnBytes(long returnBytes) {
+        this.returnBytes += returnBytes;
+    }
+
+    public long getReturnBytes() {
+        return returnBytes;
+    }
+
     public MysqlSerializer getSerializer() {
         return serializer;
     }
@@ -221,8 +258,10 @@ public class ConnectContext {
 
     public void cleanup() {
         mysqlChannel.close();
+        preparedStmts.clear();
         threadLocalInfo.remove();
         returnRows = 0;
+        returnBytes = 0;
     }
 
     public boolean isKilled() {
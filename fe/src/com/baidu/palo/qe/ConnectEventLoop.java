@@ -0,0 +1,266 @@
+// Copyright (c) 2017, Baidu.com, Inc. All Rights Reserved
+
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package com.baidu.palo.qe;
+
+import com.baidu.palo.common.ErrorCode;
+import com.baidu.palo.mysql.MysqlChannel;
+
+import com.google.common.collect.Sets;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// One selector thread serving many connections in non-blocking mode.
+// It receives MySQL packets of idle connections, and submits every complete command
+// to the worker pool of ConnectScheduler. While a command is executing, its connection
+// is not interested in read events, so one connection never has two commands in flight.
+public class ConnectEventLoop implements Runnable {
+    private static final Logger LOG = LogManager.getLogger(ConnectEventLoop.class);
+    private static final long SELECT_TIMEOUT_MS = 1000;
+
+    private final ConnectScheduler scheduler;
+    private final Selector selector;
+    private final Thread thread;
+    private volatile boolean running;
+
+    // connections waiting to be registered to selector
+    private final Queue<Connection> registerQueue = new ConcurrentLinkedQueue<Connection>();
+    // connections whose command has finished, and are interested in read event again
+    private final Queue<Connection> resumeQueue = new ConcurrentLinkedQueue<Connection>();
+    private final Set<Connection> connections = Sets.newConcurrentHashSet();
+    private long lastSweepTime = 0;
+
+    private class Connection {
+        final ConnectContext ctx;
+        final ConnectProcessor processor;
+        SelectionKey key;
+        // true when one command of this connection is executing in worker pool
+        volatile boolean inFlight = false;
+        final AtomicBoolean closed = new AtomicBoolean(false);
+
+        Connection(ConnectContext ctx, ConnectProcessor processor) {
+            this.ctx = ctx;
+            this.processor = processor;
+        }
+    }
+
+    public ConnectEventLoop(ConnectScheduler scheduler, String name) throws IOException {
+        this.scheduler = scheduler;
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    public int getConnectionNum() {
+        return connections.size();
+    }
+
+    // Hand over one authenticated connection to this loop.
+    // Caller should clean up the connection if return false.
+    public boolean register(ConnectContext ctx, ConnectProcessor processor) {
+        if (!running) {
+            return false;
+        }
+        try {
+            ctx.getMysqlChannel().configureNonBlocking();
+        } catch (IOException e) {
+            LOG.warn("configure non-blocking failed. remote: {}", ctx.getMysqlChannel().getRemote(), e);
+            return false;
+        }
+        Connection conn = new Connection(ctx, processor);
+        connections.add(conn);
+        registerQueue.add(conn);
+        selector.wakeup();
+        return true;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select(SELECT_TIMEOUT_MS);
+                registerPending();
+                resumePending();
+
+                Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+                while (iter.hasNext()) {
+                    SelectionKey key = iter.next();
+                    iter.remove();
+                    handleRead(key);
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastSweepTime >= SELECT_TIMEOUT_MS) {
+                    sweepClosed();
+                    lastSweepTime = now;
+                }
+            } catch (Throwable e) {
+                LOG.warn("connect event loop exception.", e);
+            }
+        }
+
+        for (Connection conn : connections) {
+            close(conn);
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LOG.warn("close selector failed.", e);
+        }
+    }
+
+    private void registerPending() {
+        Connection conn;
+        while ((conn = registerQueue.poll()) != null) {
+            try {
+                conn.key = conn.ctx.getMysqlChannel().register(selector, conn);
+            } catch (IOException e) {
+                LOG.info("register connection failed, remote: {}", conn.ctx.getMysqlChannel().getRemote());
+                close(conn);
+            }
+        }
+    }
+
+    private void resumePending() {
+        Connection conn;
+        while ((conn = resumeQueue.poll()) != null) {
+            try {
+                conn.key.interestOps(SelectionKey.OP_READ);
+            } catch (CancelledKeyException e) {
+                close(conn);
+            }
+        }
+    }
+
+    private void handleRead(SelectionKey key) {
+        Connection conn = (Connection) key.attachment();
+        if (!key.isValid()) {
+            close(conn);
+            return;
+        }
+
+        ByteBuffer packet = null;
+        try {
+            packet = conn.ctx.getMysqlChannel().fetchOnePacketNonBlocking();
+        } catch (IOException e) {
+            LOG.info("receive packet failed, remote: {}, msg: {}",
+                     conn.ctx.getMysqlChannel().getRemote(), e.getMessage());
+            close(conn);
+            return;
+        }
+        if (packet == null) {
+            // wait for the rest of this packet
+            return;
+        }
+
+        key.interestOps(0);
+        conn.inFlight = true;
+        try {
+            scheduler.submitCommand(new CommandHandler(conn, packet));
+        } catch (RejectedExecutionException e) {
+            // reply an error, the client may retry later on the same connection
+            LOG.warn("submit command failed, too many requests. remote: {}",
+                     conn.ctx.getMysqlChannel().getRemote());
+            try {
+                conn.processor.rejectOnce(ErrorCode.ERR_TOO_MANY_REQUESTS);
+            } catch (IOException ioe) {
+                close(conn);
+                return;
+            }
+            conn.inFlight = false;
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    // Connections closed by timeout checker or KILL statement have no more read event,
+    // release them here.
+    private void sweepClosed() {
+        for (Connection conn : connections) {
+            if (conn.inFlight) {
+                continue;
+            }
+            if (conn.ctx.isKilled() || !conn.ctx.getMysqlChannel().isOpen()) {
+                close(conn);
+            }
+        }
+    }
+
+    private void close(Connection conn) {
+        if (!conn.closed.compareAndSet(false, true)) {
+            return;
+        }
+        connections.remove(conn);
+        if (conn.key != null) {
+            conn.key.cancel();
+        }
+        scheduler.unregisterConnection(conn.ctx);
+        conn.ctx.cleanup();
+    }
+
+    private class CommandHandler implements Runnable {
+        private final Connection conn;
+        private final ByteBuffer packet;
+
+        CommandHandler(Connection conn, ByteBuffer packet) {
+            this.conn = conn;
+            this.packet = packet;
+        }
+
+        @Override
+        public void run() {
+            ConnectContext ctx = conn.ctx;
+            ctx.setThreadLocalInfo();
+            try {
+                conn.processor.processOnce(packet);
+            } catch (Throwable e) {
+                LOG.warn("Exception happened in one session(" + ctx + ").", e);
+                ctx.setKilled();
+            } finally {
+                ConnectContext.remove();
+            }
+
+            if (ctx.isKilled()) {
+                close(conn);
+                return;
+            }
+            conn.inFlight = false;
+            resumeQueue.add(conn);
+            selector.wakeup();
+        }
+    }
+}
@@ -15,9 +15,11 @@
 
 package com.baidu.palo.qe;
 
+import com.baidu.palo.analysis.QueryStmt;
 import com.baidu.palo.catalog.Catalog;
 import com.baidu.palo.catalog.Column;
 import com.baidu.palo.catalog.Database;
+import com.baidu.palo.catalog.PrimitiveType;
 import com.baidu.palo.catalog.Table;
 import com.baidu.palo.cluster.ClusterNamespace;
 import com.baidu.palo.common.AuditLog;
@@ -25,9 +27,11 @@ import com.baidu.palo.common.Config;
 import com.baidu.palo.common.DdlException;
 import com.baidu.palo.common.ErrorCode;
 import com.baidu.palo.common.ErrorReport;
+import com.baidu.palo.common.util.LatencyHistogram;
 import com.baidu.palo.common.util.Metrics;
 import com.baidu.palo.mysql.MysqlChannel;
 import com.baidu.palo.mysql.MysqlCommand;
+import com.baidu.palo.mysql.MysqlEofPacket;
 import com.baidu.palo.mysql.MysqlPacket;
 import com.baidu.palo.mysql.MysqlProto;
 import com.baidu.palo.mysql.MysqlSerializer;
@@ -41,6 +45,7 @@ import org.apache.logging.log4j.LogManager;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousCloseException;
 import java.util.List;
@@ -54,6 +59,8 @@ public class ConnectProcessor {
     private static final String SLOW_COUNTER_NAME = "query_info.slow_count";
     private static final String FAIL_COUNTER_NAME = "query_info.fail_count";
     private static final String ELAPSE_TIME_COUNTER_NAME = "query_info.elapse_time";
+    private static final LatencyHistogram QUERY_LATENCY = (LatencyHistogram) Metrics.getMetric(
+            Metrics.MetricType.LATENCY_HISTOGRAM, "query_info.latency_ms");
 
     private final ConnectContext ctx;
     private ByteBuffer packetBuf;
@@ -100,10 +107,10 @@ public class ConnectProcessor {
         ctx.getAuditBuilder().put("state", ctx.getState());
         ctx.getAuditBuilder().put("time", elapseMs);
         ctx.getAuditBuilder().put("returnRows", ctx.getReturnRows());
-        String auditString = ctx.getAuditBuilder().toString();
+        ctx.getAuditBuilder().put("returnBytes", ctx.getReturnBytes());
 
-        if (auditString.toLowerCase().contains("select")
-                && auditString.toLowerCase().contains("from")) {
+        if (executor != null && executor.getParsedStmt() instanceof QueryStmt) {
+            QUERY_LATENCY.update(elapseMs);
             if (ctx.getState().getStateType() == QueryState.MysqlStateType.ERR) {
                 Counter failCounter = (Counter) Metrics.getMetric(Metrics.MetricType.COUNTER, FAIL_COUNTER_NAME);
                 if (failCounter != null && ctx.getState().getErrType() != QueryState.ErrType.ANALYSIS_ERR) {
@@ -134,24 +141,36 @@ public class ConnectProcessor {
         }
     }
 
-    // process COM_QUERY statement,
-    // 只有在与请求客户端交互出现问题时候才抛出异常
-    private void handleQuery() {
-        // convert statement to Java string
-        String stmt = null;
+    // convert statement in packet to Java string, return null if failed.
+    private String getStmtString() {
         try {
             byte[] bytes = packetBuf.array();
             int ending = packetBuf.limit() - 1;
             while (ending >= 1 && bytes[ending] == '\0') {
                 ending--;
             }
-            stmt = new String(bytes, 1, ending, "UTF-8");
+            return new String(bytes, 1, ending, "UTF-8");
         } catch (UnsupportedEncodingException e) {
             // impossible
             LOG.error("UTF8 is not supported in this environment.");
             ctx.getState().setError("Unsupported character set(UTF-8)");
+            return null;
+        }
+    }
+
+    // process COM_QUERY statement,
+    // 只有在与请求客户端交互出现问题时候才抛出异常
+    private void handleQuery() {
+        // convert statement to Java string
+        String stmt = getStmtString();
+        if (stmt == null) {
             return;
         }
+        executeStmt(stmt, null);
+    }
+
+    // execute one statement, preparedStmt is not null if it is bound from a prepared statement.
+    private void executeStmt(String stmt, ServerPreparedStmt preparedStmt) {
         ctx.getAuditBuilder().reset();
         // replace '\n' to '\\\n' to make string in one line
         ctx.getAuditBuilder().put("client", ctx.getMysqlChannel().getRemote());
@@ -161,7 +180,11 @@ public class ConnectProcessor {
 
         // execute this query.
         try {
-            executor = new StmtExecutor(ctx, stmt);
+            if (preparedStmt == null) {
+                executor = new StmtExecutor(ctx, stmt);
+            } else {
+                executor = new StmtExecutor(ctx, stmt, preparedStmt);
+            }
             executor.execute();
             // needForward = executor.isForwardtoMaster();
             // outputPacket = executor.getOutputPacket();
@@ -183,6 +206,103 @@ public class ConnectProcessor {
         auditAfterExec();
     }
 
+    // COM_STMT_PREPARE: split statement at placeholders and return its id and number of parameters.
+    // Statement is analyzed when it is executed, so no column definition is returned here,
+    // client gets them from the result set of COM_STMT_EXECUTE.
+    private void handleStmtPrepare() throws IOException {
+        String stmt = getStmtString();
+        if (stmt == null) {
+            return;
+        }
+        ServerPreparedStmt preparedStmt = ctx.addPreparedStmt(stmt);
+        if (preparedStmt == null) {
+            ErrorReport.report(ErrorCode.ERR_MAX_PREPARED_STMT_COUNT_REACHED, Config.max_prepared_stmt_count);
+            return;
+        }
+
+        MysqlSerializer serializer = ctx.getSerializer();
+        MysqlChannel channel = ctx.getMysqlChannel();
+        int paramNum = preparedStmt.getParamNum();
+        // COM_STMT_PREPARE_OK
+        serializer.reset();
+        serializer.writeInt1(0x00);
+        serializer.writeInt4(preparedStmt.getStmtId());
+        // number of columns
+        serializer.writeInt2(0);
+        serializer.writeInt2(paramNum);
+        // reserved
+        serializer.writeInt1(0);
+        // number of warnings
+        serializer.writeInt2(0);
+        channel.sendOnePacket(serializer.toByteBuffer());
+        if (paramNum > 0) {
+            for (int i = 0; i < paramNum; ++i) {
+                serializer.reset();
+                serializer.writeField("?", PrimitiveType.VARCHAR);
+                channel.sendOnePacket(serializer.toByteBuffer());
+            }
+            serializer.reset();
+            new MysqlEofPacket(ctx.getState()).writeTo(serializer);
+            channel.sendOnePacket(serializer.toByteBuffer());
+        }
+        channel.flush();
+        ctx.getState().setNoop();
+    }
+
+    // COM_STMT_EXECUTE: bind parameters to prepared statement and execute it.
+    private void handleStmtExecute() {
+        int stmtId = MysqlProto.readInt4(packetBuf);
+        ServerPreparedStmt preparedStmt = ctx.getPreparedStmt(stmtId);
+        if (preparedStmt == null) {
+            ErrorReport.report(ErrorCode.ERR_UNKNOWN_STMT_HANDLER, stmtId, "mysqld_stmt_execute");
+            return;
+        }
+        // flags, cursor is not supported
+        MysqlProto.readInt1(packetBuf);
+        // iteration count, always 1
+        MysqlProto.readInt4(packetBuf);
+
+        String stmt = null;
+        try {
+            stmt = preparedStmt.bind(packetBuf);
+        } catch (IOException | BufferUnderflowException e) {
+            LOG.warn("bind parameters of prepared statement failed. stmt: {}", preparedStmt.getOriginStmt(), e);
+            ErrorReport.report(ErrorCode.ERR_WRONG_ARGUMENTS, "mysqld_stmt_execute");
+            return;
+        }
+        executeStmt(stmt, preparedStmt);
+    }
+
+    // COM_STMT_SEND_LONG_DATA: no response is sent for this command.
+    private void handleStmtSendLongData() {
+        int stmtId = MysqlProto.readInt4(packetBuf);
+        int paramId = MysqlProto.readInt2(packetBuf);
+        ServerPreparedStmt preparedStmt = ctx.getPreparedStmt(stmtId);
+        if (preparedStmt != null) {
+            preparedStmt.appendLongData(paramId, packetBuf);
+        }
+        ctx.getState().setNoop();
+    }
+
+    // COM_STMT_RESET: clear long data of prepared statement.
+    private void handleStmtReset() {
+        int stmtId = MysqlProto.readInt4(packetBuf);
+        ServerPreparedStmt preparedStmt = ctx.getPreparedStmt(stmtId);
+        if (preparedStmt == null) {
+            ErrorReport.report(ErrorCode.ERR_UNKNOWN_STMT_HANDLER, stmtId, "mysqld_stmt_reset");
+            return;
+        }
+        preparedStmt.reset();
+        ctx.getState().setOk();
+    }
+
+    // COM_STMT_CLOSE: no response is sent for this command.
+    private void handleStmtClose() {
+        int stmtId = MysqlProto.readInt4(packetBuf);
+        ctx.removePreparedStmt(stmtId);
+        ctx.getState().setNoop();
+    }
+
     // Get the column definitions of a table
     private void handleFieldList() throws IOException {
         // Already get command code.
@@ -260,6 +380,22 @@ public class ConnectProcessor {
             case COM_PING:
                 handlePing();
                 break;
+            case COM_STMT_PREPARE:
+                handleStmtPrepare();
+                break;
+            case COM_STMT_EXECUTE:
+                handleStmtExecute();
+                ctx.setStartTime();
+                break;
+            case COM_STMT_SEND_LONG_DATA:
+                handleStmtSendLongData();
+                break;
+            case COM_STMT_RESET:
+                handleStmtReset();
+                break;
+            case COM_STMT_CLOSE:
+                handleStmtClose();
+                break;
             default:
                 ctx.getState().setError("Unsupported command(" + command + ")");
                 LOG.warn("Unsupported command(" + command + ")");
@@ -371,6 +507,29 @@ public class ConnectProcessor {
             return;
         }
 
+        processPacket();
+    }
+
+    // Process one request whose packet has already been received by ConnectEventLoop.
+    // Used when the connection is served in non-blocking mode.
+    public void processOnce(ByteBuffer packet) throws IOException {
+        ctx.getState().reset();
+        executor = null;
+        packetBuf = packet;
+
+        processPacket();
+    }
+
+    // Reply an error to one received request without executing it.
+    // Used when the request is rejected because too many requests are waiting.
+    public void rejectOnce(ErrorCode errorCode) throws IOException {
+        ctx.getState().reset();
+        executor = null;
+        ctx.getState().setError(errorCode, errorCode.formatErrorMsg());
+        finalizeCommand();
+    }
+
+    private void processPacket() throws IOException {
         // dispatch
         dispatch();
         // finalize
@@ -15,23 +15,31 @@
 
 package com.baidu.palo.qe;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.collect.Lists;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
+import com.baidu.palo.common.Config;
 import com.baidu.palo.mysql.MysqlProto;
 import com.google.common.collect.Maps;
 
 // 查询请求的调度器
 // 当前的策略比较简单，有请求过来，就为其单独申请一个线程进行服务。
+// 如果开启了mysql_service_nio_enabled，连接认证之后交给ConnectEventLoop，
+// 空闲连接不占用线程，只有完整的请求才会交给有界的线程池执行。
 // TODO(zhaochun): 应当后面考虑本地文件的连接是否可以超过最大连接数
 public class ConnectScheduler {
     private static final Logger LOG = LogManager.getLogger(ConnectScheduler.class);
@@ -40,7 +48,9 @@ public class ConnectScheduler {
     private AtomicInteger nextConnectionId;
     private Map<Long, ConnectContext> connectionMap = Maps.newHashMap();
     private Map<String, AtomicInteger> connByUser = Maps.newHashMap();
-    private ExecutorService executor = Executors.newCachedThreadPool();
+    private ExecutorService executor;
+    // selector threads of non-blocking mode, null if non-blocking mode is disabled
+    private ConnectEventLoop[] eventLoops = null;
 
     // Use a thread to check whether connection is timeout. Because
     // 1. If use a scheduler, the task maybe a huge number when query is messy.
@@ -52,10 +62,37 @@ public class ConnectScheduler {
         this.maxConnections = maxConnections;
         numberConnection = 0;
         nextConnectionId = new AtomicInteger(0);
+        if (Config.mysql_service_nio_enabled) {
+            // bounded queue, commands are rejected when it is full
+            int threadNum = Math.max(1, Config.max_mysql_service_task_threads_num);
+            executor = new ThreadPoolExecutor(threadNum, threadNum, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(Math.max(1, Config.mysql_service_task_queue_size)));
+            eventLoops = createEventLoops(Config.mysql_service_io_threads_num);
+        } else {
+            executor = Executors.newCachedThreadPool();
+        }
         checkTimer = new Timer("ConnectScheduler Check Timer", true);
         checkTimer.scheduleAtFixedRate(new TimeoutChecker(), 0, 1000);
     }
 
+    private ConnectEventLoop[] createEventLoops(int num) {
+        ConnectEventLoop[] loops = new ConnectEventLoop[Math.max(1, num)];
+        try {
+            for (int i = 0; i < loops.length; ++i) {
+                loops[i] = new ConnectEventLoop(this, "MySQL Connect Event Loop-" + i);
+            }
+        } catch (IOException e) {
+            LOG.warn("open selector failed, fall back to one thread per connection.", e);
+            executor.shutdown();
+            executor = Executors.newCachedThreadPool();
+            return null;
+        }
+        for (ConnectEventLoop loop : loops) {
+            loop.start();
+        }
+        return loops;
+    }
+
     private class TimeoutChecker extends TimerTask {
         @Override
         public void run() {
@@ -76,13 +113,23 @@ public class ConnectScheduler {
             return false;
         }
         context.setConnectionId(nextConnectionId.getAndAdd(1));
-        if (executor.submit(new LoopHandler(context)) == null) {
-            LOG.warn("Submit one thread failed.");
+        try {
+            if (executor.submit(new LoopHandler(context)) == null) {
+                LOG.warn("Submit one thread failed.");
+                return false;
+            }
+        } catch (RejectedExecutionException e) {
+            LOG.warn("Submit one connection failed, too many requests are waiting.");
             return false;
         }
         return true;
     }
 
+    // Submit one received command of a non-blocking connection to the worker pool.
+    void submitCommand(Runnable handler) throws RejectedExecutionException {
+        executor.submit(handler);
+    }
+
     // Register one connection with its connection id.
     public synchronized boolean registerConnection(ConnectContext ctx) {
         if (numberConnection >= maxConnections) {
@@ -112,6 +159,10 @@ public class ConnectScheduler {
         }
     }
 
+    public synchronized int getConnectionNum() {
+        return numberConnection;
+    }
+
     public synchronized ConnectContext getContext(long connectionId) {
         return connectionMap.get(connectionId);
     }
@@ -138,6 +189,8 @@ public class ConnectScheduler {
 
         @Override
         public void run() {
+            // true if this connection has been handed over to one event loop
+            boolean handedOver = false;
             try {
                 // Set thread local info
                 context.setThreadLocalInfo();
@@ -157,12 +210,22 @@ public class ConnectScheduler {
 
                 context.setStartTime();
                 ConnectProcessor processor = new ConnectProcessor(context);
+                if (eventLoops != null) {
+                    ConnectEventLoop loop = eventLoops[Math.abs(context.getConnectionId() % eventLoops.length)];
+                    handedOver = loop.register(context, processor);
+                    if (handedOver) {
+                        ConnectContext.remove();
+                    }
+                    return;
+                }
                 processor.loop();
             } catch (Exception e) {
                 LOG.warn("connect processor exception because ", e);
             } finally {
-                unregisterConnection(context);
-                context.cleanup();
+                if (!handedOver) {
+                    unregisterConnection(context);
+                    context.cleanup();
+                }
             }
         }
     }
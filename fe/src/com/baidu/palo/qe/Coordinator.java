@@ -21,12 +21,14 @@ import com.baidu.palo.catalog.Catalog;
 import com.baidu.palo.common.ClientPool;
 import com.baidu.palo.common.Config;
 import com.baidu.palo.common.InternalException;
+import com.baidu.palo.common.Pair;
 import com.baidu.palo.common.Reference;
 import com.baidu.palo.common.Status;
 import com.baidu.palo.common.util.DebugUtil;
 import com.baidu.palo.common.util.RuntimeProfile;
 import com.baidu.palo.planner.DataPartition;
 import com.baidu.palo.planner.DataSink;
+import com.baidu.palo.planner.OlapScanNode;
 import com.baidu.palo.planner.PlanFragment;
 import com.baidu.palo.planner.PlanFragmentId;
 import com.baidu.palo.planner.PlanNode;
@@ -46,6 +48,7 @@ import com.baidu.palo.thrift.TExecPlanFragmentParams;
 import com.baidu.palo.thrift.TExecPlanFragmentResult;
 import com.baidu.palo.thrift.TNetworkAddress;
 import com.baidu.palo.thrift.TPaloScanRange;
+import com.baidu.palo.thrift.TPartitionType;
 import com.baidu.palo.thrift.TPlanFragmentDestination;
 import com.baidu.palo.thrift.TPlanFragmentExecParams;
 import com.baidu.palo.thrift.TQueryGlobals;
@@ -66,6 +69,7 @@ import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -77,11 +81,14 @@ import java.net.UnknownHostException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
@@ -136,6 +143,13 @@ public class Coordinator {
     // populated in computeScanRangeAssignment()
     private Map<PlanFragmentId, FragmentScanRangeAssignment> scanRangeAssignment =
             Maps.newHashMap();
+    // bytes of scan ranges assigned to each host, shown in query profile
+    private Map<TNetworkAddress, Long> assignedScanBytesPerHost = Maps.newHashMap();
+    // bytes added to the backend load in SimpleScheduler, removed when query is unregistered
+    private Map<Long, Long> assignedScanBytesPerBackend = Maps.newHashMap();
+    // fragment instances added to the backend load in SimpleScheduler, removed when query is unregistered
+    private Map<Long, Integer> runningFragmentNumPerBackend = Maps.newHashMap();
+    private boolean isBackendLoadReleased = false;
     // backend execute state
     private List<BackendExecState> backendExecStates = Lists.newArrayList();
     private ResultReceiver receiver;
@@ -335,6 +349,7 @@ public class Coordinator {
         prepare();
         // compute Fragment Instance
         computeScanRangeAssignment();
+        addScanBytesToProfile();
         computeFragmentExecParams();
 
         traceInstance();
@@ -384,6 +399,7 @@ public class Coordinator {
                 // Issue all rpcs in parallel
                 ExecStatus status = new ExecStatus();
                 ParallelExecutor.exec(backendExecStates, backendId - numHosts, numHosts, status);
+                addRunningFragments(backendId - numHosts, numHosts);
                 if (status.getErrCode() != TStatusCode.OK) {
                     String errMsg = "exec rpc error";
                     queryStatus.setStatus(errMsg);
@@ -543,6 +559,14 @@ public class Coordinator {
         return resultBatch;
     }
 
+    // Stop receiving results and release the prefetched batches. It is called when the caller
+    // is done with the query, whether all results are received or not.
+    public void closeResultReceiver() {
+        if (receiver != null) {
+            receiver.close();
+        }
+    }
+
     // Cancel execution of query. This includes the execution of the local plan
     // fragment,
     // if any, as well as all plan fragments on remote nodes.
@@ -701,9 +725,32 @@ public class Coordinator {
                 dest.server = toRpcHost(destParams.hosts.get(j));
                 params.destinations.add(dest);
             }
+
+            // rows of a bucket are sent to the instance which scans the bucket
+            DataPartition outputPartition = params.fragment.getOutputPartition();
+            if (outputPartition != null
+                    && outputPartition.getType() == TPartitionType.BUCKET_SHUFFLE_HASH_PARTITIONED) {
+                params.bucketSeqToDestination =
+                        computeBucketSeqToDestination(outputPartition.getBucketNum(), destParams);
+            }
         }
     }
 
+    // Returns bucket seq -> index of the destination instance scanning the bucket.
+    private List<Integer> computeBucketSeqToDestination(int bucketNum, FragmentExecParams destParams) {
+        List<Integer> bucketSeqToDestination = Lists.newArrayList();
+        for (int bucketSeq = 0; bucketSeq < bucketNum; bucketSeq++) {
+            TNetworkAddress host = destParams.bucketSeqToHost.get(bucketSeq);
+            int destIdx = host == null ? -1 : destParams.hosts.indexOf(host);
+            if (destIdx < 0) {
+                // the bucket is not scanned, no row can be joined with rows of it
+                destIdx = bucketSeq % destParams.hosts.size();
+            }
+            bucketSeqToDestination.add(destIdx);
+        }
+        return bucketSeqToDestination;
+    }
+
     private TNetworkAddress toRpcHost(TNetworkAddress host) throws Exception {
         Backend backend = Catalog.getCurrentSystemInfo().getBackendWithBePort(
                 host.getHostname(), host.getPort());
@@ -799,13 +846,107 @@ public class Coordinator {
         return value;
     }
 
-    private long getScanRangeLength(final TScanRange scanRange) {
+    // Return bytes to scan of this scan range, at least 1 so that empty tablets are also balanced.
+    private long getScanRangeLength(final ScanNode scanNode, final TScanRange scanRange) {
+        if (scanNode instanceof OlapScanNode && scanRange.isSetPalo_scan_range()) {
+            long dataSize = ((OlapScanNode) scanNode).getTabletDataSize(scanRange.getPalo_scan_range().getTablet_id());
+            return Math.max(dataSize, 1L);
+        }
         return 1;
     }
 
+    // Bytes already assigned to this backend before this query.
+    private long getBackendLoad(long backendId) {
+        if (!Config.enable_scan_range_assign_by_backend_load) {
+            return 0;
+        }
+        return SimpleScheduler.getBackendScanBytes(backendId);
+    }
+
+    private void addAssignedScanBytes(TNetworkAddress host, long backendId, long bytes) {
+        Long hostBytes = assignedScanBytesPerHost.get(host);
+        assignedScanBytesPerHost.put(host, (hostBytes == null ? 0 : hostBytes) + bytes);
+        if (!Config.enable_scan_range_assign_by_backend_load) {
+            return;
+        }
+        lock();
+        try {
+            if (isBackendLoadReleased) {
+                return;
+            }
+            Long backendBytes = assignedScanBytesPerBackend.get(backendId);
+            assignedScanBytesPerBackend.put(backendId, (backendBytes == null ? 0 : backendBytes) + bytes);
+            SimpleScheduler.updateBackendScanBytes(backendId, bytes);
+        } finally {
+            unlock();
+        }
+    }
+
+    // Count initiated fragment instances in backend load. Caller should hold lock.
+    private void addRunningFragments(int start, int num) {
+        if (isBackendLoadReleased) {
+            return;
+        }
+        for (int i = start; i < start + num; i++) {
+            BackendExecState execState = backendExecStates.get(i);
+            Long backendId = addressToBackendID.get(execState.getBackendAddress());
+            if (!execState.initiated || backendId == null) {
+                continue;
+            }
+            Integer fragmentNum = runningFragmentNumPerBackend.get(backendId);
+            runningFragmentNumPerBackend.put(backendId, (fragmentNum == null ? 0 : fragmentNum) + 1);
+            SimpleScheduler.updateBackendRunningFragmentNum(backendId, 1);
+        }
+    }
+
+    // Called when query is unregistered, remove the scan bytes and fragments of this query from backend load.
+    public void releaseBackendLoad() {
+        lock();
+        try {
+            if (isBackendLoadReleased) {
+                return;
+            }
+            isBackendLoadReleased = true;
+            for (Map.Entry<Long, Long> entry : assignedScanBytesPerBackend.entrySet()) {
+                SimpleScheduler.updateBackendScanBytes(entry.getKey(), -entry.getValue());
+            }
+            assignedScanBytesPerBackend.clear();
+            for (Map.Entry<Long, Integer> entry : runningFragmentNumPerBackend.entrySet()) {
+                SimpleScheduler.updateBackendRunningFragmentNum(entry.getKey(), -entry.getValue());
+            }
+            runningFragmentNumPerBackend.clear();
+        } finally {
+            unlock();
+        }
+    }
+
+    private void addScanBytesToProfile() {
+        if (assignedScanBytesPerHost.isEmpty()) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<TNetworkAddress, Long> entry : assignedScanBytesPerHost.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            Pair<Double, String> bytes = DebugUtil.getByteUint(entry.getValue());
+            sb.append(entry.getKey().hostname).append(":").append(entry.getKey().port).append("=")
+                    .append(DebugUtil.DECIMAL_FORMAT_SCALE_3.format(bytes.first)).append(" ").append(bytes.second);
+        }
+        queryProfile.addInfoString("Assigned Scan Bytes", sb.toString());
+    }
+
     // Populates scan_range_assignment_.
     // <fragment, <server, nodeId>>
     private void computeScanRangeAssignment() throws Exception {
+        Set<PlanFragmentId> bucketFragmentIds = Sets.newHashSet();
+        for (PlanFragment fragment : fragments) {
+            if (fragment.isAssignScanRangesByBucket()) {
+                computeScanRangeAssignmentByBucket(fragment);
+                bucketFragmentIds.add(fragment.getFragmentId());
+            }
+        }
+
         // set scan ranges/locations for scan nodes
         for (ScanNode scanNode : scanNodes) {
             // the parameters of getScanRangeLocations may ignore, It dosn't take effect
@@ -814,35 +955,122 @@ public class Coordinator {
                 // only analysis olap scan node
                 continue;
             }
+            if (bucketFragmentIds.contains(scanNode.getFragmentId())) {
+                continue;
+            }
 
             FragmentScanRangeAssignment assignment =
                     scanRangeAssignment.get(scanNode.getFragmentId());
-            computeScanRangeAssignment(scanNode.getId(), locations, assignment);
+            computeScanRangeAssignment(scanNode, locations, assignment);
+        }
+    }
+
+    // Assigns scan ranges of a bucket of all olap scan nodes in fragment to the same host, so that
+    // colocate and bucket shuffle joins find all rows of a bucket in one instance.
+    // Each bucket is assigned to the host w/ the fewest assigned bytes of those having replicas of it.
+    private void computeScanRangeAssignmentByBucket(PlanFragment fragment) throws Exception {
+        List<OlapScanNode> olapScanNodes = Lists.newArrayList();
+        OlapScanNode.collectFragmentScanNodes(fragment.getPlanRoot(), olapScanNodes);
+        FragmentScanRangeAssignment assignment = scanRangeAssignment.get(fragment.getFragmentId());
+        FragmentExecParams params = fragmentExecParams.get(fragment.getFragmentId());
+
+        HashMap<TNetworkAddress, Long> assignedBytesPerHost = Maps.newHashMap();
+        for (Map.Entry<Integer, Set<Long>> entry : OlapScanNode.getCommonBucketBackends(olapScanNodes).entrySet()) {
+            int bucketSeq = entry.getKey();
+            long bucketBytes = 0;
+            for (OlapScanNode scanNode : olapScanNodes) {
+                List<TScanRangeLocations> locations = scanNode.getBucketSeqToScanRanges().get(bucketSeq);
+                if (locations == null) {
+                    continue;
+                }
+                for (TScanRangeLocations scanRangeLocations : locations) {
+                    bucketBytes += getScanRangeLength(scanNode, scanRangeLocations.scan_range);
+                }
+            }
+
+            TNetworkAddress execHostPort = null;
+            long execBackendId = -1;
+            long minAssignedBytes = Long.MAX_VALUE;
+            for (Long backendId : entry.getValue()) {
+                Backend backend = idToBackend.get(backendId);
+                if (backend == null || !backend.isAlive() || SimpleScheduler.isInBlacklist(backendId)) {
+                    continue;
+                }
+                TNetworkAddress host = new TNetworkAddress(backend.getHost(), backend.getBePort());
+                long assignedBytes = findOrInsert(assignedBytesPerHost, host, getBackendLoad(backendId));
+                if (assignedBytes < minAssignedBytes) {
+                    minAssignedBytes = assignedBytes;
+                    execHostPort = host;
+                    execBackendId = backendId;
+                }
+            }
+            if (execHostPort == null) {
+                throw new InternalException("there is no available backend having replicas of bucket " + bucketSeq);
+            }
+            this.addressToBackendID.put(execHostPort, execBackendId);
+            assignedBytesPerHost.put(execHostPort, minAssignedBytes + bucketBytes);
+            addAssignedScanBytes(execHostPort, execBackendId, bucketBytes);
+            params.bucketSeqToHost.put(bucketSeq, execHostPort);
+
+            Map<Integer, List<TScanRangeParams>> scanRanges = findOrInsert(assignment, execHostPort,
+                    new HashMap<Integer, List<TScanRangeParams>>());
+            for (OlapScanNode scanNode : olapScanNodes) {
+                List<TScanRangeLocations> locations = scanNode.getBucketSeqToScanRanges().get(bucketSeq);
+                if (locations == null) {
+                    continue;
+                }
+                List<TScanRangeParams> scanRangeParamsList =
+                        findOrInsert(scanRanges, scanNode.getId().asInt(), new ArrayList<TScanRangeParams>());
+                for (TScanRangeLocations scanRangeLocations : locations) {
+                    TScanRangeParams scanRangeParams = new TScanRangeParams();
+                    scanRangeParams.scan_range = scanRangeLocations.scan_range;
+                    for (TScanRangeLocation location : scanRangeLocations.getLocations()) {
+                        if (location.backend_id == execBackendId) {
+                            scanRangeParams.setVolume_id(location.volume_id);
+                        }
+                    }
+                    scanRangeParamsList.add(scanRangeParams);
+                }
+            }
         }
     }
 
     // Does a scan range assignment (returned in 'assignment') based on a list
     // of scan range locations for a particular node.
     // If exec_at_coord is true, all scan ranges will be assigned to the coord node.
+    // Scan ranges are assigned from the largest one, so that large tablets are spread out
+    // before small tablets fill up the gaps.
     private void computeScanRangeAssignment(
-            final PlanNodeId nodeId,
+            final ScanNode scanNode,
             final List<TScanRangeLocations> locations,
             FragmentScanRangeAssignment assignment) throws Exception {
-        HashMap<TNetworkAddress, Long> assignedBytesPerHost = Maps.newHashMap();
+        final PlanNodeId nodeId = scanNode.getId();
+        final Map<TScanRangeLocations, Long> scanRangeLengths = Maps.newIdentityHashMap();
         for (TScanRangeLocations scanRangeLocations : locations) {
+            scanRangeLengths.put(scanRangeLocations, getScanRangeLength(scanNode, scanRangeLocations.scan_range));
+        }
+        List<TScanRangeLocations> sortedLocations = Lists.newArrayList(locations);
+        Collections.sort(sortedLocations, new Comparator<TScanRangeLocations>() {
+            @Override
+            public int compare(TScanRangeLocations o1, TScanRangeLocations o2) {
+                return Long.compare(scanRangeLengths.get(o2), scanRangeLengths.get(o1));
+            }
+        });
+
+        HashMap<TNetworkAddress, Long> assignedBytesPerHost = Maps.newHashMap();
+        for (TScanRangeLocations scanRangeLocations : sortedLocations) {
             // assign this scan range to the host w/ the fewest assigned bytes
             Long minAssignedBytes = Long.MAX_VALUE;
             TScanRangeLocation minLocation = null;
             for (final TScanRangeLocation location : scanRangeLocations.getLocations()) {
-                Long assignedBytes = findOrInsert(assignedBytesPerHost, location.server, 0L);
+                Long assignedBytes = findOrInsert(assignedBytesPerHost, location.server,
+                        getBackendLoad(location.backend_id));
                 if (assignedBytes < minAssignedBytes) {
                     minAssignedBytes = assignedBytes;
                     minLocation = location;
                 }
             }
-            Long scanRangeLength = getScanRangeLength(scanRangeLocations.scan_range);
-            assignedBytesPerHost.put(minLocation.server,
-                    assignedBytesPerHost.get(minLocation.server) + scanRangeLength);
+            long scanRangeLength = scanRangeLengths.get(scanRangeLocations);
 
             Reference<Long> backendIdRef = new Reference<Long>();
             TNetworkAddress execHostPort = SimpleScheduler.getHost(minLocation.backend_id,
@@ -851,6 +1079,10 @@ public class Coordinator {
                 throw new InternalException("there is no scanNode Backend");
             }
             this.addressToBackendID.put(execHostPort, backendIdRef.getRef());
+            // the chosen backend may be replaced by another replica if it is not available
+            Long execHostBytes = findOrInsert(assignedBytesPerHost, execHostPort, getBackendLoad(backendIdRef.getRef()));
+            assignedBytesPerHost.put(execHostPort, execHostBytes + scanRangeLength);
+            addAssignedScanBytes(execHostPort, backendIdRef.getRef(), scanRangeLength);
 
             Map<Integer, List<TScanRangeParams>> scanRanges = findOrInsert(assignment, execHostPort,
                 new HashMap<Integer, List<TScanRangeParams>>());
@@ -1050,7 +1282,12 @@ public class Coordinator {
                                 DebugUtil.printId(rpcParams.params.fragment_instance_id), rpcParams);
                     }
                     client = ClientPool.backendPool.borrowObject(address, execRemoteTimeoutMs);
+                    long startTime = System.currentTimeMillis();
                     thriftResult = client.exec_plan_fragment(rpcParams);
+                    Long backendId = this.addressToBackendID.get(address);
+                    if (backendId != null) {
+                        SimpleScheduler.updateBackendRpcLatency(backendId, System.currentTimeMillis() - startTime);
+                    }
                     isReturnToPool = true;
                 } catch (TTransportException e) {
                     LOG.warn("execRemoteFragment TTransporxception address={}", address, e);
@@ -1084,6 +1321,8 @@ public class Coordinator {
             } catch (org.apache.thrift.TApplicationException e) {
                 SimpleScheduler.updateBlacklistBackends(this.addressToBackendID.get(address));
                 LOG.warn("execRemoteFragment Exception ", e);
+                // the whole response is read, connection can be reused
+                isReturnToPool = true;
                 throw e;
             } catch (Exception e) {
                 LOG.warn("execRemoteFragment Exception " + DebugUtil.getStackTrace(e));
@@ -1116,6 +1355,10 @@ public class Coordinator {
         public List<TUniqueId>                instanceIds       = Lists.newArrayList();
         public List<TPlanFragmentDestination> destinations      = Lists.newArrayList();
         public Map<Integer, Integer>          perExchNumSenders = Maps.newHashMap();
+        // bucket seq -> host scanning the bucket, set if scan ranges are assigned by bucket
+        public Map<Integer, TNetworkAddress>  bucketSeqToHost   = Maps.newHashMap();
+        // bucket seq -> index of destination, set if output is bucket shuffle partitioned
+        public List<Integer>                  bucketSeqToDestination = null;
 
         public FragmentExecParams(PlanFragment fragment) {
             this.fragment = fragment;
@@ -1143,6 +1386,9 @@ public class Coordinator {
                 params.params.setPer_node_scan_ranges(scanRanges);
                 params.params.setPer_exch_num_senders(perExchNumSenders);
                 params.params.setDestinations(destinations);
+                if (bucketSeqToDestination != null) {
+                    params.params.setBucket_seq_to_destination(bucketSeqToDestination);
+                }
                 params.params.setSender_id(i);
                 params.setCoord(coordAddress);
                 params.setBackend_num(backendNum++);
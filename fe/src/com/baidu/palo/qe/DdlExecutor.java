@@ -21,6 +21,7 @@ import com.baidu.palo.analysis.AlterDatabaseRename;
 import com.baidu.palo.analysis.AlterSystemStmt;
 import com.baidu.palo.analysis.AlterTableStmt;
 import com.baidu.palo.analysis.AlterUserStmt;
+import com.baidu.palo.analysis.AnalyzeStmt;
 import com.baidu.palo.analysis.BackupStmt;
 import com.baidu.palo.analysis.CancelAlterSystemStmt;
 import com.baidu.palo.analysis.CancelAlterTableStmt;
@@ -131,6 +132,8 @@ public class DdlExecutor {
             catalog.recoverTable((RecoverTableStmt) ddlStmt);
         } else if (ddlStmt instanceof RecoverPartitionStmt) {
             catalog.recoverPartition((RecoverPartitionStmt) ddlStmt);
+        } else if (ddlStmt instanceof AnalyzeStmt) {
+            catalog.getStatisticsCollector().analyze((AnalyzeStmt) ddlStmt);
         } else if (ddlStmt instanceof CreateViewStmt) {
             catalog.createView((CreateViewStmt) ddlStmt);
         } else if (ddlStmt instanceof BackupStmt) {
@@ -15,61 +15,170 @@
 
 package com.baidu.palo.qe;
 
+import com.baidu.palo.common.Config;
 import com.baidu.palo.common.InternalException;
+import com.baidu.palo.common.util.LatencyHistogram;
+import com.baidu.palo.common.util.Metrics;
 import com.baidu.palo.thrift.TReportExecStatusParams;
 import com.baidu.palo.thrift.TReportExecStatusResult;
 import com.baidu.palo.thrift.TStatus;
 import com.baidu.palo.thrift.TStatusCode;
 import com.baidu.palo.thrift.TUniqueId;
 
+import com.google.common.collect.Maps;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import io.dropwizard.metrics.Gauge;
+import io.dropwizard.metrics.Meter;
 
+// Exec status reports are not handled in the rpc thread, because merging profiles takes coordinator
+// lock and may be slow. They are put into the queue of a report handler, and the rpc returns at once.
+// Reports of one query are always put into the same handler, so they are handled in order.
 public class QeProcessor {
     private static final Logger LOG = LogManager.getLogger(QeProcessor.class);
 
+    private static ConcurrentMap<TUniqueId, Coordinator> coordinatorMap = Maps.newConcurrentMap();
+    private static final ReportHandler[] REPORT_HANDLERS = new ReportHandler[
+            Math.max(1, Config.report_exec_status_thread_num)];
+
+    private static final Meter REPORT_METER =
+            (Meter) Metrics.getMetric(Metrics.MetricType.METER, "query.report_exec_status");
+    // time from report received to handled
+    private static final LatencyHistogram REPORT_LATENCY = (LatencyHistogram) Metrics.getMetric(
+            Metrics.MetricType.LATENCY_HISTOGRAM, "query.report_exec_status_latency_ms");
+
+    static {
+        for (int i = 0; i < REPORT_HANDLERS.length; i++) {
+            REPORT_HANDLERS[i] = new ReportHandler(i);
+        }
+        Metrics.register("query.active_num", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return coordinatorMap.size();
+            }
+        });
+        Metrics.register("query.report_exec_status.pending_num", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getPendingReportNum();
+            }
+        });
+    }
+
     public QeProcessor() {
     }
 
     public TReportExecStatusResult reportExecStatus(TReportExecStatusParams params) {
         LOG.info("ReportExecStatus(): instance_id=" + params.fragment_instance_id.toString()
                 + "queryID=" +  params.query_id.toString() + " params=" + params);
-        Coordinator coord = null;
+        REPORT_METER.mark();
         TReportExecStatusResult result = new TReportExecStatusResult();
-        synchronized (coordinatorMap) {
-            if (coordinatorMap.containsKey(params.query_id)) {
-                coord = coordinatorMap.get(params.query_id);
-            } else {
-                result.setStatus(new TStatus(TStatusCode.RUNTIME_ERROR));
-                LOG.info("ReportExecStatus() runtime error");
-                return result;
-            }
-        }
-        try {
-            coord.updateFragmentExecStatus(params);
-        } catch (Exception e) {
-            LOG.warn(e.getMessage());
+        Coordinator coord = coordinatorMap.get(params.query_id);
+        if (coord == null) {
+            result.setStatus(new TStatus(TStatusCode.RUNTIME_ERROR));
+            LOG.info("ReportExecStatus() runtime error");
             return result;
         }
+
+        Report report = new Report(coord, params);
+        if (!getReportHandler(params.query_id).offer(report)) {
+            // handle it in rpc thread when handler is too busy, which slows down backends reporting.
+            // it may be handled before the queued reports of the same query, the final report of
+            // an instance is marked done and carries the whole profile, so nothing is lost.
+            report.handle();
+        }
         result.setStatus(new TStatus(TStatusCode.OK));
         return result;
     }
 
-    private static Map<TUniqueId, Coordinator> coordinatorMap = new HashMap<TUniqueId, Coordinator>();
-    
-    public static synchronized void registerQuery(TUniqueId queryId, Coordinator coord) throws InternalException {
+    public static void registerQuery(TUniqueId queryId, Coordinator coord) throws InternalException {
         LOG.info("register query id = " + queryId.toString());
-        if (coordinatorMap.containsKey(queryId)) {
-            throw new InternalException("queryId " + queryId + " already exists");       
+        if (coordinatorMap.putIfAbsent(queryId, coord) != null) {
+            throw new InternalException("queryId " + queryId + " already exists");
         }
-        coordinatorMap.put(queryId, coord);
     }
-    
-    public static synchronized void unregisterQuery(TUniqueId queryId) {
+
+    public static void unregisterQuery(TUniqueId queryId) {
         LOG.info("deregister query id = " + queryId.toString());
-        coordinatorMap.remove(queryId);
+        Coordinator coord = coordinatorMap.remove(queryId);
+        if (coord != null) {
+            coord.releaseBackendLoad();
+        }
+    }
+
+    public static int getActiveQueryNum() {
+        return coordinatorMap.size();
+    }
+
+    public static int getPendingReportNum() {
+        int num = 0;
+        for (ReportHandler handler : REPORT_HANDLERS) {
+            num += handler.queue.size();
+        }
+        return num;
+    }
+
+    private static ReportHandler getReportHandler(TUniqueId queryId) {
+        long hash = (queryId.hi ^ queryId.lo) * 0x9E3779B97F4A7C15L;
+        int idx = (int) ((hash >>> 32) % REPORT_HANDLERS.length);
+        return REPORT_HANDLERS[idx];
+    }
+
+    private static class Report {
+        private final Coordinator coord;
+        private final TReportExecStatusParams params;
+        private final long receiveTimeMs = System.currentTimeMillis();
+
+        Report(Coordinator coord, TReportExecStatusParams params) {
+            this.coord = coord;
+            this.params = params;
+        }
+
+        void handle() {
+            try {
+                if (coordinatorMap.get(params.query_id) != coord) {
+                    // query is unregistered while the report is queued, drop it as the rpc thread does
+                    LOG.info("drop exec status report of unregistered query: {}", params.query_id);
+                    return;
+                }
+                coord.updateFragmentExecStatus(params);
+            } catch (Exception e) {
+                LOG.warn("failed to handle exec status report of query: {}", params.query_id, e);
+            } finally {
+                REPORT_LATENCY.update(System.currentTimeMillis() - receiveTimeMs);
+            }
+        }
+    }
+
+    private static class ReportHandler implements Runnable {
+        private final BlockingQueue<Report> queue =
+                new ArrayBlockingQueue<Report>(Math.max(1, Config.report_exec_status_queue_size));
+
+        ReportHandler(int idx) {
+            Thread thread = new Thread(this, "report-exec-status-handler-" + idx);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        boolean offer(Report report) {
+            return queue.offer(report);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    queue.take().handle();
+                } catch (Throwable e) {
+                    LOG.warn("exec status report handler got exception", e);
+                }
+            }
+        }
     }
 }
@@ -53,6 +53,11 @@ public class QueryState {
         return stateType;
     }
 
+    // nothing will be sent to client, used by commands without response.
+    public void setNoop() {
+        stateType = MysqlStateType.NOOP;
+    }
+
     public void setEof() {
         stateType = MysqlStateType.EOF;
     }
@@ -16,6 +16,7 @@
 package com.baidu.palo.qe;
 
 import com.baidu.palo.common.ClientPool;
+import com.baidu.palo.common.Config;
 import com.baidu.palo.common.InternalException;
 import com.baidu.palo.common.Status;
 import com.baidu.palo.thrift.BackendService;
@@ -27,13 +28,52 @@ import com.baidu.palo.thrift.TPlanFragmentDestination;
 import com.baidu.palo.thrift.TResultBatch;
 import com.baidu.palo.thrift.TStatusCode;
 
+import com.google.common.collect.Lists;
+
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Receive result batches of root fragment instance.
+// In prefetch mode, a background fetcher keeps fetching batches from BE while the caller sends the
+// previous batches to client, so the time waiting for BE and the time waiting for client overlap.
+// The fetcher stops when *result_prefetch_batch_num* batches or *result_prefetch_buffer_bytes*
+// bytes are buffered, and continues after the caller takes them away.
+// At most *result_prefetch_thread_num* queries prefetch at the same time, the others fetch batches
+// in the caller thread.
 public class ResultReceiver {
     private static final Logger LOG = LogManager.getLogger(ResultReceiver.class);
+    // fetcher checks whether the receiver is abandoned at this interval when buffer is full
+    private static final long FETCHER_WAIT_MS = 1000;
+    private static final ThreadPoolExecutor PREFETCH_EXECUTOR = new ThreadPoolExecutor(
+            Config.result_prefetch_thread_num, Config.result_prefetch_thread_num,
+            60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger threadNum = new AtomicInteger(0);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "result-prefetcher-" + threadNum.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    static {
+        PREFETCH_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
     private boolean isDone    = false;
-    private boolean isCancel  = false;
+    private volatile boolean isCancel  = false;
+    // set when caller stops receiving, fetcher exits and drops buffered batches
+    private volatile boolean isClosed = false;
     private int     packetIdx = 0;
     private int              timeoutMs;
     private TNetworkAddress  rootFragmentAddress;
@@ -41,6 +81,18 @@ public class ResultReceiver {
     private TFetchDataParams thriftParams;
     private Long backendID;
 
+    // prefetch state, protected by prefetchLock
+    private volatile boolean prefetchEnabled;
+    private final Object prefetchLock = new Object();
+    private final LinkedList<TResultBatch> prefetchedBatches = Lists.newLinkedList();
+    private long prefetchedBytes = 0;
+    private boolean isFetcherStarted = false;
+    // last time caller took a batch
+    private long lastTakeTimeMs;
+    // set when fetcher meets eos or error
+    private boolean isFetchFinished = false;
+    private final Status fetchStatus = new Status();
+
     public ResultReceiver(TPlanFragmentDestination resultSource, 
             Long backendID, int timeoutMs) {
         this.timeoutMs = timeoutMs;
@@ -50,15 +102,132 @@ public class ResultReceiver {
         rootFragmentAddress =
                 new TNetworkAddress(resultSource.server.hostname, resultSource.server.port);
         this.backendID = backendID;
+        this.prefetchEnabled = Config.result_prefetch_batch_num > 0;
     }
 
     public TResultBatch getNext(Status status) {
+        if (prefetchEnabled) {
+            return getNextPrefetched(status);
+        }
+        return fetchNext(status);
+    }
+
+    private TResultBatch getNextPrefetched(Status status) {
+        synchronized (prefetchLock) {
+            if (!isFetcherStarted) {
+                try {
+                    lastTakeTimeMs = System.currentTimeMillis();
+                    PREFETCH_EXECUTOR.execute(new Fetcher());
+                    isFetcherStarted = true;
+                } catch (RejectedExecutionException e) {
+                    LOG.debug("all result prefetchers are busy, fetch without prefetch. fragment instance: {}",
+                              thriftParams.getFragment_instance_id());
+                    prefetchEnabled = false;
+                }
+            }
+        }
+        if (!prefetchEnabled) {
+            return fetchNext(status);
+        }
+
+        synchronized (prefetchLock) {
+            while (prefetchedBatches.isEmpty() && !isFetchFinished && !isCancel) {
+                try {
+                    prefetchLock.wait();
+                } catch (InterruptedException e) {
+                    status.setStatus(e.getMessage());
+                    return null;
+                }
+            }
+            if (isCancel) {
+                status.setStatus(Status.CANCELLED);
+                return null;
+            }
+            if (!prefetchedBatches.isEmpty()) {
+                TResultBatch batch = prefetchedBatches.removeFirst();
+                prefetchedBytes -= getBatchBytes(batch);
+                lastTakeTimeMs = System.currentTimeMillis();
+                prefetchLock.notifyAll();
+                return batch;
+            }
+            // all batches are taken, and fetcher is finished
+            status.setStatus(fetchStatus);
+            return null;
+        }
+    }
+
+    private static long getBatchBytes(TResultBatch batch) {
+        long bytes = 0;
+        for (ByteBuffer row : batch.getRows()) {
+            bytes += row.remaining();
+        }
+        return bytes;
+    }
+
+    private class Fetcher implements Runnable {
+        @Override
+        public void run() {
+            while (true) {
+                synchronized (prefetchLock) {
+                    while (!isStopped() && (prefetchedBatches.size() >= Config.result_prefetch_batch_num
+                            || prefetchedBytes >= Config.result_prefetch_buffer_bytes)) {
+                        if (System.currentTimeMillis() - lastTakeTimeMs > timeoutMs) {
+                            // caller does not take batches any more, release the buffer
+                            LOG.warn("prefetched result is not taken in {} ms. fragment instance: {}",
+                                     timeoutMs, thriftParams.getFragment_instance_id());
+                            clearPrefetched();
+                            finish(new Status(TStatusCode.TIMEOUT, "result is not taken in time"));
+                            return;
+                        }
+                        try {
+                            prefetchLock.wait(FETCHER_WAIT_MS);
+                        } catch (InterruptedException e) {
+                            LOG.warn("result fetcher is interrupted. fragment instance: {}",
+                                     thriftParams.getFragment_instance_id());
+                            finish(Status.CANCELLED);
+                            return;
+                        }
+                    }
+                    if (isStopped()) {
+                        finish(Status.CANCELLED);
+                        return;
+                    }
+                }
+
+                Status status = new Status();
+                TResultBatch batch = fetchNext(status);
+                synchronized (prefetchLock) {
+                    if (batch == null) {
+                        finish(status);
+                        return;
+                    }
+                    if (isStopped()) {
+                        // drop the batch fetched after receiver is cancelled or closed
+                        finish(Status.CANCELLED);
+                        return;
+                    }
+                    prefetchedBatches.addLast(batch);
+                    prefetchedBytes += getBatchBytes(batch);
+                    prefetchLock.notifyAll();
+                }
+            }
+        }
+
+        // caller should hold prefetchLock
+        private void finish(Status status) {
+            fetchStatus.setStatus(status);
+            isFetchFinished = true;
+            prefetchLock.notifyAll();
+        }
+    }
+
+    private TResultBatch fetchNext(Status status) {
         if (isDone) {
             return null;
         }
         
         try {
-            while (!isDone && !isCancel) {
+            while (!isDone && !isStopped()) {
                 getNextFromRpc();
                 // check packet num
                 if (packetIdx != thriftResult.packet_num) {
@@ -90,8 +259,32 @@ public class ResultReceiver {
         return null;
     }
 
+    private boolean isStopped() {
+        return isCancel || isClosed;
+    }
+
+    // caller should hold prefetchLock
+    private void clearPrefetched() {
+        prefetchedBatches.clear();
+        prefetchedBytes = 0;
+    }
+
     public void cancel() {
         isCancel = true;
+        synchronized (prefetchLock) {
+            clearPrefetched();
+            prefetchLock.notifyAll();
+        }
+    }
+
+    // Called when caller stops receiving, whether all batches are received or not.
+    // Fetcher is woken up and exits, the buffered batches are released.
+    public void close() {
+        isClosed = true;
+        synchronized (prefetchLock) {
+            clearPrefetched();
+            prefetchLock.notifyAll();
+        }
     }
 
     void getNextFromRpc() throws Exception {
@@ -103,11 +296,20 @@ public class ResultReceiver {
             // there is no need to retry for read socket
             address = new TNetworkAddress(rootFragmentAddress.hostname,
                     rootFragmentAddress.port);
-            client = ClientPool.backendPool.borrowObject(address, timeoutMs);
+            client = ClientPool.fetchDataPool.borrowObject(address, timeoutMs);
             thriftResult = client.fetch_data(thriftParams);
             isReturnToPool = true;
+        } catch (org.apache.thrift.TApplicationException e) {
+            // the whole response is read, connection can be reused
+            isReturnToPool = true;
+            throw e;
         } catch (org.apache.thrift.transport.TTransportException e) {
-            boolean ok = ClientPool.backendPool.reopen(client, timeoutMs);
+            if (client == null) {
+                // failed to connect
+                SimpleScheduler.updateBlacklistBackends(this.backendID);
+                throw e;
+            }
+            boolean ok = ClientPool.fetchDataPool.reopen(client, timeoutMs);
             if (!ok) {
                 String errMsg = "reopen rpc error, address=" + address;
                 LOG.warn(errMsg);
@@ -122,9 +324,9 @@ public class ResultReceiver {
             }
         } finally {
             if (isReturnToPool) {
-                ClientPool.backendPool.returnObject(address, client);
+                ClientPool.fetchDataPool.returnObject(address, client);
             } else {
-                ClientPool.backendPool.invalidateObject(address, client);
+                ClientPool.fetchDataPool.invalidateObject(address, client);
             }
         }
         
@@ -0,0 +1,152 @@
+// Copyright (c) 2017, Baidu.com, Inc. All Rights Reserved
+
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package com.baidu.palo.qe;
+
+import com.baidu.palo.mysql.MysqlBinaryProtocol;
+import com.baidu.palo.mysql.MysqlProto;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+// One statement prepared by COM_STMT_PREPARE in a session.
+// The statement text is split at its '?' placeholders when prepared. Every COM_STMT_EXECUTE
+// binds the parameters as SQL literals and executes the bound statement.
+// Plan is not cached: partitions and tablets are pruned by the literal values at plan time,
+// so the plan of one execution can not serve other parameters.
+public class ServerPreparedStmt {
+    private final int stmtId;
+    private final String originStmt;
+    // statement text between placeholders, size is number of params plus one
+    private final List<String> fragments;
+    // parameter types sent by client, client only sends them when they change
+    private int[] paramTypes;
+    // data sent by COM_STMT_SEND_LONG_DATA, indexed by parameter id
+    private Map<Integer, ByteArrayOutputStream> longData = Maps.newHashMap();
+
+    public ServerPreparedStmt(int stmtId, String originStmt) {
+        this.stmtId = stmtId;
+        this.originStmt = originStmt;
+        this.fragments = splitByPlaceholder(originStmt);
+        this.paramTypes = null;
+    }
+
+    public int getStmtId() {
+        return stmtId;
+    }
+
+    public String getOriginStmt() {
+        return originStmt;
+    }
+
+    public int getParamNum() {
+        return fragments.size() - 1;
+    }
+
+    // Split statement at placeholders which are not in quoted strings, identifiers or comments.
+    static List<String> splitByPlaceholder(String stmt) {
+        List<String> result = Lists.newArrayList();
+        int start = 0;
+        int i = 0;
+        int len = stmt.length();
+        while (i < len) {
+            char c = stmt.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                // skip quoted part, backslash escapes next character except in identifier
+                i++;
+                while (i < len && stmt.charAt(i) != c) {
+                    if (c != '`' && stmt.charAt(i) == '\\') {
+                        i++;
+                    }
+                    i++;
+                }
+                i++;
+            } else if (c == '-' && i + 1 < len && stmt.charAt(i + 1) == '-') {
+                while (i < len && stmt.charAt(i) != '\n') {
+                    i++;
+                }
+            } else if (c == '/' && i + 1 < len && stmt.charAt(i + 1) == '*') {
+                int end = stmt.indexOf("*/", i + 2);
+                i = end < 0 ? len : end + 2;
+            } else if (c == '?') {
+                result.add(stmt.substring(start, i));
+                i++;
+                start = i;
+            } else {
+                i++;
+            }
+        }
+        result.add(stmt.substring(Math.min(start, len)));
+        return result;
+    }
+
+    public void appendLongData(int paramId, ByteBuffer data) {
+        ByteArrayOutputStream out = longData.get(paramId);
+        if (out == null) {
+            out = new ByteArrayOutputStream();
+            longData.put(paramId, out);
+        }
+        out.write(data.array(), data.position(), data.remaining());
+    }
+
+    // COM_STMT_RESET: clear the data sent by COM_STMT_SEND_LONG_DATA
+    public void reset() {
+        longData.clear();
+    }
+
+    // Bind parameters in COM_STMT_EXECUTE packet, whose position is at the null bitmap.
+    // Return bound statement.
+    public String bind(ByteBuffer packet) throws IOException {
+        int paramNum = getParamNum();
+        if (paramNum == 0) {
+            return originStmt;
+        }
+        byte[] nullBitmap = MysqlProto.readFixedString(packet, (paramNum + 7) / 8);
+        boolean newParamsBound = MysqlProto.readInt1(packet) == 1;
+        if (newParamsBound) {
+            int[] types = new int[paramNum];
+            for (int i = 0; i < paramNum; ++i) {
+                types[i] = MysqlProto.readInt2(packet);
+            }
+            paramTypes = types;
+        }
+        if (paramTypes == null) {
+            throw new IOException("Types of parameters are not sent.");
+        }
+
+        StringBuilder sb = new StringBuilder(originStmt.length() + paramNum * 8);
+        for (int i = 0; i < paramNum; ++i) {
+            sb.append(fragments.get(i));
+            ByteArrayOutputStream data = longData.get(i);
+            if ((nullBitmap[i / 8] & (1 << (i % 8))) != 0) {
+                sb.append("NULL");
+            } else if (data != null) {
+                sb.append(MysqlBinaryProtocol.toStringLiteral(new String(data.toByteArray(), "UTF-8")));
+            } else {
+                sb.append(MysqlBinaryProtocol.readParamAsLiteral(packet, paramTypes[i]));
+            }
+        }
+        sb.append(fragments.get(paramNum));
+        // long data is only used by one execution
+        longData.clear();
+        return sb.toString();
+    }
+}
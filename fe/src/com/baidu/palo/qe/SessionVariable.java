@@ -56,6 +56,9 @@ public class SessionVariable implements Serializable, Writable {
     public static final String SQL_SAFE_UPDATES = "sql_safe_updates";
     public static final String NET_BUFFER_LENGTH = "net_buffer_length";
     public static final String CODEGEN_LEVEL = "codegen_level";
+    public static final String DISABLE_COLOCATE_JOIN = "disable_colocate_join";
+    public static final String DISABLE_BUCKET_SHUFFLE_JOIN = "disable_bucket_shuffle_join";
+    public static final String DISABLE_JOIN_REORDER = "disable_join_reorder";
     
     // max memory used on every backend.
     @VariableMgr.VarAttr(name = EXEC_MEM_LIMIT)
@@ -150,6 +153,18 @@ public class SessionVariable implements Serializable, Writable {
     @VariableMgr.VarAttr(name = CODEGEN_LEVEL)
     private int codegenLevel = 0;    
 
+    // if true, join of tables bucketed by join columns is not planned as colocate join
+    @VariableMgr.VarAttr(name = DISABLE_COLOCATE_JOIN)
+    private boolean disableColocateJoin = false;
+
+    // if true, join whose left table is bucketed by join columns is not planned as bucket shuffle join
+    @VariableMgr.VarAttr(name = DISABLE_BUCKET_SHUFFLE_JOIN)
+    private boolean disableBucketShuffleJoin = false;
+
+    // if true, tables are joined in the order of FROM clause instead of by their estimated cardinalities
+    @VariableMgr.VarAttr(name = DISABLE_JOIN_REORDER)
+    private boolean disableJoinReorder = false;
+
     public long getMaxExecMemByte() {
         return maxExecMemByte;
     }
@@ -342,6 +357,22 @@ public class SessionVariable implements Serializable, Writable {
         this.codegenLevel = codegenLevel;
     }
 
+    public boolean isDisableColocateJoin() {
+        return disableColocateJoin;
+    }
+
+    public boolean isDisableBucketShuffleJoin() {
+        return disableBucketShuffleJoin;
+    }
+
+    public boolean isDisableJoinReorder() {
+        return disableJoinReorder;
+    }
+
+    public void setDisableJoinReorder(boolean disableJoinReorder) {
+        this.disableJoinReorder = disableJoinReorder;
+    }
+
     public void setMaxExecMemByte(long maxExecMemByte) {
         this.maxExecMemByte = maxExecMemByte;
     }
@@ -23,13 +23,16 @@ import com.baidu.palo.system.SystemInfoService;
 import com.baidu.palo.thrift.TNetworkAddress;
 import com.baidu.palo.thrift.TScanRangeLocation;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Lists;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -37,18 +40,64 @@ import java.util.concurrent.locks.ReentrantLock;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
+// Choose backends to execute fragments.
+// Backends in blacklist are read from an immutable snapshot without lock, the snapshot is
+// republished whenever blacklist is changed by queries or UpdateBlacklistThread.
+// When the preferred replica is not available, the least loaded one of the other replicas is chosen,
+// load is measured by running fragments and recent exec rpc latency of the backend.
 public class SimpleScheduler {
     private static AtomicLong nextId = new AtomicLong(0);
     private static final Logger LOG = LogManager.getLogger(SimpleScheduler.class);
 
+    // backend id -> remaining retry times, guarded by lock, only accessed when blacklist is changed
     private static Map<Long, Integer> blacklistBackends = Maps.newHashMap();
     private static Lock lock = new ReentrantLock();
+    // snapshot of blacklistBackends' keys, read without lock
+    private static volatile ImmutableSet<Long> blacklistSnapshot = ImmutableSet.of();
     private static UpdateBlacklistThread updateBlacklistThread;
+    private static ConcurrentMap<Long, BackendLoad> backendLoads = Maps.newConcurrentMap();
 
     static {
         updateBlacklistThread = new UpdateBlacklistThread();
         updateBlacklistThread.start();
     }
+
+    // load of one backend caused by running queries of this FE
+    private static class BackendLoad {
+        // bytes of scan ranges assigned to backend
+        final AtomicLong scanBytes = new AtomicLong(0);
+        // fragment instances executing on backend
+        final AtomicInteger runningFragmentNum = new AtomicInteger(0);
+        // moving average of exec rpc latency
+        volatile long rpcLatencyMs = 0;
+    }
+
+    private static BackendLoad getOrCreateBackendLoad(long backendId) {
+        BackendLoad load = backendLoads.get(backendId);
+        if (load == null) {
+            backendLoads.putIfAbsent(backendId, new BackendLoad());
+            load = backendLoads.get(backendId);
+        }
+        return load;
+    }
+
+    private static boolean isAvailable(Backend backend, long backendId, ImmutableSet<Long> blacklist) {
+        return backend != null && backend.isAlive() && !blacklist.contains(backendId);
+    }
+
+    // return true if backend a is less loaded than backend b
+    private static boolean isLessLoaded(long a, long b) {
+        BackendLoad loadA = backendLoads.get(a);
+        BackendLoad loadB = backendLoads.get(b);
+        int fragmentsA = loadA == null ? 0 : loadA.runningFragmentNum.get();
+        int fragmentsB = loadB == null ? 0 : loadB.runningFragmentNum.get();
+        if (fragmentsA != fragmentsB) {
+            return fragmentsA < fragmentsB;
+        }
+        long latencyA = loadA == null ? 0 : loadA.rpcLatencyMs;
+        long latencyB = loadB == null ? 0 : loadB.rpcLatencyMs;
+        return latencyA < latencyB;
+    }
     
     public static TNetworkAddress getHost(long backendId, 
                                           List<TScanRangeLocation> locations,
@@ -58,31 +107,36 @@ public class SimpleScheduler {
             return null;
         }
         LOG.debug("getHost backendID={}, backendSize={}", backendId, backends.size());
+        ImmutableSet<Long> blacklist = blacklistSnapshot;
         Backend backend = backends.get(backendId);
-        lock.lock();
-        try {
-            if (backend != null && backend.isAlive() && !blacklistBackends.containsKey(backendId)) {
-                backendIdRef.setRef(backendId);
-                return new TNetworkAddress(backend.getHost(), backend.getBePort());
-            } else {
-                for (TScanRangeLocation location : locations) {
-                    if (location.backend_id == backendId) {
-                        continue;
-                    } 
-                    // choose the first alive backend(in analysis stage, the locations are random)
-                    Backend candidateBackend = backends.get(location.backend_id);
-                    if (candidateBackend != null && candidateBackend.isAlive()
-                            && !blacklistBackends.containsKey(location.backend_id)) {
-                        backendIdRef.setRef(location.backend_id);
-                        return new TNetworkAddress(candidateBackend.getHost(), candidateBackend.getBePort());
-                    }
-                }
+        if (isAvailable(backend, backendId, blacklist)) {
+            backendIdRef.setRef(backendId);
+            return new TNetworkAddress(backend.getHost(), backend.getBePort());
+        }
+
+        // choose the least loaded one of other available replicas
+        Backend chosenBackend = null;
+        long chosenBackendId = -1;
+        for (int i = 0; i < locations.size(); i++) {
+            long candidateBackendId = locations.get(i).backend_id;
+            if (candidateBackendId == backendId) {
+                continue;
             } 
-        } finally {
-            lock.unlock();
+            Backend candidateBackend = backends.get(candidateBackendId);
+            if (!isAvailable(candidateBackend, candidateBackendId, blacklist)) {
+                continue;
+            }
+            if (chosenBackend == null || isLessLoaded(candidateBackendId, chosenBackendId)) {
+                chosenBackend = candidateBackend;
+                chosenBackendId = candidateBackendId;
+            }
         }
-        // no backend returned
-        return null;
+        if (chosenBackend == null) {
+            // no backend returned
+            return null;
+        }
+        backendIdRef.setRef(chosenBackendId);
+        return new TNetworkAddress(chosenBackend.getHost(), chosenBackend.getBePort());
     }
     
     public static TNetworkAddress getHost(ImmutableMap<Long, Backend> backends,
@@ -94,51 +148,123 @@ public class SimpleScheduler {
         if (backendSize == 0) {
             return null;
         }
-        long id = nextId.getAndIncrement() % backendSize;
+        ImmutableSet<Long> blacklist = blacklistSnapshot;
+        // a view of backends, not a copy
+        ImmutableList<Long> idToBackendId = backends.keySet().asList();
+        int id = (int) (nextId.getAndIncrement() % backendSize);
 
-        List<Long> idToBackendId = Lists.newArrayList();
-        idToBackendId.addAll(backends.keySet());
-        Long backendId = idToBackendId.get((int) id);
-        Backend backend = backends.get(backendId);
-        
-        if (backend != null && backend.isAlive() && !blacklistBackends.containsKey(backendId)) {
-            backendIdRef.setRef(backendId);
-            return new TNetworkAddress(backend.getHost(), backend.getBePort());
-        } else {
-            long candidateId = id + 1;  // get next candidate id
-            for (int i = 0; i < backendSize; i ++, candidateId ++) {
-                LOG.debug("i={} candidatedId={}", i, candidateId);
-                if (candidateId >= backendSize) {
-                    candidateId = 0;
-                }
-                if (candidateId == id) {
-                    continue;
-                }
-                Long candidatebackendId = idToBackendId.get((int) candidateId);
-                LOG.debug("candidatebackendId={}", candidatebackendId);
-                Backend candidateBackend = backends.get(candidatebackendId);
-                if (candidateBackend != null && candidateBackend.isAlive()
-                        && !blacklistBackends.containsKey(candidatebackendId)) {
-                    backendIdRef.setRef(candidatebackendId);
-                    return new TNetworkAddress(candidateBackend.getHost(), candidateBackend.getBePort());
-                }
+        // start from the round robin id, choose the first available backend
+        for (int i = 0; i < backendSize; i++) {
+            int candidateId = (id + i) % backendSize;
+            Long candidateBackendId = idToBackendId.get(candidateId);
+            Backend candidateBackend = backends.get(candidateBackendId);
+            if (isAvailable(candidateBackend, candidateBackendId, blacklist)) {
+                backendIdRef.setRef(candidateBackendId);
+                return new TNetworkAddress(candidateBackend.getHost(), candidateBackend.getBePort());
             }
         }
         // no backend returned
         return null;
     }
     
+    public static long getBackendScanBytes(long backendId) {
+        BackendLoad load = backendLoads.get(backendId);
+        return load == null ? 0 : load.scanBytes.get();
+    }
+
+    // delta is negative when query is finished
+    public static void updateBackendScanBytes(long backendId, long delta) {
+        getOrCreateBackendLoad(backendId).scanBytes.addAndGet(delta);
+    }
+
+    public static int getBackendRunningFragmentNum(long backendId) {
+        BackendLoad load = backendLoads.get(backendId);
+        return load == null ? 0 : load.runningFragmentNum.get();
+    }
+
+    // delta is negative when query is finished
+    public static void updateBackendRunningFragmentNum(long backendId, int delta) {
+        getOrCreateBackendLoad(backendId).runningFragmentNum.addAndGet(delta);
+    }
+
+    public static long getBackendRpcLatencyMs(long backendId) {
+        BackendLoad load = backendLoads.get(backendId);
+        return load == null ? 0 : load.rpcLatencyMs;
+    }
+
+    // latest latency takes 1/4 weight, updates from concurrent rpcs may be lost, which is acceptable
+    public static void updateBackendRpcLatency(long backendId, long latencyMs) {
+        BackendLoad load = getOrCreateBackendLoad(backendId);
+        load.rpcLatencyMs = (load.rpcLatencyMs * 3 + latencyMs) / 4;
+    }
+
+    public static boolean isInBlacklist(long backendId) {
+        return blacklistSnapshot.contains(backendId);
+    }
+
+    // caller should hold lock
+    private static void publishBlacklist() {
+        blacklistSnapshot = ImmutableSet.copyOf(blacklistBackends.keySet());
+    }
+
     public static void updateBlacklistBackends(Long backendID) {
+        if (backendID == null) {
+            return;
+        }
         lock.lock();
         try {
             int tryTime = FeConstants.heartbeat_interval_second + 1;
-            blacklistBackends.put(backendID, tryTime);
+            if (blacklistBackends.put(backendID, tryTime) == null) {
+                publishBlacklist();
+            }
             LOG.warn("add black list " + backendID);
         } finally {
             lock.unlock();
         }
     }
     
+    // called by UpdateBlacklistThread every second
+    static void updateBlacklist(SystemInfoService clusterInfoService) {
+        LOG.debug("UpdateBlacklistThread retry begin");
+        lock.lock();
+        try {
+            boolean changed = false;
+            Iterator<Map.Entry<Long, Integer>> iterator = blacklistBackends.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Long, Integer> entry = iterator.next();
+                Long backendId = entry.getKey();
+                
+                // remove from blacklist if
+                // 1. backend does not exist antmore
+                // 2. backend is alive
+                if (clusterInfoService.getBackend(backendId) == null
+                        || clusterInfoService.checkBackendAvailable(backendId)) {
+                    iterator.remove();
+                    changed = true;
+                    LOG.debug("remove backendID {} which is alive", backendId);
+                } else {
+                    // 3. max try time is reach
+                    Integer retryTimes = entry.getValue();
+                    retryTimes = retryTimes - 1;
+                    if (retryTimes <= 0) {
+                        iterator.remove();
+                        changed = true;
+                        LOG.warn("remove backendID {}. reach max try time", backendId);
+                    } else {
+                        entry.setValue(retryTimes);
+                        LOG.debug("blacklistBackends backendID={} retryTimes={}", backendId, retryTimes);
+                    }
+                }
+            }
+            if (changed) {
+                publishBlacklist();
+            }
+        } finally {
+            lock.unlock();
+            LOG.debug("UpdateBlacklistThread retry end");
+        }
+    }
+
     private static class UpdateBlacklistThread implements Runnable {
         private static final Logger LOG = LogManager.getLogger(UpdateBlacklistThread.class);
         private static Thread thread;
@@ -158,40 +284,7 @@ public class SimpleScheduler {
             while (true) {
                 try {
                     Thread.sleep(1000L);
-                    SystemInfoService clusterInfoService = Catalog.getCurrentSystemInfo();
-                    LOG.debug("UpdateBlacklistThread retry begin");
-                    lock.lock();
-                    try {
-                        Iterator<Map.Entry<Long, Integer>> iterator = blacklistBackends.entrySet().iterator();
-                        while (iterator.hasNext()) {
-                            Map.Entry<Long, Integer> entry = iterator.next();
-                            Long backendId = entry.getKey();
-                            
-                            // remove from blacklist if
-                            // 1. backend does not exist antmore
-                            // 2. backend is alive
-                            if (clusterInfoService.getBackend(backendId) == null
-                                    || clusterInfoService.checkBackendAvailable(backendId)) {
-                                iterator.remove();
-                                LOG.debug("remove backendID {} which is alive", backendId);
-                            } else {
-                                // 3. max try time is reach
-                                Integer retryTimes = entry.getValue();
-                                retryTimes = retryTimes - 1;
-                                if (retryTimes <= 0) {
-                                    iterator.remove();
-                                    LOG.warn("remove backendID {}. reach max try time", backendId);
-                                } else {
-                                    entry.setValue(retryTimes);
-                                    LOG.debug("blacklistBackends backendID={} retryTimes={}", backendId, retryTimes);
-                                }
-                            }
-                        }
-                    } finally {
-                        lock.unlock();
-                        LOG.debug("UpdateBlacklistThread retry end");
-                    }
-                    
+                    updateBlacklist(Catalog.getCurrentSystemInfo());
                 } catch (Throwable ex) {
                     LOG.warn("blacklist thread exception" + ex);
                 }
@@ -0,0 +1,346 @@
+// Copyright (c) 2017, Baidu.com, Inc. All Rights Reserved
+
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+
+package com.baidu.palo.qe;
+
+import com.baidu.palo.analysis.Analyzer;
+import com.baidu.palo.analysis.AnalyzeStmt;
+import com.baidu.palo.analysis.QueryStmt;
+import com.baidu.palo.analysis.SqlParser;
+import com.baidu.palo.analysis.SqlScanner;
+import com.baidu.palo.catalog.Catalog;
+import com.baidu.palo.catalog.Column;
+import com.baidu.palo.catalog.ColumnStats;
+import com.baidu.palo.catalog.Database;
+import com.baidu.palo.catalog.OlapTable;
+import com.baidu.palo.catalog.PrimitiveType;
+import com.baidu.palo.catalog.Table;
+import com.baidu.palo.catalog.Table.TableType;
+import com.baidu.palo.catalog.UserPropertyMgr;
+import com.baidu.palo.common.Config;
+import com.baidu.palo.common.DdlException;
+import com.baidu.palo.common.util.Daemon;
+import com.baidu.palo.mysql.MysqlProto;
+import com.baidu.palo.persist.ColumnStatsInfo;
+import com.baidu.palo.planner.Planner;
+import com.baidu.palo.thrift.TResultBatch;
+import com.baidu.palo.thrift.TUniqueId;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// Collect statistics of olap tables, which are used by planner to estimate cardinality of plan nodes.
+// Row count of tables is reported by backends, number of distinct values, number of nulls and size of
+// columns are got by querying the table, e.g.
+//   SELECT COUNT(*), NDV(c1), COUNT(c1), ..., MAX(LENGTH(c2)), AVG(LENGTH(c2)) FROM tbl
+// Tables are analyzed by ANALYZE TABLE stmt, or automatically if *enable_auto_collect_statistics* is true.
+// Collected statistics are persisted by edit log.
+public class StatisticsCollector extends Daemon {
+    private static final Logger LOG = LogManager.getLogger(StatisticsCollector.class);
+
+    // table id -> row count when table is analyzed.
+    // It is only kept in memory, tables analyzed before FE restarts take the current row count as baseline.
+    private final Map<Long, Long> analyzedRowCounts = Maps.newConcurrentMap();
+
+    public StatisticsCollector() {
+        super("statistics collector", Config.statistics_collect_interval_second * 1000L);
+    }
+
+    @Override
+    protected void runOneCycle() {
+        if (!Config.enable_auto_collect_statistics) {
+            return;
+        }
+
+        Catalog catalog = Catalog.getInstance();
+        for (Long dbId : catalog.getDbIds()) {
+            Database db = catalog.getDb(dbId);
+            if (db == null) {
+                continue;
+            }
+            List<Long> tableIds = Lists.newArrayList();
+            db.readLock();
+            try {
+                for (Table table : db.getTables()) {
+                    if (table.getType() == TableType.OLAP && needAnalyze((OlapTable) table)) {
+                        tableIds.add(table.getId());
+                    }
+                }
+            } finally {
+                db.readUnlock();
+            }
+
+            for (Long tableId : tableIds) {
+                try {
+                    analyze(db, tableId, null);
+                } catch (Exception e) {
+                    LOG.warn("failed to collect statistics of table[{}] in db[{}]", tableId, db.getName(), e);
+                }
+            }
+        }
+    }
+
+    // caller should hold db lock
+    private boolean needAnalyze(OlapTable table) {
+        long rowCount = table.getRowCount();
+        Long analyzedRowCount = analyzedRowCounts.get(table.getId());
+        if (analyzedRowCount == null) {
+            if (hasStats(table)) {
+                // analyzed before FE restarts
+                analyzedRowCounts.put(table.getId(), rowCount);
+                return false;
+            }
+            return rowCount > 0;
+        }
+        return Math.abs(rowCount - analyzedRowCount) > analyzedRowCount * Config.statistics_auto_collect_ratio;
+    }
+
+    private static boolean hasStats(OlapTable table) {
+        for (Column column : table.getBaseSchema()) {
+            if (column.getStats() != null && column.getStats().hasNumDistinctValues()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void analyze(AnalyzeStmt stmt) throws DdlException {
+        Database db = Catalog.getInstance().getDb(stmt.getDbName());
+        if (db == null) {
+            throw new DdlException("Database " + stmt.getDbName() + " does not exist");
+        }
+        long tableId;
+        db.readLock();
+        try {
+            Table table = db.getTable(stmt.getTableName());
+            if (table == null || table.getType() != TableType.OLAP) {
+                throw new DdlException("Olap table " + stmt.getTableName() + " does not exist");
+            }
+            tableId = table.getId();
+        } finally {
+            db.readUnlock();
+        }
+
+        try {
+            analyze(db, tableId, stmt.getColumnNames());
+        } catch (DdlException e) {
+            throw e;
+        } catch (Exception e) {
+            LOG.warn("failed to analyze table {}", stmt.getTableName(), e);
+            throw new DdlException("Failed to analyze table " + stmt.getTableName() + ": " + e.getMessage());
+        }
+    }
+
+    // analyze given columns of table, all columns if columnNames is null
+    private void analyze(Database db, long tableId, List<String> columnNames) throws Exception {
+        String tableName;
+        long rowCount;
+        List<Column> columns = Lists.newArrayList();
+        db.readLock();
+        try {
+            OlapTable table = (OlapTable) db.getTable(tableId);
+            if (table == null) {
+                throw new DdlException("Table " + tableId + " does not exist");
+            }
+            tableName = table.getName();
+            rowCount = table.getRowCount();
+            for (Column column : table.getBaseSchema()) {
+                if (column.getDataType() == PrimitiveType.HLL) {
+                    continue;
+                }
+                if (columnNames == null || containsIgnoreCase(columnNames, column.getName())) {
+                    columns.add(column);
+                }
+            }
+        } finally {
+            db.readUnlock();
+        }
+        if (columns.isEmpty()) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        List<String> values = executeQuery(db, buildQuery(tableName, columns));
+        if (values == null) {
+            throw new DdlException("No result of statistics query of table " + tableName);
+        }
+
+        Map<String, ColumnStats> columnStats = Maps.newHashMap();
+        int pos = 1;
+        for (Column column : columns) {
+            PrimitiveType type = column.getDataType();
+            ColumnStats stats = new ColumnStats(type);
+            stats.setNumDistinctValues(parseLong(values.get(pos++)));
+            long numNotNulls = parseLong(values.get(pos++));
+            stats.setNumNulls(Math.max(parseLong(values.get(0)) - numNotNulls, 0));
+            if (type.isStringType()) {
+                stats.setMaxSize(parseLong(values.get(pos++)));
+                String avgLength = values.get(pos++);
+                float avgSize = avgLength == null ? 0 : Float.parseFloat(avgLength);
+                // string slot holds a pointer and length, data is stored out of slot
+                stats.setAvgSerializedSize(type.getSlotSize() + avgSize);
+            }
+            columnStats.put(column.getName(), stats);
+        }
+
+        ColumnStatsInfo info = new ColumnStatsInfo(db.getId(), tableId, columnStats);
+        db.writeLock();
+        try {
+            if (!updateColumnStats(db, info)) {
+                throw new DdlException("Table " + tableName + " is dropped when analyzing");
+            }
+            Catalog.getInstance().getEditLog().logUpdateColumnStats(info);
+        } finally {
+            db.writeUnlock();
+        }
+        analyzedRowCounts.put(tableId, rowCount);
+        LOG.info("finished analyzing table {} of db {}, {} columns, cost {} ms",
+                 tableName, db.getName(), columns.size(), System.currentTimeMillis() - start);
+    }
+
+    private static boolean containsIgnoreCase(List<String> names, String name) {
+        for (String n : names) {
+            if (n.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String buildQuery(String tableName, List<Column> columns) {
+        StringBuilder sb = new StringBuilder("SELECT COUNT(*)");
+        for (Column column : columns) {
+            String name = "`" + column.getName() + "`";
+            sb.append(", NDV(").append(name).append("), COUNT(").append(name).append(")");
+            if (column.getDataType().isStringType()) {
+                sb.append(", MAX(LENGTH(").append(name).append(")), AVG(LENGTH(").append(name).append("))");
+            }
+        }
+        sb.append(" FROM `").append(tableName).append("`");
+        return sb.toString();
+    }
+
+    private static long parseLong(String value) {
+        return value == null ? 0 : Long.parseLong(value);
+    }
+
+    // execute the query in db, return values of the first row of result
+    private List<String> executeQuery(Database db, String sql) throws Exception {
+        // ANALYZE stmt is executed in thread of the connection, restore its context after query
+        ConnectContext oldContext = ConnectContext.get();
+        ConnectContext context = new ConnectContext(null);
+        context.setCatalog(Catalog.getInstance());
+        context.setCluster(db.getClusterName());
+        context.setDatabase(db.getName());
+        context.setUser(UserPropertyMgr.getRootName());
+        context.getSessionVariable().setQueryTimeoutS(Config.statistics_collect_timeout_second);
+        UUID uuid = UUID.randomUUID();
+        context.setQueryId(new TUniqueId(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()));
+        context.setThreadLocalInfo();
+        try {
+            SqlParser parser = new SqlParser(new SqlScanner(new StringReader(sql)));
+            QueryStmt stmt = (QueryStmt) parser.parse().value;
+            Analyzer analyzer = new Analyzer(context.getCatalog(), context);
+            Planner planner = new Planner();
+            db.readLock();
+            try {
+                stmt.analyze(analyzer);
+                planner.plan(stmt, analyzer, context.getSessionVariable().toThrift());
+            } finally {
+                db.readUnlock();
+            }
+
+            Coordinator coord = new Coordinator(context, analyzer, planner);
+            QeProcessor.registerQuery(context.queryId(), coord);
+            try {
+                coord.exec();
+                List<String> values = null;
+                while (true) {
+                    TResultBatch batch = coord.getNext();
+                    if (batch == null) {
+                        break;
+                    }
+                    for (ByteBuffer row : batch.getRows()) {
+                        if (values == null) {
+                            values = decodeRow(row);
+                        }
+                    }
+                }
+                return values;
+            } finally {
+                QeProcessor.unregisterQuery(context.queryId());
+            }
+        } finally {
+            if (oldContext != null) {
+                oldContext.setThreadLocalInfo();
+            } else {
+                ConnectContext.remove();
+            }
+        }
+    }
+
+    // row in mysql text protocol, each value is a length encoded string, 0xFB is NULL
+    private static List<String> decodeRow(ByteBuffer row) {
+        List<String> values = Lists.newArrayList();
+        ByteBuffer buffer = row.duplicate();
+        while (buffer.hasRemaining()) {
+            if ((buffer.get(buffer.position()) & 0xFF) == 0xFB) {
+                buffer.get();
+                values.add(null);
+            } else {
+                values.add(new String(MysqlProto.readLenEncodedString(buffer)));
+            }
+        }
+        return values;
+    }
+
+    // caller should hold db write lock
+    private static boolean updateColumnStats(Database db, ColumnStatsInfo info) {
+        Table table = db.getTable(info.getTableId());
+        if (table == null) {
+            return false;
+        }
+        for (Map.Entry<String, ColumnStats> entry : info.getColumnStats().entrySet()) {
+            Column column = table.getColumn(entry.getKey());
+            if (column != null) {
+                column.setStats(entry.getValue());
+            }
+        }
+        return true;
+    }
+
+    public void replayUpdateColumnStats(ColumnStatsInfo info) {
+        Database db = Catalog.getInstance().getDb(info.getDbId());
+        if (db == null) {
+            return;
+        }
+        db.writeLock();
+        try {
+            updateColumnStats(db, info);
+        } finally {
+            db.writeUnlock();
+        }
+    }
+}
@@ -45,11 +45,16 @@ import com.baidu.palo.common.DdlException;
 import com.baidu.palo.common.ErrorCode;
 import com.baidu.palo.common.ErrorReport;
 import com.baidu.palo.common.InternalException;
+import com.baidu.palo.common.Pair;
 import com.baidu.palo.common.util.DebugUtil;
+import com.baidu.palo.common.util.LatencyHistogram;
+import com.baidu.palo.common.util.Metrics;
 import com.baidu.palo.common.util.ProfileManager;
 import com.baidu.palo.common.util.RuntimeProfile;
 import com.baidu.palo.common.util.TimeUtils;
+import com.baidu.palo.mysql.MysqlBinaryProtocol;
 import com.baidu.palo.mysql.MysqlChannel;
+import com.baidu.palo.mysql.MysqlColType;
 import com.baidu.palo.mysql.MysqlEofPacket;
 import com.baidu.palo.mysql.MysqlSerializer;
 import com.baidu.palo.planner.Planner;
@@ -80,6 +85,14 @@ import java.util.UUID;
 // second: Do handle function for statement.
 public class StmtExecutor {
     private static final Logger LOG = LogManager.getLogger(StmtExecutor.class);
+    private static final LatencyHistogram PARSE_LATENCY = (LatencyHistogram) Metrics.getMetric(
+            Metrics.MetricType.LATENCY_HISTOGRAM, "query.parse_latency_ms");
+    private static final LatencyHistogram ANALYZE_LATENCY = (LatencyHistogram) Metrics.getMetric(
+            Metrics.MetricType.LATENCY_HISTOGRAM, "query.analyze_latency_ms");
+    private static final LatencyHistogram PLAN_LATENCY = (LatencyHistogram) Metrics.getMetric(
+            Metrics.MetricType.LATENCY_HISTOGRAM, "query.plan_latency_ms");
+    private static final LatencyHistogram EXEC_LATENCY = (LatencyHistogram) Metrics.getMetric(
+            Metrics.MetricType.LATENCY_HISTOGRAM, "query.exec_latency_ms");
 
     private ConnectContext context;
     private MysqlSerializer serializer;
@@ -95,6 +108,13 @@ public class StmtExecutor {
     private Planner planner;
     private boolean isProxy;
     private ShowResultSet proxyResultSet = null;
+    // not null if this statement is executed by COM_STMT_EXECUTE
+    private ServerPreparedStmt preparedStmt = null;
+    // column types of binary result rows, null if result rows are sent in text protocol
+    private List<MysqlColType> binaryColTypes = null;
+    // time spent on fetching result from BE and sending result to client
+    private long fetchResultTimeNs = 0;
+    private long sendResultTimeNs = 0;
 
     public StmtExecutor(ConnectContext context, String stmt, boolean isProxy) {
         this.context = context;
@@ -107,6 +127,12 @@ public class StmtExecutor {
         this(context, stmt, false);
     }
 
+    // Execute statement bound from a prepared statement, result is sent in binary protocol.
+    public StmtExecutor(ConnectContext context, String stmt, ServerPreparedStmt preparedStmt) {
+        this(context, stmt, false);
+        this.preparedStmt = preparedStmt;
+    }
+
     // At the end of query execution, we begin to add up profile
     public void initProfile(long beginTimeInNanoSecond) {
         profile = new RuntimeProfile("Query");
@@ -125,6 +151,9 @@ public class StmtExecutor {
         summaryProfile.addInfoString(ProfileManager.USER, context.getUser());
         summaryProfile.addInfoString(ProfileManager.DEFAULT_DB, context.getDatabase());
         summaryProfile.addInfoString(ProfileManager.SQL_STATEMENT, originStmt);
+        if (coord != null) {
+            addResultInfo();
+        }
         profile.addChild(summaryProfile);
         if (coord != null) {
             coord.getQueryProfile().getCounterTotalTime().setValue(TimeUtils.getEstimatedTime(beginTimeInNanoSecond));
@@ -154,6 +183,11 @@ public class StmtExecutor {
         }
     }
 
+    // null if statement is not parsed successfully
+    public StatementBase getParsedStmt() {
+        return parsedStmt;
+    }
+
     public ShowResultSet getProxyResultSet() {
         return proxyResultSet;
     }
@@ -189,6 +223,7 @@ public class StmtExecutor {
                     return;
                 }
                 LOG.debug("parsedStmt instanceof QueryStmt");
+                long execStartMs = System.currentTimeMillis();
                 int retryTime = 3;
                 for (int i = 0; i < retryTime; i ++) {
                     try {
@@ -211,6 +246,7 @@ public class StmtExecutor {
                         QeProcessor.unregisterQuery(context.queryId());
                     }
                 }
+                EXEC_LATENCY.update(System.currentTimeMillis() - execStartMs);
             } else if (parsedStmt instanceof SetStmt) {
                 handleSetStmt();
             } else if (parsedStmt instanceof EnterStmt) {
@@ -303,6 +339,7 @@ public class StmtExecutor {
         // Parse statement with parser generated by CUP&FLEX
         SqlScanner input = new SqlScanner(new StringReader(originStmt));
         SqlParser parser = new SqlParser(input);
+        long startMs = System.currentTimeMillis();
         try {
             parsedStmt = (StatementBase) parser.parse().value;
             redicrtStatus = parsedStmt.getRedirectStatus();
@@ -323,6 +360,8 @@ public class StmtExecutor {
             LOG.warn("Analyze failed because " + parser.getErrorMsg(originStmt), e);
             throw new AnalysisException("Internal Error, maybe this is a bug, please contact with Palo RD.");
         }
+        long parseEndMs = System.currentTimeMillis();
+        PARSE_LATENCY.update(parseEndMs - startMs);
 
         analyzer = new Analyzer(context.getCatalog(), context);
         // Convert show statement to select statement here
@@ -394,6 +433,8 @@ public class StmtExecutor {
                         if (isExplain) parsedStmt.setIsExplain(isExplain);
                     }
                 }
+                long analyzeEndMs = System.currentTimeMillis();
+                ANALYZE_LATENCY.update(analyzeEndMs - parseEndMs);
                 // create plan
                 planner = new Planner();
                 if (parsedStmt instanceof QueryStmt || parsedStmt instanceof InsertStmt) {
@@ -402,6 +443,7 @@ public class StmtExecutor {
                     planner.plan(((CreateTableAsSelectStmt) parsedStmt).getInsertStmt(),
                             analyzer, new TQueryOptions());
                 }
+                PLAN_LATENCY.update(System.currentTimeMillis() - analyzeEndMs);
                 // TODO(zc):
                 // Preconditions.checkState(!analyzer.hasUnassignedConjuncts());
             } catch (AnalysisException e) {
@@ -417,6 +459,7 @@ public class StmtExecutor {
         } else {
             try {
                 parsedStmt.analyze(analyzer);
+                ANALYZE_LATENCY.update(System.currentTimeMillis() - parseEndMs);
             } catch (AnalysisException e) {
                 throw e;
             } catch (Exception e) {
@@ -470,6 +513,31 @@ public class StmtExecutor {
         context.getState().setOk();
     }
 
+    // Throughput of result, the time blocked on BE and the time blocked on client are shown
+    // separately, so that we can tell which side a slow result is waiting for.
+    private void addResultInfo() {
+        long rows = context.getReturnRows();
+        long bytes = context.getReturnBytes();
+        long fetchTimeMs = fetchResultTimeNs / 1000000;
+        long sendTimeMs = sendResultTimeNs / 1000000;
+        summaryProfile.addInfoString("Result Rows", String.valueOf(rows));
+        summaryProfile.addInfoString("Result Bytes", formatBytes(bytes));
+        summaryProfile.addInfoString("Fetch Result Time", DebugUtil.getPrettyStringMs(fetchTimeMs));
+        summaryProfile.addInfoString("Send Result Time", DebugUtil.getPrettyStringMs(sendTimeMs));
+        long resultTimeNs = fetchResultTimeNs + sendResultTimeNs;
+        if (resultTimeNs > 0) {
+            double seconds = resultTimeNs / 1000000000.0;
+            summaryProfile.addInfoString("Result Rows Per Second",
+                    DebugUtil.DECIMAL_FORMAT_SCALE_3.format(rows / seconds));
+            summaryProfile.addInfoString("Result Bytes Per Second", formatBytes((long) (bytes / seconds)));
+        }
+    }
+
+    private static String formatBytes(long bytes) {
+        Pair<Double, String> pair = DebugUtil.getByteUint(bytes);
+        return DebugUtil.DECIMAL_FORMAT_SCALE_3.format(pair.first) + " " + pair.second;
+    }
+
     // Process a select statement.
     private void handleQueryStmt() throws Exception {
         // Every time set no send flag and clean all data in buffer
@@ -498,16 +566,41 @@ public class StmtExecutor {
         TResultBatch batch;
         MysqlChannel channel = context.getMysqlChannel();
         boolean isSendFields = false;
-        while ((batch = coord.getNext()) != null) {
-            if (!isSendFields) {
-                sendFields(queryStmt.getColLabels(), queryStmt.getResultExprs());
-            }
-            isSendFields = true;
+        boolean isEos = false;
+        try {
+            while (true) {
+                long fetchStartNs = System.nanoTime();
+                batch = coord.getNext();
+                long sendStartNs = System.nanoTime();
+                fetchResultTimeNs += sendStartNs - fetchStartNs;
+                if (batch == null) {
+                    isEos = true;
+                    break;
+                }
+                if (!isSendFields) {
+                    sendFields(queryStmt.getColLabels(), queryStmt.getResultExprs());
+                }
+                isSendFields = true;
 
-            for (ByteBuffer row : batch.getRows()) {
-                channel.sendOnePacket(row);
+                long bytes = 0;
+                for (ByteBuffer row : batch.getRows()) {
+                    if (binaryColTypes != null) {
+                        row = MysqlBinaryProtocol.textRowToBinary(row, binaryColTypes, serializer);
+                    }
+                    // 4 bytes packet header
+                    bytes += row.remaining() + 4;
+                    channel.sendOnePacket(row);
+                }
+                context.updateReturnRows(batch.getRows().size());
+                context.updateReturnBytes(bytes);
+                sendResultTimeNs += System.nanoTime() - sendStartNs;
+            }
+        } finally {
+            if (!isEos) {
+                // failed to fetch or send result, stop fetching the rest of result
+                coord.cancel();
             }
-            context.updateReturnRows(batch.getRows().size());
+            coord.closeResultReceiver();
         }
 
         if (!isSendFields) {
@@ -602,6 +695,12 @@ public class StmtExecutor {
         serializer.reset();
         serializer.writeVInt(metaData.getColumnCount());
         context.getMysqlChannel().sendOnePacket(serializer.toByteBuffer());
+        if (preparedStmt != null) {
+            binaryColTypes = Lists.newArrayList();
+            for (Column col : metaData.getColumns()) {
+                binaryColTypes.add(col.getColumnType().getType().toMysqlType());
+            }
+        }
         // send field one by one
         for (Column col : metaData.getColumns()) {
             serializer.reset();
@@ -621,6 +720,12 @@ public class StmtExecutor {
         serializer.reset();
         serializer.writeVInt(colNames.size());
         context.getMysqlChannel().sendOnePacket(serializer.toByteBuffer());
+        if (preparedStmt != null) {
+            binaryColTypes = Lists.newArrayList();
+            for (Expr expr : exprs) {
+                binaryColTypes.add(expr.getType().getPrimitiveType().toMysqlType());
+            }
+        }
         // send field one by one
         for (int i = 0; i < colNames.size(); ++i) {
             serializer.reset();
@@ -640,6 +745,11 @@ public class StmtExecutor {
 
         // Send result set.
         for (List<String> row : resultSet.getResultRows()) {
+            if (binaryColTypes != null) {
+                context.getMysqlChannel().sendOnePacket(
+                        MysqlBinaryProtocol.stringRowToBinary(row, binaryColTypes, serializer));
+                continue;
+            }
             serializer.reset();
             for (String item : row) {
                 if (item == null) {
@@ -678,6 +788,11 @@ public class StmtExecutor {
 
         // Send result set.
         for (String item : result.split("\n")) {
+            if (binaryColTypes != null) {
+                context.getMysqlChannel().sendOnePacket(
+                        MysqlBinaryProtocol.stringRowToBinary(Lists.newArrayList(item), binaryColTypes, serializer));
+                continue;
+            }
             serializer.reset();
             serializer.writeLenEncodedString(item);
             context.getMysqlChannel().sendOnePacket(serializer.toByteBuffer());
@@ -21,9 +21,12 @@
 package com.baidu.palo.service;
 
 import com.baidu.palo.common.Config;
+import com.baidu.palo.common.util.Metrics;
 import com.baidu.palo.qe.ConnectScheduler;
 import com.baidu.palo.qe.MultiLoadMgr;
 
+import io.dropwizard.metrics.Gauge;
+
 // Execute environment, used to save other module, need to singleton
 public class ExecuteEnv {
     private static ExecuteEnv INSTANCE;
@@ -44,6 +47,13 @@ public class ExecuteEnv {
     public static void setup() {
         ExecuteEnv env = getInstance();
         env.scheduler = new ConnectScheduler(Config.qe_max_connection);
+        final ConnectScheduler scheduler = env.scheduler;
+        Metrics.register("connection.num", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return scheduler.getConnectionNum();
+            }
+        });
     }
 
     public ConnectScheduler getScheduler() {
@@ -76,6 +76,11 @@ public class Backend implements Writable {
     // rootPath -> DiskInfo
     private AtomicReference<ImmutableMap<String, DiskInfo>> disksRef;
 
+    // (master epoch, report version) of the last tablet report applied by this FE. not persisted.
+    // Epoch is compared, because reports may have been applied by other masters since this FE
+    // was master last time.
+    private AtomicReference<long[]> appliedTabletReport;
+
     public Backend() {
         this.host = "";
         this.lastUpdateMs = new AtomicLong();
@@ -92,6 +97,7 @@ public class Backend implements Writable {
         this.backendState = new AtomicInteger(BackendState.free.ordinal());
         
         this.decommissionType = new AtomicInteger(DecomissionType.SystemDecomission.ordinal());
+        this.appliedTabletReport = new AtomicReference<long[]>();
     }
 
     public Backend(long id, String host, int heartbeatPort) {
@@ -111,6 +117,7 @@ public class Backend implements Writable {
         this.ownerClusterName = new AtomicReference<String>(""); 
         this.backendState = new AtomicInteger(BackendState.free.ordinal());
         this.decommissionType = new AtomicInteger(DecomissionType.SystemDecomission.ordinal());
+        this.appliedTabletReport = new AtomicReference<long[]>();
     }
 
     public long getId() {
@@ -265,6 +272,15 @@ public class Backend implements Writable {
         return this.backendState.get() == BackendState.offline.ordinal();
     }
 
+    public void setAppliedTabletReport(long epoch, long reportVersion) {
+        appliedTabletReport.set(new long[] { epoch, reportVersion });
+    }
+
+    public boolean isTabletReportApplied(long epoch, long reportVersion) {
+        long[] applied = appliedTabletReport.get();
+        return applied != null && applied[0] == epoch && applied[1] == reportVersion;
+    }
+
     public ImmutableMap<String, DiskInfo> getDisks() {
         return this.disksRef.get();
     }
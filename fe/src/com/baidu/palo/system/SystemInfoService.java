@@ -49,6 +49,7 @@ import com.baidu.palo.common.FeConstants;
 import com.baidu.palo.common.FeMetaVersion;
 import com.baidu.palo.common.Pair;
 import com.baidu.palo.common.util.Daemon;
+import com.baidu.palo.common.util.Metrics;
 import com.baidu.palo.system.Backend.BackendState;
 import com.baidu.palo.system.BackendEvent.BackendEventType;
 import com.baidu.palo.thrift.HeartbeatService;
@@ -246,6 +247,7 @@ public class SystemInfoService extends Daemon {
         if (null != cluster) {
             cluster.removeBackend(droppedBackend.getId());
         }
+        Metrics.removeTagged(Metrics.BACKEND_ID_TAG, String.valueOf(droppedBackend.getId()));
         // log
         Catalog.getInstance().getEditLog().logDropBackend(droppedBackend);
         LOG.info("drop {}", droppedBackend);
@@ -1035,6 +1037,7 @@ public class SystemInfoService extends Daemon {
         if (null != cluster) {
             cluster.removeBackend(backend.getId());
         }
+        Metrics.removeTagged(Metrics.BACKEND_ID_TAG, String.valueOf(backend.getId()));
     }
 
     public void updateBackendState(Backend be) {
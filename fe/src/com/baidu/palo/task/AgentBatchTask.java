@@ -19,12 +19,15 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
 import com.baidu.palo.catalog.Catalog;
 import com.baidu.palo.common.ClientPool;
+import com.baidu.palo.common.Config;
+import com.baidu.palo.common.util.Metrics;
 import com.baidu.palo.system.Backend;
 import com.baidu.palo.thrift.BackendService;
 import com.baidu.palo.thrift.TAgentServiceVersion;
@@ -44,12 +47,17 @@ import com.baidu.palo.thrift.TSnapshotRequest;
 import com.baidu.palo.thrift.TStorageMediumMigrateReq;
 import com.baidu.palo.thrift.TTaskType;
 import com.baidu.palo.thrift.TUploadReq;
+import com.google.common.collect.Maps;
+
+import io.dropwizard.metrics.Timer;
 
 /*
  * This class group tasks by backend 
  */
 public class AgentBatchTask implements Runnable {
     private static final Logger LOG = LogManager.getLogger(AgentBatchTask.class);
+    // latency of sending tasks to one backend, tagged by backend id
+    private static final String DISPATCH_LATENCY_METRIC_NAME = "agent_task.dispatch_latency";
 
     // backendId -> AgentTask List
     private Map<Long, List<AgentTask>> backendIdToTasks;
@@ -97,43 +105,77 @@ public class AgentBatchTask implements Runnable {
     @Override
     public void run() {
         for (Long backendId : this.backendIdToTasks.keySet()) {
-            BackendService.Client client = null;
-            TNetworkAddress address = null;
-            boolean ok = false;
-            try {
-                Backend backend = Catalog.getCurrentSystemInfo().getBackend(backendId);
-                if (backend == null || !backend.isAlive()) {
-                    continue;
-                }
-                List<AgentTask> tasks = this.backendIdToTasks.get(backendId);
-                // create AgentClient
-                address = new TNetworkAddress(backend.getHost(), backend.getBePort());
-                client = ClientPool.backendPool.borrowObject(address);
+            sendTasks(backendId);
+        } // end for backend
+    }
 
-                List<TAgentTaskRequest> agentTaskRequests = new LinkedList<TAgentTaskRequest>();
-                for (AgentTask task : tasks) {
-                    agentTaskRequests.add(toAgentTaskRequest(task));
+    // Return backend id -> runnable which sends tasks to that backend.
+    // AgentTaskExecutor runs them concurrently, so a slow backend does not delay the others.
+    public Map<Long, Runnable> getBackendSenders() {
+        Map<Long, Runnable> senders = Maps.newHashMapWithExpectedSize(backendIdToTasks.size());
+        for (final Long backendId : this.backendIdToTasks.keySet()) {
+            senders.put(backendId, new Runnable() {
+                @Override
+                public void run() {
+                    sendTasks(backendId);
                 }
-                client.submit_tasks(agentTaskRequests);
+            });
+        }
+        return senders;
+    }
 
-                if (LOG.isDebugEnabled()) {
-                    for (AgentTask task : tasks) {
-                        LOG.debug("send task: type[{}], backend[{}], signature[{}]",
-                                task.getTaskType(), backendId, task.getSignature());
-                    }
+    // Tasks are sent in rpcs of at most *agent_task_max_num_per_rpc* tasks, in order.
+    // Rest tasks are not sent if one rpc fails.
+    private void sendTasks(long backendId) {
+        BackendService.Client client = null;
+        TNetworkAddress address = null;
+        Exception error = null;
+        long start = System.nanoTime();
+        try {
+            Backend backend = Catalog.getCurrentSystemInfo().getBackend(backendId);
+            if (backend == null || !backend.isAlive()) {
+                return;
+            }
+            List<AgentTask> tasks = this.backendIdToTasks.get(backendId);
+            // create AgentClient
+            address = new TNetworkAddress(backend.getHost(), backend.getBePort());
+            client = ClientPool.backendPool.borrowObject(address);
+
+            int maxNumPerRpc = Math.max(1, Config.agent_task_max_num_per_rpc);
+            List<TAgentTaskRequest> agentTaskRequests = new LinkedList<TAgentTaskRequest>();
+            for (AgentTask task : tasks) {
+                agentTaskRequests.add(toAgentTaskRequest(task));
+                if (agentTaskRequests.size() >= maxNumPerRpc) {
+                    client.submit_tasks(agentTaskRequests);
+                    agentTaskRequests = new LinkedList<TAgentTaskRequest>();
                 }
+            }
+            if (!agentTaskRequests.isEmpty()) {
+                client.submit_tasks(agentTaskRequests);
+            }
 
-                ok = true;
-            } catch (Exception e) {
-                LOG.warn("task exec error. backend[{}]", backendId, e);
-            } finally {
-                if (ok) {
-                    ClientPool.backendPool.returnObject(address, client);
-                } else {
-                    ClientPool.backendPool.invalidateObject(address, client);
+            if (LOG.isDebugEnabled()) {
+                for (AgentTask task : tasks) {
+                    LOG.debug("send task: type[{}], backend[{}], signature[{}]",
+                            task.getTaskType(), backendId, task.getSignature());
                 }
             }
-        } // end for backend
+        } catch (Exception e) {
+            LOG.warn("task exec error. backend[{}]", backendId, e);
+            error = e;
+        } finally {
+            // connection is kept unless it is broken by the error
+            ClientPool.backendPool.returnOrInvalidateObject(address, client, error);
+            // not recorded for unavailable backend, which may have been dropped with its metrics
+            if (address != null) {
+                long cost = System.nanoTime() - start;
+                ((Timer) Metrics.getMetric(Metrics.MetricType.TIMER, Metrics.name(DISPATCH_LATENCY_METRIC_NAME)
+                        .tagged(Metrics.BACKEND_ID_TAG, String.valueOf(backendId))))
+                        .update(cost, TimeUnit.NANOSECONDS);
+                LOG.debug("send {} task(s) to backend[{}] cost {} ms", backendIdToTasks.get(backendId).size(),
+                          backendId, TimeUnit.NANOSECONDS.toMillis(cost));
+            }
+        }
     }
 
     private TAgentTaskRequest toAgentTaskRequest(AgentTask task) {
@@ -87,6 +87,11 @@ public abstract class AgentTask {
     }
 
     public void failed() {
+        AgentTaskQueue.failTask(this);
+    }
+
+    // only called by AgentTaskQueue, which also counts failed tasks
+    void increaseFailedTimes() {
         ++this.failedTimes;
     }
 
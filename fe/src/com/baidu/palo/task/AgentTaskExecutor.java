@@ -15,17 +15,141 @@
 
 package com.baidu.palo.task;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import com.baidu.palo.common.Config;
+import com.baidu.palo.common.util.Metrics;
+import com.google.common.collect.Maps;
 
+import io.dropwizard.metrics.Gauge;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Tasks of each backend in a batch are sent by one thread of this executor, so batches are sent to
+// backends concurrently, by at most *agent_task_executor_thread_num* threads.
+// Batches of one backend are sent one by one in the order of submission, so that tasks of a later
+// batch (eg. drop) do not arrive at backend before tasks of an earlier batch (eg. create).
+// If the queue is full, tasks are sent by the submitting thread, which slows down the submitter
+// instead of dropping the tasks.
 public class AgentTaskExecutor {
-    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool();
+    private static final Logger LOG = LogManager.getLogger(AgentTaskExecutor.class);
+
+    private static final ThreadPoolExecutor EXECUTOR = createExecutor(Config.agent_task_executor_thread_num,
+                                                                      Config.agent_task_executor_queue_size);
+
+    // backend id -> senders of this backend waiting to be sent.
+    // A backend is in the map while one thread is sending its senders.
+    private static final Map<Long, Queue<Runnable>> BACKEND_SENDERS = Maps.newHashMap();
+
+    static {
+        Metrics.register("agent_task.executor.active_thread_num", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getActiveThreadNum();
+            }
+        });
+        Metrics.register("agent_task.executor.pending_num", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getPendingNum();
+            }
+        });
+    }
 
     public AgentTaskExecutor() {
     }
-    
+
+    static ThreadPoolExecutor createExecutor(int threadNum, int queueSize) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threadNum, threadNum, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(Math.max(1, queueSize)),
+                new ThreadFactory() {
+                    private final AtomicInteger threadNum = new AtomicInteger(0);
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "agent-task-executor-" + threadNum.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     public static void submit(AgentBatchTask task) {
-        EXECUTOR.submit(task);
+        submit(EXECUTOR, BACKEND_SENDERS, task.getBackendSenders());
     }
 
+    static void submit(Executor executor, Map<Long, Queue<Runnable>> backendSenders, Map<Long, Runnable> senders) {
+        for (Map.Entry<Long, Runnable> entry : senders.entrySet()) {
+            final long backendId = entry.getKey();
+            boolean isSending;
+            synchronized (backendSenders) {
+                Queue<Runnable> queue = backendSenders.get(backendId);
+                isSending = queue != null;
+                if (!isSending) {
+                    queue = new LinkedList<Runnable>();
+                    backendSenders.put(backendId, queue);
+                }
+                queue.add(entry.getValue());
+            }
+            if (!isSending) {
+                executor.execute(new BackendSender(backendSenders, backendId));
+            }
+        }
+    }
+
+    // send all senders of one backend in order, until no sender is waiting
+    private static class BackendSender implements Runnable {
+        private final Map<Long, Queue<Runnable>> backendSenders;
+        private final long backendId;
+
+        public BackendSender(Map<Long, Queue<Runnable>> backendSenders, long backendId) {
+            this.backendSenders = backendSenders;
+            this.backendId = backendId;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable sender;
+                synchronized (backendSenders) {
+                    sender = backendSenders.get(backendId).poll();
+                    if (sender == null) {
+                        backendSenders.remove(backendId);
+                        return;
+                    }
+                }
+                try {
+                    sender.run();
+                } catch (Throwable t) {
+                    LOG.warn("failed to send tasks to backend[{}]", backendId, t);
+                }
+            }
+        }
+    }
+
+    // number of threads sending tasks
+    public static int getActiveThreadNum() {
+        return EXECUTOR.getActiveCount();
+    }
+
+    // number of backends whose tasks are waiting to be sent
+    public static int getPendingNum() {
+        return EXECUTOR.getQueue().size();
+    }
+
+    public static long getCompletedNum() {
+        return EXECUTOR.getCompletedTaskCount();
+    }
 }
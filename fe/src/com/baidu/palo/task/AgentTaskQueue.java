@@ -15,149 +15,267 @@
 
 package com.baidu.palo.task;
 
+import com.baidu.palo.common.util.Metrics;
 import com.baidu.palo.thrift.TPushType;
 import com.baidu.palo.thrift.TTaskType;
 
-import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Table;
+
+import io.dropwizard.metrics.Gauge;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
  * Task queue
+ *
+ * Tasks are sharded by backend. Each backend has its own lock, so diffing the tasks reported by
+ * one backend does not block adding or removing tasks of other backends.
+ * Number of tasks and failed tasks are counted per (backend, type) and per type, so they are got
+ * without scanning tasks.
  */
 public class AgentTaskQueue {
     private static final Logger LOG = LogManager.getLogger(AgentTaskQueue.class);
 
-    // backend id -> (task type -> (signature -> agent task))
-    private static Table<Long, TTaskType, Map<Long, AgentTask>> tasks = HashBasedTable.create();
-    private static int taskNum = 0;
- 
-    public static synchronized boolean addTask(AgentTask task) {
-        long backendId = task.getBackendId();
-        TTaskType type = task.getTaskType();
+    private static final int TASK_TYPE_NUM = TTaskType.values().length;
+
+    // backend id -> tasks of backend
+    private static ConcurrentMap<Long, BackendTasks> tasks = Maps.newConcurrentMap();
+    private static AtomicInteger taskNum = new AtomicInteger(0);
+    // task type ordinal -> task num of all backends
+    private static AtomicIntegerArray typeTaskNums = new AtomicIntegerArray(TASK_TYPE_NUM);
+    private static AtomicIntegerArray typeFailedTaskNums = new AtomicIntegerArray(TASK_TYPE_NUM);
+
+    static {
+        Metrics.register("agent_task.queue.task_num", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return taskNum.get();
+            }
+        });
+        for (final TTaskType type : TTaskType.values()) {
+            String name = type.name().toLowerCase();
+            Metrics.register("agent_task.queue.task_num." + name, new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return typeTaskNums.get(type.ordinal());
+                }
+            });
+            Metrics.register("agent_task.queue.failed_task_num." + name, new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return typeFailedTaskNums.get(type.ordinal());
+                }
+            });
+        }
+    }
 
-        Map<Long, AgentTask> signatureMap = tasks.get(backendId, type);
-        if (signatureMap == null) {
-            signatureMap = Maps.newHashMap();
-            tasks.put(backendId, type, signatureMap);
+    // tasks of one backend, guarded by its monitor
+    private static class BackendTasks {
+        // task type -> (signature -> agent task)
+        private final Map<TTaskType, Map<Long, AgentTask>> typeToTasks =
+                new EnumMap<TTaskType, Map<Long, AgentTask>>(TTaskType.class);
+        private final int[] taskNums = new int[TASK_TYPE_NUM];
+        private final int[] failedTaskNums = new int[TASK_TYPE_NUM];
+
+        synchronized boolean add(AgentTask task) {
+            TTaskType type = task.getTaskType();
+            Map<Long, AgentTask> signatureMap = typeToTasks.get(type);
+            if (signatureMap == null) {
+                signatureMap = Maps.newHashMap();
+                typeToTasks.put(type, signatureMap);
+            }
+
+            long signature = task.getSignature();
+            if (signatureMap.containsKey(signature)) {
+                return false;
+            }
+            signatureMap.put(signature, task);
+            countTask(task, 1);
+            return true;
+        }
+
+        synchronized AgentTask get(TTaskType type, long signature) {
+            Map<Long, AgentTask> signatureMap = typeToTasks.get(type);
+            return signatureMap == null ? null : signatureMap.get(signature);
+        }
+
+        // remove task of signature, if expectedTask is not null, only remove it when it is the same task
+        synchronized AgentTask remove(TTaskType type, long signature, AgentTask expectedTask) {
+            Map<Long, AgentTask> signatureMap = typeToTasks.get(type);
+            if (signatureMap == null) {
+                return null;
+            }
+            AgentTask task = signatureMap.get(signature);
+            if (task == null || (expectedTask != null && task != expectedTask)) {
+                return null;
+            }
+            signatureMap.remove(signature);
+            countTask(task, -1);
+            return task;
         }
-        
+
+        synchronized void failed(AgentTask task) {
+            task.increaseFailedTimes();
+            if (task.getFailedTimes() == 1 && get(task.getTaskType(), task.getSignature()) == task) {
+                int typeIdx = task.getTaskType().ordinal();
+                ++failedTaskNums[typeIdx];
+                typeFailedTaskNums.incrementAndGet(typeIdx);
+            }
+        }
+
+        // delta is 1 for added task, -1 for removed task
+        private void countTask(AgentTask task, int delta) {
+            int typeIdx = task.getTaskType().ordinal();
+            taskNums[typeIdx] += delta;
+            typeTaskNums.addAndGet(typeIdx, delta);
+            taskNum.addAndGet(delta);
+            if (task.getFailedTimes() > 0) {
+                failedTaskNums[typeIdx] += delta;
+                typeFailedTaskNums.addAndGet(typeIdx, delta);
+            }
+        }
+
+        synchronized List<AgentTask> getDiffTasks(Map<TTaskType, Set<Long>> runningTasks) {
+            List<AgentTask> diffTasks = new ArrayList<AgentTask>();
+            for (Map.Entry<TTaskType, Map<Long, AgentTask>> entry : typeToTasks.entrySet()) {
+                Set<Long> excludeSignatures = runningTasks.get(entry.getKey());
+                for (Map.Entry<Long, AgentTask> taskEntry : entry.getValue().entrySet()) {
+                    if (excludeSignatures == null || !excludeSignatures.contains(taskEntry.getKey())) {
+                        diffTasks.add(taskEntry.getValue());
+                    }
+                }
+            }
+            return diffTasks;
+        }
+
+        synchronized int getTaskNum(TTaskType type, boolean isFailed) {
+            return isFailed ? failedTaskNums[type.ordinal()] : taskNums[type.ordinal()];
+        }
+
+        synchronized List<AgentTask> getFailedTasks(TTaskType type) {
+            List<AgentTask> failedTasks = Lists.newArrayList();
+            if (failedTaskNums[type.ordinal()] == 0) {
+                return failedTasks;
+            }
+            for (AgentTask task : typeToTasks.get(type).values()) {
+                if (task.getFailedTimes() > 0) {
+                    failedTasks.add(task);
+                }
+            }
+            return failedTasks;
+        }
+    }
+
+    private static BackendTasks getOrCreateBackendTasks(long backendId) {
+        BackendTasks backendTasks = tasks.get(backendId);
+        if (backendTasks == null) {
+            backendTasks = new BackendTasks();
+            BackendTasks existing = tasks.putIfAbsent(backendId, backendTasks);
+            if (existing != null) {
+                backendTasks = existing;
+            }
+        }
+        return backendTasks;
+    }
+
+    public static boolean addTask(AgentTask task) {
+        long backendId = task.getBackendId();
+        TTaskType type = task.getTaskType();
         long signature = task.getSignature();
-        if (signatureMap.containsKey(signature)) {
+
+        if (!getOrCreateBackendTasks(backendId).add(task)) {
             return false;
         }
-        signatureMap.put(signature, task);
-        ++taskNum;
         LOG.debug("add task: type[{}], backend[{}], signature[{}]", type, backendId, signature);
         if (type == TTaskType.PUSH) {
             PushTask pushTask = (PushTask) task;
-            LOG.debug("push task info: version[{}], version hash[{}]", 
+            LOG.debug("push task info: version[{}], version hash[{}]",
                       pushTask.getVersion(), pushTask.getVersionHash());
         }
         return true;
     }
-    
-    public static synchronized void removeTask(long backendId, TTaskType type, long signature) {
-        if (!tasks.contains(backendId, type)) {
+
+    public static void removeTask(long backendId, TTaskType type, long signature) {
+        BackendTasks backendTasks = tasks.get(backendId);
+        if (backendTasks == null) {
             return;
         }
 
-        Map<Long, AgentTask> signatureMap = tasks.get(backendId, type);
-        if (!signatureMap.containsKey(signature)) {
-            return;
+        if (backendTasks.remove(type, signature, null) != null) {
+            LOG.debug("remove task: type[{}], backend[{}], signature[{}]", type, backendId, signature);
         }
-        signatureMap.remove(signature);
-        LOG.debug("remove task: type[{}], backend[{}], signature[{}]", type, backendId, signature);
-        --taskNum;
     }
-    
+
     /*
      * we cannot define a push task with only 'backendId', 'signature' and 'TTaskType'
      * add version, versionHash and TPushType to help
      */
-    public static synchronized void removePushTask(long backendId, long signature, long version, long versionHash,
-                                                   TPushType pushType) {
-        if (!tasks.contains(backendId, TTaskType.PUSH)) {
+    public static void removePushTask(long backendId, long signature, long version, long versionHash,
+                                      TPushType pushType) {
+        BackendTasks backendTasks = tasks.get(backendId);
+        if (backendTasks == null) {
             return;
         }
 
-        Map<Long, AgentTask> signatureMap = tasks.get(backendId, TTaskType.PUSH);
-        AgentTask task = signatureMap.get(signature);
-        if (task == null) {
-            return;
-        }
+        // check and remove in the same critical section, so a new push task with the same signature
+        // is not removed by mistake
+        synchronized (backendTasks) {
+            PushTask pushTask = (PushTask) backendTasks.get(TTaskType.PUSH, signature);
+            if (pushTask == null) {
+                return;
+            }
 
-        PushTask pushTask = (PushTask) task;
-        if (pushTask.getVersion() != version || pushTask.getVersionHash() != versionHash
-                || pushTask.getPushType() != pushType) {
-            return;
-        }
+            if (pushTask.getVersion() != version || pushTask.getVersionHash() != versionHash
+                    || pushTask.getPushType() != pushType) {
+                return;
+            }
 
-        signatureMap.remove(signature);
+            backendTasks.remove(TTaskType.PUSH, signature, pushTask);
+        }
         LOG.debug("remove task: type[{}], backend[{}], signature[{}]", TTaskType.PUSH, backendId, signature);
-        --taskNum;
     }
 
-    public static synchronized AgentTask getTask(long backendId, TTaskType type, long signature) {
-        if (!tasks.contains(backendId, type)) {
+    public static AgentTask getTask(long backendId, TTaskType type, long signature) {
+        BackendTasks backendTasks = tasks.get(backendId);
+        if (backendTasks == null) {
             return null;
         }
+        return backendTasks.get(type, signature);
+    }
 
-        Map<Long, AgentTask> signatureMap = tasks.get(backendId, type);
-        return signatureMap.get(signature);
+    // called by AgentTask.failed(), to count the task as failed if it is in queue
+    static void failTask(AgentTask task) {
+        getOrCreateBackendTasks(task.getBackendId()).failed(task);
     }
-    
-    public static synchronized List<AgentTask> getDiffTasks(long backendId, Map<TTaskType, Set<Long>> runningTasks) {
-        List<AgentTask> diffTasks = new ArrayList<AgentTask>();
-        if (!tasks.containsRow(backendId)) {
-            return diffTasks;
-        }
-        
-        Map<TTaskType, Map<Long, AgentTask>> backendAllTasks = tasks.row(backendId);
-        for (Map.Entry<TTaskType, Map<Long, AgentTask>> entry : backendAllTasks.entrySet()) {
-            TTaskType taskType = entry.getKey();
-            Map<Long, AgentTask> tasks = entry.getValue();
-            Set<Long> excludeSignatures = new HashSet<Long>();
-            if (runningTasks.containsKey(taskType)) {
-                excludeSignatures = runningTasks.get(taskType);
-            }
-            
-            for (Map.Entry<Long, AgentTask> taskEntry : tasks.entrySet()) {
-                long signature = taskEntry.getKey();
-                AgentTask task = taskEntry.getValue();
-                if (!excludeSignatures.contains(signature)) {
-                    diffTasks.add(task);
-                }
-            } // end for tasks
-        } // end for backendAllTasks
 
-        return diffTasks;
+    public static List<AgentTask> getDiffTasks(long backendId, Map<TTaskType, Set<Long>> runningTasks) {
+        BackendTasks backendTasks = tasks.get(backendId);
+        if (backendTasks == null) {
+            return new ArrayList<AgentTask>();
+        }
+        return backendTasks.getDiffTasks(runningTasks);
     }
 
-    public static synchronized void removeReplicaRelatedTasks(long backendId, long signature) {
-        if (!tasks.containsRow(backendId)) {
+    public static void removeReplicaRelatedTasks(long backendId, long signature) {
+        BackendTasks backendTasks = tasks.get(backendId);
+        if (backendTasks == null) {
             return;
         }
 
-        Map<TTaskType, Map<Long, AgentTask>> backendTasks = tasks.row(backendId);
         for (TTaskType type : TTaskType.values()) {
-            if (backendTasks.containsKey(type)) {
-                Map<Long, AgentTask> typeTasks = backendTasks.get(type);
-                if (typeTasks.containsKey(signature)) {
-                    typeTasks.remove(signature);
-                    LOG.debug("remove task: type[{}], backend[{}], signature[{}]", type, backendId, signature);
-                    --taskNum;
-                }
+            if (backendTasks.remove(type, signature, null) != null) {
+                LOG.debug("remove task: type[{}], backend[{}], signature[{}]", type, backendId, signature);
             }
         } // end for types
     }
@@ -165,43 +283,26 @@ public class AgentTaskQueue {
     // only for test now
     public static synchronized void clearAllTasks() {
         tasks.clear();
-        taskNum = 0;
+        taskNum.set(0);
+        for (int i = 0; i < TASK_TYPE_NUM; i++) {
+            typeTaskNums.set(i, 0);
+            typeFailedTaskNums.set(i, 0);
+        }
     }
 
-    public static synchronized int getTaskNum() {
-        return taskNum;
+    public static int getTaskNum() {
+        return taskNum.get();
     }
 
-    public static synchronized int getTaskNum(long backendId, TTaskType type, boolean isFailed) {
+    public static int getTaskNum(long backendId, TTaskType type, boolean isFailed) {
         int taskNum = 0;
         if (backendId != -1) {
-            Map<Long, AgentTask> taskMap = tasks.get(backendId, type);
-            if (taskMap != null) {
-                if (isFailed) {
-                    for (AgentTask task : taskMap.values()) {
-                        if (task.getFailedTimes() > 0) {
-                            ++taskNum;
-                        }
-                    }
-                } else {
-                    taskNum += taskMap.size();
-                }
+            BackendTasks backendTasks = tasks.get(backendId);
+            if (backendTasks != null) {
+                taskNum = backendTasks.getTaskNum(type, isFailed);
             }
         } else {
-            Map<Long, Map<Long, AgentTask>> taskMap = tasks.column(type);
-            if (taskMap != null) {
-                for (Map<Long, AgentTask> signatureMap : taskMap.values()) {
-                    if (isFailed) {
-                        for (AgentTask task : signatureMap.values()) {
-                            if (task.getFailedTimes() > 0) {
-                                ++taskNum;
-                            }
-                        }
-                    } else {
-                        taskNum += signatureMap.size();
-                    }
-                }
-            }
+            taskNum = isFailed ? typeFailedTaskNums.get(type.ordinal()) : typeTaskNums.get(type.ordinal());
         }
 
         LOG.info("get task num with type[{}] in backend[{}]: {}. isFailed: {}",
@@ -209,17 +310,11 @@ public class AgentTaskQueue {
         return taskNum;
     }
 
-    public static synchronized List<AgentTask> getFailedTask(long backendId, TTaskType type) {
-        Map<Long, AgentTask> taskMap = tasks.get(backendId, type);
-        List<AgentTask> tasks = Lists.newArrayList();
-        if (taskMap != null) {
-            for (AgentTask task : taskMap.values()) {
-                if (task.getFailedTimes() > 0) {
-                    tasks.add(task);
-                }
-            }
+    public static List<AgentTask> getFailedTask(long backendId, TTaskType type) {
+        BackendTasks backendTasks = tasks.get(backendId);
+        if (backendTasks == null) {
+            return Lists.newArrayList();
         }
-        return tasks;
+        return backendTasks.getFailedTasks(type);
     }
 }
-
@@ -69,6 +69,7 @@ public class ExportExportingTask extends MasterTask {
     public ExportExportingTask(ExportJob job) {
         this.job = job;
         this.signature = job.getId();
+        this.dbId = job.getDbId();
     }
 
     @Override
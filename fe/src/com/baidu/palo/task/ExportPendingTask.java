@@ -48,6 +48,7 @@ public class ExportPendingTask extends MasterTask {
         super();
         this.job = job;
         this.signature = job.getId();
+        this.dbId = job.getDbId();
     }
 
     @Override
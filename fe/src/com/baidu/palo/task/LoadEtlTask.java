@@ -61,6 +61,7 @@ public abstract class LoadEtlTask extends MasterTask {
         super();
         this.job = job;
         this.signature = job.getId();
+        this.dbId = job.getDbId();
         this.load = Catalog.getInstance().getLoadInstance();
     }
 
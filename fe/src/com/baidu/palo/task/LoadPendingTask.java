@@ -42,6 +42,7 @@ public abstract class LoadPendingTask extends MasterTask {
     public LoadPendingTask(LoadJob job) {
         this.job = job;
         this.signature = job.getId();
+        this.dbId = job.getDbId();
         this.load = Catalog.getInstance().getLoadInstance();
     }
 
@@ -22,6 +22,8 @@ public abstract class MasterTask implements Runnable {
     private static final Logger LOG = LogManager.getLogger(MasterTask.class);
 
     protected long signature;
+    // tasks are queued by db in executor, -1 if task does not belong to any db
+    protected long dbId = -1;
     
     @Override
     public void run() {
@@ -35,6 +37,10 @@ public abstract class MasterTask implements Runnable {
     public long getSignature() {
         return signature;
     }
+
+    public long getDbId() {
+        return dbId;
+    }
     
     /**
      * implement in child
@@ -15,80 +15,244 @@
 
 package com.baidu.palo.task;
 
+import com.baidu.palo.common.Config;
+import com.baidu.palo.common.util.LatencyHistogram;
+import com.baidu.palo.common.util.Metrics;
+import com.baidu.palo.common.util.Metrics.MetricType;
+
 import com.google.common.collect.Maps;
 
+import io.dropwizard.metrics.Counter;
+import io.dropwizard.metrics.Gauge;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 
+// Run master tasks by a fixed number of workers.
+// Queued tasks are grouped by db, and dbs are served round robin, so a burst of tasks of one db
+// does not delay tasks of other dbs. At most Config.master_task_queue_size tasks are queued.
+// Idle workers may run queued tasks of another executor set by stealFrom(), e.g. normal priority
+// workers help high priority ones.
+// Task is removed when it finishes, so the same task can be submitted again at once.
 public class MasterTaskExecutor {
     private static final Logger LOG = LogManager.getLogger(MasterTaskExecutor.class);
 
-    private ExecutorService executor;
-    private Map<Long, Future<?>> runningTasks;
-    private Timer checkTimer;
+    private final String name;
+    private final ExecutorService executor;
+    private final Object lock = new Object();
+    // signature -> queued or running task, guarded by lock
+    private final Map<Long, MasterTask> runningTasks = Maps.newHashMap();
+    // db id -> queued tasks of db, in round robin order, guarded by lock
+    private final LinkedHashMap<Long, Deque<QueuedTask>> dbQueues = new LinkedHashMap<Long, Deque<QueuedTask>>();
+    private int queuedTaskNum = 0;
+    private boolean closed = false;
+    // executor whose queued tasks can be run by workers of this executor
+    private volatile MasterTaskExecutor victim;
+    // executor whose workers can run queued tasks of this executor
+    private volatile MasterTaskExecutor thief;
+
+    private final LatencyHistogram waitLatency;
+    private final Counter rejectedCounter;
+
+    private static class QueuedTask {
+        final MasterTask task;
+        final long submitTimeMs;
 
-    public MasterTaskExecutor(int threadNum) {
+        QueuedTask(MasterTask task) {
+            this.task = task;
+            this.submitTimeMs = System.currentTimeMillis();
+        }
+    }
+
+    public MasterTaskExecutor(String name, int threadNum) {
+        this.name = name;
         executor = Executors.newFixedThreadPool(threadNum);
-        runningTasks = Maps.newHashMap();
-        checkTimer = new Timer("Master Task Check Timer", true);
-        checkTimer.scheduleAtFixedRate(new TaskChecker(), 0L, 1000L);
+        for (int i = 0; i < threadNum; i++) {
+            executor.submit(new Worker());
+        }
+
+        waitLatency = (LatencyHistogram) Metrics.getMetric(MetricType.LATENCY_HISTOGRAM,
+                "master_task." + name + ".wait_latency_ms");
+        rejectedCounter = (Counter) Metrics.getMetric(MetricType.COUNTER, "master_task." + name + ".rejected");
+        registerGauges();
+    }
+
+    private void registerGauges() {
+        try {
+            Metrics.register("master_task." + name + ".queue_size", new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return getQueuedTaskNum();
+                }
+            });
+            Metrics.register("master_task." + name + ".running_num", new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return getTaskNum() - getQueuedTaskNum();
+                }
+            });
+        } catch (IllegalArgumentException e) {
+            // executor of the same name is created again, e.g. in unit test
+            LOG.warn("metrics of master task executor {} already exist", name);
+        }
+    }
+
+    /**
+     * let idle workers of this executor run queued tasks of the other executor
+     */
+    public void stealFrom(MasterTaskExecutor other) {
+        this.victim = other;
+        other.thief = this;
     }
-    
+
     /**
      * submit task to task executor
      * @param task
      * @return true if submit success 
-     *         false if task exists
+     *         false if task exists or queue is full
      */
     public boolean submit(MasterTask task) {
         long signature = task.getSignature();
-        synchronized (runningTasks) {
-            if (runningTasks.containsKey(signature)) {
+        synchronized (lock) {
+            if (closed || runningTasks.containsKey(signature)) {
                 return false;
             }
-            Future<?> future = executor.submit(task);
-            runningTasks.put(signature, future);
-            return true;
+            if (queuedTaskNum >= Config.master_task_queue_size) {
+                rejectedCounter.inc();
+                LOG.warn("queue of master task executor {} is full. task: {}", name, signature);
+                return false;
+            }
+
+            Deque<QueuedTask> queue = dbQueues.get(task.getDbId());
+            if (queue == null) {
+                queue = new ArrayDeque<QueuedTask>();
+                dbQueues.put(task.getDbId(), queue);
+            }
+            queue.add(new QueuedTask(task));
+            queuedTaskNum++;
+            runningTasks.put(signature, task);
+            lock.notify();
         }
+
+        // notify after releasing lock, workers of thief hold its lock when polling this executor
+        MasterTaskExecutor thiefExecutor = thief;
+        if (thiefExecutor != null) {
+            thiefExecutor.signalWorkers();
+        }
+        return true;
     }
-    
-    public void close() {
-        executor.shutdown();
-        runningTasks.clear();
+
+    private void signalWorkers() {
+        synchronized (lock) {
+            lock.notifyAll();
+        }
     }
-    
-    public int getTaskNum() {
-        synchronized (runningTasks) {
-            return runningTasks.size();
+
+    // poll the head task of the first db, and move the db to the tail. caller should hold lock
+    private QueuedTask pollTask() {
+        Iterator<Map.Entry<Long, Deque<QueuedTask>>> iterator = dbQueues.entrySet().iterator();
+        if (!iterator.hasNext()) {
+            return null;
+        }
+        Map.Entry<Long, Deque<QueuedTask>> entry = iterator.next();
+        Deque<QueuedTask> queue = entry.getValue();
+        QueuedTask queuedTask = queue.poll();
+        iterator.remove();
+        if (!queue.isEmpty()) {
+            dbQueues.put(entry.getKey(), queue);
+        }
+        queuedTaskNum--;
+        return queuedTask;
+    }
+
+    private QueuedTask stealTask() {
+        synchronized (lock) {
+            return pollTask();
         }
     }
-    
-    private class TaskChecker extends TimerTask {
+
+    private void runTask(QueuedTask queuedTask) {
+        MasterTask task = queuedTask.task;
+        waitLatency.update(System.currentTimeMillis() - queuedTask.submitTimeMs);
+        try {
+            task.run();
+        } finally {
+            synchronized (lock) {
+                runningTasks.remove(task.getSignature());
+            }
+        }
+    }
+
+    private class Worker implements Runnable {
         @Override
         public void run() {
-            try {
-                synchronized (runningTasks) {
-                    Iterator<Entry<Long, Future<?>>> iterator = runningTasks.entrySet().iterator();
-                    while (iterator.hasNext()) {
-                        Entry<Long, Future<?>> entry = iterator.next();
-                        Future<?> future = entry.getValue();
-                        if (future.isDone()) {
-                            iterator.remove();
+            while (true) {
+                QueuedTask queuedTask = null;
+                MasterTaskExecutor owner = MasterTaskExecutor.this;
+                synchronized (lock) {
+                    while (!closed) {
+                        queuedTask = pollTask();
+                        if (queuedTask != null) {
+                            break;
+                        }
+                        MasterTaskExecutor victimExecutor = victim;
+                        if (victimExecutor != null) {
+                            queuedTask = victimExecutor.stealTask();
+                            if (queuedTask != null) {
+                                owner = victimExecutor;
+                                break;
+                            }
                         }
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                            LOG.warn("worker of master task executor {} is interrupted", name);
+                            return;
+                        }
+                    }
+                    if (closed) {
+                        return;
                     }
                 }
-            } catch (Exception e) {
-                LOG.error("check task error", e);
+
+                try {
+                    owner.runTask(queuedTask);
+                } catch (Throwable e) {
+                    LOG.error("run master task error", e);
+                }
             }
         }
     }
+
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            dbQueues.clear();
+            queuedTaskNum = 0;
+            runningTasks.clear();
+            lock.notifyAll();
+        }
+        executor.shutdown();
+    }
+
+    // num of queued and running tasks
+    public int getTaskNum() {
+        synchronized (lock) {
+            return runningTasks.size();
+        }
+    }
+
+    public int getQueuedTaskNum() {
+        synchronized (lock) {
+            return queuedTaskNum;
+        }
+    }
 }
@@ -210,8 +210,8 @@ public class PullLoadTask {
         boolean needUnregister = false;
         try {
             QeProcessor.registerQuery(executeId, curCoordinator);
-            actualExecute();
             needUnregister = true;
+            actualExecute();
         } catch (InternalException e) {
             onFailed(executeId, new Status(TStatusCode.INTERNAL_ERROR, e.getMessage()));
         } finally {
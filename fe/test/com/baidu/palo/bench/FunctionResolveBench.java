@@ -0,0 +1,80 @@
+// Copyright (c) 2017, Baidu.com, Inc. All Rights Reserved
+
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package com.baidu.palo.bench;
+
+import com.baidu.palo.analysis.FunctionName;
+import com.baidu.palo.catalog.Function;
+import com.baidu.palo.catalog.FunctionSet;
+import com.baidu.palo.catalog.Type;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Resolve the aggregate functions of a 500 expression select. The first round on a new FunctionSet is
+// not cached, the following rounds are resolved from cache.
+// It is not a unit test, run it by hand with the fe classpath, e.g.
+//   java -cp <fe classpath> com.baidu.palo.bench.FunctionResolveBench [rounds]
+public class FunctionResolveBench {
+    // arg types of calls in a generated wide select
+    private static final Type[] ARG_TYPES = {
+            Type.TINYINT, Type.SMALLINT, Type.INT, Type.BIGINT, Type.LARGEINT,
+            Type.FLOAT, Type.DOUBLE, Type.DATE, Type.DATETIME, Type.VARCHAR };
+    private static final String[] FN_NAMES = { "min", "max", "sum", "count", "avg" };
+    private static final int EXPR_NUM = 500;
+
+    // return nanoseconds to resolve all descs, some of them may have no matched function
+    private static long resolve(FunctionSet functionSet, List<Function> descs) {
+        long start = System.nanoTime();
+        for (Function desc : descs) {
+            functionSet.getFunction(desc, Function.CompareMode.IS_NONSTRICT_SUPERTYPE_OF);
+        }
+        return System.nanoTime() - start;
+    }
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+
+        List<Function> descs = new ArrayList<Function>(EXPR_NUM);
+        for (int i = 0; i < EXPR_NUM; i++) {
+            descs.add(new Function(new FunctionName(FN_NAMES[i % FN_NAMES.length]),
+                    new Type[] { ARG_TYPES[i % ARG_TYPES.length] }, Type.INVALID, false));
+        }
+
+        // first round on a new function set each time, building the set is not timed
+        long uncachedNs = 0;
+        FunctionSet functionSet = null;
+        for (int round = 0; round < rounds; round++) {
+            functionSet = new FunctionSet();
+            functionSet.init();
+            uncachedNs += resolve(functionSet, descs);
+        }
+
+        long cachedNs = 0;
+        for (int round = 0; round < rounds; round++) {
+            cachedNs += resolve(functionSet, descs);
+        }
+
+        int resolvedNum = 0;
+        for (Function desc : descs) {
+            if (functionSet.getFunction(desc, Function.CompareMode.IS_NONSTRICT_SUPERTYPE_OF) != null) {
+                resolvedNum++;
+            }
+        }
+        System.out.println("resolved " + resolvedNum + " of " + EXPR_NUM + " function calls");
+        System.out.println("resolve " + EXPR_NUM + " function calls in " + rounds + " rounds, first: "
+                + uncachedNs / rounds / 1000 + "us, cached: " + cachedNs / rounds / 1000 + "us");
+    }
+}
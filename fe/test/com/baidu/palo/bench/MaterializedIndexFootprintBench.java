@@ -0,0 +1,111 @@
+// Copyright (c) 2017, Baidu.com, Inc. All Rights Reserved
+
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package com.baidu.palo.bench;
+
+import com.baidu.palo.catalog.Catalog;
+import com.baidu.palo.catalog.MaterializedIndex;
+import com.baidu.palo.catalog.MaterializedIndex.IndexState;
+import com.baidu.palo.catalog.Replica;
+import com.baidu.palo.catalog.Replica.ReplicaState;
+import com.baidu.palo.catalog.Tablet;
+import com.baidu.palo.catalog.TabletMeta;
+import com.baidu.palo.common.FeConstants;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.List;
+import java.util.Map;
+
+// Compare heap footprint of tablets and replicas of a materialized index in the former layout
+// (HashMap of boxed tablet id, replica lists of default capacity) and the current one.
+// It is not a unit test, run it by hand with the fe classpath and a fixed heap, e.g.
+//   java -Xms2g -Xmx2g -cp <fe classpath> com.baidu.palo.bench.MaterializedIndexFootprintBench [tablet num]
+public class MaterializedIndexFootprintBench {
+    private static final int REPLICA_NUM = 3;
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static Replica createReplica(long tabletId, int i) {
+        return new Replica(tabletId * 10 + i, i, 2, 0, 1024, 100, ReplicaState.NORMAL);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int tabletNum = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        // tablets are added to inverted index of the catalog, and read with current meta version
+        Catalog.getInstance().setJournalVersion(FeConstants.meta_version);
+
+        MaterializedIndex index = new MaterializedIndex(1, IndexState.NORMAL);
+        TabletMeta tabletMeta = new TabletMeta(1, 2, 3, 1, 1234);
+        for (long tabletId = 0; tabletId < tabletNum; tabletId++) {
+            Tablet tablet = new Tablet(tabletId);
+            for (int i = 0; i < REPLICA_NUM; i++) {
+                tablet.getReplicas().add(createReplica(tabletId, i));
+            }
+            index.addTablet(tablet, tabletMeta);
+        }
+        ByteArrayOutputStream image = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(image);
+        index.write(out);
+        out.flush();
+        index = null;
+
+        // former layout
+        long start = usedHeap();
+        Map<Long, Tablet> idToTablets = Maps.newHashMap();
+        List<Tablet> tablets = Lists.newArrayList();
+        for (long tabletId = 0; tabletId < tabletNum; tabletId++) {
+            List<Replica> replicas = Lists.newArrayList();
+            for (int i = 0; i < REPLICA_NUM; i++) {
+                replicas.add(createReplica(tabletId, i));
+            }
+            Tablet tablet = new Tablet(tabletId, replicas);
+            idToTablets.put(tabletId, tablet);
+            tablets.add(tablet);
+        }
+        long formerBytes = usedHeap() - start;
+        if (idToTablets.size() != tabletNum || tablets.size() != tabletNum) {
+            throw new IllegalStateException("tablets of former layout are lost");
+        }
+        idToTablets = null;
+        tablets = null;
+
+        // current layout, read from image
+        start = usedHeap();
+        MaterializedIndex readIndex = MaterializedIndex.read(
+                new DataInputStream(new ByteArrayInputStream(image.toByteArray())));
+        long currentBytes = usedHeap() - start;
+        if (readIndex.getTablets().size() != tabletNum) {
+            throw new IllegalStateException("tablets of current layout are lost");
+        }
+
+        double perMillionReplicas = 1000000.0 / ((double) tabletNum * REPLICA_NUM);
+        System.out.println("tablets: " + tabletNum + ", replicas per tablet: " + REPLICA_NUM);
+        System.out.println("heap bytes per million replicas, former layout: "
+                + Math.round(formerBytes * perMillionReplicas)
+                + ", current layout: " + Math.round(currentBytes * perMillionReplicas));
+    }
+}
@@ -114,6 +114,24 @@ public class BackendTest {
         Assert.assertEquals(disk2.getAvailable_capacity() + 1, backend.getAvailableCapacityB());
     }
 
+    @Test
+    public void testAppliedTabletReport() {
+        Assert.assertFalse(backend.isTabletReportApplied(1, 10));
+
+        backend.setAppliedTabletReport(1, 10);
+        Assert.assertTrue(backend.isTabletReportApplied(1, 10));
+        Assert.assertFalse(backend.isTabletReportApplied(1, 9));
+        // applied by this FE in another epoch
+        Assert.assertFalse(backend.isTabletReportApplied(2, 10));
+
+        backend.setAppliedTabletReport(2, 11);
+        Assert.assertTrue(backend.isTabletReportApplied(2, 11));
+        Assert.assertFalse(backend.isTabletReportApplied(1, 10));
+
+        // not persisted, a replayed backend asks for a full report first
+        Assert.assertFalse(new Backend(backendId, "host", 1).isTabletReportApplied(2, 11));
+    }
+
     @Test
     public void testSerialization() throws Exception {
         // Write 100 objects to file 
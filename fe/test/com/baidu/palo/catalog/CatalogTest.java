@@ -20,7 +20,9 @@
 
 package com.baidu.palo.catalog;
 
+import com.baidu.palo.common.Config;
 import com.baidu.palo.common.FeConstants;
+import com.baidu.palo.common.FeMetaVersion;
 import com.baidu.palo.alter.AlterJob.JobType;
 import com.baidu.palo.alter.AlterJob;
 import com.baidu.palo.alter.SchemaChangeJob;
@@ -30,6 +32,8 @@ import com.baidu.palo.load.LoadJob;
 import com.baidu.palo.cluster.Cluster;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
@@ -38,6 +42,8 @@ import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -237,4 +243,162 @@ public class CatalogTest {
         
         deleteDir(dir);
     }
+
+    private static Database createDb(long dbId, int tableNum) {
+        Database db = new Database(dbId, "testCluster.db" + dbId);
+        db.setClusterName("testCluster");
+        for (int i = 0; i < tableNum; i++) {
+            long tableId = dbId * 100 + i;
+            List<Column> columns = new LinkedList<Column>();
+            columns.add(new Column("k1", ColumnType.createType(PrimitiveType.INT), true, null, "", ""));
+            MaterializedIndex baseIndex = new MaterializedIndex(tableId * 10, IndexState.NORMAL);
+            Partition partition = new Partition(tableId * 10 + 1, "p" + tableId, baseIndex,
+                                                new RandomDistributionInfo(10));
+            OlapTable table = new OlapTable(tableId, "table" + tableId, columns, KeysType.AGG_KEYS,
+                                            new SinglePartitionInfo(), new RandomDistributionInfo(10));
+            table.addPartition(partition);
+            db.createTable(table);
+        }
+        return db;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T getCatalogField(Catalog catalog, String name) throws Exception {
+        Field field = Catalog.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return (T) field.get(catalog);
+    }
+
+    // Catalog with the given dbs and no cluster, so that saveDb() counts all of them.
+    // Returns the clusters removed from catalog, which are restored by restoreClusters().
+    private static Map<String, Cluster> setDbs(Catalog catalog, List<Database> dbs) throws Exception {
+        catalog.clear();
+        Map<String, Cluster> nameToCluster = getCatalogField(catalog, "nameToCluster");
+        Map<String, Cluster> clusters = new HashMap<String, Cluster>(nameToCluster);
+        nameToCluster.clear();
+        Map<Long, Database> idToDb = getCatalogField(catalog, "idToDb");
+        Map<String, Database> nameToDb = getCatalogField(catalog, "nameToDb");
+        for (Database db : dbs) {
+            idToDb.put(db.getId(), db);
+            nameToDb.put(db.getName(), db);
+        }
+        return clusters;
+    }
+
+    private static void restoreClusters(Catalog catalog, Map<String, Cluster> clusters) throws Exception {
+        catalog.clear();
+        Map<String, Cluster> nameToCluster = getCatalogField(catalog, "nameToCluster");
+        nameToCluster.putAll(clusters);
+    }
+
+    private static void checkLoadedDbs(Catalog catalog, List<Database> dbs) {
+        Assert.assertEquals(dbs.size(), catalog.getDbIds().size());
+        for (Database db : dbs) {
+            Assert.assertTrue(db.equals(catalog.getDb(db.getId())));
+            Assert.assertSame(catalog.getDb(db.getId()), catalog.getDb(db.getName()));
+        }
+    }
+
+    private static List<Database> createDbs() {
+        List<Database> dbs = new ArrayList<Database>();
+        for (int i = 0; i < 10; i++) {
+            // dbs of different sizes, including an empty one
+            dbs.add(createDb(Catalog.NEXT_ID_INIT_VALUE + 1 + i, i));
+        }
+        return dbs;
+    }
+
+    @Test
+    public void testSaveLoadDb() throws Exception {
+        int imageThreadNum = Config.image_thread_num;
+        Catalog catalog = Catalog.getInstance();
+        catalog.setJournalVersion(FeMetaVersion.VERSION_35);
+        List<Database> dbs = createDbs();
+        Map<String, Cluster> clusters = setDbs(catalog, dbs);
+        try {
+            // saved and loaded in the caller thread, and by a thread pool
+            for (int threadNum : new int[] { 1, 4 }) {
+                Config.image_thread_num = threadNum;
+                setDbs(catalog, dbs);
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                DataOutputStream dos = new DataOutputStream(bos);
+                long checksum1 = catalog.saveDb(dos, 0);
+                dos.close();
+
+                catalog.clear();
+                DataInputStream dis = new DataInputStream(new ByteArrayInputStream(bos.toByteArray()));
+                long checksum2 = catalog.loadDb(dis, 0);
+                Assert.assertEquals(checksum1, checksum2);
+                Assert.assertEquals(-1, dis.read());
+                checkLoadedDbs(catalog, dbs);
+            }
+        } finally {
+            Config.image_thread_num = imageThreadNum;
+            restoreClusters(catalog, clusters);
+        }
+    }
+
+    @Test
+    public void testLoadDbWithCorruptedChecksum() throws Exception {
+        int imageThreadNum = Config.image_thread_num;
+        Catalog catalog = Catalog.getInstance();
+        catalog.setJournalVersion(FeMetaVersion.VERSION_35);
+        List<Database> dbs = createDbs();
+        Map<String, Cluster> clusters = setDbs(catalog, dbs);
+        try {
+            for (int threadNum : new int[] { 1, 4 }) {
+                Config.image_thread_num = threadNum;
+                setDbs(catalog, dbs);
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                DataOutputStream dos = new DataOutputStream(bos);
+                catalog.saveDb(dos, 0);
+                dos.close();
+                byte[] image = bos.toByteArray();
+                // the last byte belongs to the data of the last db chunk
+                image[image.length - 1] ^= 0x01;
+
+                catalog.clear();
+                DataInputStream dis = new DataInputStream(new ByteArrayInputStream(image));
+                try {
+                    catalog.loadDb(dis, 0);
+                    Assert.fail("corrupted db chunk is loaded");
+                } catch (IOException e) {
+                    Assert.assertTrue(e.getMessage().contains("checksum"));
+                }
+            }
+        } finally {
+            Config.image_thread_num = imageThreadNum;
+            restoreClusters(catalog, clusters);
+        }
+    }
+
+    @Test
+    public void testLoadDbOfOldVersion() throws Exception {
+        Catalog catalog = Catalog.getInstance();
+        List<Database> dbs = createDbs();
+        Map<String, Cluster> clusters = setDbs(catalog, dbs);
+        try {
+            // dbs are saved one after another before VERSION_35
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(bos);
+            long checksum1 = dbs.size();
+            dos.writeInt(dbs.size());
+            for (Database db : dbs) {
+                checksum1 ^= db.getId();
+                db.write(dos);
+            }
+            dos.close();
+
+            catalog.setJournalVersion(FeMetaVersion.VERSION_34);
+            catalog.clear();
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(bos.toByteArray()));
+            long checksum2 = catalog.loadDb(dis, 0);
+            Assert.assertEquals(checksum1, checksum2);
+            Assert.assertEquals(-1, dis.read());
+            checkLoadedDbs(catalog, dbs);
+        } finally {
+            catalog.setJournalVersion(FeConstants.meta_version);
+            restoreClusters(catalog, clusters);
+        }
+    }
 }
@@ -20,17 +20,23 @@
 
 package com.baidu.palo.catalog;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import org.easymock.EasyMock;
+import org.easymock.IAnswer;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -41,6 +47,7 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import com.baidu.palo.catalog.MaterializedIndex.IndexState;
+import com.baidu.palo.common.Config;
 import com.baidu.palo.common.FeConstants;
 import com.baidu.palo.persist.CreateTableInfo;
 import com.baidu.palo.persist.EditLog;
@@ -55,6 +62,7 @@ public class DatabaseTest {
 
     private Catalog catalog;
     private EditLog editLog;
+    private boolean isCheckpointThread = false;
 
     @Before
     public void Setup() {
@@ -72,6 +80,12 @@ public class DatabaseTest {
         PowerMock.mockStatic(Catalog.class);
         EasyMock.expect(Catalog.getInstance()).andReturn(catalog).anyTimes();
         EasyMock.expect(Catalog.getCurrentCatalogJournalVersion()).andReturn(FeConstants.meta_version).anyTimes();
+        EasyMock.expect(Catalog.isCheckpointThread()).andAnswer(new IAnswer<Boolean>() {
+            @Override
+            public Boolean answer() throws Throwable {
+                return isCheckpointThread;
+            }
+        }).anyTimes();
         PowerMock.replay(Catalog.class);
     }
 
@@ -197,4 +211,117 @@ public class DatabaseTest {
         dis.close();
         file.delete();
     }
+
+    private Database createDbWithTables(long dbId, String dbName, long... tableIds) {
+        Database database = new Database(dbId, dbName);
+        for (long tableId : tableIds) {
+            List<Column> columns = new ArrayList<Column>();
+            columns.add(new Column("k1", ColumnType.createType(PrimitiveType.INT), true, null, "", ""));
+            columns.add(new Column("v1", ColumnType.createType(PrimitiveType.BIGINT), false, AggregateType.SUM,
+                                   "", ""));
+            MaterializedIndex index = new MaterializedIndex(tableId + 1, IndexState.NORMAL);
+            Partition partition = new Partition(tableId + 2, "table" + tableId, index, new RandomDistributionInfo(10));
+            OlapTable table = new OlapTable(tableId, "table" + tableId, columns, KeysType.AGG_KEYS,
+                                            new SinglePartitionInfo(), new RandomDistributionInfo(10));
+            table.addPartition(partition);
+            database.createTable(table);
+        }
+        return database;
+    }
+
+    private static byte[] writeDb(Database database) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        database.write(dos);
+        dos.flush();
+        return bos.toByteArray();
+    }
+
+    private static Database readDb(byte[] data) throws Exception {
+        return Database.read(new DataInputStream(new ByteArrayInputStream(data)));
+    }
+
+    private static int getSerializedTableNum(Database database) throws Exception {
+        Field field = Database.class.getDeclaredField("idToSerializedTable");
+        field.setAccessible(true);
+        return ((Map<?, ?>) field.get(database)).size();
+    }
+
+    @Test
+    public void testLazyLoadTable() throws Exception {
+        byte[] image = writeDb(createDbWithTables(3, "db3", 1000, 2000, 3000));
+        Database eagerDb = readDb(image);
+        Assert.assertEquals(0, getSerializedTableNum(eagerDb));
+
+        boolean lazyLoadTable = Config.checkpoint_lazy_load_table;
+        Config.checkpoint_lazy_load_table = true;
+        isCheckpointThread = true;
+        try {
+            Database lazyDb = readDb(image);
+            Assert.assertEquals(3, getSerializedTableNum(lazyDb));
+            Assert.assertEquals(eagerDb.getTableNamesWithLock(), lazyDb.getTableNamesWithLock());
+
+            // a referenced table is deserialized the same as eager load
+            Table table = lazyDb.getTable(1000);
+            Assert.assertTrue(table.equals(eagerDb.getTable(1000)));
+            Assert.assertEquals(2, getSerializedTableNum(lazyDb));
+            table = lazyDb.getTable("table2000");
+            Assert.assertTrue(table.equals(eagerDb.getTable("table2000")));
+            Assert.assertEquals(1, getSerializedTableNum(lazyDb));
+            Assert.assertNull(lazyDb.getTable(4000));
+            Assert.assertNull(lazyDb.getTable("table4000"));
+
+            // referenced and serialized tables are all written to image
+            isCheckpointThread = false;
+            Assert.assertTrue(readDb(writeDb(lazyDb)).equals(eagerDb));
+
+            // iterating tables deserializes all of them
+            Assert.assertEquals(3, lazyDb.getTables().size());
+            Assert.assertEquals(0, getSerializedTableNum(lazyDb));
+        } finally {
+            Config.checkpoint_lazy_load_table = lazyLoadTable;
+            isCheckpointThread = false;
+        }
+    }
+
+    @Test
+    public void testSaveUntouchedTables() throws Exception {
+        byte[] image = writeDb(createDbWithTables(4, "db4", 1000, 2000, 3000));
+
+        boolean lazyLoadTable = Config.checkpoint_lazy_load_table;
+        Config.checkpoint_lazy_load_table = true;
+        isCheckpointThread = true;
+        try {
+            Database lazyDb = readDb(image);
+            Assert.assertEquals(3, getSerializedTableNum(lazyDb));
+            // tables no journal references are written back byte for byte
+            Assert.assertTrue(Arrays.equals(image, writeDb(lazyDb)));
+            Assert.assertEquals(3, getSerializedTableNum(lazyDb));
+        } finally {
+            Config.checkpoint_lazy_load_table = lazyLoadTable;
+            isCheckpointThread = false;
+        }
+    }
+
+    @Test
+    public void testLazyLoadTableOnlyInCheckpoint() throws Exception {
+        byte[] image = writeDb(createDbWithTables(5, "db5", 1000));
+
+        boolean lazyLoadTable = Config.checkpoint_lazy_load_table;
+        Config.checkpoint_lazy_load_table = true;
+        try {
+            // not in checkpoint thread
+            Assert.assertEquals(0, getSerializedTableNum(readDb(image)));
+        } finally {
+            Config.checkpoint_lazy_load_table = lazyLoadTable;
+        }
+
+        // disabled
+        isCheckpointThread = true;
+        try {
+            Assert.assertEquals(0, getSerializedTableNum(readDb(image)));
+        } finally {
+            isCheckpointThread = false;
+        }
+    }
 }
@@ -0,0 +1,138 @@
+// Copyright (c) 2017, Baidu.com, Inc. All Rights Reserved
+
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+
+package com.baidu.palo.catalog;
+
+import com.baidu.palo.analysis.FunctionName;
+import com.baidu.palo.common.util.UnitTestUtil;
+
+import com.google.common.cache.Cache;
+import com.google.common.collect.Lists;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FunctionSetTest {
+    private static ScalarFunction createFunction(String name, Type... argTypes) {
+        return ScalarFunction.createBuiltin(name, Lists.newArrayList(argTypes), false, argTypes[0],
+                name + "_symbol", null, null, true);
+    }
+
+    private static Function createDesc(String name, Type... argTypes) {
+        return new Function(new FunctionName(name), argTypes, Type.INVALID, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static long getResolvedNum(FunctionSet functionSet) throws Exception {
+        Field field = FunctionSet.class.getDeclaredField("resolvedFunctions");
+        field.setAccessible(true);
+        return ((Cache<String, Function>) field.get(functionSet)).size();
+    }
+
+    private static String getResolveKey(Function desc) throws Exception {
+        Method method = UnitTestUtil.getPrivateMethod(FunctionSet.class, "getResolveKey",
+                new Class[] {Function.class, Function.CompareMode.class});
+        return (String) method.invoke(null, desc, Function.CompareMode.IS_NONSTRICT_SUPERTYPE_OF);
+    }
+
+    @Test
+    public void testResolve() {
+        FunctionSet functionSet = new FunctionSet();
+        ScalarFunction bigintFn = createFunction("foo", Type.BIGINT);
+        Assert.assertTrue(functionSet.addFunction(bigintFn));
+        Assert.assertFalse(functionSet.addFunction(createFunction("foo", Type.BIGINT)));
+
+        Function desc = createDesc("foo", Type.INT);
+        Assert.assertNull(functionSet.getFunction(desc, Function.CompareMode.IS_IDENTICAL));
+        Assert.assertSame(bigintFn, functionSet.getFunction(desc, Function.CompareMode.IS_SUPERTYPE_OF));
+        // resolved from cache
+        Assert.assertNull(functionSet.getFunction(desc, Function.CompareMode.IS_IDENTICAL));
+        Assert.assertSame(bigintFn, functionSet.getFunction(desc, Function.CompareMode.IS_SUPERTYPE_OF));
+        Assert.assertNull(functionSet.getFunction(createDesc("foo", Type.INT, Type.INT),
+                Function.CompareMode.IS_NONSTRICT_SUPERTYPE_OF));
+        Assert.assertNull(functionSet.getFunction(createDesc("bar", Type.INT),
+                Function.CompareMode.IS_NONSTRICT_SUPERTYPE_OF));
+
+        // adding a function invalidates resolved ones
+        ScalarFunction intFn = createFunction("foo", Type.INT);
+        Assert.assertTrue(functionSet.addFunction(intFn));
+        Assert.assertSame(intFn, functionSet.getFunction(desc, Function.CompareMode.IS_IDENTICAL));
+        Assert.assertSame(intFn, functionSet.getFunction(desc, Function.CompareMode.IS_SUPERTYPE_OF));
+
+        Assert.assertSame(bigintFn, functionSet.getFunction(bigintFn.signatureString()));
+        Assert.assertSame(intFn, functionSet.getFunction(intFn.signatureString()));
+        Assert.assertNull(functionSet.getFunction("foo(DOUBLE)"));
+    }
+
+    @Test
+    public void testResolveKeyOfTypeAttributes() throws Exception {
+        // varchar length, decimal precision and scale are all in the key
+        Assert.assertEquals(getResolveKey(createDesc("foo", ScalarType.createVarcharType(10))),
+                getResolveKey(createDesc("foo", ScalarType.createVarcharType(10))));
+        Assert.assertFalse(getResolveKey(createDesc("foo", ScalarType.createVarcharType(10)))
+                .equals(getResolveKey(createDesc("foo", ScalarType.createVarcharType(20)))));
+        Assert.assertEquals(getResolveKey(createDesc("foo", ScalarType.createDecimalType(10, 2))),
+                getResolveKey(createDesc("foo", ScalarType.createDecimalType(10, 2))));
+        Assert.assertFalse(getResolveKey(createDesc("foo", ScalarType.createDecimalType(10, 2)))
+                .equals(getResolveKey(createDesc("foo", ScalarType.createDecimalType(12, 2)))));
+        Assert.assertFalse(getResolveKey(createDesc("foo", ScalarType.createDecimalType(10, 2)))
+                .equals(getResolveKey(createDesc("foo", ScalarType.createDecimalType(10, 3)))));
+
+        FunctionSet functionSet = new FunctionSet();
+        functionSet.addFunction(createFunction("foo", Type.VARCHAR));
+        functionSet.addFunction(createFunction("foo", Type.DECIMAL));
+        functionSet.addFunction(createFunction("foo", Type.DOUBLE));
+        List<Function> descs = Lists.newArrayList(
+                createDesc("foo", ScalarType.createVarcharType(10)),
+                createDesc("foo", ScalarType.createVarcharType(20)),
+                createDesc("foo", ScalarType.createDecimalType(10, 2)),
+                createDesc("foo", ScalarType.createDecimalType(12, 2)),
+                createDesc("foo", ScalarType.createDecimalType(10, 3)));
+        List<Function> resolved = Lists.newArrayList();
+        for (Function desc : descs) {
+            resolved.add(functionSet.getFunction(desc, Function.CompareMode.IS_NONSTRICT_SUPERTYPE_OF));
+        }
+        // each type is resolved and cached by itself
+        Assert.assertEquals(descs.size(), getResolvedNum(functionSet));
+        for (int i = 0; i < descs.size(); i++) {
+            Assert.assertSame(resolved.get(i),
+                    functionSet.getFunction(descs.get(i), Function.CompareMode.IS_NONSTRICT_SUPERTYPE_OF));
+        }
+        Assert.assertEquals(descs.size(), getResolvedNum(functionSet));
+    }
+
+    @Test
+    public void testResolveNonScalarArgs() throws Exception {
+        FunctionSet functionSet = new FunctionSet();
+        ScalarFunction bigintFn = createFunction("foo", Type.BIGINT);
+        functionSet.addFunction(bigintFn);
+
+        // descs of non-scalar arg types are resolved every time, and never cached
+        Function desc = createDesc("foo", new ArrayType(Type.INT));
+        Assert.assertNull(getResolveKey(desc));
+        Assert.assertNull(functionSet.getFunction(desc, Function.CompareMode.IS_NONSTRICT_SUPERTYPE_OF));
+        Assert.assertNull(functionSet.getFunction(desc, Function.CompareMode.IS_NONSTRICT_SUPERTYPE_OF));
+        Assert.assertEquals(0, getResolvedNum(functionSet));
+
+        Assert.assertSame(bigintFn, functionSet.getFunction(createDesc("foo", Type.INT),
+                Function.CompareMode.IS_NONSTRICT_SUPERTYPE_OF));
+        Assert.assertEquals(1, getResolvedNum(functionSet));
+    }
+}
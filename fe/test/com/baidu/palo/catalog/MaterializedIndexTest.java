@@ -21,8 +21,13 @@
 package com.baidu.palo.catalog;
 
 import com.baidu.palo.catalog.MaterializedIndex.IndexState;
+import com.baidu.palo.catalog.Replica.ReplicaState;
 import com.baidu.palo.common.FeConstants;
 
+import com.google.common.collect.Lists;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
@@ -63,13 +68,32 @@ public class MaterializedIndexTest {
         index = new MaterializedIndex(indexId, IndexState.NORMAL);
 
         catalog = EasyMock.createMock(Catalog.class);
+        TabletInvertedIndex invertedIndex = EasyMock.createNiceMock(TabletInvertedIndex.class);
+        EasyMock.replay(invertedIndex);
 
         PowerMock.mockStatic(Catalog.class);
         EasyMock.expect(Catalog.getInstance()).andReturn(catalog).anyTimes();
         EasyMock.expect(Catalog.getCurrentCatalogJournalVersion()).andReturn(FeConstants.meta_version).anyTimes();
+        EasyMock.expect(Catalog.getCurrentInvertedIndex()).andReturn(invertedIndex).anyTimes();
         PowerMock.replay(Catalog.class);
     }
 
+    private static Tablet createTablet(long tabletId, int replicaNum) {
+        Tablet tablet = new Tablet(tabletId);
+        for (int i = 0; i < replicaNum; i++) {
+            tablet.getReplicas().add(new Replica(tabletId * 10 + i, i, 2, 0, 1024, 100, ReplicaState.NORMAL));
+        }
+        return tablet;
+    }
+
+    private static MaterializedIndex writeAndRead(MaterializedIndex index) throws Exception {
+        ByteArrayOutputStream image = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(image);
+        index.write(out);
+        out.flush();
+        return MaterializedIndex.read(new DataInputStream(new ByteArrayInputStream(image.toByteArray())));
+    }
+
     @Test
     public void getMethodTest() {
         Assert.assertEquals(indexId, index.getId());
@@ -96,4 +120,84 @@ public class MaterializedIndexTest {
         dis.close();
         file.delete();
     }
+
+    @Test
+    public void testSerializationWithTablets() throws Exception {
+        TabletMeta tabletMeta = new TabletMeta(1, 2, 3, indexId, 1234);
+        // more tablets than the initial capacity of the map, ids are not in order
+        for (long i = 0; i < 1000; i++) {
+            index.addTablet(createTablet((i * 7919) % 1000 + 1, 3), tabletMeta);
+        }
+        index.setRowCount(100);
+        index.setRollupIndexInfo(20000, 5);
+
+        MaterializedIndex rIndex = writeAndRead(index);
+        Assert.assertTrue(index.equals(rIndex));
+        Assert.assertEquals(indexId, rIndex.getId());
+        Assert.assertEquals(IndexState.NORMAL, rIndex.getState());
+        Assert.assertEquals(100, rIndex.getRowCount());
+        Assert.assertEquals(20000, rIndex.getRollupIndexId());
+        Assert.assertEquals(5, rIndex.getRollupFinishedVersion());
+
+        // tablets keep the order they are added in
+        Assert.assertEquals(index.getTabletIdsInOrder(), rIndex.getTabletIdsInOrder());
+        for (Tablet tablet : index.getTablets()) {
+            Tablet rTablet = rIndex.getTablet(tablet.getId());
+            Assert.assertNotNull(rTablet);
+            Assert.assertEquals(tablet.getId(), rTablet.getId());
+            Assert.assertEquals(3, rTablet.getReplicas().size());
+        }
+        Assert.assertNull(rIndex.getTablet(0));
+        Assert.assertNull(rIndex.getTablet(1001));
+    }
+
+    @Test
+    public void testTabletOrder() throws Exception {
+        TabletMeta tabletMeta = new TabletMeta(1, 2, 3, indexId, 1234);
+        index.addTablet(createTablet(30, 1), tabletMeta);
+        index.addTablet(createTablet(10, 1), tabletMeta);
+        index.addTablet(createTablet(20, 1), tabletMeta);
+        Assert.assertEquals(Lists.newArrayList(30L, 10L, 20L), index.getTabletIdsInOrder());
+
+        MaterializedIndex rIndex = writeAndRead(index);
+        Assert.assertEquals(Lists.newArrayList(30L, 10L, 20L), rIndex.getTabletIdsInOrder());
+        Assert.assertEquals(30L, rIndex.getTablets().get(0).getId());
+        Assert.assertSame(rIndex.getTablets().get(1), rIndex.getTablet(10));
+    }
+
+    @Test
+    public void testGetTabletAndEquals() throws Exception {
+        TabletMeta tabletMeta = new TabletMeta(1, 2, 3, indexId, 1234);
+        Assert.assertNull(index.getTablet(1));
+        Tablet tablet = createTablet(1, 3);
+        index.addTablet(tablet, tabletMeta);
+        index.addTablet(createTablet(2, 3), tabletMeta);
+        Assert.assertSame(tablet, index.getTablet(1));
+        Assert.assertNull(index.getTablet(3));
+
+        // same tablets in a different order
+        MaterializedIndex other = new MaterializedIndex(indexId, IndexState.NORMAL);
+        other.addTablet(createTablet(2, 3), tabletMeta);
+        other.addTablet(createTablet(1, 3), tabletMeta);
+        Assert.assertTrue(index.equals(other));
+        Assert.assertTrue(other.equals(index));
+
+        // same tablet num, different tablet ids
+        other = new MaterializedIndex(indexId, IndexState.NORMAL);
+        other.addTablet(createTablet(1, 3), tabletMeta);
+        other.addTablet(createTablet(3, 3), tabletMeta);
+        Assert.assertFalse(index.equals(other));
+
+        // same tablet ids, different replicas
+        other = new MaterializedIndex(indexId, IndexState.NORMAL);
+        other.addTablet(createTablet(1, 3), tabletMeta);
+        other.addTablet(createTablet(2, 2), tabletMeta);
+        Assert.assertFalse(index.equals(other));
+
+        // different tablet num
+        other = new MaterializedIndex(indexId, IndexState.NORMAL);
+        other.addTablet(createTablet(1, 3), tabletMeta);
+        Assert.assertFalse(index.equals(other));
+        Assert.assertFalse(other.equals(index));
+    }
 }
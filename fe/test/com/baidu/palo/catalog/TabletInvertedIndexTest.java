@@ -0,0 +1,288 @@
+// Copyright (c) 2017, Baidu.com, Inc. All Rights Reserved
+
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+
+package com.baidu.palo.catalog;
+
+import com.baidu.palo.catalog.Replica.ReplicaState;
+import com.baidu.palo.common.util.LongHashMap;
+import com.baidu.palo.thrift.TStorageMedium;
+import com.baidu.palo.thrift.TTablet;
+import com.baidu.palo.thrift.TTabletInfo;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.Set;
+
+public class TabletInvertedIndexTest {
+    private static final long DB_ID = 1;
+    private static final long TABLE_ID = 2;
+    private static final long PARTITION_ID = 3;
+    private static final long INDEX_ID = 4;
+    private static final int SCHEMA_HASH = 5;
+    private static final long BACKEND_ID = 10001;
+
+    private TabletInvertedIndex invertedIndex;
+
+    private Map<Long, TStorageMedium> storageMediumMap;
+    private ListMultimap<Long, Long> tabletSyncMap;
+    private ListMultimap<Long, Long> tabletDeleteFromMeta;
+    private Set<Long> foundTabletsWithValidSchema;
+    private Map<Long, TTabletInfo> foundTabletsWithInvalidSchema;
+    private ListMultimap<TStorageMedium, Long> tabletMigrationMap;
+
+    @Before
+    public void setUp() {
+        invertedIndex = new TabletInvertedIndex();
+        TabletMeta tabletMeta = new TabletMeta(DB_ID, TABLE_ID, PARTITION_ID, INDEX_ID, SCHEMA_HASH);
+        // tablet 100 ~ 104, each has a replica of version 2 on BACKEND_ID
+        for (long tabletId = 100; tabletId < 105; tabletId++) {
+            invertedIndex.addTablet(tabletId, tabletMeta);
+            invertedIndex.addReplica(tabletId, new Replica(tabletId * 10, BACKEND_ID, 2, 0, 0, 0,
+                                                           ReplicaState.NORMAL));
+        }
+
+        storageMediumMap = Maps.newHashMap();
+        storageMediumMap.put(PARTITION_ID, TStorageMedium.HDD);
+        tabletSyncMap = ArrayListMultimap.create();
+        tabletDeleteFromMeta = ArrayListMultimap.create();
+        foundTabletsWithValidSchema = Sets.newHashSet();
+        foundTabletsWithInvalidSchema = Maps.newHashMap();
+        tabletMigrationMap = ArrayListMultimap.create();
+    }
+
+    private static TTablet createTablet(long tabletId, int schemaHash, long version, TStorageMedium medium) {
+        TTabletInfo tabletInfo = new TTabletInfo(tabletId, schemaHash, version, 0, 0, 0);
+        tabletInfo.setStorage_medium(medium);
+        return new TTablet(Lists.newArrayList(tabletInfo));
+    }
+
+    private Map<Long, TTablet> createReport() {
+        Map<Long, TTablet> backendTablets = Maps.newHashMap();
+        // in sync
+        backendTablets.put(100L, createTablet(100, SCHEMA_HASH, 2, TStorageMedium.HDD));
+        // newer version on backend
+        backendTablets.put(101L, createTablet(101, SCHEMA_HASH, 3, TStorageMedium.HDD));
+        // invalid schema hash
+        backendTablets.put(102L, createTablet(102, SCHEMA_HASH + 1, 2, TStorageMedium.HDD));
+        // on another storage medium
+        backendTablets.put(103L, createTablet(103, SCHEMA_HASH, 2, TStorageMedium.SSD));
+        // not in meta
+        backendTablets.put(200L, createTablet(200, SCHEMA_HASH, 2, TStorageMedium.HDD));
+        return backendTablets;
+    }
+
+    private void tabletReport(Map<Long, TTablet> backendTablets, boolean isIncremental) {
+        invertedIndex.tabletReport(BACKEND_ID, backendTablets, storageMediumMap, isIncremental, tabletSyncMap,
+                                   tabletDeleteFromMeta, foundTabletsWithValidSchema,
+                                   foundTabletsWithInvalidSchema, tabletMigrationMap);
+    }
+
+    private void checkReportedTablets() {
+        Assert.assertEquals(Sets.newHashSet(100L, 101L, 103L), foundTabletsWithValidSchema);
+        Assert.assertEquals(Lists.newArrayList(101L), tabletSyncMap.get(DB_ID));
+        Assert.assertEquals(1, tabletSyncMap.size());
+        Assert.assertEquals(1, foundTabletsWithInvalidSchema.size());
+        Assert.assertEquals(SCHEMA_HASH + 1, foundTabletsWithInvalidSchema.get(102L).getSchema_hash());
+        Assert.assertEquals(Lists.newArrayList(103L), tabletMigrationMap.get(TStorageMedium.HDD));
+        Assert.assertEquals(1, tabletMigrationMap.size());
+    }
+
+    @Test
+    public void testIncrementalTabletReport() {
+        tabletReport(createReport(), true);
+
+        checkReportedTablets();
+        // tablet 104 is not reported, which means it is not changed
+        Assert.assertTrue(tabletDeleteFromMeta.isEmpty());
+    }
+
+    @Test
+    public void testFullTabletReport() {
+        tabletReport(createReport(), false);
+
+        checkReportedTablets();
+        // tablet 104 is not reported, which means it is lost on backend
+        Assert.assertEquals(Lists.newArrayList(104L), tabletDeleteFromMeta.get(DB_ID));
+        Assert.assertEquals(1, tabletDeleteFromMeta.size());
+    }
+
+    @Test
+    public void testIncrementalTabletReportOfOtherBackend() {
+        Map<Long, TTablet> backendTablets = Maps.newHashMap();
+        backendTablets.put(101L, createTablet(101, SCHEMA_HASH, 3, TStorageMedium.HDD));
+        invertedIndex.tabletReport(BACKEND_ID + 1, backendTablets, storageMediumMap, true, tabletSyncMap,
+                                   tabletDeleteFromMeta, foundTabletsWithValidSchema,
+                                   foundTabletsWithInvalidSchema, tabletMigrationMap);
+
+        // no replica of tablet 101 on this backend in meta, it is left to caller
+        Assert.assertTrue(foundTabletsWithValidSchema.isEmpty());
+        Assert.assertTrue(tabletSyncMap.isEmpty());
+        Assert.assertTrue(tabletDeleteFromMeta.isEmpty());
+    }
+
+    @Test
+    public void testIncrementalTabletReportEmpty() {
+        tabletReport(Maps.<Long, TTablet> newHashMap(), true);
+
+        Assert.assertTrue(foundTabletsWithValidSchema.isEmpty());
+        Assert.assertTrue(tabletSyncMap.isEmpty());
+        Assert.assertTrue(tabletDeleteFromMeta.isEmpty());
+        Assert.assertTrue(foundTabletsWithInvalidSchema.isEmpty());
+        Assert.assertTrue(tabletMigrationMap.isEmpty());
+    }
+
+    private static Object getField(Object obj, String name) throws Exception {
+        Field field = obj.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(obj);
+    }
+
+    // check that backendReplicaMap contains exactly the replicas in tablet map
+    @SuppressWarnings("unchecked")
+    private void checkConsistency() throws Exception {
+        // backend id -> (tablet id -> replica)
+        Map<Long, Map<Long, Replica>> expected = Maps.newHashMap();
+        for (Object stripe : (Object[]) getField(invertedIndex, "stripes")) {
+            LongHashMap<TabletMeta> tabletMetaMap = (LongHashMap<TabletMeta>) getField(stripe, "tabletMetaMap");
+            LongHashMap<Replica[]> replicaMap = (LongHashMap<Replica[]>) getField(stripe, "replicaMap");
+            for (long tabletId : replicaMap.keys()) {
+                Assert.assertTrue(tabletMetaMap.containsKey(tabletId));
+                Replica[] replicas = replicaMap.get(tabletId);
+                Assert.assertTrue(replicas.length > 0);
+                for (Replica replica : replicas) {
+                    Map<Long, Replica> backendReplicas = expected.get(replica.getBackendId());
+                    if (backendReplicas == null) {
+                        backendReplicas = Maps.newHashMap();
+                        expected.put(replica.getBackendId(), backendReplicas);
+                    }
+                    Assert.assertNull(backendReplicas.put(tabletId, replica));
+                }
+            }
+        }
+
+        Map<Long, LongHashMap<Replica>> backendReplicaMap =
+                (Map<Long, LongHashMap<Replica>>) getField(invertedIndex, "backendReplicaMap");
+        for (Map.Entry<Long, LongHashMap<Replica>> entry : backendReplicaMap.entrySet()) {
+            long backendId = entry.getKey();
+            LongHashMap<Replica> backendReplicas = entry.getValue();
+            Map<Long, Replica> expectedReplicas = expected.remove(backendId);
+            if (expectedReplicas == null) {
+                // empty map is left after all replicas of backend are deleted
+                Assert.assertTrue(backendReplicas.isEmpty());
+                continue;
+            }
+            Assert.assertEquals(expectedReplicas.size(), backendReplicas.size());
+            for (Map.Entry<Long, Replica> replicaEntry : expectedReplicas.entrySet()) {
+                Assert.assertSame(replicaEntry.getValue(), backendReplicas.get(replicaEntry.getKey()));
+            }
+            Assert.assertEquals(expectedReplicas.keySet(),
+                                Sets.newHashSet(invertedIndex.getTabletIdsByBackendId(backendId)));
+            Assert.assertEquals(expectedReplicas.size(), invertedIndex.getTabletNumByBackendId(backendId));
+        }
+        Assert.assertTrue(expected.isEmpty());
+    }
+
+    @Test
+    public void testAddReplicaConsistency() throws Exception {
+        checkConsistency();
+
+        // more replicas on other backends
+        for (long tabletId = 100; tabletId < 105; tabletId++) {
+            invertedIndex.addReplica(tabletId, new Replica(tabletId * 10 + 1, BACKEND_ID + 1, 2, 0, 0, 0,
+                                                           ReplicaState.NORMAL));
+        }
+        invertedIndex.addReplica(100, new Replica(1002, BACKEND_ID + 2, 2, 0, 0, 0, ReplicaState.NORMAL));
+        checkConsistency();
+        Assert.assertEquals(5, invertedIndex.getTabletNumByBackendId(BACKEND_ID + 1));
+        Assert.assertEquals(Lists.newArrayList(100L), invertedIndex.getTabletIdsByBackendId(BACKEND_ID + 2));
+
+        // add again replaces the replica on the same backend
+        Replica replica = new Replica(1003, BACKEND_ID + 2, 3, 0, 0, 0, ReplicaState.NORMAL);
+        invertedIndex.addReplica(100, replica);
+        checkConsistency();
+        Assert.assertEquals(1, invertedIndex.getTabletNumByBackendId(BACKEND_ID + 2));
+    }
+
+    @Test
+    public void testDeleteReplicaConsistency() throws Exception {
+        invertedIndex.addReplica(100, new Replica(1001, BACKEND_ID + 1, 2, 0, 0, 0, ReplicaState.NORMAL));
+        invertedIndex.addReplica(100, new Replica(1002, BACKEND_ID + 2, 2, 0, 0, 0, ReplicaState.NORMAL));
+        invertedIndex.addReplica(101, new Replica(1011, BACKEND_ID + 1, 2, 0, 0, 0, ReplicaState.NORMAL));
+
+        invertedIndex.deleteReplica(100, BACKEND_ID + 1);
+        checkConsistency();
+        Assert.assertEquals(Lists.newArrayList(101L), invertedIndex.getTabletIdsByBackendId(BACKEND_ID + 1));
+        Assert.assertEquals(1, invertedIndex.getTabletNumByBackendId(BACKEND_ID + 2));
+
+        // no replica on this backend
+        invertedIndex.deleteReplica(100, BACKEND_ID + 3);
+        checkConsistency();
+
+        // delete all replicas of tablet 100
+        invertedIndex.deleteReplica(100, BACKEND_ID);
+        invertedIndex.deleteReplica(100, BACKEND_ID + 2);
+        checkConsistency();
+        Assert.assertEquals(4, invertedIndex.getTabletNumByBackendId(BACKEND_ID));
+        Assert.assertEquals(0, invertedIndex.getTabletNumByBackendId(BACKEND_ID + 2));
+        // tablet meta is kept
+        Assert.assertNotNull(invertedIndex.getTabletMeta(100));
+
+        // add replica after all replicas are deleted
+        invertedIndex.addReplica(100, new Replica(1004, BACKEND_ID + 2, 2, 0, 0, 0, ReplicaState.NORMAL));
+        checkConsistency();
+    }
+
+    @Test
+    public void testDeleteTabletConsistency() throws Exception {
+        for (long tabletId = 100; tabletId < 105; tabletId++) {
+            invertedIndex.addReplica(tabletId, new Replica(tabletId * 10 + 1, BACKEND_ID + 1, 2, 0, 0, 0,
+                                                           ReplicaState.NORMAL));
+        }
+
+        invertedIndex.deleteTablet(100);
+        invertedIndex.deleteTablet(101);
+        checkConsistency();
+        Assert.assertNull(invertedIndex.getTabletMeta(100));
+        Assert.assertEquals(Sets.newHashSet(102L, 103L, 104L),
+                            Sets.newHashSet(invertedIndex.getTabletIdsByBackendId(BACKEND_ID)));
+        Assert.assertEquals(3, invertedIndex.getTabletNumByBackendId(BACKEND_ID + 1));
+
+        // deleted tablet is not reported to be deleted from meta again
+        tabletReport(Maps.<Long, TTablet> newHashMap(), false);
+        Assert.assertEquals(Sets.newHashSet(102L, 103L, 104L), Sets.newHashSet(tabletDeleteFromMeta.get(DB_ID)));
+
+        // delete tablet which does not exist
+        invertedIndex.deleteTablet(200);
+        checkConsistency();
+
+        for (long tabletId = 102; tabletId < 105; tabletId++) {
+            invertedIndex.deleteTablet(tabletId);
+        }
+        checkConsistency();
+        Assert.assertEquals(0, invertedIndex.getTabletNumByBackendId(BACKEND_ID));
+        Assert.assertEquals(0, invertedIndex.getTabletNumByBackendId(BACKEND_ID + 1));
+    }
+}
@@ -21,13 +21,22 @@
 package com.baidu.palo.common;
 
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.commons.pool2.impl.GenericKeyedObjectPool;
 import org.apache.commons.pool2.impl.GenericKeyedObjectPoolConfig;
+import org.apache.thrift.TApplicationException;
 import org.apache.thrift.TException;
 import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransportException;
 import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.BeforeClass;
@@ -224,6 +233,22 @@ public class GenericPoolTest {
         backendService.returnObject(address, object);
     }
 
+    @Test
+    public void testConnectTimeout() throws Exception {
+        GenericKeyedObjectPoolConfig config = new GenericKeyedObjectPoolConfig();
+        GenericPool<BackendService.Client> pool = new GenericPool("BackendService", config, 60000, 300);
+        TNetworkAddress address = new TNetworkAddress(ip, port);
+        BackendService.Client object = pool.borrowObject(address);
+        // read timeout is not shortened by the connect timeout
+        TSocket socket = (TSocket) object.getOutputProtocol().getTransport();
+        Assert.assertEquals(60000, socket.getSocket().getSoTimeout());
+
+        // reopen keeps the read timeout given by caller
+        Assert.assertTrue(pool.reopen(object, 30000));
+        Assert.assertEquals(30000, socket.getSocket().getSoTimeout());
+        pool.returnObject(address, object);
+    }
+
     @Test
     public void testSetMaxPerKey() throws Exception {
         TNetworkAddress address = new TNetworkAddress(ip, port);
@@ -283,4 +308,92 @@ public class GenericPoolTest {
         }
         Assert.assertTrue(flag);
     }
+
+    @SuppressWarnings("unchecked")
+    private static GenericKeyedObjectPool<TNetworkAddress, BackendService.Client> getPool(
+            GenericPool<BackendService.Client> pool) throws Exception {
+        Field field = GenericPool.class.getDeclaredField("pool");
+        field.setAccessible(true);
+        return (GenericKeyedObjectPool<TNetworkAddress, BackendService.Client>) field.get(pool);
+    }
+
+    @Test
+    public void testReturnOrInvalidateObject() throws Exception {
+        GenericKeyedObjectPoolConfig config = new GenericKeyedObjectPoolConfig();
+        config.setLifo(true);
+        GenericPool<BackendService.Client> pool =
+                new GenericPool("BackendService", "GenericPoolTest", config, 60000, 300);
+        TNetworkAddress address = new TNetworkAddress(ip, port);
+
+        // connection is kept if there is no error, or the error is read completely
+        BackendService.Client object = pool.borrowObject(address);
+        pool.returnOrInvalidateObject(address, object, null);
+        Assert.assertEquals(1, getPool(pool).getNumIdle(address));
+        Assert.assertSame(object, pool.borrowObject(address));
+        pool.returnOrInvalidateObject(address, object, new TApplicationException("unknown method"));
+        Assert.assertEquals(1, getPool(pool).getNumIdle(address));
+        Assert.assertSame(object, pool.borrowObject(address));
+        pool.returnOrInvalidateObject(address, object, new IllegalStateException("caller error"));
+        Assert.assertEquals(1, getPool(pool).getNumIdle(address));
+
+        // transport and protocol errors break the connection
+        object = pool.borrowObject(address);
+        pool.returnOrInvalidateObject(address, object, new TTransportException(TTransportException.TIMED_OUT));
+        Assert.assertEquals(0, getPool(pool).getNumIdle(address));
+        Assert.assertFalse(object.getOutputProtocol().getTransport().isOpen());
+
+        object = pool.borrowObject(address);
+        pool.returnOrInvalidateObject(address, object, new TProtocolException(TProtocolException.BAD_VERSION));
+        Assert.assertEquals(0, getPool(pool).getNumIdle(address));
+        Assert.assertFalse(object.getOutputProtocol().getTransport().isOpen());
+        Assert.assertEquals(0, getPool(pool).getNumActive(address));
+        Assert.assertEquals(2, getPool(pool).getDestroyedCount());
+    }
+
+    @Test
+    public void testEvictClosedByPeer() throws Exception {
+        GenericKeyedObjectPoolConfig config = new GenericKeyedObjectPoolConfig();
+        config.setLifo(true);
+        config.setTestWhileIdle(true);
+        // run evictor by hand
+        config.setTimeBetweenEvictionRunsMillis(-1L);
+        // idle connections are not too old to evict
+        config.setMinEvictableIdleTimeMillis(600000L);
+        config.setNumTestsPerEvictionRun(Integer.MAX_VALUE);
+        GenericPool<BackendService.Client> pool =
+                new GenericPool("BackendService", "GenericPoolTest", config, 60000, 300);
+
+        ServerSocket server = new ServerSocket(0, 10, InetAddress.getByName(ip));
+        TNetworkAddress address = new TNetworkAddress(ip, server.getLocalPort());
+        try {
+            BackendService.Client object1 = pool.borrowObject(address);
+            Socket peer1 = server.accept();
+            BackendService.Client object2 = pool.borrowObject(address);
+            Socket peer2 = server.accept();
+            pool.returnObject(address, object1);
+            pool.returnObject(address, object2);
+            Assert.assertEquals(2, getPool(pool).getNumIdle(address));
+
+            // peer closes the first connection, e.g. backend is restarted
+            peer1.close();
+            Thread.sleep(100);
+            getPool(pool).evict();
+            Assert.assertEquals(1, getPool(pool).getNumIdle(address));
+            Assert.assertFalse(object1.getOutputProtocol().getTransport().isOpen());
+
+            // the healthy connection is kept, and its read timeout is not changed by the check
+            BackendService.Client object = pool.borrowObject(address);
+            Assert.assertSame(object2, object);
+            TSocket socket = (TSocket) object.getOutputProtocol().getTransport();
+            Assert.assertEquals(60000, socket.getSocket().getSoTimeout());
+            pool.returnObject(address, object);
+
+            peer2.close();
+            Thread.sleep(100);
+            getPool(pool).evict();
+            Assert.assertEquals(0, getPool(pool).getNumIdle(address));
+        } finally {
+            server.close();
+        }
+    }
 }
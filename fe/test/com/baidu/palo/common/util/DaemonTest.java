@@ -0,0 +1,82 @@
+// Copyright (c) 2017, Baidu.com, Inc. All Rights Reserved
+
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package com.baidu.palo.common.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+public class DaemonTest {
+    // counts finished cycles, a cycle may be blocked until it is allowed to finish
+    private static class CountingDaemon extends Daemon {
+        private final Semaphore finishedCycles = new Semaphore(0);
+        private final Semaphore allowedCycles;
+
+        public CountingDaemon(long intervalMs, int allowedCycles) {
+            super("counting daemon", intervalMs);
+            this.allowedCycles = new Semaphore(allowedCycles);
+        }
+
+        @Override
+        protected void runOneCycle() {
+            try {
+                allowedCycles.acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+            finishedCycles.release();
+        }
+    }
+
+    @Test
+    public void testWakeup() throws Exception {
+        // interval is much longer than the test
+        CountingDaemon daemon = new CountingDaemon(3600 * 1000L, Integer.MAX_VALUE);
+        daemon.start();
+        try {
+            Assert.assertTrue(daemon.finishedCycles.tryAcquire(10, TimeUnit.SECONDS));
+            // next cycle does not run until woken up
+            Assert.assertFalse(daemon.finishedCycles.tryAcquire(200, TimeUnit.MILLISECONDS));
+
+            daemon.wakeup();
+            Assert.assertTrue(daemon.finishedCycles.tryAcquire(10, TimeUnit.SECONDS));
+            daemon.wakeup();
+            Assert.assertTrue(daemon.finishedCycles.tryAcquire(10, TimeUnit.SECONDS));
+        } finally {
+            daemon.exit();
+            daemon.wakeup();
+        }
+    }
+
+    @Test
+    public void testWakeupDuringCycle() throws Exception {
+        // the first cycle is blocked until it is allowed
+        CountingDaemon daemon = new CountingDaemon(3600 * 1000L, 0);
+        daemon.start();
+        try {
+            // wakeup while the first cycle is running is not lost
+            daemon.wakeup();
+            daemon.allowedCycles.release(2);
+            Assert.assertTrue(daemon.finishedCycles.tryAcquire(2, 10, TimeUnit.SECONDS));
+        } finally {
+            daemon.exit();
+            daemon.allowedCycles.release(Integer.MAX_VALUE / 2);
+            daemon.wakeup();
+        }
+    }
+}
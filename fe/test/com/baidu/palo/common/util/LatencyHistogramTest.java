@@ -0,0 +1,50 @@
+// Copyright (c) 2017, Baidu.com, Inc. All Rights Reserved
+
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package com.baidu.palo.common.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testUpdate() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.update(0);
+        histogram.update(1);
+        histogram.update(3);
+        histogram.update(100);
+        histogram.update(1000000);
+
+        Assert.assertEquals(5, histogram.getCount());
+        Assert.assertEquals(1000104, histogram.getSum());
+
+        long[] bounds = LatencyHistogram.getBucketBounds();
+        long[] counts = histogram.getCumulativeBucketCounts();
+        Assert.assertEquals(bounds.length + 1, counts.length);
+        // le 1
+        Assert.assertEquals(2, counts[0]);
+        // le 2
+        Assert.assertEquals(2, counts[1]);
+        // le 5
+        Assert.assertEquals(3, counts[2]);
+        // le 100
+        Assert.assertEquals(4, counts[6]);
+        // le max bound, and +Inf
+        Assert.assertEquals(4, counts[bounds.length - 1]);
+        Assert.assertEquals(5, counts[bounds.length]);
+    }
+}
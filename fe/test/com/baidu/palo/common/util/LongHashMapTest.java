@@ -0,0 +1,80 @@
+// Copyright (c) 2017, Baidu.com, Inc. All Rights Reserved
+
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package com.baidu.palo.common.util;
+
+import com.google.common.collect.Maps;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+public class LongHashMapTest {
+
+    @Test
+    public void testBasic() {
+        LongHashMap<String> map = new LongHashMap<String>();
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertNull(map.put(0L, "zero"));
+        Assert.assertNull(map.put(-1L, "minus"));
+        Assert.assertNull(map.put(10001L, "a"));
+        Assert.assertEquals("a", map.put(10001L, "b"));
+        Assert.assertEquals(3, map.size());
+
+        Assert.assertEquals("zero", map.get(0L));
+        Assert.assertEquals("minus", map.get(-1L));
+        Assert.assertEquals("b", map.get(10001L));
+        Assert.assertNull(map.get(10002L));
+        Assert.assertFalse(map.containsKey(10002L));
+
+        Assert.assertEquals("zero", map.remove(0L));
+        Assert.assertNull(map.remove(0L));
+        Assert.assertEquals(2, map.size());
+
+        long[] keys = map.keys();
+        Arrays.sort(keys);
+        Assert.assertArrayEquals(new long[] {-1L, 10001L}, keys);
+
+        map.clear();
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertNull(map.get(10001L));
+    }
+
+    @Test
+    public void testRandomOperations() {
+        LongHashMap<Long> map = new LongHashMap<Long>();
+        Map<Long, Long> expected = Maps.newHashMap();
+        Random random = new Random(1234);
+        for (int i = 0; i < 200000; i++) {
+            // small key range makes many collisions and removals
+            long key = random.nextInt(5000);
+            if (random.nextInt(3) == 0) {
+                Assert.assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                Assert.assertEquals(expected.put(key, (long) i), map.put(key, (long) i));
+            }
+        }
+
+        Assert.assertEquals(expected.size(), map.size());
+        for (long key = 0; key < 5000; key++) {
+            Assert.assertEquals(expected.get(key), map.get(key));
+        }
+        Assert.assertEquals(expected.size(), map.keys().length);
+        Assert.assertEquals(expected.size(), map.values().size());
+    }
+}
@@ -0,0 +1,152 @@
+// Copyright (c) 2017, Baidu.com, Inc. All Rights Reserved
+
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package com.baidu.palo.common.util;
+
+import com.baidu.palo.common.util.Metrics.MetricType;
+
+import io.dropwizard.metrics.Counter;
+import io.dropwizard.metrics.Gauge;
+import io.dropwizard.metrics.Histogram;
+import io.dropwizard.metrics.Meter;
+import io.dropwizard.metrics.Timer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class MetricsTest {
+
+    private static int countOf(String str, String sub) {
+        int count = 0;
+        int index = str.indexOf(sub);
+        while (index >= 0) {
+            count++;
+            index = str.indexOf(sub, index + sub.length());
+        }
+        return count;
+    }
+
+    @Test
+    public void testCounterAndGauge() {
+        Counter counter = (Counter) Metrics.getMetric(MetricType.COUNTER, "metrics_test.query-count");
+        counter.inc(3);
+        Meter meter = (Meter) Metrics.getMetric(MetricType.METER, "metrics_test.request");
+        meter.mark(2);
+        Metrics.register("metrics_test.is_master", new Gauge<Boolean>() {
+            @Override
+            public Boolean getValue() {
+                return true;
+            }
+        });
+        Metrics.register("metrics_test.version", new Gauge<String>() {
+            @Override
+            public String getValue() {
+                return "3.2";
+            }
+        });
+
+        String str = Metrics.getPrometheusStr();
+        // invalid characters are replaced by '_'
+        Assert.assertTrue(str.contains("# TYPE palo_fe_metrics_test_query_count counter\n"
+                + "palo_fe_metrics_test_query_count 3.0\n"));
+        Assert.assertTrue(str.contains("# TYPE palo_fe_metrics_test_request_total counter\n"
+                + "palo_fe_metrics_test_request_total 2.0\n"));
+        Assert.assertTrue(str.contains("# TYPE palo_fe_metrics_test_is_master gauge\n"
+                + "palo_fe_metrics_test_is_master 1.0\n"));
+        // gauge which is not a number is not exported
+        Assert.assertFalse(str.contains("palo_fe_metrics_test_version"));
+    }
+
+    @Test
+    public void testSummary() {
+        Histogram histogram = (Histogram) Metrics.getMetric(MetricType.HISTOGRAM, "metrics_test.scan_rows");
+        for (int i = 0; i < 10; i++) {
+            histogram.update(7);
+        }
+        Timer timer = (Timer) Metrics.getMetric(MetricType.TIMER, "metrics_test.query_latency");
+        timer.update(2, TimeUnit.SECONDS);
+
+        String str = Metrics.getPrometheusStr();
+        Assert.assertEquals(1, countOf(str, "# TYPE palo_fe_metrics_test_scan_rows summary\n"));
+        Assert.assertTrue(str.contains("palo_fe_metrics_test_scan_rows{quantile=\"0.5\"} 7.0\n"
+                + "palo_fe_metrics_test_scan_rows{quantile=\"0.75\"} 7.0\n"
+                + "palo_fe_metrics_test_scan_rows{quantile=\"0.95\"} 7.0\n"
+                + "palo_fe_metrics_test_scan_rows{quantile=\"0.99\"} 7.0\n"
+                + "palo_fe_metrics_test_scan_rows_count 10.0\n"));
+        // timer is exported in seconds
+        Assert.assertEquals(1, countOf(str, "# TYPE palo_fe_metrics_test_query_latency_seconds summary\n"));
+        Assert.assertTrue(str.contains("palo_fe_metrics_test_query_latency_seconds{quantile=\"0.99\"} 2.0\n"));
+        Assert.assertTrue(str.contains("palo_fe_metrics_test_query_latency_seconds_count 1.0\n"));
+    }
+
+    @Test
+    public void testLatencyHistogram() {
+        LatencyHistogram histogram = (LatencyHistogram) Metrics.getMetric(MetricType.LATENCY_HISTOGRAM,
+                                                                          "metrics_test.rpc_latency_ms");
+        histogram.update(3);
+        histogram.update(100);
+
+        String str = Metrics.getPrometheusStr();
+        Assert.assertTrue(str.contains("# TYPE palo_fe_metrics_test_rpc_latency_ms histogram\n"
+                + "palo_fe_metrics_test_rpc_latency_ms_bucket{le=\"1\"} 0.0\n"
+                + "palo_fe_metrics_test_rpc_latency_ms_bucket{le=\"2\"} 0.0\n"
+                + "palo_fe_metrics_test_rpc_latency_ms_bucket{le=\"5\"} 1.0\n"));
+        Assert.assertTrue(str.contains("palo_fe_metrics_test_rpc_latency_ms_bucket{le=\"100\"} 2.0\n"));
+        Assert.assertTrue(str.contains("palo_fe_metrics_test_rpc_latency_ms_bucket{le=\"+Inf\"} 2.0\n"
+                + "palo_fe_metrics_test_rpc_latency_ms_sum 103.0\n"
+                + "palo_fe_metrics_test_rpc_latency_ms_count 2.0\n"));
+    }
+
+    @Test
+    public void testTaggedMetrics() {
+        Timer timer1 = (Timer) Metrics.getMetric(MetricType.TIMER,
+                Metrics.name("metrics_test.dispatch_latency").tagged(Metrics.BACKEND_ID_TAG, "7300"));
+        timer1.update(3, TimeUnit.MILLISECONDS);
+        Timer timer2 = (Timer) Metrics.getMetric(MetricType.TIMER,
+                Metrics.name("metrics_test.dispatch_latency").tagged(Metrics.BACKEND_ID_TAG, "7301"));
+        timer2.update(3, TimeUnit.MILLISECONDS);
+        timer2.update(3, TimeUnit.MILLISECONDS);
+        // labels are sorted by name, and label values are escaped
+        Counter counter = (Counter) Metrics.getMetric(MetricType.COUNTER,
+                Metrics.name("metrics_test.tagged").tagged(Metrics.BACKEND_ID_TAG, "7302",
+                                                           "host-name", "a\"b\\c\nd"));
+        counter.inc();
+
+        String name = "palo_fe_metrics_test_dispatch_latency_seconds";
+        String str = Metrics.getPrometheusStr();
+        // metrics with the same name share one TYPE line
+        Assert.assertEquals(1, countOf(str, "# TYPE " + name + " summary\n"));
+        Assert.assertTrue(str.contains(name + "{backend_id=\"7300\",quantile=\"0.5\"} 0.003\n"));
+        Assert.assertTrue(str.contains(name + "_count{backend_id=\"7300\"} 1.0\n"));
+        Assert.assertTrue(str.contains(name + "_count{backend_id=\"7301\"} 2.0\n"));
+        Assert.assertTrue(str.contains(
+                "palo_fe_metrics_test_tagged{backend_id=\"7302\",host_name=\"a\\\"b\\\\c\\nd\"} 1.0\n"));
+
+        // metrics of a dropped backend are removed
+        Metrics.removeTagged(Metrics.BACKEND_ID_TAG, "7300");
+        str = Metrics.getPrometheusStr();
+        Assert.assertFalse(str.contains("backend_id=\"7300\""));
+        Assert.assertEquals(1, countOf(str, "# TYPE " + name + " summary\n"));
+        Assert.assertTrue(str.contains(name + "_count{backend_id=\"7301\"} 2.0\n"));
+
+        Metrics.removeTagged(Metrics.BACKEND_ID_TAG, "7301");
+        Metrics.removeTagged(Metrics.BACKEND_ID_TAG, "7302");
+        str = Metrics.getPrometheusStr();
+        Assert.assertFalse(str.contains(name));
+        Assert.assertFalse(str.contains("palo_fe_metrics_test_tagged"));
+    }
+}
@@ -0,0 +1,200 @@
+// Copyright (c) 2017, Baidu.com, Inc. All Rights Reserved
+
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+
+package com.baidu.palo.journal;
+
+import com.baidu.palo.common.io.Text;
+import com.baidu.palo.persist.OperationType;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PrefetchJournalCursorTest {
+    private static final long WAIT_MS = 5000;
+
+    // returns the given journals in order, and throws failure instead of the journal at failIndex
+    private static class FakeJournalCursor implements JournalCursor {
+        private final List<JournalEntity> entities;
+        private final int failIndex;
+        private final RuntimeException failure;
+        final AtomicInteger readNum = new AtomicInteger(0);
+        volatile boolean isClosed = false;
+
+        FakeJournalCursor(List<JournalEntity> entities) {
+            this(entities, -1, null);
+        }
+
+        FakeJournalCursor(List<JournalEntity> entities, int failIndex, RuntimeException failure) {
+            this.entities = entities;
+            this.failIndex = failIndex;
+            this.failure = failure;
+        }
+
+        @Override
+        public JournalEntity next() {
+            int idx = readNum.getAndIncrement();
+            if (idx == failIndex) {
+                throw failure;
+            }
+            return idx < entities.size() ? entities.get(idx) : null;
+        }
+
+        @Override
+        public void close() {
+            isClosed = true;
+        }
+    }
+
+    private static JournalEntity createJournal(short op, int id) {
+        JournalEntity entity = new JournalEntity();
+        entity.setOpCode(op);
+        entity.setData(new Text(Integer.toString(id)));
+        return entity;
+    }
+
+    private static List<JournalEntity> createJournals(int num) {
+        List<JournalEntity> entities = Lists.newArrayList();
+        for (int i = 0; i < num; i++) {
+            entities.add(createJournal(OperationType.OP_SAVE_NEXTID, i));
+        }
+        return entities;
+    }
+
+    private static void waitReadNum(FakeJournalCursor cursor, int num) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (cursor.readNum.get() < num) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        // prefetcher does not go further
+        Thread.sleep(100);
+        Assert.assertEquals(num, cursor.readNum.get());
+    }
+
+    @Test
+    public void testOrder() {
+        List<JournalEntity> entities = createJournals(100);
+        FakeJournalCursor fakeCursor = new FakeJournalCursor(entities);
+        PrefetchJournalCursor cursor = new PrefetchJournalCursor(fakeCursor, 10);
+        for (JournalEntity entity : entities) {
+            Assert.assertSame(entity, cursor.next());
+        }
+        Assert.assertNull(cursor.next());
+        Assert.assertNull(cursor.next());
+        cursor.close();
+        Assert.assertTrue(fakeCursor.isClosed);
+    }
+
+    @Test
+    public void testCapacity() throws InterruptedException {
+        List<JournalEntity> entities = createJournals(10);
+        FakeJournalCursor fakeCursor = new FakeJournalCursor(entities);
+        PrefetchJournalCursor cursor = new PrefetchJournalCursor(fakeCursor, 2);
+        // 2 journals in queue, and the third one is waiting to be put
+        waitReadNum(fakeCursor, 3);
+        Assert.assertSame(entities.get(0), cursor.next());
+        waitReadNum(fakeCursor, 4);
+
+        // close stops the waiting prefetcher
+        cursor.close();
+        Assert.assertTrue(fakeCursor.isClosed);
+        Assert.assertTrue(fakeCursor.readNum.get() <= 5);
+    }
+
+    @Test
+    public void testPauseAfterMetaVersion() throws InterruptedException {
+        List<JournalEntity> entities = Lists.newArrayList();
+        entities.add(createJournal(OperationType.OP_SAVE_NEXTID, 0));
+        entities.add(createJournal(OperationType.OP_META_VERSION, 1));
+        entities.add(createJournal(OperationType.OP_SAVE_NEXTID, 2));
+        entities.add(createJournal(OperationType.OP_SAVE_NEXTID, 3));
+        FakeJournalCursor fakeCursor = new FakeJournalCursor(entities);
+        PrefetchJournalCursor cursor = new PrefetchJournalCursor(fakeCursor, 10);
+
+        // journals after OP_META_VERSION are not read until it is replayed
+        waitReadNum(fakeCursor, 2);
+        Assert.assertSame(entities.get(0), cursor.next());
+        Assert.assertSame(entities.get(1), cursor.next());
+        waitReadNum(fakeCursor, 2);
+
+        // OP_META_VERSION is replayed when next journal is asked for
+        Assert.assertSame(entities.get(2), cursor.next());
+        Assert.assertSame(entities.get(3), cursor.next());
+        Assert.assertNull(cursor.next());
+        Assert.assertEquals(5, fakeCursor.readNum.get());
+        cursor.close();
+    }
+
+    @Test
+    public void testCloseWhenPausedAfterMetaVersion() throws InterruptedException {
+        List<JournalEntity> entities = Lists.newArrayList();
+        entities.add(createJournal(OperationType.OP_META_VERSION, 0));
+        entities.add(createJournal(OperationType.OP_SAVE_NEXTID, 1));
+        FakeJournalCursor fakeCursor = new FakeJournalCursor(entities);
+        PrefetchJournalCursor cursor = new PrefetchJournalCursor(fakeCursor, 10);
+        waitReadNum(fakeCursor, 1);
+        cursor.close();
+        Assert.assertTrue(fakeCursor.isClosed);
+    }
+
+    @Test
+    public void testFailure() {
+        List<JournalEntity> entities = createJournals(10);
+        IllegalStateException failure = new IllegalStateException("failed to read journal");
+        FakeJournalCursor fakeCursor = new FakeJournalCursor(entities, 3, failure);
+        PrefetchJournalCursor cursor = new PrefetchJournalCursor(fakeCursor, 10);
+
+        // journals before the failure are replayed, then replay thread gets the failure
+        for (int i = 0; i < 3; i++) {
+            Assert.assertSame(entities.get(i), cursor.next());
+        }
+        try {
+            cursor.next();
+            Assert.fail("failure of prefetcher is not thrown");
+        } catch (IllegalStateException e) {
+            Assert.assertSame(failure, e);
+        }
+        Assert.assertNull(cursor.next());
+        Assert.assertEquals(4, fakeCursor.readNum.get());
+        cursor.close();
+        Assert.assertTrue(fakeCursor.isClosed);
+    }
+
+    @Test
+    public void testFailureWhenQueueIsFull() throws InterruptedException {
+        List<JournalEntity> entities = createJournals(10);
+        IllegalStateException failure = new IllegalStateException("failed to read journal");
+        FakeJournalCursor fakeCursor = new FakeJournalCursor(entities, 2, failure);
+        PrefetchJournalCursor cursor = new PrefetchJournalCursor(fakeCursor, 2);
+        // queue is full of journals before the failure
+        waitReadNum(fakeCursor, 3);
+
+        Assert.assertSame(entities.get(0), cursor.next());
+        Assert.assertSame(entities.get(1), cursor.next());
+        try {
+            cursor.next();
+            Assert.fail("failure of prefetcher is not thrown");
+        } catch (IllegalStateException e) {
+            Assert.assertSame(failure, e);
+        }
+        cursor.close();
+    }
+}
@@ -36,6 +36,7 @@ import com.baidu.palo.task.MasterTaskExecutor;
 import com.google.common.collect.Lists;
 
 import org.easymock.EasyMock;
+import org.easymock.IAnswer;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -48,9 +49,14 @@ import org.powermock.modules.junit4.PowerMockRunner;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @RunWith(PowerMockRunner.class)
 @PrepareForTest({LoadChecker.class, Catalog.class})
@@ -125,7 +131,6 @@ public class LoadCheckerTest {
 
         // mock load
         load = EasyMock.createMock(Load.class);
-        EasyMock.expect(load.getLoadJobs(JobState.PENDING)).andReturn(pendingJobs).times(1);
         EasyMock.replay(load);
         EasyMock.expect(catalog.getLoadInstance()).andReturn(load).times(1);
         EasyMock.replay(catalog);
@@ -133,8 +138,11 @@ public class LoadCheckerTest {
         // mock MasterTaskExecutor submit
         MasterTaskExecutor executor = EasyMock.createMock(MasterTaskExecutor.class);
         EasyMock.expect(executor.submit(EasyMock.isA(MasterTask.class))).andReturn(true).times(1);
+        executor.stealFrom(executor);
+        EasyMock.expectLastCall().times(2);
         EasyMock.replay(executor);
-        PowerMock.expectNew(MasterTaskExecutor.class, EasyMock.anyInt()).andReturn(executor).times(4);
+        PowerMock.expectNew(MasterTaskExecutor.class, EasyMock.anyString(), EasyMock.anyInt())
+                .andReturn(executor).times(4);
         PowerMock.replay(MasterTaskExecutor.class);
         
         // init
@@ -144,8 +152,9 @@ public class LoadCheckerTest {
         Field checkersField = LoadChecker.class.getDeclaredField("checkers");
         checkersField.setAccessible(true);
         Map<JobState, LoadChecker> checkers = (Map<JobState, LoadChecker>) checkersField.get(LoadChecker.class);
-        Method runPendingJobs = UnitTestUtil.getPrivateMethod(LoadChecker.class, "runPendingJobs", new Class[] {});
-        runPendingJobs.invoke(checkers.get(JobState.PENDING), new Object[] {});
+        Method runPendingJobs = UnitTestUtil.getPrivateMethod(LoadChecker.class, "runPendingJobs",
+                                                              new Class[] {List.class});
+        runPendingJobs.invoke(checkers.get(JobState.PENDING), new Object[] {pendingJobs});
         
         // verify
         EasyMock.verify(executor);
@@ -163,7 +172,6 @@ public class LoadCheckerTest {
 
         // mock load
         load = EasyMock.createMock(Load.class);
-        EasyMock.expect(load.getLoadJobs(JobState.PENDING)).andReturn(pendingJobs).times(1);
         EasyMock.expect(load.getLoadJobs(JobState.ETL)).andReturn(Lists.newArrayList(job)).times(1);
         EasyMock.replay(load);
         EasyMock.expect(catalog.getLoadInstance()).andReturn(load).times(1);
@@ -173,8 +181,11 @@ public class LoadCheckerTest {
         MasterTaskExecutor executor = EasyMock.createMock(MasterTaskExecutor.class);
         EasyMock.expect(executor.getTaskNum()).andReturn(1).times(2);
         EasyMock.expect(executor.submit(EasyMock.isA(MasterTask.class))).andReturn(true).times(1);
+        executor.stealFrom(executor);
+        EasyMock.expectLastCall().times(2);
         EasyMock.replay(executor);
-        PowerMock.expectNew(MasterTaskExecutor.class, EasyMock.anyInt()).andReturn(executor).times(4);
+        PowerMock.expectNew(MasterTaskExecutor.class, EasyMock.anyString(), EasyMock.anyInt())
+                .andReturn(executor).times(4);
         PowerMock.replay(MasterTaskExecutor.class);
 
         // init
@@ -187,8 +198,9 @@ public class LoadCheckerTest {
         Field checkersField = LoadChecker.class.getDeclaredField("checkers");
         checkersField.setAccessible(true);
         Map<JobState, LoadChecker> checkers = (Map<JobState, LoadChecker>) checkersField.get(LoadChecker.class);
-        Method runPendingJobs = UnitTestUtil.getPrivateMethod(LoadChecker.class, "runPendingJobs", new Class[] {});
-        runPendingJobs.invoke(checkers.get(JobState.PENDING), new Object[] {});
+        Method runPendingJobs = UnitTestUtil.getPrivateMethod(LoadChecker.class, "runPendingJobs",
+                                                              new Class[] {List.class});
+        runPendingJobs.invoke(checkers.get(JobState.PENDING), new Object[] {pendingJobs});
     }
 
     @Test
@@ -200,7 +212,6 @@ public class LoadCheckerTest {
 
         // mock load
         load = EasyMock.createMock(Load.class);
-        EasyMock.expect(load.getLoadJobs(JobState.ETL)).andReturn(etlJobs).times(1);
         EasyMock.replay(load);
         EasyMock.expect(catalog.getLoadInstance()).andReturn(load).times(1);
         EasyMock.replay(catalog);
@@ -208,8 +219,11 @@ public class LoadCheckerTest {
         // mock MasterTaskExecutor submit
         MasterTaskExecutor executor = EasyMock.createMock(MasterTaskExecutor.class);
         EasyMock.expect(executor.submit(EasyMock.isA(MasterTask.class))).andReturn(true).times(1);
+        executor.stealFrom(executor);
+        EasyMock.expectLastCall().times(2);
         EasyMock.replay(executor);
-        PowerMock.expectNew(MasterTaskExecutor.class, EasyMock.anyInt()).andReturn(executor).times(4);
+        PowerMock.expectNew(MasterTaskExecutor.class, EasyMock.anyString(), EasyMock.anyInt())
+                .andReturn(executor).times(4);
         PowerMock.replay(MasterTaskExecutor.class);
         
         // init
@@ -219,8 +233,9 @@ public class LoadCheckerTest {
         Field checkersField = LoadChecker.class.getDeclaredField("checkers");
         checkersField.setAccessible(true);
         Map<JobState, LoadChecker> checkers = (Map<JobState, LoadChecker>) checkersField.get(LoadChecker.class);
-        Method runEtlJobs = UnitTestUtil.getPrivateMethod(LoadChecker.class, "runEtlJobs", new Class[] {});
-        runEtlJobs.invoke(checkers.get(JobState.ETL), new Object[] {});
+        Method runEtlJobs = UnitTestUtil.getPrivateMethod(LoadChecker.class, "runEtlJobs",
+                                                          new Class[] {List.class});
+        runEtlJobs.invoke(checkers.get(JobState.ETL), new Object[] {etlJobs});
         
         // verify
         EasyMock.verify(executor);
@@ -263,10 +278,9 @@ public class LoadCheckerTest {
 
         // mock load
         load = EasyMock.createMock(Load.class);
-        EasyMock.expect(load.getLoadJobs(JobState.LOADING)).andReturn(etlJobs).times(2);
         EasyMock.expect(load.updateLoadJobState(job, JobState.QUORUM_FINISHED)).andReturn(true).times(1);
         EasyMock.replay(load);
-        EasyMock.expect(catalog.getLoadInstance()).andReturn(load).times(4);
+        EasyMock.expect(catalog.getLoadInstance()).andReturn(load).times(2);
         EasyMock.replay(catalog);
         
         // init
@@ -276,8 +290,9 @@ public class LoadCheckerTest {
         Field checkersField = LoadChecker.class.getDeclaredField("checkers");
         checkersField.setAccessible(true);
         Map<JobState, LoadChecker> checkers = (Map<JobState, LoadChecker>) checkersField.get(LoadChecker.class);
-        Method runLoadingJobs = UnitTestUtil.getPrivateMethod(LoadChecker.class, "runLoadingJobs", new Class[] {});
-        runLoadingJobs.invoke(checkers.get(JobState.LOADING), new Object[] {});
+        Method runLoadingJobs = UnitTestUtil.getPrivateMethod(LoadChecker.class, "runLoadingJobs",
+                                                              new Class[] {List.class});
+        runLoadingJobs.invoke(checkers.get(JobState.LOADING), new Object[] {etlJobs});
         Assert.assertEquals(replicaNum, AgentTaskQueue.getTaskNum());
 
         // update replica to new version
@@ -290,7 +305,7 @@ public class LoadCheckerTest {
         }       
 
         // verify
-        runLoadingJobs.invoke(checkers.get(JobState.LOADING), new Object[] {});
+        runLoadingJobs.invoke(checkers.get(JobState.LOADING), new Object[] {etlJobs});
         EasyMock.verify(load);
         EasyMock.verify(catalog);
         
@@ -353,8 +368,8 @@ public class LoadCheckerTest {
         checkersField.setAccessible(true);
         Map<JobState, LoadChecker> checkers = (Map<JobState, LoadChecker>) checkersField.get(LoadChecker.class);
         Method runQuorumFinishedJobs = UnitTestUtil.getPrivateMethod(
-                LoadChecker.class, "runQuorumFinishedJobs", new Class[] {});
-        runQuorumFinishedJobs.invoke(checkers.get(JobState.QUORUM_FINISHED), new Object[] {});
+                LoadChecker.class, "runQuorumFinishedJobs", new Class[] {List.class, boolean.class});
+        runQuorumFinishedJobs.invoke(checkers.get(JobState.QUORUM_FINISHED), new Object[] {etlJobs, true});
         
         // verify
         EasyMock.verify(load);
@@ -381,4 +396,152 @@ public class LoadCheckerTest {
         Assert.assertFalse(LoadChecker.checkTimeout(job));
     }
 
+    private LoadChecker getChecker(JobState jobState) throws Exception {
+        Field checkersField = LoadChecker.class.getDeclaredField("checkers");
+        checkersField.setAccessible(true);
+        Map<JobState, LoadChecker> checkers = (Map<JobState, LoadChecker>) checkersField.get(LoadChecker.class);
+        return checkers.get(jobState);
+    }
+
+    // mock executors whose submit() counts down submitLatch and records signature of submitted tasks
+    private void mockExecutors(final CountDownLatch submitLatch, final List<Long> submittedSignatures)
+            throws Exception {
+        MasterTaskExecutor executor = EasyMock.createNiceMock(MasterTaskExecutor.class);
+        EasyMock.expect(executor.getTaskNum()).andReturn(0).anyTimes();
+        EasyMock.expect(executor.submit(EasyMock.isA(MasterTask.class))).andAnswer(new IAnswer<Boolean>() {
+            @Override
+            public Boolean answer() throws Throwable {
+                submittedSignatures.add(((MasterTask) EasyMock.getCurrentArguments()[0]).getSignature());
+                submitLatch.countDown();
+                return true;
+            }
+        }).anyTimes();
+        EasyMock.replay(executor);
+        PowerMock.expectNew(MasterTaskExecutor.class, EasyMock.anyString(), EasyMock.anyInt())
+                .andReturn(executor).times(4);
+        PowerMock.replay(MasterTaskExecutor.class);
+    }
+
+    @Test
+    public void testNotifyJob() throws Exception {
+        LoadJob job = new LoadJob(label);
+        job.setId(1L);
+        job.setState(JobState.PENDING);
+
+        // the first cycle checks all jobs and finds none, then only the notified job is got
+        final CountDownLatch checkAllLatch = new CountDownLatch(1);
+        load = EasyMock.createMock(Load.class);
+        EasyMock.expect(load.getLoadJobs(JobState.PENDING)).andAnswer(new IAnswer<List<LoadJob>>() {
+            @Override
+            public List<LoadJob> answer() throws Throwable {
+                checkAllLatch.countDown();
+                return Lists.newArrayList();
+            }
+        }).times(1);
+        EasyMock.expect(load.getLoadJob(job.getId())).andReturn(job).times(1);
+        EasyMock.replay(load);
+        EasyMock.expect(catalog.getLoadInstance()).andReturn(load).anyTimes();
+        EasyMock.replay(catalog);
+
+        CountDownLatch submitLatch = new CountDownLatch(1);
+        List<Long> submittedSignatures = Collections.synchronizedList(new ArrayList<Long>());
+        mockExecutors(submitLatch, submittedSignatures);
+
+        // interval is much longer than the test, the job is checked as soon as it is notified
+        LoadChecker.init(3600 * 1000L);
+        LoadChecker checker = getChecker(JobState.PENDING);
+        checker.start();
+        try {
+            Assert.assertTrue(checkAllLatch.await(10, TimeUnit.SECONDS));
+            LoadChecker.notifyJob(job);
+            Assert.assertTrue(submitLatch.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals(Lists.newArrayList(job.getId()), submittedSignatures);
+        } finally {
+            checker.exit();
+        }
+        EasyMock.verify(load);
+    }
+
+    @Test
+    public void testNotifyAllJobs() throws Exception {
+        LoadJob job = new LoadJob(label);
+        job.setId(1L);
+        job.setState(JobState.PENDING);
+
+        // the job is found by the second check of all jobs
+        final CountDownLatch checkAllLatch = new CountDownLatch(1);
+        final AtomicInteger checkAllNum = new AtomicInteger(0);
+        final List<LoadJob> pendingJobs = Lists.newArrayList(job);
+        load = EasyMock.createMock(Load.class);
+        EasyMock.expect(load.getLoadJobs(JobState.PENDING)).andAnswer(new IAnswer<List<LoadJob>>() {
+            @Override
+            public List<LoadJob> answer() throws Throwable {
+                checkAllLatch.countDown();
+                return checkAllNum.getAndIncrement() == 0 ? new ArrayList<LoadJob>() : pendingJobs;
+            }
+        }).times(2);
+        EasyMock.replay(load);
+        EasyMock.expect(catalog.getLoadInstance()).andReturn(load).anyTimes();
+        EasyMock.replay(catalog);
+
+        CountDownLatch submitLatch = new CountDownLatch(1);
+        List<Long> submittedSignatures = Collections.synchronizedList(new ArrayList<Long>());
+        mockExecutors(submitLatch, submittedSignatures);
+
+        LoadChecker.init(3600 * 1000L);
+        LoadChecker checker = getChecker(JobState.PENDING);
+        checker.start();
+        try {
+            Assert.assertTrue(checkAllLatch.await(10, TimeUnit.SECONDS));
+            LoadChecker.notifyAllJobs(JobState.PENDING);
+            Assert.assertTrue(submitLatch.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals(Lists.newArrayList(job.getId()), submittedSignatures);
+        } finally {
+            checker.exit();
+        }
+        EasyMock.verify(load);
+    }
+
+    @Test
+    public void testNotifiedPendingJobWaitsForOlderJobs() throws Exception {
+        LoadJob olderJob = new LoadJob(label);
+        olderJob.setId(1L);
+        olderJob.setState(JobState.PENDING);
+        LoadJob newerJob = new LoadJob(label + "_newer");
+        newerJob.setId(2L);
+        newerJob.setState(JobState.PENDING);
+
+        load = EasyMock.createMock(Load.class);
+        EasyMock.expect(load.getLoadJobs(JobState.PENDING)).andReturn(Lists.newArrayList(olderJob, newerJob))
+                .times(1);
+        EasyMock.expect(load.getLoadJobs(JobState.ETL)).andReturn(new ArrayList<LoadJob>()).times(1);
+        EasyMock.expect(load.getLoadJob(newerJob.getId())).andReturn(newerJob).anyTimes();
+        EasyMock.replay(load);
+        EasyMock.expect(catalog.getLoadInstance()).andReturn(load).anyTimes();
+        EasyMock.replay(catalog);
+
+        CountDownLatch submitLatch = new CountDownLatch(1);
+        List<Long> submittedSignatures = Collections.synchronizedList(new ArrayList<Long>());
+        mockExecutors(submitLatch, submittedSignatures);
+
+        LoadChecker.init(3600 * 1000L);
+        // only one job can be started
+        Config.load_running_job_num_limit = 1;
+
+        // all jobs were just checked, and only the newer job is notified
+        LoadChecker checker = getChecker(JobState.PENDING);
+        Field lastCheckAllTimeField = LoadChecker.class.getDeclaredField("lastCheckAllTimeMs");
+        lastCheckAllTimeField.setAccessible(true);
+        lastCheckAllTimeField.set(checker, System.currentTimeMillis());
+        Field notifiedJobIdsField = LoadChecker.class.getDeclaredField("notifiedJobIds");
+        notifiedJobIdsField.setAccessible(true);
+        ((Set<Long>) notifiedJobIdsField.get(checker)).add(newerJob.getId());
+
+        Method runOneCycle = UnitTestUtil.getPrivateMethod(LoadChecker.class, "runOneCycle", new Class[] {});
+        runOneCycle.invoke(checker, new Object[] {});
+
+        // the older job waiting for the limit is started first
+        Assert.assertEquals(Lists.newArrayList(olderJob.getId()), submittedSignatures);
+        EasyMock.verify(load);
+    }
 }
@@ -0,0 +1,287 @@
+// Copyright (c) 2017, Baidu.com, Inc. All Rights Reserved
+
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+
+package com.baidu.palo.master;
+
+import com.baidu.palo.common.Config;
+import com.baidu.palo.persist.Storage;
+
+import com.google.common.collect.Lists;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Adler32;
+import java.util.zip.InflaterInputStream;
+
+public class MetaHelperTest {
+    private static final long VERSION = 10;
+    private static final int IMAGE_SIZE = 10000;
+    private static final int CHUNK_SIZE = 1000;
+
+    private File testDir = new File("metaHelperTest");
+    private File remoteDir = new File(testDir, "remote");
+    private File localDir = new File(testDir, "local");
+    private byte[] image;
+    private File imageFile;
+    private HttpServer server;
+    private ChunkHandler handler;
+
+    private int chunkSize;
+    private boolean compress;
+    private int retryTimes;
+
+    // serves image chunks as ImageChunkAction does, chunks from corruptFromOffset have wrong checksum
+    private class ChunkHandler implements HttpHandler {
+        final List<Long> offsets = Collections.synchronizedList(Lists.<Long>newArrayList());
+        volatile long corruptFromOffset = Long.MAX_VALUE;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            long offset = 0;
+            int length = 0;
+            boolean isCompress = false;
+            for (String param : exchange.getRequestURI().getQuery().split("&")) {
+                String[] kv = param.split("=");
+                if (kv[0].equals("offset")) {
+                    offset = Long.parseLong(kv[1]);
+                } else if (kv[0].equals("length")) {
+                    length = Integer.parseInt(kv[1]);
+                } else if (kv[0].equals("compress")) {
+                    isCompress = Boolean.parseBoolean(kv[1]);
+                }
+            }
+            offsets.add(offset);
+
+            byte[] data = MetaHelper.readImageChunk(imageFile, offset, length);
+            long checksum = MetaHelper.getChecksum(data);
+            if (offset >= corruptFromOffset) {
+                checksum++;
+            }
+            exchange.getResponseHeaders().add(MetaHelper.X_IMAGE_SIZE, String.valueOf(imageFile.length()));
+            exchange.getResponseHeaders().add(MetaHelper.X_CHUNK_SIZE, String.valueOf(data.length));
+            exchange.getResponseHeaders().add(MetaHelper.X_CHUNK_CHECKSUM, String.valueOf(checksum));
+            exchange.getResponseHeaders().add(MetaHelper.X_CHUNK_COMPRESSED, String.valueOf(isCompress));
+            byte[] body = isCompress ? MetaHelper.compress(data) : data;
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        }
+    }
+
+    private static void deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDir(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        dir.delete();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        chunkSize = Config.image_transfer_chunk_size_byte;
+        compress = Config.image_transfer_compress;
+        retryTimes = Config.image_transfer_retry_times;
+        Config.image_transfer_chunk_size_byte = CHUNK_SIZE;
+        Config.image_transfer_retry_times = 1;
+
+        deleteDir(testDir);
+        remoteDir.mkdirs();
+        localDir.mkdirs();
+        // half random, half compressible
+        image = new byte[IMAGE_SIZE];
+        new Random(1).nextBytes(image);
+        Arrays.fill(image, IMAGE_SIZE / 2, IMAGE_SIZE, (byte) 7);
+        imageFile = new File(remoteDir, Storage.IMAGE + "." + VERSION);
+        FileOutputStream out = new FileOutputStream(imageFile);
+        out.write(image);
+        out.close();
+
+        handler = new ChunkHandler();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/image_chunk", handler);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        deleteDir(testDir);
+        Config.image_transfer_chunk_size_byte = chunkSize;
+        Config.image_transfer_compress = compress;
+        Config.image_transfer_retry_times = retryTimes;
+    }
+
+    private void getRemoteImage() throws IOException {
+        MetaHelper.getRemoteImage("127.0.0.1", server.getAddress().getPort(), VERSION, localDir, 5000);
+    }
+
+    private File getLocalImageFile() {
+        return new File(localDir, Storage.IMAGE + "." + VERSION);
+    }
+
+    private File getPartFile() {
+        return new File(localDir, Storage.IMAGE + "." + VERSION + ".part");
+    }
+
+    private static List<Long> getOffsets(long from, long to) {
+        List<Long> offsets = Lists.newArrayList();
+        for (long offset = from; offset < to; offset += CHUNK_SIZE) {
+            offsets.add(offset);
+        }
+        return offsets;
+    }
+
+    @Test
+    public void testReadImageChunk() throws IOException {
+        Assert.assertTrue(Arrays.equals(Arrays.copyOfRange(image, 0, 100),
+                                        MetaHelper.readImageChunk(imageFile, 0, 100)));
+        Assert.assertTrue(Arrays.equals(Arrays.copyOfRange(image, 5000, 6000),
+                                        MetaHelper.readImageChunk(imageFile, 5000, 1000)));
+        // chunk at the end of file is cut
+        Assert.assertTrue(Arrays.equals(Arrays.copyOfRange(image, 9950, IMAGE_SIZE),
+                                        MetaHelper.readImageChunk(imageFile, 9950, 100)));
+        // length is limited by MAX_CHUNK_BYTES, not by int overflow
+        Assert.assertTrue(Arrays.equals(image, MetaHelper.readImageChunk(imageFile, 0, Integer.MAX_VALUE)));
+        // nothing to read beyond end of file
+        Assert.assertEquals(0, MetaHelper.readImageChunk(imageFile, IMAGE_SIZE, 100).length);
+        Assert.assertEquals(0, MetaHelper.readImageChunk(imageFile, IMAGE_SIZE + 100, 100).length);
+    }
+
+    private static byte[] decompress(byte[] data) throws IOException {
+        InputStream in = new InflaterInputStream(new ByteArrayInputStream(data));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int len;
+        while ((len = in.read(buffer)) != -1) {
+            out.write(buffer, 0, len);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testCompress() throws IOException {
+        byte[] compressed = MetaHelper.compress(image);
+        Assert.assertTrue(compressed.length < image.length);
+        Assert.assertTrue(Arrays.equals(image, decompress(compressed)));
+        Assert.assertEquals(0, decompress(MetaHelper.compress(new byte[0])).length);
+    }
+
+    @Test
+    public void testChecksum() {
+        Adler32 adler32 = new Adler32();
+        adler32.update(image, 0, image.length);
+        Assert.assertEquals(adler32.getValue(), MetaHelper.getChecksum(image));
+        byte[] changed = Arrays.copyOf(image, image.length);
+        changed[100] ^= 0x01;
+        Assert.assertFalse(MetaHelper.getChecksum(changed) == MetaHelper.getChecksum(image));
+    }
+
+    @Test
+    public void testGetRemoteImage() throws IOException {
+        for (boolean isCompress : new boolean[] { true, false }) {
+            Config.image_transfer_compress = isCompress;
+            handler.offsets.clear();
+            getLocalImageFile().delete();
+            getRemoteImage();
+            Assert.assertTrue(Arrays.equals(image, Files.readAllBytes(getLocalImageFile().toPath())));
+            Assert.assertFalse(getPartFile().exists());
+            Assert.assertEquals(getOffsets(0, IMAGE_SIZE), handler.offsets);
+        }
+    }
+
+    @Test
+    public void testResumeFromPartFile() throws IOException {
+        FileOutputStream out = new FileOutputStream(getPartFile());
+        out.write(image, 0, 2500);
+        out.close();
+
+        getRemoteImage();
+        Assert.assertTrue(Arrays.equals(image, Files.readAllBytes(getLocalImageFile().toPath())));
+        Assert.assertEquals(getOffsets(2500, IMAGE_SIZE), handler.offsets);
+    }
+
+    @Test
+    public void testChecksumMismatch() throws IOException {
+        // chunks from offset 3000 always mismatch, transfer fails after retry
+        handler.corruptFromOffset = 3000;
+        try {
+            getRemoteImage();
+            Assert.fail("image with mismatched checksum is downloaded");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains("checksum mismatch"));
+        }
+        List<Long> expectedOffsets = getOffsets(0, 3000);
+        expectedOffsets.add(3000L);
+        expectedOffsets.add(3000L);
+        Assert.assertEquals(expectedOffsets, handler.offsets);
+        // chunks received are kept, and the mismatched one is not written
+        Assert.assertFalse(getLocalImageFile().exists());
+        Assert.assertTrue(Arrays.equals(Arrays.copyOf(image, 3000), Files.readAllBytes(getPartFile().toPath())));
+
+        // next transfer resumes from the failed chunk
+        handler.corruptFromOffset = Long.MAX_VALUE;
+        handler.offsets.clear();
+        getRemoteImage();
+        Assert.assertTrue(Arrays.equals(image, Files.readAllBytes(getLocalImageFile().toPath())));
+        Assert.assertEquals(getOffsets(3000, IMAGE_SIZE), handler.offsets);
+    }
+
+    @Test
+    public void testChecksumMismatchRetried() throws IOException {
+        // the first chunk mismatches once, it is fetched again
+        handler.corruptFromOffset = 0;
+        server.removeContext("/image_chunk");
+        server.createContext("/image_chunk", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handler.handle(exchange);
+                handler.corruptFromOffset = Long.MAX_VALUE;
+            }
+        });
+        getRemoteImage();
+        Assert.assertTrue(Arrays.equals(image, Files.readAllBytes(getLocalImageFile().toPath())));
+        List<Long> expectedOffsets = getOffsets(0, IMAGE_SIZE);
+        expectedOffsets.add(0, 0L);
+        Assert.assertEquals(expectedOffsets, handler.offsets);
+    }
+}
@@ -0,0 +1,64 @@
+// Copyright (c) 2017, Baidu.com, Inc. All Rights Reserved
+
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package com.baidu.palo.mysql;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+public class MysqlBinaryProtocolTest {
+
+    @Test
+    public void testStringRowToBinary() throws IOException {
+        List<MysqlColType> types = Lists.newArrayList(MysqlColType.MYSQL_TYPE_TINY, MysqlColType.MYSQL_TYPE_LONG,
+                MysqlColType.MYSQL_TYPE_LONGLONG, MysqlColType.MYSQL_TYPE_DOUBLE, MysqlColType.MYSQL_TYPE_DOUBLE);
+        ByteBuffer row = MysqlBinaryProtocol.stringRowToBinary(Lists.newArrayList("true", " 42 ", null, "nan", "1.5"),
+                types, MysqlSerializer.newInstance());
+
+        // header
+        Assert.assertEquals(0, MysqlProto.readInt1(row));
+        // null bitmap, offset by 2 bits
+        Assert.assertEquals(1 << 4, MysqlProto.readInt1(row));
+        Assert.assertEquals(1, MysqlProto.readInt1(row));
+        Assert.assertEquals(42, MysqlProto.readInt4(row));
+        Assert.assertTrue(Double.isNaN(Double.longBitsToDouble(MysqlProto.readInt8(row))));
+        Assert.assertEquals(1.5, Double.longBitsToDouble(MysqlProto.readInt8(row)), 0);
+        Assert.assertFalse(row.hasRemaining());
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidInteger() throws IOException {
+        MysqlBinaryProtocol.stringRowToBinary(Lists.newArrayList("abc"),
+                Lists.newArrayList(MysqlColType.MYSQL_TYPE_LONG), MysqlSerializer.newInstance());
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidDouble() throws IOException {
+        MysqlBinaryProtocol.stringRowToBinary(Lists.newArrayList("1.5x"),
+                Lists.newArrayList(MysqlColType.MYSQL_TYPE_DOUBLE), MysqlSerializer.newInstance());
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidTime() throws IOException {
+        MysqlBinaryProtocol.stringRowToBinary(Lists.newArrayList("10:a:00"),
+                Lists.newArrayList(MysqlColType.MYSQL_TYPE_TIME), MysqlSerializer.newInstance());
+    }
+}
@@ -19,6 +19,8 @@
 
 package com.baidu.palo.mysql;
 
+import com.baidu.palo.common.Config;
+
 import org.junit.Assert;
 import org.easymock.EasyMock;
 import org.junit.Before;
@@ -141,6 +143,59 @@ public class MysqlChannelTest {
         }
     }
 
+    @Test
+    public void testReceiveNonBlocking() throws IOException {
+        // mock: header and body arrive in pieces, with no data available in between
+        EasyMock.expect(channel.read(EasyMock.anyObject(ByteBuffer.class))).andDelegateTo(new WrapperSocketChannel() {
+            @Override
+            public int read(ByteBuffer buffer) {
+                MysqlSerializer serializer = MysqlSerializer.newInstance();
+                int idx = readIdx++;
+                if (idx == 0) {
+                    serializer.writeInt3(10);
+                    buffer.put(serializer.toArray(), 0, 2);
+                    return 2;
+                } else if (idx == 1 || idx == 4) {
+                    return 0;
+                } else if (idx == 2) {
+                    serializer.writeInt3(10);
+                    serializer.writeInt1(packetId++);
+                    buffer.put(serializer.toArray(), 2, 2);
+                    return 2;
+                } else if (idx == 3 || idx == 5) {
+                    int start = idx == 3 ? 0 : 4;
+                    int len = idx == 3 ? 4 : 6;
+                    for (int i = 0; i < len; ++i) {
+                        buffer.put((byte) ('a' + start + i));
+                    }
+                    return len;
+                }
+                return -1;
+            }
+        }).anyTimes();
+        EasyMock.replay(channel);
+
+        MysqlChannel channel1 = new MysqlChannel(channel);
+
+        Assert.assertNull(channel1.fetchOnePacketNonBlocking());
+        Assert.assertNull(channel1.fetchOnePacketNonBlocking());
+        ByteBuffer buf = channel1.fetchOnePacketNonBlocking();
+        Assert.assertNotNull(buf);
+        Assert.assertEquals(10, buf.remaining());
+        for (int i = 0; i < 10; ++i) {
+            Assert.assertEquals('a' + i, buf.get());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testReceiveNonBlockingClosed() throws IOException {
+        EasyMock.expect(channel.read(EasyMock.anyObject(ByteBuffer.class))).andReturn(-1).anyTimes();
+        EasyMock.replay(channel);
+
+        MysqlChannel channel1 = new MysqlChannel(channel);
+        channel1.fetchOnePacketNonBlocking();
+    }
+
     @Test(expected = IOException.class)
     public void testBadSeq() throws IOException {
         // mock
@@ -220,6 +275,8 @@ public class MysqlChannelTest {
                         return writeLen;
                     }
                 }).anyTimes();
+        EasyMock.expect(channel.write(EasyMock.anyObject(ByteBuffer[].class), EasyMock.anyInt(), EasyMock.anyInt()))
+                .andDelegateTo(new CountingSocketChannel()).anyTimes();
         EasyMock.replay(channel);
         MysqlChannel channel1 = new MysqlChannel(channel);
         ByteBuffer buf = ByteBuffer.allocate(1000);
@@ -229,10 +286,100 @@ public class MysqlChannelTest {
         channel1.sendOnePacket(buf);
     }
 
+    // socket channel which counts bytes and calls written to it
+    private static class CountingSocketChannel extends WrapperSocketChannel {
+        long writtenBytes = 0;
+        int writeCalls = 0;
+        int gatheringWriteCalls = 0;
+
+        @Override
+        public int write(ByteBuffer buffer) {
+            int writeLen = buffer.remaining();
+            buffer.position(buffer.limit());
+            writtenBytes += writeLen;
+            writeCalls++;
+            return writeLen;
+        }
+
+        @Override
+        public long write(ByteBuffer[] buffers, int offset, int length) {
+            long writeLen = 0;
+            for (int i = offset; i < offset + length; ++i) {
+                writeLen += buffers[i].remaining();
+                buffers[i].position(buffers[i].limit());
+            }
+            writtenBytes += writeLen;
+            gatheringWriteCalls++;
+            return writeLen;
+        }
+    }
+
+    @Test
+    public void testSendLargePacketByGatheringWrite() throws IOException {
+        CountingSocketChannel socketChannel = new CountingSocketChannel();
+        MysqlChannel channel1 = new MysqlChannel(socketChannel);
+        channel1.sendOnePacket(ByteBuffer.allocate(1000));
+        // larger than send buffer, buffered data and this packet are written together
+        channel1.sendOnePacket(ByteBuffer.allocate(Config.mysql_send_buffer_size_byte + 1));
+        Assert.assertEquals(0, socketChannel.writeCalls);
+        Assert.assertEquals(1, socketChannel.gatheringWriteCalls);
+        Assert.assertEquals(1000 + Config.mysql_send_buffer_size_byte + 1 + 2 * 4, socketChannel.writtenBytes);
+
+        // small packets are still coalesced in send buffer
+        channel1.sendOnePacket(ByteBuffer.allocate(10));
+        channel1.sendOnePacket(ByteBuffer.allocate(20));
+        channel1.flush();
+        Assert.assertEquals(1, socketChannel.writeCalls);
+        Assert.assertEquals(1, socketChannel.gatheringWriteCalls);
+        Assert.assertEquals(socketChannel.writtenBytes, channel1.getSentBytes());
+    }
+
+    @Test
+    public void testSendWithFallbackBuffer() throws IOException {
+        int poolSize = Config.mysql_send_buffer_pool_size;
+        // no direct buffer, small heap buffers are used
+        Config.mysql_send_buffer_pool_size = 0;
+        try {
+            Assert.assertEquals(MysqlBufferPool.FALLBACK_BUFFER_SIZE, MysqlBufferPool.borrow().capacity());
+
+            CountingSocketChannel socketChannel = new CountingSocketChannel();
+            MysqlChannel channel1 = new MysqlChannel(socketChannel);
+            channel1.sendOnePacket(ByteBuffer.allocate(1000));
+            // larger than fallback buffer, but smaller than mysql_send_buffer_size_byte
+            channel1.sendOnePacket(ByteBuffer.allocate(100 * 1024));
+            channel1.sendOnePacket(ByteBuffer.allocate(10));
+            channel1.flush();
+            Assert.assertEquals(1000 + 100 * 1024 + 10 + 3 * 4, socketChannel.writtenBytes);
+            Assert.assertEquals(socketChannel.writtenBytes, channel1.getSentBytes());
+        } finally {
+            Config.mysql_send_buffer_pool_size = poolSize;
+        }
+    }
+
+    @Test
+    public void testSendAfterClose() throws IOException {
+        CountingSocketChannel socketChannel = new CountingSocketChannel();
+        MysqlChannel channel1 = new MysqlChannel(socketChannel);
+        channel1.sendOnePacket(ByteBuffer.allocate(1000));
+        // e.g. killed by other connection, buffered data is dropped
+        channel1.close();
+        channel1.flush();
+        Assert.assertEquals(0, socketChannel.writtenBytes);
+
+        try {
+            channel1.sendOnePacket(ByteBuffer.allocate(1000));
+            Assert.fail("No Exception throws.");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
     @Test(expected = IOException.class)
     public void testSendException() throws IOException {
         // mock
         EasyMock.expect(channel.write(EasyMock.anyObject(ByteBuffer.class))).andThrow(new IOException()).anyTimes();
+        EasyMock.expect(channel.write(EasyMock.anyObject(ByteBuffer[].class), EasyMock.anyInt(), EasyMock.anyInt()))
+                .andThrow(new IOException()).anyTimes();
         EasyMock.replay(channel);
         MysqlChannel channel1 = new MysqlChannel(channel);
         ByteBuffer buf = ByteBuffer.allocate(1000);
@@ -0,0 +1,72 @@
+// Copyright (c) 2017, Baidu.com, Inc. All Rights Reserved
+
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+
+package com.baidu.palo.persist;
+
+import com.baidu.palo.catalog.ColumnStats;
+
+import com.google.common.collect.Maps;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.Map;
+
+public class ColumnStatsInfoTest {
+    @Test
+    public void testSerialization() throws Exception {
+        // 1. Write objects to file
+        File file = new File("./columnStatsInfo");
+        file.createNewFile();
+        DataOutputStream dos = new DataOutputStream(new FileOutputStream(file));
+
+        ColumnStats stats1 = new ColumnStats();
+        stats1.setNumDistinctValues(100);
+        stats1.setNumNulls(5);
+        ColumnStats stats2 = new ColumnStats();
+        stats2.setNumDistinctValues(7);
+        stats2.setAvgSerializedSize(20.5f);
+        stats2.setMaxSize(32);
+        Map<String, ColumnStats> columnStats = Maps.newHashMap();
+        columnStats.put("k1", stats1);
+        columnStats.put("v1", stats2);
+        ColumnStatsInfo info = new ColumnStatsInfo(1, 2, columnStats);
+        info.write(dos);
+
+        dos.flush();
+        dos.close();
+
+        // 2. Read objects from file
+        DataInputStream dis = new DataInputStream(new FileInputStream(file));
+        ColumnStatsInfo rInfo = new ColumnStatsInfo();
+        rInfo.readFields(dis);
+
+        Assert.assertEquals(1, rInfo.getDbId());
+        Assert.assertEquals(2, rInfo.getTableId());
+        Assert.assertEquals(2, rInfo.getColumnStats().size());
+        Assert.assertEquals(stats1, rInfo.getColumnStats().get("k1"));
+        Assert.assertEquals(stats2, rInfo.getColumnStats().get("v1"));
+
+        // 3. delete files
+        dis.close();
+        file.delete();
+    }
+}
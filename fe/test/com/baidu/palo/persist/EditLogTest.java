@@ -19,11 +19,25 @@
 
 package com.baidu.palo.persist;
 
+import com.baidu.palo.common.Config;
+import com.baidu.palo.common.io.Writable;
+import com.baidu.palo.journal.Journal;
+import com.baidu.palo.journal.JournalCursor;
+import com.baidu.palo.journal.JournalEntity;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class EditLogTest {
     private String meta = "editLogTestDir/";
@@ -104,4 +118,188 @@ public class EditLogTest {
     public void test() {
 
     }
+
+    // records the written journals, the first write blocks until unblock() is called
+    private static class FakeJournal implements Journal {
+        private final CountDownLatch unblockLatch = new CountDownLatch(1);
+        private long nextId = 1;
+        // journal ids and payloads in id order
+        final List<Long> journalIds = Lists.newArrayList();
+        final List<String> payloads = Lists.newArrayList();
+        // number of journals of each write() or batchWrite() call
+        final List<Integer> batchSizes = Lists.newArrayList();
+
+        public void unblock() {
+            unblockLatch.countDown();
+        }
+
+        @Override
+        public void write(short op, Writable writable) {
+            try {
+                unblockLatch.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            synchronized (this) {
+                journalIds.add(nextId++);
+                payloads.add(writable.toString());
+                batchSizes.add(1);
+            }
+        }
+
+        @Override
+        public synchronized void batchWrite(List<JournalEntity> entities) {
+            for (JournalEntity entity : entities) {
+                journalIds.add(nextId++);
+                payloads.add(entity.getData().toString());
+            }
+            batchSizes.add(entities.size());
+        }
+
+        public synchronized boolean isWritten(String payload) {
+            return payloads.contains(payload);
+        }
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public void rollJournal() {
+        }
+
+        @Override
+        public long getMaxJournalId() {
+            return nextId - 1;
+        }
+
+        @Override
+        public long getMinJournalId() {
+            return 1;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public JournalEntity read(long journalId) {
+            return null;
+        }
+
+        @Override
+        public JournalCursor read(long fromKey, long toKey) {
+            return null;
+        }
+
+        @Override
+        public void deleteJournals(long deleteJournalToId) {
+        }
+
+        @Override
+        public long getFinalizedJournalId() {
+            return 0;
+        }
+
+        @Override
+        public List<Long> getDatabaseNames() {
+            return null;
+        }
+    }
+
+    private static EditLog createEditLog(Journal journal) throws Exception {
+        String journalType = Config.edit_log_type;
+        Config.edit_log_type = "none";
+        try {
+            EditLog editLog = new EditLog();
+            Field field = EditLog.class.getDeclaredField("journal");
+            field.setAccessible(true);
+            field.set(editLog, journal);
+            return editLog;
+        } finally {
+            Config.edit_log_type = journalType;
+        }
+    }
+
+    private static int getPendingNum(EditLog editLog) throws Exception {
+        Field field = EditLog.class.getDeclaredField("pendingJournals");
+        field.setAccessible(true);
+        List<?> pendingJournals = (List<?>) field.get(editLog);
+        synchronized (pendingJournals) {
+            return pendingJournals.size();
+        }
+    }
+
+    /*
+     * The first caller blocks in write(), the other callers queue their journals meanwhile.
+     * They are written by batchWrite() in groups of at most edit_log_group_commit_max_num,
+     * and every caller returns only after its own journal is written.
+     */
+    private void checkGroupCommit(int groupCommitMaxNum, int callerNum, List<Integer> expectedBatchSizes)
+            throws Exception {
+        int maxNum = Config.edit_log_group_commit_max_num;
+        Config.edit_log_group_commit_max_num = groupCommitMaxNum;
+        try {
+            final FakeJournal journal = new FakeJournal();
+            final EditLog editLog = createEditLog(journal);
+            final List<String> notWrittenOnReturn = Collections.synchronizedList(Lists.<String>newArrayList());
+            List<Thread> threads = Lists.newArrayList();
+            for (int i = 0; i < callerNum; i++) {
+                final long nextId = 1000 + i;
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        editLog.logSaveNextId(nextId);
+                        if (!journal.isWritten(Long.toString(nextId))) {
+                            notWrittenOnReturn.add(Long.toString(nextId));
+                        }
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+                if (i == 0) {
+                    // wait until the first caller becomes the writer
+                    long deadline = System.currentTimeMillis() + 5000;
+                    while (getPendingNum(editLog) != 0 || thread.getState() != Thread.State.WAITING) {
+                        Assert.assertTrue(System.currentTimeMillis() < deadline);
+                        Thread.sleep(10);
+                    }
+                }
+            }
+            long deadline = System.currentTimeMillis() + 5000;
+            while (getPendingNum(editLog) != callerNum - 1) {
+                Assert.assertTrue(System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+
+            journal.unblock();
+            for (Thread thread : threads) {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+                Assert.assertFalse(thread.isAlive());
+            }
+
+            Assert.assertTrue(notWrittenOnReturn.isEmpty());
+            Assert.assertEquals(expectedBatchSizes, journal.batchSizes);
+            // ids are contiguous, and each journal is written once
+            Assert.assertEquals(callerNum, journal.journalIds.size());
+            for (int i = 0; i < callerNum; i++) {
+                Assert.assertEquals(Long.valueOf(i + 1), journal.journalIds.get(i));
+                Assert.assertTrue(journal.payloads.contains(Long.toString(1000 + i)));
+            }
+            Assert.assertEquals("1000", journal.payloads.get(0));
+            Assert.assertEquals(callerNum, editLog.getTxId());
+        } finally {
+            Config.edit_log_group_commit_max_num = maxNum;
+        }
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        checkGroupCommit(100, 8, Lists.newArrayList(1, 7));
+    }
+
+    @Test
+    public void testGroupCommitMaxNum() throws Exception {
+        checkGroupCommit(3, 8, Lists.newArrayList(1, 3, 3, 1));
+    }
 }
@@ -20,25 +20,38 @@
 
 package com.baidu.palo.planner;
 
+import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import org.easymock.EasyMock;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.baidu.palo.analysis.Analyzer;
+import com.baidu.palo.analysis.BinaryPredicate;
 import com.baidu.palo.analysis.Expr;
 import com.baidu.palo.analysis.InPredicate;
 import com.baidu.palo.analysis.IntLiteral;
+import com.baidu.palo.analysis.SlotDescriptor;
+import com.baidu.palo.analysis.SlotId;
 import com.baidu.palo.analysis.SlotRef;
 import com.baidu.palo.analysis.TableName;
+import com.baidu.palo.analysis.TableRef;
+import com.baidu.palo.analysis.TupleDescriptor;
+import com.baidu.palo.analysis.TupleId;
 import com.baidu.palo.catalog.Column;
+import com.baidu.palo.catalog.HashDistributionInfo;
 import com.baidu.palo.catalog.PartitionKey;
 import com.baidu.palo.catalog.PrimitiveType;
 import com.baidu.palo.common.AnalysisException;
+import com.baidu.palo.common.Pair;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 public class OlapScanNodeTest {    
     // columnA in (1) hashmode=3
@@ -162,4 +175,207 @@ public class OlapScanNodeTest {
             Assert.assertEquals(mod, 2);
         } 
     }
+
+    private int nextSlotId = 0;
+
+    // scan node of a table hash distributed by columns, bucket seq i has replicas on bucketBackends[i]
+    private OlapScanNode createBucketScanNode(int id, int bucketNum, List<Column> columns,
+                                              long[][] bucketBackends) throws Exception {
+        OlapScanNode scanNode = new OlapScanNode(new PlanNodeId(id), new TupleDescriptor(new TupleId(id)),
+                "OlapScanNode");
+        Field field = OlapScanNode.class.getDeclaredField("hashDistributionInfo");
+        field.setAccessible(true);
+        field.set(scanNode, new HashDistributionInfo(bucketNum, columns));
+        for (int i = 0; i < bucketBackends.length; i++) {
+            Set<Long> backendIds = Sets.newHashSet();
+            for (long backendId : bucketBackends[i]) {
+                backendIds.add(backendId);
+            }
+            scanNode.getBucketSeqToBackends().put(i, backendIds);
+        }
+        return scanNode;
+    }
+
+    private SlotRef createSlotRef(OlapScanNode scanNode, Column column) {
+        SlotDescriptor slotDesc = new SlotDescriptor(new SlotId(nextSlotId++),
+                new TupleDescriptor(scanNode.getTupleIds().get(0)));
+        slotDesc.setColumn(column);
+        return new SlotRef(slotDesc);
+    }
+
+    private HashJoinNode createHashJoinNode(OlapScanNode left, OlapScanNode right,
+                                            List<Pair<Expr, Expr>> eqJoinConjuncts) {
+        return new HashJoinNode(new PlanNodeId(100), left, right, new TableRef(null, null),
+                eqJoinConjuncts, new ArrayList<Expr>());
+    }
+
+    private boolean canColocateJoin(OlapScanNode left, OlapScanNode right,
+                                    List<Pair<Expr, Expr>> eqJoinConjuncts) {
+        HashJoinNode node = createHashJoinNode(left, right, eqJoinConjuncts);
+        PlanFragment leftFragment = new PlanFragment(new PlanFragmentId(0), left, DataPartition.RANDOM);
+        PlanFragment rightFragment = new PlanFragment(new PlanFragmentId(1), right, DataPartition.RANDOM);
+        DistributedPlanner planner = new DistributedPlanner(new PlannerContext(null, null, null, null));
+        return planner.canColocateJoin(node, left, leftFragment, rightFragment);
+    }
+
+    @Test
+    public void testCanColocateJoin() throws Exception {
+        Column leftK1 = new Column("k1", PrimitiveType.BIGINT);
+        Column leftK2 = new Column("k2", PrimitiveType.BIGINT);
+        Column rightK1 = new Column("k1", PrimitiveType.BIGINT);
+        long[][] leftBackends = { {0, 1}, {1}, {2} };
+
+        // same bucket num, distribution columns joined, each bucket has a common backend
+        {
+            OlapScanNode left = createBucketScanNode(1, 3, Lists.newArrayList(leftK1), leftBackends);
+            OlapScanNode right = createBucketScanNode(2, 3, Lists.newArrayList(rightK1),
+                    new long[][] { {0}, {1, 2}, {2} });
+            List<Pair<Expr, Expr>> conjuncts = Lists.newArrayList();
+            conjuncts.add(new Pair<Expr, Expr>(createSlotRef(left, leftK1), createSlotRef(right, rightK1)));
+            Assert.assertTrue(canColocateJoin(left, right, conjuncts));
+        }
+        // bucket nums are different
+        {
+            OlapScanNode left = createBucketScanNode(1, 3, Lists.newArrayList(leftK1), leftBackends);
+            OlapScanNode right = createBucketScanNode(2, 4, Lists.newArrayList(rightK1),
+                    new long[][] { {0}, {1}, {2}, {0} });
+            List<Pair<Expr, Expr>> conjuncts = Lists.newArrayList();
+            conjuncts.add(new Pair<Expr, Expr>(createSlotRef(left, leftK1), createSlotRef(right, rightK1)));
+            Assert.assertFalse(canColocateJoin(left, right, conjuncts));
+        }
+        // the distribution column of left is not joined
+        {
+            OlapScanNode left = createBucketScanNode(1, 3, Lists.newArrayList(leftK1), leftBackends);
+            OlapScanNode right = createBucketScanNode(2, 3, Lists.newArrayList(rightK1),
+                    new long[][] { {0}, {1}, {2} });
+            List<Pair<Expr, Expr>> conjuncts = Lists.newArrayList();
+            conjuncts.add(new Pair<Expr, Expr>(createSlotRef(left, leftK2), createSlotRef(right, rightK1)));
+            Assert.assertFalse(canColocateJoin(left, right, conjuncts));
+        }
+        // numbers of distribution columns are different
+        {
+            OlapScanNode left = createBucketScanNode(1, 3, Lists.newArrayList(leftK1, leftK2), leftBackends);
+            OlapScanNode right = createBucketScanNode(2, 3, Lists.newArrayList(rightK1),
+                    new long[][] { {0}, {1}, {2} });
+            List<Pair<Expr, Expr>> conjuncts = Lists.newArrayList();
+            conjuncts.add(new Pair<Expr, Expr>(createSlotRef(left, leftK1), createSlotRef(right, rightK1)));
+            Assert.assertFalse(canColocateJoin(left, right, conjuncts));
+        }
+        // types of distribution columns are different, values are hashed differently
+        {
+            Column rightIntK1 = new Column("k1", PrimitiveType.INT);
+            OlapScanNode left = createBucketScanNode(1, 3, Lists.newArrayList(leftK1), leftBackends);
+            OlapScanNode right = createBucketScanNode(2, 3, Lists.newArrayList(rightIntK1),
+                    new long[][] { {0}, {1}, {2} });
+            List<Pair<Expr, Expr>> conjuncts = Lists.newArrayList();
+            conjuncts.add(new Pair<Expr, Expr>(createSlotRef(left, leftK1), createSlotRef(right, rightIntK1)));
+            Assert.assertFalse(canColocateJoin(left, right, conjuncts));
+        }
+        // no backend has replicas of bucket 1 of both tables
+        {
+            OlapScanNode left = createBucketScanNode(1, 3, Lists.newArrayList(leftK1), leftBackends);
+            OlapScanNode right = createBucketScanNode(2, 3, Lists.newArrayList(rightK1),
+                    new long[][] { {0}, {2}, {2} });
+            List<Pair<Expr, Expr>> conjuncts = Lists.newArrayList();
+            conjuncts.add(new Pair<Expr, Expr>(createSlotRef(left, leftK1), createSlotRef(right, rightK1)));
+            Assert.assertFalse(canColocateJoin(left, right, conjuncts));
+        }
+    }
+
+    @Test
+    public void testGetRhsBucketExprs() throws Exception {
+        Column leftK1 = new Column("k1", PrimitiveType.BIGINT);
+        Column leftK2 = new Column("k2", PrimitiveType.INT);
+        Column rightK1 = new Column("k1", PrimitiveType.BIGINT);
+        Column rightK2 = new Column("k2", PrimitiveType.INT);
+        Column rightK3 = new Column("k3", PrimitiveType.BIGINT);
+        OlapScanNode left = createBucketScanNode(1, 3, Lists.newArrayList(leftK1, leftK2),
+                new long[][] { {0}, {1}, {2} });
+        OlapScanNode right = createBucketScanNode(2, 5, Lists.newArrayList(rightK3),
+                new long[][] { {0}, {1}, {2}, {0}, {1} });
+        DistributedPlanner planner = new DistributedPlanner(new PlannerContext(null, null, null, null));
+
+        // rhs exprs are in the order of distribution columns of left
+        {
+            Expr rhsK1 = createSlotRef(right, rightK1);
+            Expr rhsK2 = createSlotRef(right, rightK2);
+            List<Pair<Expr, Expr>> conjuncts = Lists.newArrayList();
+            conjuncts.add(new Pair<Expr, Expr>(createSlotRef(left, leftK2), rhsK2));
+            conjuncts.add(new Pair<Expr, Expr>(createSlotRef(left, leftK1), rhsK1));
+            List<Expr> rhsExprs = planner.getRhsBucketExprs(createHashJoinNode(left, right, conjuncts), left);
+            Assert.assertEquals(2, rhsExprs.size());
+            Assert.assertSame(rhsK1, rhsExprs.get(0));
+            Assert.assertSame(rhsK2, rhsExprs.get(1));
+        }
+        // a distribution column is not joined
+        {
+            List<Pair<Expr, Expr>> conjuncts = Lists.newArrayList();
+            conjuncts.add(new Pair<Expr, Expr>(createSlotRef(left, leftK1), createSlotRef(right, rightK1)));
+            Assert.assertNull(planner.getRhsBucketExprs(createHashJoinNode(left, right, conjuncts), left));
+        }
+        // rhs expr of k2 is of another type, it may be hashed into another bucket
+        {
+            List<Pair<Expr, Expr>> conjuncts = Lists.newArrayList();
+            conjuncts.add(new Pair<Expr, Expr>(createSlotRef(left, leftK1), createSlotRef(right, rightK1)));
+            conjuncts.add(new Pair<Expr, Expr>(createSlotRef(left, leftK2), createSlotRef(right, rightK3)));
+            Assert.assertNull(planner.getRhsBucketExprs(createHashJoinNode(left, right, conjuncts), left));
+        }
+    }
+
+    @Test
+    public void testGetCommonBucketBackends() throws Exception {
+        Column k1 = new Column("k1", PrimitiveType.BIGINT);
+        OlapScanNode left = createBucketScanNode(1, 3, Lists.newArrayList(k1),
+                new long[][] { {0, 1}, {1, 2}, {2} });
+        OlapScanNode right = createBucketScanNode(2, 3, Lists.newArrayList(k1),
+                new long[][] { {1}, {0, 1, 2}, {0} });
+        Map<Integer, Set<Long>> bucketBackends = OlapScanNode.getCommonBucketBackends(
+                Lists.newArrayList(left, right));
+        Assert.assertEquals(3, bucketBackends.size());
+        Assert.assertEquals(Sets.newHashSet(1L), bucketBackends.get(0));
+        Assert.assertEquals(Sets.newHashSet(1L, 2L), bucketBackends.get(1));
+        Assert.assertTrue(bucketBackends.get(2).isEmpty());
+        // backends of scan nodes are not changed
+        Assert.assertEquals(Sets.newHashSet(0L, 1L), left.getBucketSeqToBackends().get(0));
+    }
+
+    @Test
+    public void testComputeStats() throws Exception {
+        TupleDescriptor desc = new TupleDescriptor(new TupleId(1));
+        OlapScanNode scanNode = new OlapScanNode(new PlanNodeId(1), desc, "OlapScanNode");
+        // 1000 rows in selected tablets, whose replicas are on 3 backends
+        Field rowCountField = OlapScanNode.class.getDeclaredField("selectedRowCount");
+        rowCountField.setAccessible(true);
+        rowCountField.set(scanNode, 1000L);
+        Field backendsField = OlapScanNode.class.getDeclaredField("scanBackendIds");
+        backendsField.setAccessible(true);
+        backendsField.set(scanNode, Sets.newHashSet(0L, 1L, 2L));
+
+        Analyzer analyzer = EasyMock.createMock(Analyzer.class);
+        EasyMock.expect(analyzer.getTupleDesc(EasyMock.anyObject(TupleId.class))).andReturn(desc).anyTimes();
+        EasyMock.replay(analyzer);
+
+        // no conjunct, all selected rows are returned
+        scanNode.computeStats(analyzer);
+        Assert.assertEquals(1000, scanNode.getCardinality());
+        Assert.assertEquals(3, scanNode.getNumNodes());
+
+        // a conjunct of selectivity 0.5, and one of unknown selectivity taking the default one
+        Column k1 = new Column("k1", PrimitiveType.BIGINT);
+        Expr knownConjunct = new BinaryPredicate(BinaryPredicate.Operator.EQ,
+                createSlotRef(scanNode, k1), new IntLiteral(1));
+        Field selectivityField = Expr.class.getDeclaredField("selectivity");
+        selectivityField.setAccessible(true);
+        selectivityField.set(knownConjunct, 0.5);
+        Expr unknownConjunct = new BinaryPredicate(BinaryPredicate.Operator.LT,
+                createSlotRef(scanNode, k1), new IntLiteral(100));
+        scanNode.addConjuncts(Lists.newArrayList(knownConjunct, unknownConjunct));
+        scanNode.computeStats(analyzer);
+        Assert.assertEquals(Math.round(1000 * 0.5 * Expr.DEFAULT_SELECTIVITY), scanNode.getCardinality());
+
+        // cardinality is capped by limit
+        scanNode.setLimit(10);
+        scanNode.computeStats(analyzer);
+        Assert.assertEquals(10, scanNode.getCardinality());
+    }
 }
@@ -0,0 +1,214 @@
+// Copyright (c) 2017, Baidu.com, Inc. All Rights Reserved
+
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package com.baidu.palo.planner;
+
+import com.baidu.palo.analysis.Analyzer;
+import com.baidu.palo.analysis.BinaryPredicate;
+import com.baidu.palo.analysis.Expr;
+import com.baidu.palo.analysis.JoinOperator;
+import com.baidu.palo.analysis.SlotDescriptor;
+import com.baidu.palo.analysis.SlotId;
+import com.baidu.palo.analysis.SlotRef;
+import com.baidu.palo.analysis.TableRef;
+import com.baidu.palo.analysis.TupleDescriptor;
+import com.baidu.palo.analysis.TupleId;
+import com.baidu.palo.catalog.Column;
+import com.baidu.palo.catalog.PrimitiveType;
+import com.baidu.palo.qe.ConnectContext;
+
+import com.google.common.collect.Lists;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.List;
+
+public class SingleNodePlannerTest {
+    private SingleNodePlanner planner;
+    private Analyzer analyzer;
+    private int nextSlotId;
+
+    @Before
+    public void setUp() {
+        planner = new SingleNodePlanner(new PlannerContext(null, null, null, null));
+        analyzer = EasyMock.createMock(Analyzer.class);
+        nextSlotId = 0;
+        ConnectContext.remove();
+    }
+
+    @After
+    public void tearDown() {
+        ConnectContext.remove();
+    }
+
+    // an analyzed table ref of tuple id
+    private TableRef createTableRef(int id, JoinOperator joinOp) throws Exception {
+        TableRef tblRef = new TableRef(null, "t" + id);
+        tblRef.setJoinOp(joinOp);
+        Field descField = TableRef.class.getDeclaredField("desc");
+        descField.setAccessible(true);
+        descField.set(tblRef, new TupleDescriptor(new TupleId(id)));
+        Field analyzedField = TableRef.class.getDeclaredField("isAnalyzed");
+        analyzedField.setAccessible(true);
+        analyzedField.set(tblRef, true);
+        return tblRef;
+    }
+
+    private PlanNode createPlan(TableRef tblRef, long cardinality) {
+        PlanNode node = new EmptySetNode(new PlanNodeId(tblRef.getId().asInt()),
+                Lists.newArrayList(tblRef.getId()));
+        node.cardinality = cardinality;
+        return node;
+    }
+
+    private SlotRef createSlotRef(TableRef tblRef) {
+        SlotDescriptor slotDesc = new SlotDescriptor(new SlotId(nextSlotId++), tblRef.getDesc());
+        slotDesc.setColumn(new Column("k" + slotDesc.getId().asInt(), PrimitiveType.BIGINT));
+        return new SlotRef(slotDesc);
+    }
+
+    private Expr createEqJoinConjunct(TableRef lhs, TableRef rhs) {
+        return new BinaryPredicate(BinaryPredicate.Operator.EQ, createSlotRef(lhs), createSlotRef(rhs));
+    }
+
+    private void expectEqJoinConjuncts(TableRef tblRef, Expr... conjuncts) {
+        EasyMock.expect(analyzer.getEqJoinConjuncts(tblRef.getId(), null))
+                .andReturn(Lists.newArrayList(conjuncts)).anyTimes();
+    }
+
+    /*
+     * select * from d1, f, d2 where f.k1 = d1.k and f.k2 = d2.k
+     * The fact table is the leftmost, and the smaller dimension table is joined first.
+     */
+    @Test
+    public void testReorderStarJoin() throws Exception {
+        TableRef d1 = createTableRef(0, null);
+        TableRef f = createTableRef(1, JoinOperator.CROSS_JOIN);
+        TableRef d2 = createTableRef(2, JoinOperator.CROSS_JOIN);
+        Expr fd1 = createEqJoinConjunct(f, d1);
+        Expr fd2 = createEqJoinConjunct(f, d2);
+        expectEqJoinConjuncts(d1, fd1);
+        expectEqJoinConjuncts(f, fd1, fd2);
+        expectEqJoinConjuncts(d2, fd2);
+        EasyMock.replay(analyzer);
+
+        List<Integer> joinOrder = planner.getJoinOrder(analyzer, Lists.newArrayList(d1, f, d2),
+                Lists.newArrayList(createPlan(d1, 100), createPlan(f, 10000), createPlan(d2, 10)));
+        Assert.assertEquals(Lists.newArrayList(1, 2, 0), joinOrder);
+        // reordered refs are hash joined as inner joins
+        Assert.assertEquals(JoinOperator.INNER_JOIN, d1.getJoinOp());
+        Assert.assertEquals(JoinOperator.INNER_JOIN, f.getJoinOp());
+        Assert.assertEquals(JoinOperator.INNER_JOIN, d2.getJoinOp());
+    }
+
+    /*
+     * select * from d1 join f on f.k1 = d1.k <join> d2 on f.k2 = d2.k
+     * Only d1 and f are reordered if d2 is outer, semi, anti joined or joined with a hint.
+     */
+    @Test
+    public void testReorderStopsAtNonInnerJoin() throws Exception {
+        JoinOperator[] joinOps = { JoinOperator.LEFT_OUTER_JOIN, JoinOperator.LEFT_SEMI_JOIN,
+                JoinOperator.LEFT_ANTI_JOIN, JoinOperator.INNER_JOIN };
+        for (JoinOperator joinOp : joinOps) {
+            analyzer = EasyMock.createMock(Analyzer.class);
+            TableRef d1 = createTableRef(0, null);
+            TableRef f = createTableRef(1, JoinOperator.INNER_JOIN);
+            TableRef d2 = createTableRef(2, joinOp);
+            if (joinOp == JoinOperator.INNER_JOIN) {
+                Field hintField = TableRef.class.getDeclaredField("isBroadcastJoin");
+                hintField.setAccessible(true);
+                hintField.set(d2, true);
+            }
+            Expr fd1 = createEqJoinConjunct(f, d1);
+            Expr fd2 = createEqJoinConjunct(f, d2);
+            expectEqJoinConjuncts(d1, fd1);
+            expectEqJoinConjuncts(f, fd1, fd2);
+            expectEqJoinConjuncts(d2, fd2);
+            EasyMock.replay(analyzer);
+
+            List<Integer> joinOrder = planner.getJoinOrder(analyzer, Lists.newArrayList(d1, f, d2),
+                    Lists.newArrayList(createPlan(d1, 100), createPlan(f, 10000), createPlan(d2, 10)));
+            Assert.assertEquals(joinOp.toString(), Lists.newArrayList(1, 0, 2), joinOrder);
+            Assert.assertEquals(joinOp, d2.getJoinOp());
+        }
+    }
+
+    // FROM clause order is kept if the cardinality of a table ref is unknown
+    @Test
+    public void testUnknownCardinality() throws Exception {
+        TableRef d1 = createTableRef(0, null);
+        TableRef f = createTableRef(1, JoinOperator.CROSS_JOIN);
+        TableRef d2 = createTableRef(2, JoinOperator.CROSS_JOIN);
+        Expr fd1 = createEqJoinConjunct(f, d1);
+        Expr fd2 = createEqJoinConjunct(f, d2);
+        expectEqJoinConjuncts(d1, fd1);
+        expectEqJoinConjuncts(f, fd1, fd2);
+        expectEqJoinConjuncts(d2, fd2);
+        EasyMock.replay(analyzer);
+
+        List<Integer> joinOrder = planner.getJoinOrder(analyzer, Lists.newArrayList(d1, f, d2),
+                Lists.newArrayList(createPlan(d1, 100), createPlan(f, 10000), createPlan(d2, -1)));
+        Assert.assertEquals(Lists.newArrayList(0, 1, 2), joinOrder);
+        Assert.assertEquals(JoinOperator.CROSS_JOIN, f.getJoinOp());
+    }
+
+    @Test
+    public void testDisableJoinReorder() throws Exception {
+        ConnectContext context = new ConnectContext(null);
+        context.getSessionVariable().setDisableJoinReorder(true);
+        context.setThreadLocalInfo();
+
+        TableRef d1 = createTableRef(0, null);
+        TableRef f = createTableRef(1, JoinOperator.CROSS_JOIN);
+        TableRef d2 = createTableRef(2, JoinOperator.CROSS_JOIN);
+        Expr fd1 = createEqJoinConjunct(f, d1);
+        Expr fd2 = createEqJoinConjunct(f, d2);
+        expectEqJoinConjuncts(d1, fd1);
+        expectEqJoinConjuncts(f, fd1, fd2);
+        expectEqJoinConjuncts(d2, fd2);
+        EasyMock.replay(analyzer);
+
+        List<Integer> joinOrder = planner.getJoinOrder(analyzer, Lists.newArrayList(d1, f, d2),
+                Lists.newArrayList(createPlan(d1, 100), createPlan(f, 10000), createPlan(d2, 10)));
+        Assert.assertEquals(Lists.newArrayList(0, 1, 2), joinOrder);
+    }
+
+    /*
+     * select * from a, b, c where a.k = b.k and b.k2 = c.k
+     * c is the leftmost. Cross joining a next is not smaller than joining b, so b is joined
+     * by the eq join conjunct before a.
+     */
+    @Test
+    public void testNoCrossJoinIntroduced() throws Exception {
+        TableRef a = createTableRef(0, null);
+        TableRef b = createTableRef(1, JoinOperator.CROSS_JOIN);
+        TableRef c = createTableRef(2, JoinOperator.CROSS_JOIN);
+        Expr ab = createEqJoinConjunct(a, b);
+        Expr bc = createEqJoinConjunct(b, c);
+        expectEqJoinConjuncts(a, ab);
+        expectEqJoinConjuncts(b, ab, bc);
+        expectEqJoinConjuncts(c, bc);
+        EasyMock.replay(analyzer);
+
+        List<Integer> joinOrder = planner.getJoinOrder(analyzer, Lists.newArrayList(a, b, c),
+                Lists.newArrayList(createPlan(a, 1), createPlan(b, 10), createPlan(c, 100000)));
+        Assert.assertEquals(Lists.newArrayList(2, 1, 0), joinOrder);
+    }
+}
@@ -22,6 +22,7 @@ package com.baidu.palo.qe;
 
 import com.baidu.palo.analysis.AccessTestUtil;
 import com.baidu.palo.catalog.Catalog;
+import com.baidu.palo.common.ErrorCode;
 import com.baidu.palo.mysql.MysqlChannel;
 import com.baidu.palo.mysql.MysqlCommand;
 import com.baidu.palo.mysql.MysqlEofPacket;
@@ -217,6 +218,23 @@ public class ConnectProcessorTest {
         Assert.assertFalse(myContext.isKilled());
     }
 
+    @Test
+    public void testRejectOnce() throws Exception {
+        MysqlChannel channel = EasyMock.createMock(MysqlChannel.class);
+        channel.sendAndFlush(EasyMock.isA(ByteBuffer.class));
+        EasyMock.expectLastCall().once();
+        EasyMock.replay(channel);
+        ConnectContext ctx = initMockContext(channel, AccessTestUtil.fetchAdminCatalog());
+
+        ConnectProcessor processor = new ConnectProcessor(ctx);
+        processor.rejectOnce(ErrorCode.ERR_TOO_MANY_REQUESTS);
+
+        // request is not executed, and an error is sent
+        Assert.assertEquals(ErrorCode.ERR_TOO_MANY_REQUESTS.formatErrorMsg(), myContext.getState().getErrorMessage());
+        Assert.assertTrue(myContext.getState().toResponsePacket() instanceof MysqlErrPacket);
+        EasyMock.verify(channel);
+    }
+
     @Test
     public void testQuery() throws Exception {
         ConnectContext ctx = initMockContext(mockChannel(queryPacket), AccessTestUtil.fetchAdminCatalog());
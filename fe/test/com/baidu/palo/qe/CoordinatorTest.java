@@ -27,6 +27,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
 
 import org.apache.thrift.TException;
@@ -41,28 +42,39 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import com.baidu.palo.analysis.Analyzer;
+import com.baidu.palo.analysis.Expr;
+import com.baidu.palo.analysis.TableRef;
 import com.baidu.palo.analysis.TupleDescriptor;
 import com.baidu.palo.analysis.TupleId;
 import com.baidu.palo.catalog.Catalog;
+import com.baidu.palo.common.Config;
 import com.baidu.palo.common.FeConstants;
+import com.baidu.palo.common.Pair;
 import com.baidu.palo.persist.EditLog;
 import com.baidu.palo.planner.DataPartition;
 import com.baidu.palo.planner.ExchangeNode;
+import com.baidu.palo.planner.HashJoinNode;
 import com.baidu.palo.planner.OlapScanNode;
 import com.baidu.palo.planner.PlanFragment;
 import com.baidu.palo.planner.PlanFragmentId;
 import com.baidu.palo.planner.PlanNode;
 import com.baidu.palo.planner.PlanNodeId;
 import com.baidu.palo.planner.Planner;
+import com.baidu.palo.planner.ScanNode;
 import com.baidu.palo.system.Backend;
 import com.baidu.palo.thrift.TExecPlanFragmentParams;
 import com.baidu.palo.thrift.TNetworkAddress;
+import com.baidu.palo.thrift.TPaloScanRange;
 import com.baidu.palo.thrift.TQueryOptions;
 import com.baidu.palo.thrift.TScanRange;
 import com.baidu.palo.thrift.TScanRangeLocation;
 import com.baidu.palo.thrift.TScanRangeLocations;
+import com.baidu.palo.thrift.TScanRangeParams;
 import com.baidu.palo.thrift.TUniqueId;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 @RunWith(PowerMockRunner.class)
 @PowerMockIgnore({"org.apache.log4j.*", "javax.management.*"})
@@ -162,11 +174,13 @@ public class CoordinatorTest extends Coordinator {
             SecurityException, NoSuchMethodException {
         Method method = coor.getClass().getDeclaredMethod(
                 "computeScanRangeAssignment",
-                PlanNodeId.class,
+                ScanNode.class,
                 List.class,
                 Coordinator.FragmentScanRangeAssignment.class);
         method.setAccessible(true);
         int planNodeId = 2;
+        ScanNode scanNode = new OlapScanNode(new PlanNodeId(planNodeId), new TupleDescriptor(new TupleId(10)),
+                "null scanNode");
         // 输出参数
         FragmentScanRangeAssignment assignment = coor.new FragmentScanRangeAssignment();
         // 输入参数
@@ -205,7 +219,7 @@ public class CoordinatorTest extends Coordinator {
             // 调用函数
             method.invoke(
                     coor,
-                    new PlanNodeId(planNodeId),
+                    scanNode,
                     locations,
                     assignment);
             // 判断返回值
@@ -225,7 +239,7 @@ public class CoordinatorTest extends Coordinator {
             // 调用函数
             method.invoke(
                     coor,
-                    new PlanNodeId(planNodeId),
+                    scanNode,
                     locations,
                     assignment);
             // 判断返回值
@@ -253,7 +267,7 @@ public class CoordinatorTest extends Coordinator {
             // 调用函数
             method.invoke(
                     coor,
-                    new PlanNodeId(planNodeId),
+                    scanNode,
                     locations,
                     assignment);
             // 判断返回值
@@ -417,6 +431,194 @@ public class CoordinatorTest extends Coordinator {
     public void testNoUsedHosts() {
     }
 
+    // adds a scan range of bucketSeq whose replicas are on backends, backend i is on host HOSTS[i]
+    private static void addBucketScanRange(OlapScanNode scanNode, int bucketSeq, long... backendIds) {
+        final String[] hosts = { "machineA", "machineB", "machineC", "machineD" };
+        TScanRangeLocations scanRangeLocations = new TScanRangeLocations();
+        Set<Long> backendIdSet = Sets.newHashSet();
+        for (long backendId : backendIds) {
+            scanRangeLocations.addToLocations((new TScanRangeLocation())
+                    .setServer(new TNetworkAddress(hosts[(int) backendId], 10000)).setBackend_id(backendId));
+            backendIdSet.add(backendId);
+        }
+        scanRangeLocations.setScan_range(new TScanRange());
+        List<TScanRangeLocations> scanRanges = Lists.newArrayList();
+        scanRanges.add(scanRangeLocations);
+        scanNode.getBucketSeqToScanRanges().put(bucketSeq, scanRanges);
+        scanNode.getBucketSeqToBackends().put(bucketSeq, backendIdSet);
+    }
+
+    /*
+     * A fragment joins two olap scan nodes of 3 buckets.
+     * Bucket 0 is only on machineA for both tables, buckets 1 and 2 are on machineB and machineC.
+     * All scan ranges of a bucket are assigned to one host, and buckets are balanced between hosts.
+     */
+    @Test
+    public void testComputeScanRangeAssignmentByBucket() throws Exception {
+        Field field = coor.getClass().getDeclaredField("idToBackend");
+        field.setAccessible(true);
+        Map<Long, Backend> backendMap = new HashMap<Long, Backend>();
+        backendMap.put(Long.valueOf(0), backendA);
+        backendMap.put(Long.valueOf(1), backendB);
+        backendMap.put(Long.valueOf(2), backendC);
+        field.set(coor, ImmutableMap.copyOf(backendMap));
+
+        OlapScanNode leftScanNode = new OlapScanNode(new PlanNodeId(1), new TupleDescriptor(new TupleId(1)),
+                "left scanNode");
+        OlapScanNode rightScanNode = new OlapScanNode(new PlanNodeId(2), new TupleDescriptor(new TupleId(2)),
+                "right scanNode");
+        addBucketScanRange(leftScanNode, 0, 0, 1);
+        addBucketScanRange(leftScanNode, 1, 1, 2);
+        addBucketScanRange(leftScanNode, 2, 1, 2);
+        addBucketScanRange(rightScanNode, 0, 0);
+        addBucketScanRange(rightScanNode, 1, 1, 2);
+        addBucketScanRange(rightScanNode, 2, 1, 2);
+        HashJoinNode joinNode = new HashJoinNode(new PlanNodeId(3), leftScanNode, rightScanNode,
+                new TableRef(null, null), new ArrayList<Pair<Expr, Expr>>(), new ArrayList<Expr>());
+        PlanFragment fragment = new PlanFragment(new PlanFragmentId(5), joinNode, DataPartition.RANDOM);
+
+        Map<PlanFragmentId, FragmentExecParams> privateFragmentExecParams =
+                (HashMap<PlanFragmentId, FragmentExecParams>) getField(coor, "fragmentExecParams");
+        Map<PlanFragmentId, FragmentScanRangeAssignment> privateScanRangeAssignment =
+                (HashMap<PlanFragmentId, FragmentScanRangeAssignment>) getField(coor, "scanRangeAssignment");
+        FragmentExecParams params = new FragmentExecParams(fragment);
+        FragmentScanRangeAssignment assignment = coor.new FragmentScanRangeAssignment();
+        privateFragmentExecParams.put(fragment.getFragmentId(), params);
+        privateScanRangeAssignment.put(fragment.getFragmentId(), assignment);
+
+        Method method = coor.getClass().getDeclaredMethod("computeScanRangeAssignmentByBucket", PlanFragment.class);
+        method.setAccessible(true);
+        method.invoke(coor, fragment);
+
+        TNetworkAddress hostA = new TNetworkAddress("machineA", 10000);
+        TNetworkAddress hostB = new TNetworkAddress("machineB", 10000);
+        TNetworkAddress hostC = new TNetworkAddress("machineC", 10000);
+        Assert.assertEquals(3, params.bucketSeqToHost.size());
+        Assert.assertEquals(hostA, params.bucketSeqToHost.get(0));
+        TNetworkAddress bucket1Host = params.bucketSeqToHost.get(1);
+        TNetworkAddress bucket2Host = params.bucketSeqToHost.get(2);
+        Assert.assertTrue(bucket1Host.equals(hostB) || bucket1Host.equals(hostC));
+        Assert.assertTrue(bucket2Host.equals(hostB) || bucket2Host.equals(hostC));
+        Assert.assertFalse(bucket1Host.equals(bucket2Host));
+
+        // both scan nodes scan the bucket on the same host
+        Assert.assertEquals(3, assignment.size());
+        for (TNetworkAddress host : Lists.newArrayList(hostA, hostB, hostC)) {
+            Map<Integer, List<TScanRangeParams>> scanRanges = assignment.get(host);
+            Assert.assertEquals(1, scanRanges.get(1).size());
+            Assert.assertEquals(1, scanRanges.get(2).size());
+        }
+        Assert.assertSame(leftScanNode.getBucketSeqToScanRanges().get(0).get(0).getScan_range(),
+                assignment.get(hostA).get(1).get(0).scan_range);
+        Assert.assertSame(rightScanNode.getBucketSeqToScanRanges().get(0).get(0).getScan_range(),
+                assignment.get(hostA).get(2).get(0).scan_range);
+
+        privateFragmentExecParams.clear();
+        privateScanRangeAssignment.clear();
+    }
+
+    /*
+     * Rows of a bucket are sent to the destination scanning the bucket.
+     * Buckets not scanned by any destination are spread over all destinations.
+     */
+    @Test
+    public void testComputeBucketSeqToDestination() throws Exception {
+        FragmentExecParams destParams = new FragmentExecParams(null);
+        destParams.hosts.add(new TNetworkAddress("machineA", 10000));
+        destParams.hosts.add(new TNetworkAddress("machineB", 10000));
+        destParams.bucketSeqToHost.put(0, new TNetworkAddress("machineB", 10000));
+        destParams.bucketSeqToHost.put(1, new TNetworkAddress("machineA", 10000));
+        destParams.bucketSeqToHost.put(3, new TNetworkAddress("machineC", 10000));
+
+        Method method = coor.getClass().getDeclaredMethod("computeBucketSeqToDestination",
+                int.class, FragmentExecParams.class);
+        method.setAccessible(true);
+        List<Integer> bucketSeqToDestination = (List<Integer>) method.invoke(coor, 4, destParams);
+        Assert.assertEquals(Lists.newArrayList(1, 0, 0, 1), bucketSeqToDestination);
+    }
+
+    // adds a scan range of tabletId whose replicas are on machineA, machineB and machineC
+    private static void addSkewedScanRange(OlapScanNode scanNode, List<TScanRangeLocations> locations,
+                                           long tabletId, long dataSize) throws Exception {
+        final String[] hosts = { "machineA", "machineB", "machineC" };
+        TScanRangeLocations scanRangeLocations = new TScanRangeLocations();
+        for (int i = 0; i < hosts.length; i++) {
+            scanRangeLocations.addToLocations((new TScanRangeLocation())
+                    .setServer(new TNetworkAddress(hosts[i], 10000)).setBackend_id(i));
+        }
+        TPaloScanRange paloRange = new TPaloScanRange();
+        paloRange.setTablet_id(tabletId);
+        TScanRange scanRange = new TScanRange();
+        scanRange.setPalo_scan_range(paloRange);
+        scanRangeLocations.setScan_range(scanRange);
+        locations.add(scanRangeLocations);
+        ((Map<Long, Long>) getField(scanNode, "tabletIdToDataSize")).put(tabletId, dataSize);
+    }
+
+    /*
+     * 9 tablets of 3 replicas on machineA, machineB and machineC, sizes are 1000, 800, 600 and six of 100.
+     * The small tablets are listed first. If ranges were assigned in the given order, the hosts would get
+     * 800, 1000 and 1200 bytes. Assigned from the largest, each host gets 1000 bytes.
+     */
+    @Test
+    public void testComputeScanRangeAssignmentBySkewedSize() throws Exception {
+        boolean assignByBackendLoad = Config.enable_scan_range_assign_by_backend_load;
+        Config.enable_scan_range_assign_by_backend_load = false;
+        try {
+            Coordinator coordinator = new Coordinator(context, analyzer, planner);
+            Field field = coordinator.getClass().getDeclaredField("idToBackend");
+            field.setAccessible(true);
+            Map<Long, Backend> backendMap = new HashMap<Long, Backend>();
+            backendMap.put(Long.valueOf(0), backendA);
+            backendMap.put(Long.valueOf(1), backendB);
+            backendMap.put(Long.valueOf(2), backendC);
+            field.set(coordinator, ImmutableMap.copyOf(backendMap));
+
+            int planNodeId = 4;
+            OlapScanNode scanNode = new OlapScanNode(new PlanNodeId(planNodeId), new TupleDescriptor(new TupleId(4)),
+                    "skewed scanNode");
+            List<TScanRangeLocations> locations = Lists.newArrayList();
+            final Map<Long, Long> tabletIdToDataSize = Maps.newHashMap();
+            long[] dataSizes = { 100, 100, 100, 100, 100, 100, 600, 800, 1000 };
+            for (int i = 0; i < dataSizes.length; i++) {
+                addSkewedScanRange(scanNode, locations, 100 + i, dataSizes[i]);
+                tabletIdToDataSize.put(100L + i, dataSizes[i]);
+            }
+
+            Method method = coordinator.getClass().getDeclaredMethod("computeScanRangeAssignment",
+                    ScanNode.class, List.class, Coordinator.FragmentScanRangeAssignment.class);
+            method.setAccessible(true);
+            FragmentScanRangeAssignment assignment = coordinator.new FragmentScanRangeAssignment();
+            method.invoke(coordinator, scanNode, locations, assignment);
+
+            Map<TNetworkAddress, Long> assignedScanBytesPerHost =
+                    (Map<TNetworkAddress, Long>) getField(coordinator, "assignedScanBytesPerHost");
+            Assert.assertEquals(3, assignment.size());
+            Assert.assertEquals(3, assignedScanBytesPerHost.size());
+            Set<Long> firstTabletIds = Sets.newHashSet();
+            for (Map.Entry<TNetworkAddress, Map<Integer, List<TScanRangeParams>>> entry : assignment.entrySet()) {
+                long bytes = 0;
+                long lastDataSize = Long.MAX_VALUE;
+                List<TScanRangeParams> scanRanges = entry.getValue().get(planNodeId);
+                for (TScanRangeParams scanRangeParams : scanRanges) {
+                    long tabletId = scanRangeParams.scan_range.getPalo_scan_range().getTablet_id();
+                    long dataSize = tabletIdToDataSize.get(tabletId);
+                    // ranges of a host are assigned from the largest
+                    Assert.assertTrue(dataSize <= lastDataSize);
+                    lastDataSize = dataSize;
+                    bytes += dataSize;
+                }
+                firstTabletIds.add(scanRanges.get(0).scan_range.getPalo_scan_range().getTablet_id());
+                Assert.assertEquals(1000, bytes);
+                Assert.assertEquals(Long.valueOf(1000), assignedScanBytesPerHost.get(entry.getKey()));
+            }
+            // the three largest tablets are spread over the three hosts
+            Assert.assertEquals(Sets.newHashSet(106L, 107L, 108L), firstTabletIds);
+        } finally {
+            Config.enable_scan_range_assign_by_backend_load = assignByBackendLoad;
+        }
+    }
+
     public void testNetworkException() throws TException, NoSuchFieldException,
             SecurityException, IllegalArgumentException, IllegalAccessException,
             NoSuchMethodException, InvocationTargetException {
@@ -448,5 +650,77 @@ public class CoordinatorTest extends Coordinator {
         }
         Assert.assertTrue("need get the TTransportException", isException);
     }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testReleaseBackendLoad() throws Exception {
+        boolean assignByBackendLoad = Config.enable_scan_range_assign_by_backend_load;
+        Config.enable_scan_range_assign_by_backend_load = true;
+        try {
+            Coordinator coordinator = new Coordinator(context, analyzer, planner);
+            TNetworkAddress hostA = new TNetworkAddress("machineA", 10000);
+            TNetworkAddress hostB = new TNetworkAddress("machineB", 10000);
+            coordinator.addressToBackendID.put(hostA, 7200L);
+            coordinator.addressToBackendID.put(hostB, 7201L);
+
+            // 3 instances of one fragment on machineA, machineB and machineA
+            PlanFragmentId fragmentId = new PlanFragmentId(0);
+            FragmentExecParams params = coordinator.new FragmentExecParams(null);
+            params.hosts.add(hostA);
+            params.hosts.add(hostB);
+            params.hosts.add(hostA);
+            for (int i = 0; i < 3; i++) {
+                params.instanceIds.add(new TUniqueId(0, i));
+            }
+            ((Map<PlanFragmentId, FragmentExecParams>) getField(coordinator, "fragmentExecParams"))
+                    .put(fragmentId, params);
+            List<BackendExecState> execStates = (List<BackendExecState>) getField(coordinator, "backendExecStates");
+            Field initiated = BackendExecState.class.getDeclaredField("initiated");
+            initiated.setAccessible(true);
+            for (int i = 0; i < 3; i++) {
+                BackendExecState execState = coordinator.new BackendExecState(fragmentId, i, 0, null,
+                                                                              coordinator.addressToBackendID);
+                // the last instance is not initiated
+                initiated.set(execState, i < 2);
+                execStates.add(execState);
+            }
+
+            Method addRunningFragments = Coordinator.class.getDeclaredMethod("addRunningFragments",
+                                                                             int.class, int.class);
+            addRunningFragments.setAccessible(true);
+            Method addAssignedScanBytes = Coordinator.class.getDeclaredMethod("addAssignedScanBytes",
+                                                                              TNetworkAddress.class, long.class,
+                                                                              long.class);
+            addAssignedScanBytes.setAccessible(true);
+
+            addRunningFragments.invoke(coordinator, 0, 3);
+            addAssignedScanBytes.invoke(coordinator, hostA, 7200L, 1000L);
+            addAssignedScanBytes.invoke(coordinator, hostB, 7201L, 500L);
+            addAssignedScanBytes.invoke(coordinator, hostA, 7200L, 300L);
+            Assert.assertEquals(1, SimpleScheduler.getBackendRunningFragmentNum(7200));
+            Assert.assertEquals(1, SimpleScheduler.getBackendRunningFragmentNum(7201));
+            Assert.assertEquals(1300, SimpleScheduler.getBackendScanBytes(7200));
+            Assert.assertEquals(500, SimpleScheduler.getBackendScanBytes(7201));
+
+            coordinator.releaseBackendLoad();
+            Assert.assertEquals(0, SimpleScheduler.getBackendRunningFragmentNum(7200));
+            Assert.assertEquals(0, SimpleScheduler.getBackendRunningFragmentNum(7201));
+            Assert.assertEquals(0, SimpleScheduler.getBackendScanBytes(7200));
+            Assert.assertEquals(0, SimpleScheduler.getBackendScanBytes(7201));
+
+            // released only once
+            coordinator.releaseBackendLoad();
+            Assert.assertEquals(0, SimpleScheduler.getBackendRunningFragmentNum(7200));
+            Assert.assertEquals(0, SimpleScheduler.getBackendScanBytes(7200));
+
+            // load added after release is not counted, it would never be released
+            addRunningFragments.invoke(coordinator, 0, 3);
+            addAssignedScanBytes.invoke(coordinator, hostA, 7200L, 1000L);
+            Assert.assertEquals(0, SimpleScheduler.getBackendRunningFragmentNum(7200));
+            Assert.assertEquals(0, SimpleScheduler.getBackendScanBytes(7200));
+        } finally {
+            Config.enable_scan_range_assign_by_backend_load = assignByBackendLoad;
+        }
+    }
 }
 
@@ -0,0 +1,133 @@
+// Copyright (c) 2017, Baidu.com, Inc. All Rights Reserved
+
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+
+package com.baidu.palo.qe;
+
+import com.baidu.palo.thrift.FrontendServiceVersion;
+import com.baidu.palo.thrift.TReportExecStatusParams;
+import com.baidu.palo.thrift.TReportExecStatusResult;
+import com.baidu.palo.thrift.TStatusCode;
+import com.baidu.palo.thrift.TUniqueId;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class QeProcessorTest {
+    private static final long WAIT_MS = 5000;
+
+    private static TReportExecStatusParams createReport(TUniqueId queryId, int backendNum) {
+        TReportExecStatusParams params = new TReportExecStatusParams(FrontendServiceVersion.V1);
+        params.setQuery_id(queryId);
+        params.setBackend_num(backendNum);
+        params.setFragment_instance_id(new TUniqueId(queryId.hi, queryId.lo + backendNum));
+        return params;
+    }
+
+    // coordinator counts down latch when the report is handled, after waiting for blockLatch if not null
+    private static Coordinator createCoordinator(TReportExecStatusParams expected,
+                                                 final CountDownLatch handledLatch,
+                                                 final CountDownLatch blockLatch) throws Exception {
+        Coordinator coord = EasyMock.createMock(Coordinator.class);
+        coord.releaseBackendLoad();
+        EasyMock.expectLastCall().anyTimes();
+        if (expected != null) {
+            coord.updateFragmentExecStatus(expected);
+            EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+                @Override
+                public Object answer() throws Throwable {
+                    if (blockLatch != null) {
+                        blockLatch.await();
+                    }
+                    handledLatch.countDown();
+                    return null;
+                }
+            }).once();
+        }
+        EasyMock.replay(coord);
+        return coord;
+    }
+
+    @Test
+    public void testReportOfUnregisteredQuery() throws Exception {
+        QeProcessor processor = new QeProcessor();
+        TUniqueId queryId = new TUniqueId(1001, 1);
+        Coordinator coord = createCoordinator(null, null, null);
+        QeProcessor.registerQuery(queryId, coord);
+        QeProcessor.unregisterQuery(queryId);
+
+        TReportExecStatusResult result = processor.reportExecStatus(createReport(queryId, 0));
+        Assert.assertEquals(TStatusCode.RUNTIME_ERROR, result.getStatus().getStatus_code());
+        result = processor.reportExecStatus(createReport(new TUniqueId(1001, 2), 0));
+        Assert.assertEquals(TStatusCode.RUNTIME_ERROR, result.getStatus().getStatus_code());
+        Thread.sleep(100);
+        EasyMock.verify(coord);
+    }
+
+    @Test
+    public void testReportHandled() throws Exception {
+        QeProcessor processor = new QeProcessor();
+        TUniqueId queryId = new TUniqueId(1002, 1);
+        TReportExecStatusParams params = createReport(queryId, 0);
+        CountDownLatch handledLatch = new CountDownLatch(1);
+        Coordinator coord = createCoordinator(params, handledLatch, null);
+        QeProcessor.registerQuery(queryId, coord);
+
+        TReportExecStatusResult result = processor.reportExecStatus(params);
+        Assert.assertEquals(TStatusCode.OK, result.getStatus().getStatus_code());
+        Assert.assertTrue(handledLatch.await(WAIT_MS, TimeUnit.MILLISECONDS));
+        QeProcessor.unregisterQuery(queryId);
+        EasyMock.verify(coord);
+    }
+
+    @Test
+    public void testQueuedReportDroppedAfterUnregister() throws Exception {
+        QeProcessor processor = new QeProcessor();
+        TUniqueId queryId = new TUniqueId(1003, 1);
+        TReportExecStatusParams firstReport = createReport(queryId, 0);
+        TReportExecStatusParams secondReport = createReport(queryId, 1);
+        CountDownLatch firstHandled = new CountDownLatch(1);
+        CountDownLatch blockLatch = new CountDownLatch(1);
+        // only the first report reaches coordinator
+        Coordinator coord = createCoordinator(firstReport, firstHandled, blockLatch);
+        QeProcessor.registerQuery(queryId, coord);
+
+        // first report blocks the handler of this query, second one is queued
+        processor.reportExecStatus(firstReport);
+        TReportExecStatusResult result = processor.reportExecStatus(secondReport);
+        Assert.assertEquals(TStatusCode.OK, result.getStatus().getStatus_code());
+        QeProcessor.unregisterQuery(queryId);
+        blockLatch.countDown();
+        Assert.assertTrue(firstHandled.await(WAIT_MS, TimeUnit.MILLISECONDS));
+
+        // reports of one query are handled in order, so the second one is handled
+        // when a later report of the same query id is handled
+        TReportExecStatusParams thirdReport = createReport(queryId, 2);
+        CountDownLatch thirdHandled = new CountDownLatch(1);
+        Coordinator newCoord = createCoordinator(thirdReport, thirdHandled, null);
+        QeProcessor.registerQuery(queryId, newCoord);
+        processor.reportExecStatus(thirdReport);
+        Assert.assertTrue(thirdHandled.await(WAIT_MS, TimeUnit.MILLISECONDS));
+        QeProcessor.unregisterQuery(queryId);
+
+        EasyMock.verify(coord);
+        EasyMock.verify(newCoord);
+    }
+}
@@ -0,0 +1,218 @@
+// Copyright (c) 2017, Baidu.com, Inc. All Rights Reserved
+
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+
+package com.baidu.palo.qe;
+
+import com.baidu.palo.common.Config;
+import com.baidu.palo.common.Status;
+import com.baidu.palo.thrift.TFetchDataResult;
+import com.baidu.palo.thrift.TNetworkAddress;
+import com.baidu.palo.thrift.TPlanFragmentDestination;
+import com.baidu.palo.thrift.TResultBatch;
+import com.baidu.palo.thrift.TUniqueId;
+
+import com.google.common.collect.Lists;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ResultReceiverTest {
+    private static final long WAIT_MS = 5000;
+
+    private int batchNum;
+    private long bufferBytes;
+
+    // returns one row batch per rpc, rpcs from blockFromRpc on wait for unblock()
+    private static class FakeReceiver extends ResultReceiver {
+        private final AtomicInteger rpcNum = new AtomicInteger(0);
+        private final CountDownLatch unblockLatch = new CountDownLatch(1);
+        private final int blockFromRpc;
+
+        public FakeReceiver(int blockFromRpc) {
+            super(new TPlanFragmentDestination(new TUniqueId(1, 2), new TNetworkAddress("127.0.0.1", 9060)),
+                  10001L, 60000);
+            this.blockFromRpc = blockFromRpc;
+        }
+
+        @Override
+        void getNextFromRpc() throws Exception {
+            int packetNum = rpcNum.getAndIncrement();
+            if (packetNum >= blockFromRpc) {
+                unblockLatch.await();
+            }
+            List<ByteBuffer> rows = Lists.newArrayList(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+            TFetchDataResult result = new TFetchDataResult(new TResultBatch(rows, false, packetNum), false, packetNum);
+            Field field = ResultReceiver.class.getDeclaredField("thriftResult");
+            field.setAccessible(true);
+            field.set(this, result);
+        }
+
+        public int getRpcNum() {
+            return rpcNum.get();
+        }
+
+        public void unblock() {
+            unblockLatch.countDown();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        batchNum = Config.result_prefetch_batch_num;
+        bufferBytes = Config.result_prefetch_buffer_bytes;
+        Config.result_prefetch_batch_num = 2;
+        Config.result_prefetch_buffer_bytes = 1024 * 1024;
+    }
+
+    @After
+    public void tearDown() {
+        Config.result_prefetch_batch_num = batchNum;
+        Config.result_prefetch_buffer_bytes = bufferBytes;
+    }
+
+    private static Object getField(ResultReceiver receiver, String name) throws Exception {
+        Field field = ResultReceiver.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(receiver);
+    }
+
+    private static int getPrefetchedNum(ResultReceiver receiver) throws Exception {
+        synchronized (getField(receiver, "prefetchLock")) {
+            return ((List<?>) getField(receiver, "prefetchedBatches")).size();
+        }
+    }
+
+    private static boolean isFetchFinished(ResultReceiver receiver) throws Exception {
+        synchronized (getField(receiver, "prefetchLock")) {
+            return (Boolean) getField(receiver, "isFetchFinished");
+        }
+    }
+
+    private static void waitPrefetchedNum(ResultReceiver receiver, int num) throws Exception {
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (getPrefetchedNum(receiver) < num) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static void waitRpcNum(FakeReceiver receiver, int num) throws Exception {
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (receiver.getRpcNum() < num) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static void waitFetchFinished(ResultReceiver receiver) throws Exception {
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (!isFetchFinished(receiver)) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        FakeReceiver receiver = new FakeReceiver(Integer.MAX_VALUE);
+        for (int i = 0; i < 5; i++) {
+            Status status = new Status();
+            TResultBatch batch = receiver.getNext(status);
+            Assert.assertTrue(status.ok());
+            Assert.assertEquals(i, batch.getPacket_seq());
+        }
+        // fetcher stops when buffer is full
+        waitPrefetchedNum(receiver, 2);
+        Thread.sleep(100);
+        Assert.assertEquals(2, getPrefetchedNum(receiver));
+        Assert.assertEquals(7, receiver.getRpcNum());
+        receiver.close();
+        waitFetchFinished(receiver);
+    }
+
+    @Test
+    public void testFetcherStoppedOnCancel() throws Exception {
+        FakeReceiver receiver = new FakeReceiver(Integer.MAX_VALUE);
+        Status status = new Status();
+        Assert.assertNotNull(receiver.getNext(status));
+        waitPrefetchedNum(receiver, 2);
+
+        receiver.cancel();
+        waitFetchFinished(receiver);
+        Assert.assertEquals(0, getPrefetchedNum(receiver));
+        int rpcNum = receiver.getRpcNum();
+        Thread.sleep(100);
+        Assert.assertEquals(rpcNum, receiver.getRpcNum());
+
+        Assert.assertNull(receiver.getNext(status));
+        Assert.assertTrue(status.isCancelled());
+    }
+
+    @Test
+    public void testFetcherStoppedOnClose() throws Exception {
+        FakeReceiver receiver = new FakeReceiver(Integer.MAX_VALUE);
+        Status status = new Status();
+        Assert.assertNotNull(receiver.getNext(status));
+        waitPrefetchedNum(receiver, 2);
+
+        // caller stops receiving before eos
+        receiver.close();
+        waitFetchFinished(receiver);
+        Assert.assertEquals(0, getPrefetchedNum(receiver));
+        int rpcNum = receiver.getRpcNum();
+        Thread.sleep(100);
+        Assert.assertEquals(rpcNum, receiver.getRpcNum());
+    }
+
+    @Test
+    public void testInFlightBatchDroppedOnCancel() throws Exception {
+        FakeReceiver receiver = new FakeReceiver(1);
+        Status status = new Status();
+        Assert.assertNotNull(receiver.getNext(status));
+        // fetcher is waiting for the second rpc
+        waitRpcNum(receiver, 2);
+        Assert.assertFalse(isFetchFinished(receiver));
+
+        receiver.cancel();
+        receiver.unblock();
+        waitFetchFinished(receiver);
+        Assert.assertEquals(0, getPrefetchedNum(receiver));
+        Assert.assertEquals(2, receiver.getRpcNum());
+    }
+
+    @Test
+    public void testInFlightBatchDroppedOnClose() throws Exception {
+        FakeReceiver receiver = new FakeReceiver(1);
+        Status status = new Status();
+        Assert.assertNotNull(receiver.getNext(status));
+        waitRpcNum(receiver, 2);
+        Assert.assertFalse(isFetchFinished(receiver));
+
+        receiver.close();
+        receiver.unblock();
+        waitFetchFinished(receiver);
+        Assert.assertEquals(0, getPrefetchedNum(receiver));
+        Assert.assertEquals(2, receiver.getRpcNum());
+    }
+}
@@ -0,0 +1,73 @@
+// Copyright (c) 2017, Baidu.com, Inc. All Rights Reserved
+
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package com.baidu.palo.qe;
+
+import com.baidu.palo.mysql.MysqlColType;
+import com.baidu.palo.mysql.MysqlSerializer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class ServerPreparedStmtTest {
+
+    @Test
+    public void testSplit() {
+        Assert.assertEquals(1, ServerPreparedStmt.splitByPlaceholder("select 1").size());
+        Assert.assertEquals(3, ServerPreparedStmt.splitByPlaceholder("select * from t where a = ? and b = ?").size());
+        // placeholders in strings, identifiers and comments are ignored
+        Assert.assertEquals(2, ServerPreparedStmt.splitByPlaceholder(
+                "select '?', \"a\\\"?\", `?` from t /* ? */ where a = ? -- ?\n").size());
+    }
+
+    @Test
+    public void testBind() throws IOException {
+        ServerPreparedStmt stmt = new ServerPreparedStmt(1, "select * from t where a = ? and b = ? and c = ?");
+        Assert.assertEquals(3, stmt.getParamNum());
+
+        MysqlSerializer serializer = MysqlSerializer.newInstance();
+        // null bitmap: third parameter is NULL
+        serializer.writeInt1(0x04);
+        // new params bound
+        serializer.writeInt1(1);
+        serializer.writeInt2(MysqlColType.MYSQL_TYPE_LONGLONG.getCode());
+        serializer.writeInt2(MysqlColType.MYSQL_TYPE_VARSTRING.getCode());
+        serializer.writeInt2(MysqlColType.MYSQL_TYPE_LONG.getCode());
+        serializer.writeInt8(-10);
+        serializer.writeLenEncodedString("it's");
+        Assert.assertEquals("select * from t where a = -10 and b = 'it\\'s' and c = NULL",
+                stmt.bind(serializer.toByteBuffer()));
+
+        // types are not sent again
+        serializer.reset();
+        serializer.writeInt1(0);
+        serializer.writeInt1(0);
+        serializer.writeInt8(5);
+        serializer.writeLenEncodedString("b");
+        serializer.writeInt4(7);
+        Assert.assertEquals("select * from t where a = 5 and b = 'b' and c = 7",
+                stmt.bind(serializer.toByteBuffer()));
+    }
+
+    @Test(expected = IOException.class)
+    public void testBindWithoutTypes() throws IOException {
+        ServerPreparedStmt stmt = new ServerPreparedStmt(1, "select ?");
+        ByteBuffer packet = ByteBuffer.wrap(new byte[] {0, 0});
+        stmt.bind(packet);
+    }
+}
@@ -27,6 +27,7 @@ import java.util.Map;
 import org.easymock.EasyMock;
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.powermock.api.easymock.PowerMock;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
@@ -39,6 +40,7 @@ import com.baidu.palo.common.FeConstants;
 import com.baidu.palo.common.Reference;
 import com.baidu.palo.persist.EditLog;
 import com.baidu.palo.system.Backend;
+import com.baidu.palo.system.SystemInfoService;
 import com.baidu.palo.thrift.TNetworkAddress;
 import com.baidu.palo.thrift.TScanRangeLocation;
 import com.google.common.collect.ImmutableMap;
@@ -203,4 +205,118 @@ public class SimpleSchedulerTest {
         address = SimpleScheduler.getHost(immutableThreeBackends, ref);
         Assert.assertNull(address);
     }
+
+    private static Backend createBackend(long id, String host) {
+        Backend backend = new Backend(id, host, 0);
+        backend.updateOnce(10000, 0, 0);
+        return backend;
+    }
+
+    private static List<TScanRangeLocation> createLocations(long... backendIds) {
+        List<TScanRangeLocation> locations = new ArrayList<TScanRangeLocation>();
+        for (long backendId : backendIds) {
+            locations.add(new TScanRangeLocation().setBackend_id(backendId));
+        }
+        return locations;
+    }
+
+    @Test
+    public void testGetHostOfLeastLoadedReplica() {
+        Map<Long, Backend> backendMap = Maps.newHashMap();
+        backendMap.put(7000L, createBackend(7000, "addressA"));
+        backendMap.put(7001L, createBackend(7001, "addressB"));
+        backendMap.put(7002L, createBackend(7002, "addressC"));
+        backendMap.put(7003L, createBackend(7003, "addressD"));
+        ImmutableMap<Long, Backend> backends = ImmutableMap.copyOf(backendMap);
+        List<TScanRangeLocation> locations = createLocations(7000, 7001, 7002, 7003);
+
+        SimpleScheduler.updateBackendRunningFragmentNum(7000, 10);
+        SimpleScheduler.updateBackendRunningFragmentNum(7001, 3);
+        SimpleScheduler.updateBackendRunningFragmentNum(7002, 1);
+        SimpleScheduler.updateBackendRunningFragmentNum(7003, 1);
+        SimpleScheduler.updateBackendRpcLatency(7002, 400);
+        SimpleScheduler.updateBackendRpcLatency(7003, 40);
+        Assert.assertEquals(100, SimpleScheduler.getBackendRpcLatencyMs(7002));
+        Assert.assertEquals(10, SimpleScheduler.getBackendRpcLatencyMs(7003));
+
+        // preferred replica is chosen if it is available, whatever its load is
+        Assert.assertEquals("addressA", SimpleScheduler.getHost(7000, locations, backends, ref).hostname);
+        Assert.assertEquals(Long.valueOf(7000), ref.getRef());
+
+        // fewest running fragments, ties are broken by rpc latency
+        backends.get(7000L).setAlive(false);
+        Assert.assertEquals("addressD", SimpleScheduler.getHost(7000, locations, backends, ref).hostname);
+        Assert.assertEquals(Long.valueOf(7003), ref.getRef());
+
+        // fewest running fragments wins over lower rpc latency
+        SimpleScheduler.updateBackendRunningFragmentNum(7003, 1);
+        Assert.assertEquals("addressC", SimpleScheduler.getHost(7000, locations, backends, ref).hostname);
+        Assert.assertEquals(Long.valueOf(7002), ref.getRef());
+
+        // latency is a moving average
+        SimpleScheduler.updateBackendRunningFragmentNum(7003, -1);
+        SimpleScheduler.updateBackendRpcLatency(7003, 1000);
+        Assert.assertEquals((10 * 3 + 1000) / 4, SimpleScheduler.getBackendRpcLatencyMs(7003));
+        Assert.assertEquals("addressC", SimpleScheduler.getHost(7000, locations, backends, ref).hostname);
+
+        // replica not in backends or not alive is skipped
+        backends.get(7002L).setAlive(false);
+        List<TScanRangeLocation> otherLocations = createLocations(7000, 7002, 7004, 7001);
+        Assert.assertEquals("addressB", SimpleScheduler.getHost(7000, otherLocations, backends, ref).hostname);
+        Assert.assertEquals(Long.valueOf(7001), ref.getRef());
+
+        // no replica is available
+        Assert.assertNull(SimpleScheduler.getHost(7000, createLocations(7000, 7002, 7004), backends, ref));
+    }
+
+    @Test
+    public void testBlacklistSnapshot() {
+        int heartbeatIntervalSecond = FeConstants.heartbeat_interval_second;
+        try {
+            // be retried twice before removed from blacklist
+            FeConstants.heartbeat_interval_second = 1;
+            Map<Long, Backend> backendMap = Maps.newHashMap();
+            backendMap.put(7100L, createBackend(7100, "addressA"));
+            backendMap.put(7101L, createBackend(7101, "addressB"));
+            backendMap.put(7102L, createBackend(7102, "addressC"));
+            ImmutableMap<Long, Backend> backends = ImmutableMap.copyOf(backendMap);
+            List<TScanRangeLocation> locations = createLocations(7100, 7101, 7102);
+            SimpleScheduler.updateBackendRunningFragmentNum(7101, 1);
+
+            SimpleScheduler.updateBlacklistBackends(7100L);
+            SimpleScheduler.updateBlacklistBackends(7102L);
+            Assert.assertTrue(SimpleScheduler.isInBlacklist(7100));
+            Assert.assertFalse(SimpleScheduler.isInBlacklist(7101));
+            Assert.assertTrue(SimpleScheduler.isInBlacklist(7102));
+            // only 7101 is not in blacklist, though it is more loaded
+            Assert.assertEquals("addressB", SimpleScheduler.getHost(7100, locations, backends, ref).hostname);
+
+            // 7100 is still down, 7102 is available again
+            SystemInfoService systemInfoService = EasyMock.createMock(SystemInfoService.class);
+            EasyMock.expect(systemInfoService.getBackend(7100L)).andReturn(backends.get(7100L)).anyTimes();
+            EasyMock.expect(systemInfoService.checkBackendAvailable(7100L)).andReturn(false).anyTimes();
+            EasyMock.expect(systemInfoService.getBackend(7102L)).andReturn(backends.get(7102L)).anyTimes();
+            EasyMock.expect(systemInfoService.checkBackendAvailable(7102L)).andReturn(true).anyTimes();
+            EasyMock.expect(systemInfoService.getBackend(7103L)).andReturn(null).anyTimes();
+            EasyMock.replay(systemInfoService);
+
+            SimpleScheduler.updateBlacklist(systemInfoService);
+            Assert.assertTrue(SimpleScheduler.isInBlacklist(7100));
+            Assert.assertFalse(SimpleScheduler.isInBlacklist(7102));
+            Assert.assertEquals("addressC", SimpleScheduler.getHost(7100, locations, backends, ref).hostname);
+
+            // reach max retry times
+            SimpleScheduler.updateBlacklist(systemInfoService);
+            Assert.assertFalse(SimpleScheduler.isInBlacklist(7100));
+            Assert.assertEquals("addressA", SimpleScheduler.getHost(7100, locations, backends, ref).hostname);
+
+            // dropped backend is removed from blacklist
+            SimpleScheduler.updateBlacklistBackends(7103L);
+            Assert.assertTrue(SimpleScheduler.isInBlacklist(7103));
+            SimpleScheduler.updateBlacklist(systemInfoService);
+            Assert.assertFalse(SimpleScheduler.isInBlacklist(7103));
+        } finally {
+            FeConstants.heartbeat_interval_second = heartbeatIntervalSecond;
+        }
+    }
 }
@@ -0,0 +1,246 @@
+// Copyright (c) 2017, Baidu.com, Inc. All Rights Reserved
+
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+
+package com.baidu.palo.task;
+
+import com.baidu.palo.catalog.Catalog;
+import com.baidu.palo.common.ClientPool;
+import com.baidu.palo.common.Config;
+import com.baidu.palo.common.GenericPool;
+import com.baidu.palo.common.util.Metrics;
+import com.baidu.palo.system.Backend;
+import com.baidu.palo.system.SystemInfoService;
+import com.baidu.palo.thrift.BackendService;
+import com.baidu.palo.thrift.TAgentResult;
+import com.baidu.palo.thrift.TAgentTaskRequest;
+import com.baidu.palo.thrift.TNetworkAddress;
+import com.google.common.collect.Lists;
+
+import org.apache.commons.pool2.impl.GenericKeyedObjectPoolConfig;
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TTransportException;
+
+import io.dropwizard.metrics.Timer;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.easymock.PowerMock;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.List;
+
+@RunWith(PowerMockRunner.class)
+@PowerMockIgnore("org.apache.log4j.*")
+@PrepareForTest(Catalog.class)
+public class AgentBatchTaskTest {
+    private static final long BACKEND_ID = 10001;
+
+    private Backend backend;
+    private FakeClient client;
+    private FakePool pool;
+    private GenericPool<BackendService.Client> oldPool;
+    private int oldMaxNumPerRpc;
+
+    // record the signatures of tasks in each rpc
+    private static class FakeClient extends BackendService.Client {
+        private final List<List<Long>> rpcs = Lists.newArrayList();
+        // throw this error in the rpc of this index
+        private int failedRpcIndex = -1;
+        private TException error;
+
+        public FakeClient() {
+            super(null);
+        }
+
+        @Override
+        public TAgentResult submit_tasks(List<TAgentTaskRequest> tasks) throws TException {
+            if (rpcs.size() == failedRpcIndex) {
+                throw error;
+            }
+            List<Long> signatures = Lists.newArrayList();
+            for (TAgentTaskRequest task : tasks) {
+                signatures.add(task.getSignature());
+            }
+            rpcs.add(signatures);
+            return null;
+        }
+    }
+
+    private static class FakePool extends GenericPool<BackendService.Client> {
+        private final FakeClient client;
+        private TNetworkAddress borrowedAddress;
+        private int borrowedNum = 0;
+        private int returnedNum = 0;
+        private Throwable returnedError;
+
+        public FakePool(FakeClient client) {
+            super("BackendService", new GenericKeyedObjectPoolConfig(), 0);
+            this.client = client;
+        }
+
+        @Override
+        public BackendService.Client borrowObject(TNetworkAddress address) throws Exception {
+            borrowedAddress = address;
+            borrowedNum++;
+            return client;
+        }
+
+        @Override
+        public void returnOrInvalidateObject(TNetworkAddress address, BackendService.Client object,
+                                             Throwable error) {
+            if (object == null) {
+                return;
+            }
+            Assert.assertSame(client, object);
+            returnedNum++;
+            returnedError = error;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        backend = new Backend(BACKEND_ID, "127.0.0.1", 9050);
+        backend.setBePort(9060);
+        backend.setAlive(true);
+
+        SystemInfoService systemInfoService = EasyMock.createMock(SystemInfoService.class);
+        EasyMock.expect(systemInfoService.getBackend(BACKEND_ID)).andReturn(backend).anyTimes();
+        EasyMock.replay(systemInfoService);
+        PowerMock.mockStatic(Catalog.class);
+        EasyMock.expect(Catalog.getCurrentSystemInfo()).andReturn(systemInfoService).anyTimes();
+        PowerMock.replay(Catalog.class);
+
+        client = new FakeClient();
+        pool = new FakePool(client);
+        oldPool = ClientPool.backendPool;
+        ClientPool.backendPool = pool;
+        oldMaxNumPerRpc = Config.agent_task_max_num_per_rpc;
+    }
+
+    @After
+    public void tearDown() {
+        ClientPool.backendPool = oldPool;
+        Config.agent_task_max_num_per_rpc = oldMaxNumPerRpc;
+    }
+
+    // tasks with signature 0 ~ taskNum - 1
+    private AgentBatchTask createBatchTask(int taskNum) {
+        AgentBatchTask batchTask = new AgentBatchTask();
+        for (int i = 0; i < taskNum; i++) {
+            batchTask.addTask(new DropReplicaTask(BACKEND_ID, i, 1));
+        }
+        return batchTask;
+    }
+
+    private static List<Long> signatures(long from, long to) {
+        List<Long> signatures = Lists.newArrayList();
+        for (long i = from; i < to; i++) {
+            signatures.add(i);
+        }
+        return signatures;
+    }
+
+    private static Timer getDispatchLatencyTimer() {
+        return (Timer) Metrics.getMetric(Metrics.MetricType.TIMER, Metrics.name("agent_task.dispatch_latency")
+                .tagged(Metrics.BACKEND_ID_TAG, String.valueOf(BACKEND_ID)));
+    }
+
+    private static void send(AgentBatchTask batchTask) {
+        Assert.assertEquals(1, batchTask.getBackendSenders().size());
+        batchTask.getBackendSenders().get(BACKEND_ID).run();
+    }
+
+    @Test
+    public void testSendInChunks() {
+        Config.agent_task_max_num_per_rpc = 3;
+        long dispatchNum = getDispatchLatencyTimer().getCount();
+        send(createBatchTask(7));
+
+        // 3 + 3 + 1, in order, by one connection
+        Assert.assertEquals(3, client.rpcs.size());
+        Assert.assertEquals(signatures(0, 3), client.rpcs.get(0));
+        Assert.assertEquals(signatures(3, 6), client.rpcs.get(1));
+        Assert.assertEquals(signatures(6, 7), client.rpcs.get(2));
+        Assert.assertEquals(new TNetworkAddress("127.0.0.1", 9060), pool.borrowedAddress);
+        Assert.assertEquals(1, pool.borrowedNum);
+        Assert.assertEquals(1, pool.returnedNum);
+        Assert.assertNull(pool.returnedError);
+        // latency of all rpcs of one backend is recorded once
+        Assert.assertEquals(dispatchNum + 1, getDispatchLatencyTimer().getCount());
+
+        // removed with the backend
+        Metrics.removeTagged(Metrics.BACKEND_ID_TAG, String.valueOf(BACKEND_ID));
+        Assert.assertEquals(0, getDispatchLatencyTimer().getCount());
+    }
+
+    @Test
+    public void testSendInExactChunks() {
+        Config.agent_task_max_num_per_rpc = 3;
+        send(createBatchTask(6));
+
+        // no empty rpc at last
+        Assert.assertEquals(2, client.rpcs.size());
+        Assert.assertEquals(signatures(0, 3), client.rpcs.get(0));
+        Assert.assertEquals(signatures(3, 6), client.rpcs.get(1));
+    }
+
+    @Test
+    public void testSendInOneChunk() {
+        Config.agent_task_max_num_per_rpc = 500;
+        send(createBatchTask(7));
+        Assert.assertEquals(1, client.rpcs.size());
+        Assert.assertEquals(signatures(0, 7), client.rpcs.get(0));
+
+        // invalid config is taken as 1
+        client.rpcs.clear();
+        Config.agent_task_max_num_per_rpc = 0;
+        send(createBatchTask(2));
+        Assert.assertEquals(2, client.rpcs.size());
+        Assert.assertEquals(signatures(0, 1), client.rpcs.get(0));
+        Assert.assertEquals(signatures(1, 2), client.rpcs.get(1));
+    }
+
+    @Test
+    public void testChunkFailed() {
+        Config.agent_task_max_num_per_rpc = 3;
+        client.failedRpcIndex = 1;
+        client.error = new TTransportException("connection reset");
+        send(createBatchTask(7));
+
+        // rest tasks are not sent after the failed rpc
+        Assert.assertEquals(1, client.rpcs.size());
+        Assert.assertEquals(signatures(0, 3), client.rpcs.get(0));
+        // the error is passed to pool to invalidate the connection
+        Assert.assertEquals(1, pool.returnedNum);
+        Assert.assertSame(client.error, pool.returnedError);
+    }
+
+    @Test
+    public void testBackendNotAlive() {
+        backend.setAlive(false);
+        Metrics.removeTagged(Metrics.BACKEND_ID_TAG, String.valueOf(BACKEND_ID));
+        send(createBatchTask(7));
+        Assert.assertEquals(0, pool.borrowedNum);
+        Assert.assertTrue(client.rpcs.isEmpty());
+        // latency is not recorded for unavailable backend
+        Assert.assertEquals(0, getDispatchLatencyTimer().getCount());
+    }
+}
@@ -0,0 +1,179 @@
+// Copyright (c) 2017, Baidu.com, Inc. All Rights Reserved
+
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+
+package com.baidu.palo.task;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class AgentTaskExecutorTest {
+
+    private static Map<Long, Runnable> senders(long backendId, Runnable sender) {
+        Map<Long, Runnable> senders = Maps.newHashMap();
+        senders.put(backendId, sender);
+        return senders;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Assert.fail();
+        }
+    }
+
+    private static void shutdown(ThreadPoolExecutor executor) throws InterruptedException {
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSendInOrderOfBackend() throws InterruptedException {
+        ThreadPoolExecutor executor = AgentTaskExecutor.createExecutor(4, 100);
+        Map<Long, Queue<Runnable>> backendSenders = Maps.newHashMap();
+
+        final List<Integer> sent = Collections.synchronizedList(Lists.<Integer> newArrayList());
+        final AtomicInteger sendingNum = new AtomicInteger(0);
+        final AtomicBoolean isConcurrent = new AtomicBoolean(false);
+        final CountDownLatch otherBackendSent = new CountDownLatch(1);
+        for (int i = 0; i < 20; i++) {
+            final int index = i;
+            AgentTaskExecutor.submit(executor, backendSenders, senders(1L, new Runnable() {
+                @Override
+                public void run() {
+                    if (sendingNum.incrementAndGet() > 1) {
+                        isConcurrent.set(true);
+                    }
+                    if (index == 0) {
+                        // other backends are not blocked by this backend
+                        await(otherBackendSent);
+                    }
+                    sent.add(index);
+                    sendingNum.decrementAndGet();
+                }
+            }));
+        }
+        AgentTaskExecutor.submit(executor, backendSenders, senders(2L, new Runnable() {
+            @Override
+            public void run() {
+                otherBackendSent.countDown();
+            }
+        }));
+        shutdown(executor);
+
+        Assert.assertFalse(isConcurrent.get());
+        List<Integer> expected = Lists.newArrayList();
+        for (int i = 0; i < 20; i++) {
+            expected.add(i);
+        }
+        Assert.assertEquals(expected, sent);
+        Assert.assertTrue(backendSenders.isEmpty());
+    }
+
+    @Test
+    public void testSendFailed() throws InterruptedException {
+        ThreadPoolExecutor executor = AgentTaskExecutor.createExecutor(1, 100);
+        Map<Long, Queue<Runnable>> backendSenders = Maps.newHashMap();
+
+        final AtomicInteger sentNum = new AtomicInteger(0);
+        AgentTaskExecutor.submit(executor, backendSenders, senders(1L, new Runnable() {
+            @Override
+            public void run() {
+                throw new RuntimeException("failed to send");
+            }
+        }));
+        AgentTaskExecutor.submit(executor, backendSenders, senders(1L, new Runnable() {
+            @Override
+            public void run() {
+                sentNum.incrementAndGet();
+            }
+        }));
+        shutdown(executor);
+
+        // later senders of the backend are still sent
+        Assert.assertEquals(1, sentNum.get());
+        Assert.assertTrue(backendSenders.isEmpty());
+    }
+
+    @Test
+    public void testCallerRunsWhenQueueIsFull() throws InterruptedException {
+        // one thread and one slot in queue
+        ThreadPoolExecutor executor = AgentTaskExecutor.createExecutor(1, 1);
+        Map<Long, Queue<Runnable>> backendSenders = Maps.newHashMap();
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        AgentTaskExecutor.submit(executor, backendSenders, senders(1L, new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                await(release);
+            }
+        }));
+        await(started);
+
+        final AtomicReference<Thread> backend1Thread = new AtomicReference<Thread>();
+        final AtomicReference<Thread> backend2Thread = new AtomicReference<Thread>();
+        final AtomicReference<Thread> backend3Thread = new AtomicReference<Thread>();
+        // backend 1 is being sent, so it waits in the queue of backend 1, not in the executor
+        AgentTaskExecutor.submit(executor, backendSenders, senders(1L, new Runnable() {
+            @Override
+            public void run() {
+                backend1Thread.set(Thread.currentThread());
+            }
+        }));
+        Assert.assertEquals(0, executor.getQueue().size());
+        // takes the only slot in queue
+        AgentTaskExecutor.submit(executor, backendSenders, senders(2L, new Runnable() {
+            @Override
+            public void run() {
+                backend2Thread.set(Thread.currentThread());
+            }
+        }));
+        Assert.assertEquals(1, executor.getQueue().size());
+        // queue is full, sent by the submitting thread
+        AgentTaskExecutor.submit(executor, backendSenders, senders(3L, new Runnable() {
+            @Override
+            public void run() {
+                backend3Thread.set(Thread.currentThread());
+            }
+        }));
+        Assert.assertSame(Thread.currentThread(), backend3Thread.get());
+        Assert.assertNull(backend1Thread.get());
+        Assert.assertNull(backend2Thread.get());
+        Assert.assertFalse(backendSenders.containsKey(3L));
+
+        release.countDown();
+        shutdown(executor);
+        Assert.assertTrue(backend1Thread.get().getName().startsWith("agent-task-executor-"));
+        Assert.assertTrue(backend2Thread.get().getName().startsWith("agent-task-executor-"));
+        Assert.assertTrue(backendSenders.isEmpty());
+    }
+}
@@ -278,5 +278,12 @@ public class AgentTaskTest {
         dropTask2.failed();
         Assert.assertEquals(1, AgentTaskQueue.getTaskNum(backendId1, TTaskType.DROP, true));
         Assert.assertEquals(2, AgentTaskQueue.getTaskNum(-1, TTaskType.DROP, true));
+
+        // failed task num is decreased when task is removed
+        AgentTaskQueue.removeTask(backendId1, TTaskType.DROP, dropTask.getSignature());
+        Assert.assertEquals(0, AgentTaskQueue.getTaskNum(backendId1, TTaskType.DROP, true));
+        Assert.assertEquals(1, AgentTaskQueue.getTaskNum(-1, TTaskType.DROP, true));
+        Assert.assertEquals(1, AgentTaskQueue.getFailedTask(backendId2, TTaskType.DROP).size());
+        Assert.assertEquals(1, AgentTaskQueue.getTaskNum());
     }
 }
@@ -19,6 +19,8 @@
 
 package com.baidu.palo.task;
 
+import com.google.common.collect.Lists;
+
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -26,6 +28,10 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 public class MasterTaskExecutorTest {
     private static final Logger LOG = LoggerFactory.getLogger(MasterTaskExecutorTest.class);
     private static final int THREAD_NUM = 1;
@@ -35,7 +41,7 @@ public class MasterTaskExecutorTest {
 
     @Before
     public void setUp() {
-        executor = new MasterTaskExecutor(THREAD_NUM);
+        executor = new MasterTaskExecutor("test", THREAD_NUM);
     }
     
     @After
@@ -62,8 +68,7 @@ public class MasterTaskExecutorTest {
         
         // wait for tasks run to end
         try {
-            // checker thread interval is 1s
-            // sleep 3s
+            // task is removed when it finishes
             Thread.sleep(SLEEP_MS * 300);
             Assert.assertEquals(0, executor.getTaskNum());
         } catch (InterruptedException e) {
@@ -71,6 +76,54 @@ public class MasterTaskExecutorTest {
         }
     }
     
+    @Test
+    public void testDbFairness() throws InterruptedException {
+        // block the only worker, so that following tasks are queued
+        CountDownLatch blocker = new CountDownLatch(1);
+        Assert.assertTrue(executor.submit(new BlockingMasterTask(0L, blocker)));
+        for (int i = 0; i < 300 && executor.getQueuedTaskNum() > 0; i++) {
+            Thread.sleep(SLEEP_MS);
+        }
+
+        List<Long> executed = Lists.newArrayList();
+        // 3 tasks of db 1 are submitted before 1 task of db 2
+        for (long signature = 1; signature <= 3; signature++) {
+            Assert.assertTrue(executor.submit(new RecordMasterTask(signature, 1L, executed)));
+        }
+        Assert.assertTrue(executor.submit(new RecordMasterTask(4L, 2L, executed)));
+        Assert.assertEquals(4, executor.getQueuedTaskNum());
+
+        blocker.countDown();
+        for (int i = 0; i < 300 && executor.getTaskNum() > 0; i++) {
+            Thread.sleep(SLEEP_MS);
+        }
+        Assert.assertEquals(0, executor.getTaskNum());
+        synchronized (executed) {
+            Assert.assertEquals(Lists.newArrayList(1L, 4L, 2L, 3L), executed);
+        }
+    }
+
+    @Test
+    public void testSteal() throws InterruptedException {
+        MasterTaskExecutor busyExecutor = new MasterTaskExecutor("test_busy", THREAD_NUM);
+        executor.stealFrom(busyExecutor);
+        try {
+            CountDownLatch blocker = new CountDownLatch(1);
+            Assert.assertTrue(busyExecutor.submit(new BlockingMasterTask(1L, blocker)));
+            // without stealing, it waits for the blocking task
+            CountDownLatch finished = new CountDownLatch(1);
+            Assert.assertTrue(busyExecutor.submit(new BlockingMasterTask(2L, finished)));
+            finished.countDown();
+            for (int i = 0; i < 300 && busyExecutor.getTaskNum() > 1; i++) {
+                Thread.sleep(SLEEP_MS);
+            }
+            Assert.assertEquals(1, busyExecutor.getTaskNum());
+            blocker.countDown();
+        } finally {
+            busyExecutor.close();
+        }
+    }
+
     private class TestMasterTask extends MasterTask {
         
         public TestMasterTask(long signature) {
@@ -88,4 +141,39 @@ public class MasterTaskExecutorTest {
         }
         
     }
+
+    private class BlockingMasterTask extends MasterTask {
+        private CountDownLatch latch;
+
+        public BlockingMasterTask(long signature, CountDownLatch latch) {
+            this.signature = signature;
+            this.latch = latch;
+        }
+
+        @Override
+        protected void exec() {
+            try {
+                latch.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                LOG.error("error", e);
+            }
+        }
+    }
+
+    private class RecordMasterTask extends MasterTask {
+        private List<Long> executed;
+
+        public RecordMasterTask(long signature, long dbId, List<Long> executed) {
+            this.signature = signature;
+            this.dbId = dbId;
+            this.executed = executed;
+        }
+
+        @Override
+        protected void exec() {
+            synchronized (executed) {
+                executed.add(signature);
+            }
+        }
+    }
 }
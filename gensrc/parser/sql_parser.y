@@ -193,7 +193,7 @@ parser code {:
 :};
 
 // Total keywords of palo
-terminal String KW_ADD, KW_AFTER, KW_AGGREGATE, KW_ALL, KW_ALTER, KW_AND, KW_ANTI, KW_AS, KW_ASC, KW_AUTHORS, 
+terminal String KW_ADD, KW_AFTER, KW_AGGREGATE, KW_ALL, KW_ALTER, KW_ANALYZE, KW_AND, KW_ANTI, KW_AS, KW_ASC, KW_AUTHORS, 
     KW_BACKEND, KW_BACKUP, KW_BETWEEN, KW_BEGIN, KW_BIGINT, KW_BOOLEAN, KW_BOTH, KW_BROKER, KW_BACKENDS, KW_BY,
     KW_CANCEL, KW_CASE, KW_CAST, KW_CHAIN, KW_CHAR, KW_CHARSET, KW_SYSTEM, KW_CLUSTER, KW_CLUSTERS, KW_LINK, KW_MIGRATE, KW_MIGRATIONS, KW_ENTER,
     KW_COLLATE, KW_COLLATION, KW_COLUMN, KW_COLUMNS, KW_COMMENT, KW_COMMIT, KW_COMMITTED,
@@ -245,7 +245,7 @@ terminal String COMMENTED_PLAN_HINTS;
 // Statement that the result of this parser.
 nonterminal StatementBase query, stmt, show_stmt, show_param, help_stmt, load_stmt, describe_stmt, alter_stmt,
     use_stmt, kill_stmt, drop_stmt, recover_stmt, grant_stmt, revoke_stmt, create_stmt, set_stmt, sync_stmt, cancel_stmt, cancel_param, delete_stmt,
-    link_stmt, migrate_stmt, enter_stmt, unsupported_stmt, export_stmt;
+    link_stmt, migrate_stmt, enter_stmt, unsupported_stmt, export_stmt, analyze_stmt;
 
 // unsupported statement
 nonterminal opt_with_consistent_snapshot, opt_work, opt_chain, opt_release;
@@ -438,6 +438,8 @@ stmt ::=
     {: RESULT = stmt; :}
     | recover_stmt:stmt
     {: RESULT = stmt; :}
+    | analyze_stmt:stmt
+    {: RESULT = stmt; :}
     | use_stmt:use
     {: RESULT = use; :}
     | set_stmt:set
@@ -1077,6 +1079,14 @@ recover_stmt ::=
     :}
     ;
 
+// Analyze statement
+analyze_stmt ::=
+    KW_ANALYZE KW_TABLE table_name:dbTblName opt_col_list:columns
+    {:
+        RESULT = new AnalyzeStmt(dbTblName, columns);
+    :}
+    ;
+
 opt_agg_type ::=
     {: RESULT = null; :}
     | KW_SUM
@@ -3404,6 +3414,8 @@ keyword ::=
     {: RESULT = id; :}
     | KW_AGGREGATE:id
     {: RESULT = id; :}
+    | KW_ANALYZE:id
+    {: RESULT = id; :}
     | KW_AUTHORS:id
     {: RESULT = id; :}
     | KW_BACKUP:id
@@ -66,11 +66,18 @@ struct TReportRequest {
     3: optional map<Types.TTaskType, set<i64>> tasks // string signature
     4: optional map<Types.TTabletId, TTablet> tablets
     5: optional map<string, TDisk> disks // string root_path
+    // if true, tablets only contains tablets changed since the tablet report of base_report_version
+    6: optional bool incremental_tablets
+    // report version of the last tablet report applied by master, set if incremental_tablets is true
+    7: optional i64 base_report_version
 }
 
 struct TMasterResult {
     // required in V1
     1: required Status.TStatus status
+    // set for tablet report, true if the reported tablets are applied to meta.
+    // backend sends incremental tablet reports only after a report is applied.
+    2: optional bool tablets_applied
 }
 
 // Now we only support CPU share.
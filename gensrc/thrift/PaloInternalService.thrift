@@ -135,6 +135,9 @@ struct TPlanFragmentExecParams {
 
   // Id of this fragment in its role as a sender.
   9: optional i32 sender_id
+
+  // For BUCKET_SHUFFLE_HASH_PARTITIONED output, index of destination of each bucket.
+  10: optional list<i32> bucket_seq_to_destination
 }
 
 // Global query parameters assigned by the coordinator.
@@ -36,7 +36,11 @@ enum TPartitionType {
 
   // ordered partition on a list of exprs
   // (partition bounds don't overlap)
-  RANGE_PARTITIONED
+  RANGE_PARTITIONED,
+
+  // partition on a set of exprs by the bucket of an olap table's distribution,
+  // that is crc32 of exprs mod bucket num, the same as loading
+  BUCKET_SHUFFLE_HASH_PARTITIONED
 }
 
 enum TDistributionType {
@@ -83,5 +87,7 @@ struct TDataPartition {
   1: required TPartitionType type
   2: optional list<Exprs.TExpr> partition_exprs
   3: optional list<TRangePartition> partition_infos
+  // number of buckets, for BUCKET_SHUFFLE_HASH_PARTITIONED
+  4: optional i32 bucket_num
 }
 